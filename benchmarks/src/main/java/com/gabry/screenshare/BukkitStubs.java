@@ -0,0 +1,105 @@
+package com.gabry.screenshare;
+
+import org.bukkit.entity.Player;
+
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Headless stand-ins for the Bukkit types the benchmarked code touches.
+ *
+ * Players are dynamic proxies that answer the handful of getters the plugin calls on its hot
+ * paths; any other method returns the type's default value, so a benchmark never needs a
+ * running server.
+ */
+final class BukkitStubs {
+
+    private BukkitStubs() {
+    }
+
+    /**
+     * @return An online player stub with the given name and UUID.
+     */
+    static Player player(String name, UUID id) {
+        return (Player) Proxy.newProxyInstance(Player.class.getClassLoader(), new Class<?>[]{Player.class},
+                (proxy, method, args) -> {
+                    switch (method.getName()) {
+                        case "getName":
+                            return name;
+                        case "getUniqueId":
+                            return id;
+                        case "isOnline":
+                            return true;
+                        case "hasPermission":
+                            return false;
+                        case "equals":
+                            return proxy == args[0];
+                        case "hashCode":
+                            return id.hashCode();
+                        case "toString":
+                            return "PlayerStub{" + name + "}";
+                        default:
+                            return defaultValue(method.getReturnType());
+                    }
+                });
+    }
+
+    /**
+     * @return {@code count} player stubs with distinct, realistic-looking names.
+     */
+    static List<Player> players(int count) {
+        List<Player> players = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            players.add(player(randomName(i), UUID.randomUUID()));
+        }
+        return players;
+    }
+
+    /**
+     * @return A 3-16 character Minecraft-style name, unique thanks to the index suffix.
+     */
+    static String randomName(int index) {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        String alphabet = "abcdefghijklmnopqrstuvwxyzABCDEFGHIJKLMNOPQRSTUVWXYZ_";
+        StringBuilder name = new StringBuilder();
+        int length = 3 + random.nextInt(8);
+        for (int i = 0; i < length; i++) {
+            name.append(alphabet.charAt(random.nextInt(alphabet.length())));
+        }
+        return name.append(index).toString();
+    }
+
+    private static Object defaultValue(Class<?> type) {
+        if (!type.isPrimitive()) {
+            return null;
+        }
+        if (type == boolean.class) {
+            return false;
+        }
+        if (type == void.class) {
+            return null;
+        }
+        if (type == char.class) {
+            return '\0';
+        }
+        if (type == long.class) {
+            return 0L;
+        }
+        if (type == float.class) {
+            return 0f;
+        }
+        if (type == double.class) {
+            return 0d;
+        }
+        if (type == byte.class) {
+            return (byte) 0;
+        }
+        if (type == short.class) {
+            return (short) 0;
+        }
+        return 0;
+    }
+}
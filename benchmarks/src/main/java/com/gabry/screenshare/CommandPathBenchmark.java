@@ -0,0 +1,218 @@
+package com.gabry.screenshare;
+
+import org.bukkit.ChatColor;
+import org.bukkit.entity.Player;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+import java.util.logging.Handler;
+import java.util.logging.LogRecord;
+import java.util.logging.Logger;
+
+/**
+ * The per-command work done inside the plugin class: tab completion of player names, the
+ * rendering of the on-join / on-return command templates, the logging helpers, and the API
+ * events when no plugin listens for them.
+ *
+ * Tab completion runs against the plugin's {@link PlayerNameIndex}. The other paths live in
+ * private methods of {@link ScreenShare}, which cannot be instantiated without a running
+ * server, so those benchmarks reproduce the method body exactly against stubbed players and a
+ * real {@link Logger} behind the plugin's {@link AsyncLogAppender}. Keep them in step with the plugin when the methods change, or the
+ * numbers stop being comparable between releases.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CommandPathBenchmark {
+
+    /** Players online on the server, i.e. the candidates scanned by tab completion. */
+    @Param({"100", "1000", "5000"})
+    public int onlinePlayers;
+
+    /** What the staff member has typed so far. */
+    @Param({"", "a", "ab"})
+    public String typedPrefix;
+
+    private Collection<Player> online;
+    private PlayerNameIndex localNames;
+    private PlayerNameIndex networkNames;
+    private final String onJoinCommand = "msg %staff% %player% arrived on %ss-server% from %origin% (session %session%)";
+    private final CommandTemplate onJoinTemplate = CommandTemplate.compile(onJoinCommand, warning -> { });
+    private CommandTemplate.Context hookContext;
+    private ScreenShareSession session;
+    private String playerName;
+    private Logger logger;
+    private AsyncLogAppender logAppender;
+    private volatile boolean debugEnabled;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        online = BukkitStubs.players(onlinePlayers);
+        playerName = online.iterator().next().getName();
+        session = ScreenShareSession.start(java.util.UUID.randomUUID(), playerName, "lobby-1", "screenshare", null, "Moderator");
+        hookContext = new CommandTemplate.Context(playerName, "Moderator", "lobby-1", "screenshare", "3f2a9c1e-6b7d-4e0a-9f1b-2c8d5e7a4b60");
+        List<String> names = new ArrayList<>();
+        for (Player player : online) {
+            names.add(player.getName());
+        }
+        localNames = PlayerNameIndex.of(names);
+        // The network usually has several times the local population.
+        for (int i = 0; i < onlinePlayers * 4; i++) {
+            names.add(BukkitStubs.randomName(onlinePlayers + i));
+        }
+        networkNames = PlayerNameIndex.of(names);
+
+        // Same configuration as a server logger: INFO and above reach a handler, FINE is dropped.
+        logger = Logger.getLogger("ScreenShare-Benchmark");
+        logger.setUseParentHandlers(false);
+        logger.setLevel(java.util.logging.Level.INFO);
+        for (Handler handler : logger.getHandlers()) {
+            logger.removeHandler(handler);
+        }
+        logger.addHandler(new Handler() {
+            @Override
+            public void publish(LogRecord record) {
+                // Formatting is the console's cost, not the plugin's; only the call is measured.
+            }
+
+            @Override
+            public void flush() {
+            }
+
+            @Override
+            public void close() {
+            }
+        });
+        logAppender = new AsyncLogAppender(logger, 4096);
+        logAppender.start();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        logAppender.close(1000L);
+    }
+
+    /**
+     * The lookup done by {@code ScreenShare#getPlayerTabCompletions} for /ss: local and
+     * network indexes merged.
+     */
+    @Benchmark
+    public List<String> tabCompletePlayerName() {
+        return PlayerNameIndex.complete(localNames, networkNames, typedPrefix, 100);
+    }
+
+    /**
+     * The join/quit update of the local index.
+     */
+    @Benchmark
+    public PlayerNameIndex updateIndexOnJoinAndQuit() {
+        return localNames.with("JustJoined").without("JustJoined");
+    }
+
+    /**
+     * The scan of every online player that tab completion did before the prefix index, kept
+     * as a fixed reference point.
+     */
+    @Benchmark
+    public List<String> tabCompleteLinearScanBaseline() {
+        List<String> completions = new ArrayList<>();
+        String partialName = typedPrefix.toLowerCase();
+        for (Player p : online) {
+            if (p.getName().toLowerCase().startsWith(partialName)) {
+                completions.add(p.getName());
+            }
+        }
+        return completions;
+    }
+
+    /**
+     * The rendering done by {@link CommandDispatcher} for every hook step: one pass over the
+     * template compiled when the configuration was loaded.
+     */
+    @Benchmark
+    public String templateOnJoinCommand() {
+        return onJoinTemplate.render(hookContext);
+    }
+
+    /**
+     * The same command rendered with one {@code String.replace} per placeholder, as the plugin
+     * did before templates were compiled, kept as a fixed reference point.
+     */
+    @Benchmark
+    public String templateReplaceBaseline() {
+        return onJoinCommand.replace("%player%", playerName)
+                .replace("%staff%", "Moderator")
+                .replace("%origin%", "lobby-1")
+                .replace("%ss-server%", "screenshare")
+                .replace("%session%", "3f2a9c1e-6b7d-4e0a-9f1b-2c8d5e7a4b60");
+    }
+
+    /**
+     * Mirrors {@code ScreenShare#handleScreenShareStartEvent} with no listener registered: the
+     * event is never built, so every session start pays only the listener check.
+     */
+    @Benchmark
+    public boolean startEventWithoutListeners() {
+        if (!ScreenShareStartEvent.hasListeners()) {
+            return true;
+        }
+        ScreenShareStartEvent event = new ScreenShareStartEvent(session, null);
+        return !event.isCancelled();
+    }
+
+    /**
+     * The same start with the event built unconditionally, as a reference for what the
+     * listener check saves.
+     */
+    @Benchmark
+    public ScreenShareStartEvent startEventAlwaysBuilt() {
+        return new ScreenShareStartEvent(session, null);
+    }
+
+    /**
+     * Mirrors {@code ScreenShare#logInfo}: the message is built and queued for the log thread.
+     * If the log thread falls behind, records are dropped, so this measures the caller's cost only.
+     */
+    @Benchmark
+    public boolean logInfo() {
+        if (logger.isLoggable(java.util.logging.Level.INFO)) {
+            return logAppender.append(java.util.logging.Level.INFO, ChatColor.AQUA + "[ScreenShare] " + ChatColor.WHITE +
+                    "Sent " + playerName + " to server: screenshare via BungeeCord.");
+        }
+        return false;
+    }
+
+    /**
+     * Mirrors {@code ScreenShare#logDebug} with debug output disabled: the supplier is never
+     * called, so the cost should be the flag check alone.
+     */
+    @Benchmark
+    public void logDebugDisabled() {
+        logDebug(() -> "Location cache hit for " + playerName + ": lobby-1");
+    }
+
+    private void logDebug(Supplier<String> message) {
+        if (debugEnabled) {
+            logAppender.append(java.util.logging.Level.INFO, ChatColor.GRAY + "[ScreenShare-DEBUG] " + ChatColor.WHITE + message.get());
+        }
+    }
+}
@@ -0,0 +1,97 @@
+package com.gabry.screenshare;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Logger;
+import java.util.stream.Stream;
+
+/**
+ * The evidence recorder: the cost of recording a chat message (what the chat thread and the
+ * main thread pay), alone and with four threads recording into the same session, and reading
+ * back the last events of an ended session of 20,000 events through the memory-mapped chunks.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class EvidenceRecorderBenchmark {
+
+    private static final int ENDED_EVENTS = 20_000;
+
+    private File folder;
+    private EvidenceRecorder recorder;
+    private EvidenceRecorder.Recording live;
+    private Path ended;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException, InterruptedException {
+        folder = Files.createTempDirectory("screenshare-evidence").toFile();
+        recorder = new EvidenceRecorder(folder, Logger.getLogger("ScreenShare"), new LongAdder());
+        recorder.start();
+
+        UUID endedId = UUID.randomUUID();
+        recorder.open("ended", endedId, "Suspect", "Screenshare di Suspect.");
+        EvidenceRecorder.Recording recording = recorder.get(endedId);
+        for (int i = 0; i < ENDED_EVENTS; i++) {
+            recording.record(i % 4 == 0 ? EvidenceRecorder.EVENT_COMMAND : EvidenceRecorder.EVENT_CHAT, 0,
+                    i % 4 == 0 ? "/msg Friend non trovano niente " + i : "ho solo le mod della minimappa " + i);
+            if (i % 500 == 499) {
+                Thread.sleep(100L); // Let the writer keep up, as with a real chat
+            }
+        }
+        recorder.close(endedId, "Sessione chiusa.");
+        ended = recorder.folder("ended");
+
+        UUID liveId = UUID.randomUUID();
+        recorder.open("live", liveId, "Flooder", "Screenshare di Flooder.");
+        live = recorder.get(liveId);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        recorder.stop();
+        try (Stream<Path> files = Files.walk(folder.toPath())) {
+            files.sorted(Comparator.reverseOrder()).map(Path::toFile).forEach(File::delete);
+        }
+    }
+
+    @Benchmark
+    public void record() {
+        live.record(EvidenceRecorder.EVENT_CHAT, 0, "qualcuno ha visto il mio piccone?");
+    }
+
+    @Benchmark
+    @Threads(4)
+    public void recordContended() {
+        live.record(EvidenceRecorder.EVENT_CHAT, 0, "qualcuno ha visto il mio piccone?");
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    public List<EvidenceRecorder.Event> readLast20() throws IOException {
+        return EvidenceRecorder.readLast(ended, 20);
+    }
+}
@@ -0,0 +1,70 @@
+package com.gabry.screenshare;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The cost the metrics add to the instrumented paths: a histogram sample (as recorded per
+ * GetServer reply, Connect and session start/end), a counter increment, and rendering the
+ * Prometheus page, which only the endpoint thread pays.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MetricsBenchmark {
+
+    private PluginMetrics metrics;
+    private long startedAt;
+
+    @Setup
+    public void setUp() {
+        metrics = new PluginMetrics();
+        metrics.gauge("screenshare_active_sessions", () -> 42);
+        for (int i = 0; i < 10_000; i++) {
+            metrics.getServerRoundTrip.record(i * 7L);
+            metrics.sessionDuration.record(i * 100_000L);
+        }
+        startedAt = System.nanoTime();
+    }
+
+    /**
+     * What {@link ProxyRequestTable#complete} adds per reply.
+     */
+    @Benchmark
+    public void recordRoundTrip() {
+        metrics.getServerRoundTrip.recordSince(startedAt);
+    }
+
+    @Benchmark
+    public void incrementCounter() {
+        metrics.connectsSent.increment();
+    }
+
+    /**
+     * Recording from several threads at once, to check the adders do not contend.
+     */
+    @Benchmark
+    @Threads(4)
+    public void recordRoundTripContended() {
+        metrics.getServerRoundTrip.recordSince(startedAt);
+    }
+
+    @Benchmark
+    public String renderPrometheus() {
+        return metrics.toPrometheus();
+    }
+}
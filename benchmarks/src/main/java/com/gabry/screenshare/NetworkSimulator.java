@@ -0,0 +1,460 @@
+package com.gabry.screenshare;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.UUID;
+
+/**
+ * Headless load simulation of a whole network: lobbies and SS servers running the plugin's
+ * session path ({@link SimulatedServer}) behind a fake proxy with latency and message loss
+ * ({@link SimulatedProxy}), while scripted staff members keep issuing /ss on their lobby.
+ * Each session is ended with /ssend on the SS server a while after the player arrives.
+ *
+ * Runs in simulated time (50ms ticks), so thousands of sessions take seconds, and a given
+ * seed always replays the same run. Usage, after building the benchmarks module:
+ * <pre>
+ * java -cp benchmarks/target/benchmarks.jar com.gabry.screenshare.NetworkSimulator --staff=20 --sessions=5000 --loss=1
+ * </pre>
+ *
+ * The report gives the session throughput, the /ss-to-arrival latency seen by staff (p50, p99)
+ * and everything left behind once the network has been quiet for longer than every timeout:
+ * pending proxy replies, handoffs, timers, queued work and sessions still registered. The exit
+ * status is 1 if anything was left behind.
+ *
+ * With {@code --transport=loopback} the instances talk to each other through a
+ * {@link LoopbackTransport}, the in-process stand-in for the socket bus: their messages take
+ * one tick and skip the proxy's latency and losses, while proxy requests still go through it.
+ */
+public final class NetworkSimulator {
+
+    private static final long TICK_MILLIS = 50;
+
+    /**
+     * The network shape, the script and the plugin settings. Plugin settings default to the
+     * values of the bundled config.yml.
+     */
+    static final class Options {
+        // Network
+        int lobbies = 4;
+        int playersPerLobby = 250;
+        int ssServers = 2;
+        int ssCapacity = 50;
+        long latencyMillis = 25; // One way, per hop
+        long jitterMillis = 15;
+        double lossPercent = 0;
+        long transferMillis = 300; // Connect to join on the new server
+        long seed = 42;
+        String transport = "plugin-message"; // Between instances: through the proxy, or "loopback" (the socket bus, in process)
+
+        // Script
+        int staff = 20;
+        int sessions = 2000;
+        int holdTicks = 100; // From the arrival to /ssend
+        int maxMinutes = 120; // Simulated time after which the script stops issuing commands
+
+        // Plugin settings
+        long proxyTimeoutMillis = 2000;
+        int proxyMaxRetries = 1;
+        long proxyRetryBackoffMillis = 250;
+        int proxyBreakerThreshold = 3;
+        long proxyBreakerOpenMillis = 10_000;
+        long handoffTimeoutMillis = 10_000;
+        long sessionPendingTimeoutMillis = 60_000;
+        long reconnectGraceMillis = 300_000;
+        long poolHealthTimeoutMillis = 15_000;
+        int poolPollIntervalTicks = 100;
+        int connectPerTick = 10;
+        int commandsPerTick = 20;
+        HookPipeline onJoinHook = HookPipeline.parse("on-join-command", "ssmode %player%", warning -> { });
+        HookPipeline onReturnHook = HookPipeline.parse("on-return-command", "pardon %player%", warning -> { });
+
+        List<String> ssServerNames() {
+            List<String> names = new ArrayList<>();
+            for (int i = 1; i <= ssServers; i++) {
+                names.add(i == 1 ? "screenshare" : "screenshare" + i);
+            }
+            return names;
+        }
+
+        /**
+         * Reads {@code --name=value} arguments, named like the fields in kebab case (e.g.
+         * {@code --players-per-lobby=500}, {@code --loss=2.5}).
+         *
+         * @throws IllegalArgumentException On an unknown option or an invalid value.
+         */
+        static Options parse(String[] args) {
+            Options options = new Options();
+            for (String arg : args) {
+                int equals = arg.indexOf('=');
+                if (!arg.startsWith("--") || equals < 0) {
+                    throw new IllegalArgumentException("Expected --name=value, got: " + arg);
+                }
+                String name = arg.substring(2, equals);
+                String value = arg.substring(equals + 1);
+                try {
+                    options.set(name, value);
+                } catch (NumberFormatException e) {
+                    throw new IllegalArgumentException("Invalid value for --" + name + ": " + value);
+                }
+            }
+            if (options.lobbies < 1 || options.ssServers < 1 || options.staff < 1 || options.playersPerLobby < 2) {
+                throw new IllegalArgumentException("Need at least one lobby, one SS server, one staff member and two players per lobby.");
+            }
+            return options;
+        }
+
+        private void set(String name, String value) {
+            switch (name) {
+                case "lobbies": lobbies = Integer.parseInt(value); break;
+                case "players-per-lobby": playersPerLobby = Integer.parseInt(value); break;
+                case "ss-servers": ssServers = Integer.parseInt(value); break;
+                case "ss-capacity": ssCapacity = Integer.parseInt(value); break;
+                case "latency-ms": latencyMillis = Long.parseLong(value); break;
+                case "jitter-ms": jitterMillis = Long.parseLong(value); break;
+                case "loss": lossPercent = Double.parseDouble(value); break;
+                case "transfer-ms": transferMillis = Long.parseLong(value); break;
+                case "seed": seed = Long.parseLong(value); break;
+                case "transport":
+                    if (!value.equals("plugin-message") && !value.equals("loopback")) {
+                        throw new IllegalArgumentException("--transport must be plugin-message or loopback, got: " + value);
+                    }
+                    transport = value;
+                    break;
+                case "staff": staff = Integer.parseInt(value); break;
+                case "sessions": sessions = Integer.parseInt(value); break;
+                case "hold-ticks": holdTicks = Integer.parseInt(value); break;
+                case "max-minutes": maxMinutes = Integer.parseInt(value); break;
+                case "proxy-timeout-ms": proxyTimeoutMillis = Long.parseLong(value); break;
+                case "proxy-max-retries": proxyMaxRetries = Integer.parseInt(value); break;
+                case "handoff-timeout-ms": handoffTimeoutMillis = Long.parseLong(value); break;
+                case "session-pending-timeout-ms": sessionPendingTimeoutMillis = Long.parseLong(value); break;
+                case "connect-per-tick": connectPerTick = Integer.parseInt(value); break;
+                case "commands-per-tick": commandsPerTick = Integer.parseInt(value); break;
+                default:
+                    throw new IllegalArgumentException("Unknown option: --" + name);
+            }
+        }
+
+        /**
+         * @return How long the network must stay quiet for every timer and timeout to have fired.
+         */
+        long quietMillis() {
+            long proxyRequest = proxyTimeoutMillis * (proxyMaxRetries + 1) + proxyRetryBackoffMillis * 8 * proxyMaxRetries;
+            long longest = Math.max(Math.max(proxyRequest, handoffTimeoutMillis),
+                    Math.max(sessionPendingTimeoutMillis, reconnectGraceMillis));
+            return longest + 10_000;
+        }
+    }
+
+    /**
+     * A scripted staff member, working through one /ss at a time on their lobby.
+     */
+    private static final class Staff {
+        final String name;
+        final SimulatedServer lobby;
+        SimulatedProxy.SimulatedPlayer target; // Null while idle
+        boolean started; // The /ss outcome was STARTED: wait for the session to end
+        long busySinceTick;
+        long idleUntilTick; // Back-off after a queued or failed /ss
+
+        Staff(String name, SimulatedServer lobby) {
+            this.name = name;
+            this.lobby = lobby;
+        }
+    }
+
+    private final Options options;
+    private final Random random;
+    private final SimulatedProxy proxy;
+    private final List<SimulatedServer> lobbies = new ArrayList<>();
+    private final List<SimulatedServer> ssServers = new ArrayList<>();
+    private final List<Staff> staff = new ArrayList<>();
+    private final Set<UUID> busyPlayers = new HashSet<>(); // Targeted, or stranded on an SS server
+    private final Map<Long, List<Runnable>> scheduledEnds = new HashMap<>(); // Tick -> /ssend commands
+    private final Map<SessionOutcome.Status, Integer> outcomes = new EnumMap<>(SessionOutcome.Status.class);
+    private long[] startLatencies = new long[1024];
+    private int startLatencyCount;
+    private long tick;
+    private int issued;
+    private int arrivals;
+    private int staffGaveUp;
+
+    NetworkSimulator(Options options) {
+        this.options = options;
+        this.random = new Random(options.seed);
+        this.proxy = new SimulatedProxy(random, options.latencyMillis, options.jitterMillis,
+                options.lossPercent / 100.0, options.transferMillis);
+
+        LoopbackTransport.Hub hub = options.transport.equals("loopback") ? new LoopbackTransport.Hub() : null;
+        SimulatedServer.Observer observer = new SimulatedServer.Observer() {
+            @Override
+            public void arrived(SimulatedServer server, SimulatedProxy.SimulatedPlayer player) {
+                arrivals++;
+                scheduledEnds.computeIfAbsent(tick + options.holdTicks, ignored -> new ArrayList<>()).add(() -> {
+                    if (server.isOnline(player.id)) {
+                        server.endScreenShare(player);
+                    }
+                });
+            }
+
+            @Override
+            public void acknowledged(UUID playerId, long latencyMillis) {
+                if (startLatencyCount == startLatencies.length) {
+                    startLatencies = Arrays.copyOf(startLatencies, startLatencyCount * 2);
+                }
+                startLatencies[startLatencyCount++] = latencyMillis;
+            }
+        };
+        for (String name : options.ssServerNames()) {
+            SimulatedServer server = new SimulatedServer(name, proxy, hub, options, observer);
+            ssServers.add(server);
+            proxy.addServer(server);
+        }
+        for (int i = 1; i <= options.lobbies; i++) {
+            SimulatedServer server = new SimulatedServer("lobby-" + i, proxy, hub, options, observer);
+            lobbies.add(server);
+            proxy.addServer(server);
+        }
+        int playerNumber = 0;
+        for (SimulatedServer lobby : lobbies) {
+            for (int i = 0; i < options.playersPerLobby; i++) {
+                proxy.login("Player" + playerNumber++, lobby.getName());
+            }
+        }
+        for (int i = 0; i < options.staff; i++) {
+            staff.add(new Staff("Staff" + (i + 1), lobbies.get(i % lobbies.size())));
+        }
+    }
+
+    public static void main(String[] args) {
+        Options options;
+        try {
+            options = Options.parse(args);
+        } catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            System.exit(2);
+            return;
+        }
+        boolean clean = new NetworkSimulator(options).run();
+        System.exit(clean ? 0 : 1);
+    }
+
+    /**
+     * Runs the script, lets the network go quiet and prints the report.
+     *
+     * @return True if nothing was left behind.
+     */
+    boolean run() {
+        long wallStart = System.nanoTime();
+        // All staff issue their first /ss on the same tick.
+        long tickLimit = options.maxMinutes * 60_000L / TICK_MILLIS;
+        while (!scriptDone()) {
+            if (tick == tickLimit) {
+                System.out.println("Script stopped after " + options.maxMinutes + " simulated minutes with " +
+                        issued + " of " + options.sessions + " /ss issued.");
+                break;
+            }
+            step(true);
+        }
+        long scriptTicks = tick;
+        long quietTicks = options.quietMillis() / TICK_MILLIS;
+        for (long i = 0; i < quietTicks; i++) {
+            step(false);
+        }
+        return report(scriptTicks, System.nanoTime() - wallStart);
+    }
+
+    private boolean scriptDone() {
+        if (issued < options.sessions || !scheduledEnds.isEmpty() || !proxy.isIdle()) {
+            return false;
+        }
+        for (Staff member : staff) {
+            if (member.target != null) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * One tick of the whole network: due messages and player moves, the staff script, the
+     * scheduled /ssend commands, then every server's tick.
+     */
+    private void step(boolean script) {
+        tick++;
+        proxy.advanceTo(tick * TICK_MILLIS);
+        if (script) {
+            for (Staff member : staff) {
+                updateStaff(member);
+            }
+        }
+        List<Runnable> ends = scheduledEnds.remove(tick);
+        if (ends != null) {
+            ends.forEach(Runnable::run);
+        }
+        for (SimulatedServer server : ssServers) {
+            server.tick();
+        }
+        for (SimulatedServer server : lobbies) {
+            server.tick();
+        }
+    }
+
+    private void updateStaff(Staff member) {
+        if (member.target != null) {
+            if (!member.started) {
+                return; // Still waiting for the /ss outcome.
+            }
+            boolean ended = !member.lobby.getSessions().contains(member.target.id);
+            // Everything a session can go through (lost messages included) fits in this window;
+            // past it the session is stuck in the lobby's registry.
+            long patienceTicks = (options.sessionPendingTimeoutMillis + options.handoffTimeoutMillis) / TICK_MILLIS
+                    + options.holdTicks + 1200;
+            if (!ended && tick - member.busySinceTick < patienceTicks) {
+                return;
+            }
+            if (!ended) {
+                staffGaveUp++;
+            }
+            release(member);
+            return;
+        }
+        if (issued >= options.sessions || tick < member.idleUntilTick) {
+            return;
+        }
+        SimulatedProxy.SimulatedPlayer target = pickTarget(member.lobby);
+        if (target == null) {
+            return;
+        }
+        issued++;
+        member.target = target;
+        member.started = false;
+        member.busySinceTick = tick;
+        busyPlayers.add(target.id);
+        member.lobby.startScreenShare(target, member.name).thenAccept(status -> {
+            outcomes.merge(status, 1, Integer::sum);
+            if (status == SessionOutcome.Status.STARTED) {
+                member.started = true;
+            } else {
+                member.idleUntilTick = tick + 20;
+                release(member);
+            }
+        });
+    }
+
+    private void release(Staff member) {
+        SimulatedProxy.SimulatedPlayer target = member.target;
+        member.target = null;
+        // A player stranded on an SS server (e.g. their Connect back was lost) is not picked again.
+        if (!isSsServer(target.server) || target.moving) {
+            busyPlayers.remove(target.id);
+        }
+    }
+
+    private SimulatedProxy.SimulatedPlayer pickTarget(SimulatedServer lobby) {
+        List<SimulatedProxy.SimulatedPlayer> candidates = proxy.playersOn(lobby.getName());
+        for (int attempt = 0; attempt < 8 && !candidates.isEmpty(); attempt++) {
+            SimulatedProxy.SimulatedPlayer candidate = candidates.get(random.nextInt(candidates.size()));
+            if (!busyPlayers.contains(candidate.id)) {
+                return candidate;
+            }
+        }
+        return null;
+    }
+
+    private boolean isSsServer(String serverName) {
+        for (SimulatedServer server : ssServers) {
+            if (server.getName().equalsIgnoreCase(serverName)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // --- Report ---
+
+    private boolean report(long scriptTicks, long wallNanos) {
+        List<SimulatedServer> servers = new ArrayList<>(ssServers);
+        servers.addAll(lobbies);
+        long started = 0;
+        long ended = 0;
+        long expired = 0;
+        long handoffTimeouts = 0;
+        long hookCommands = 0;
+        long connectsDropped = 0;
+        Map<String, Integer> leftovers = new LinkedHashMap<>();
+        int minRegistered = Integer.MAX_VALUE;
+        int maxRegistered = 0;
+        for (SimulatedServer server : servers) {
+            started += server.sessionsStarted;
+            ended += server.sessionsEnded;
+            expired += server.sessionsExpired;
+            handoffTimeouts += server.handoffTimeouts;
+            hookCommands += server.hookCommandsRun;
+            connectsDropped += server.connectsDropped;
+            server.leftovers().forEach((what, count) -> leftovers.merge(what, count, Integer::sum));
+            int registered = server.getSessions().size();
+            minRegistered = Math.min(minRegistered, registered);
+            maxRegistered = Math.max(maxRegistered, registered);
+        }
+        int stranded = 0;
+        for (SimulatedServer server : ssServers) {
+            stranded += proxy.playersOn(server.getName()).size();
+        }
+        double scriptSeconds = scriptTicks * TICK_MILLIS / 1000.0;
+
+        System.out.println("=== ScreenShare network simulation ===");
+        System.out.printf(Locale.ROOT, "Network: %d lobbies x %d players, %d SS servers (capacity %d), %d staff%n",
+                options.lobbies, options.playersPerLobby, options.ssServers, options.ssCapacity, options.staff);
+        System.out.printf(Locale.ROOT, "Proxy: %dms +%dms jitter per hop, %.2f%% loss, %dms transfers, seed %d%n",
+                options.latencyMillis, options.jitterMillis, options.lossPercent, options.transferMillis, options.seed);
+        System.out.println("Transport between instances: " + options.transport);
+        System.out.printf(Locale.ROOT, "Simulated %.1fs of script (+%.0fs quiet) in %.2fs of wall time%n",
+                scriptSeconds, options.quietMillis() / 1000.0, wallNanos / 1e9);
+        System.out.println();
+        System.out.printf(Locale.ROOT, "/ss issued: %d  %s%n", issued, outcomes);
+        System.out.printf(Locale.ROOT, "Sessions: %d started, %d arrived, %d ended, %d expired, %d handoff ack timeouts%n",
+                started, arrivals, ended, expired, handoffTimeouts);
+        System.out.printf(Locale.ROOT, "Throughput: %.1f sessions/s (simulated), %.0f sessions/s (wall)%n",
+                ended / scriptSeconds, ended / (wallNanos / 1e9));
+        long[] latencies = Arrays.copyOf(startLatencies, startLatencyCount);
+        Arrays.sort(latencies);
+        System.out.printf(Locale.ROOT, "Start latency (/ss to arrival ack): p50 %dms, p99 %dms, max %dms over %d sessions%n",
+                percentile(latencies, 0.5), percentile(latencies, 0.99),
+                latencies.length == 0 ? 0 : latencies[latencies.length - 1], latencies.length);
+        System.out.printf(Locale.ROOT, "Hook commands run: %d, connects dropped: %d%n", hookCommands, connectsDropped);
+        System.out.printf(Locale.ROOT, "Proxy traffic: %d hops, %d lost, %d connects, %d unsupported messages%n",
+                proxy.messagesSent, proxy.messagesLost, proxy.connectsHandled, proxy.messagesIgnored);
+        System.out.println();
+
+        System.out.println("Left behind after the quiet period (all servers):");
+        int leaked = 0;
+        for (Map.Entry<String, Integer> entry : leftovers.entrySet()) {
+            System.out.printf(Locale.ROOT, "  %-36s %d%n", entry.getKey(), entry.getValue());
+            leaked += entry.getValue();
+        }
+        System.out.printf(Locale.ROOT, "  %-36s %d to %d per server%n", "sessions still registered", minRegistered, maxRegistered);
+        System.out.printf(Locale.ROOT, "  %-36s %d%n", "players stranded on SS servers", stranded);
+        System.out.printf(Locale.ROOT, "  %-36s %d%n", "staff who gave up waiting", staffGaveUp);
+        leaked += maxRegistered + stranded + staffGaveUp;
+        System.out.println(leaked == 0 ? "Result: clean" : "Result: " + leaked + " leftovers");
+        return leaked == 0;
+    }
+
+    private static long percentile(long[] sorted, double quantile) {
+        if (sorted.length == 0) {
+            return 0;
+        }
+        int rank = (int) Math.ceil(quantile * sorted.length);
+        return sorted[Math.max(0, rank - 1)];
+    }
+}
@@ -0,0 +1,149 @@
+package com.gabry.screenshare;
+
+import org.bukkit.configuration.InvalidConfigurationException;
+import org.bukkit.configuration.file.YamlConfiguration;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Encoding and decoding of the player state saved at every /ss: a full survival inventory
+ * (36 of 41 slots used, many enchanted and renamed) and a few potion effects.
+ *
+ * Item stacks cannot be encoded without a running server, so both formats start from what
+ * the server would hand over. The binary format gets opaque item blobs the size of Paper's
+ * item bytes; the {@code yaml*} methods store the same state the usual way, with
+ * {@code YamlConfiguration} and each item as the map {@code ItemStack.serialize()} returns,
+ * as a reference point.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PlayerStateBenchmark {
+
+    private static final int SLOTS = 41;
+    private static final int USED_SLOTS = 36;
+    private static final String[] MATERIALS = {"DIAMOND_SWORD", "BOW", "GOLDEN_APPLE", "ENDER_PEARL", "COBBLESTONE",
+            "DIAMOND_HELMET", "DIAMOND_CHESTPLATE", "SPLASH_POTION", "ARROW", "COOKED_BEEF"};
+
+    private PlayerState state;
+    private byte[] encoded;
+    private List<Map<String, Object>> itemMaps;
+    private String yaml;
+
+    @Setup
+    public void setUp() {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        byte[][] items = new byte[SLOTS][];
+        itemMaps = new ArrayList<>(SLOTS);
+        for (int i = 0; i < SLOTS; i++) {
+            if (i >= USED_SLOTS) {
+                itemMaps.add(null);
+                continue;
+            }
+            // Paper's item bytes are compressed NBT: about 60 bytes for a plain stack, 150 for an enchanted, renamed one.
+            boolean fancy = i % 3 == 0;
+            items[i] = new byte[fancy ? 150 + random.nextInt(50) : 50 + random.nextInt(20)];
+            random.nextBytes(items[i]);
+            itemMaps.add(itemMap(MATERIALS[i % MATERIALS.length], 1 + i % 16, fancy));
+        }
+        List<PlayerState.Effect> effects = List.of(
+                new PlayerState.Effect("minecraft:speed", 2400, 1, 6),
+                new PlayerState.Effect("minecraft:fire_resistance", 6000, 0, 6),
+                new PlayerState.Effect("minecraft:regeneration", 180, 1, 6));
+        state = new PlayerState(System.currentTimeMillis(), "world", UUID.randomUUID(), 1024.5, 64.0, -337.25, 90.0f, 12.5f,
+                "SURVIVAL", 0, effects, items);
+        encoded = state.encode();
+        yaml = yamlEncode();
+    }
+
+    @Benchmark
+    public byte[] encode() {
+        return state.encode();
+    }
+
+    @Benchmark
+    public PlayerState decode() {
+        return PlayerState.decode(encoded);
+    }
+
+    @Benchmark
+    public String yamlEncode() {
+        YamlConfiguration out = new YamlConfiguration();
+        out.set("captured-at", state.capturedAt);
+        out.set("location.world", state.worldName);
+        out.set("location.world-id", state.worldId.toString());
+        out.set("location.x", state.x);
+        out.set("location.y", state.y);
+        out.set("location.z", state.z);
+        out.set("location.yaw", state.yaw);
+        out.set("location.pitch", state.pitch);
+        out.set("game-mode", state.gameMode);
+        out.set("held-slot", state.heldSlot);
+        List<Map<String, Object>> effects = new ArrayList<>();
+        for (PlayerState.Effect effect : state.effects) {
+            Map<String, Object> map = new LinkedHashMap<>();
+            map.put("effect", effect.key);
+            map.put("duration", effect.duration);
+            map.put("amplifier", effect.amplifier);
+            map.put("ambient", (effect.flags & 1) != 0);
+            map.put("has-particles", (effect.flags & 2) != 0);
+            map.put("has-icon", (effect.flags & 4) != 0);
+            effects.add(map);
+        }
+        out.set("effects", effects);
+        out.set("inventory", itemMaps);
+        return out.saveToString();
+    }
+
+    @Benchmark
+    public YamlConfiguration yamlDecode() throws InvalidConfigurationException {
+        YamlConfiguration in = new YamlConfiguration();
+        in.loadFromString(yaml);
+        return in;
+    }
+
+    /**
+     * An item as {@code ItemStack.serialize()} returns it.
+     */
+    private static Map<String, Object> itemMap(String material, int amount, boolean fancy) {
+        Map<String, Object> item = new LinkedHashMap<>();
+        item.put("v", 4189);
+        item.put("type", material);
+        if (amount > 1) {
+            item.put("amount", amount);
+        }
+        if (fancy) {
+            Map<String, Object> meta = new LinkedHashMap<>();
+            meta.put("meta-type", "UNSPECIFIC");
+            meta.put("display-name", "{\"text\":\"Spada del Drago\",\"color\":\"gold\",\"italic\":false}");
+            meta.put("lore", List.of("{\"text\":\"Forgiata nel nether\",\"color\":\"gray\"}"));
+            Map<String, Object> enchants = new LinkedHashMap<>();
+            enchants.put("SHARPNESS", 5);
+            enchants.put("UNBREAKING", 3);
+            enchants.put("FIRE_ASPECT", 2);
+            meta.put("enchants", enchants);
+            meta.put("Damage", 37);
+            item.put("meta", meta);
+        }
+        return item;
+    }
+}
@@ -0,0 +1,142 @@
+package com.gabry.screenshare;
+
+import com.google.common.io.ByteArrayDataInput;
+import com.google.common.io.ByteArrayDataOutput;
+import com.google.common.io.ByteStreams;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Encoding and decoding of BungeeCord plugin messages: the Connect sent for every teleport,
+ * the Forward handoff envelope, and the GetServer / Forward replies decoded by the listener.
+ * The {@code guava*} methods encode the same messages the way the plugin did before the codec,
+ * as a fixed reference point.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PluginMessageCodecBenchmark {
+
+    private final PluginMessageCodec codec = new PluginMessageCodec();
+    private final UUID playerId = UUID.randomUUID();
+    private byte[] getServerReply;
+    private byte[] forwardReply;
+    private byte[] otherPluginMessage;
+
+    @Setup
+    public void setUp() {
+        ByteArrayDataOutput reply = ByteStreams.newDataOutput();
+        reply.writeUTF("GetServer");
+        reply.writeUTF("lobby-1");
+        getServerReply = reply.toByteArray();
+
+        byte[] handoff = handoffPayload();
+        ByteArrayDataOutput forward = ByteStreams.newDataOutput();
+        forward.writeUTF("ScreenShare");
+        forward.writeShort(handoff.length);
+        forward.write(handoff);
+        forwardReply = forward.toByteArray();
+
+        ByteArrayDataOutput other = ByteStreams.newDataOutput();
+        other.writeUTF("SomeOtherPluginChannel");
+        other.writeUTF("ignored");
+        otherPluginMessage = other.toByteArray();
+    }
+
+    @Benchmark
+    public byte[] encodeConnect() {
+        return codec.connect("screenshare");
+    }
+
+    @Benchmark
+    public byte[] guavaEncodeConnect() {
+        ByteArrayDataOutput out = ByteStreams.newDataOutput();
+        out.writeUTF("Connect");
+        out.writeUTF("screenshare");
+        return out.toByteArray();
+    }
+
+    @Benchmark
+    public byte[] encodeHandoffForward() {
+        return codec.forward("screenshare", codec.payload()
+                .writeByte(1)
+                .writeUuid(playerId)
+                .writeUTF("Notch")
+                .writeUTF("lobby-1")
+                .writeUTF("screenshare")
+                .writeUTF("Moderator"));
+    }
+
+    @Benchmark
+    public byte[] guavaEncodeHandoffForward() {
+        byte[] payload = handoffPayload();
+        ByteArrayDataOutput out = ByteStreams.newDataOutput();
+        out.writeUTF("Forward");
+        out.writeUTF("screenshare");
+        out.writeUTF("ScreenShare");
+        out.writeShort(payload.length);
+        out.write(payload);
+        return out.toByteArray();
+    }
+
+    @Benchmark
+    public String decodeGetServerReply() {
+        PluginMessageCodec.Reader in = PluginMessageCodec.read(getServerReply);
+        PluginMessageCodec.Subchannel subchannel = PluginMessageCodec.Subchannel.match(in);
+        return subchannel == PluginMessageCodec.Subchannel.GET_SERVER ? in.readUTF() : null;
+    }
+
+    @Benchmark
+    public String guavaDecodeGetServerReply() {
+        ByteArrayDataInput in = ByteStreams.newDataInput(getServerReply);
+        return in.readUTF().equals("GetServer") ? in.readUTF() : null;
+    }
+
+    @Benchmark
+    public void decodeHandoffForward(Blackhole blackhole) {
+        PluginMessageCodec.Reader in = PluginMessageCodec.read(forwardReply);
+        PluginMessageCodec.Subchannel.match(in);
+        PluginMessageCodec.Reader payload = in.slice(in.readUnsignedShort());
+        blackhole.consume(payload.readByte());
+        blackhole.consume(payload.readUuid());
+        blackhole.consume(payload.readUTF());
+        blackhole.consume(payload.readUTF());
+        blackhole.consume(payload.readUTF());
+        blackhole.consume(payload.readUTF());
+    }
+
+    /**
+     * Messages for other plugins share the BungeeCord channel and are the most common input.
+     */
+    @Benchmark
+    public Object skipOtherPluginMessage() {
+        return PluginMessageCodec.Subchannel.match(PluginMessageCodec.read(otherPluginMessage));
+    }
+
+    private byte[] handoffPayload() {
+        ByteArrayDataOutput payload = ByteStreams.newDataOutput();
+        payload.writeByte(1);
+        payload.writeLong(playerId.getMostSignificantBits());
+        payload.writeLong(playerId.getLeastSignificantBits());
+        payload.writeUTF("Notch");
+        payload.writeUTF("lobby-1");
+        payload.writeUTF("screenshare");
+        payload.writeUTF("Moderator");
+        return payload.toByteArray();
+    }
+}
@@ -0,0 +1,110 @@
+package com.gabry.screenshare;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Comparator;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+import java.util.stream.Stream;
+
+/**
+ * /sshistory pages read from a history of {@link #rows} ended sessions, spread over 10,000
+ * players and 200 staff members: the first page of a player and of a staff member (whose
+ * chain is much longer), and a page deep into a staff member's sessions.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SessionHistoryBenchmark {
+
+    /** Number of sessions in the history. */
+    @Param({"100000", "1000000"})
+    public int rows;
+
+    private static final int PLAYERS = 10_000;
+    private static final int STAFF = 200;
+    private static final int PAGE_SIZE = 10;
+
+    private File folder;
+    private SessionHistory history;
+    private UUID[] players;
+    private UUID[] staff;
+    private int cursor;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException, InterruptedException {
+        folder = Files.createTempDirectory("screenshare-history").toFile();
+        players = new UUID[PLAYERS];
+        for (int i = 0; i < PLAYERS; i++) {
+            players[i] = UUID.randomUUID();
+        }
+        staff = new UUID[STAFF];
+        for (int i = 0; i < STAFF; i++) {
+            staff[i] = UUID.randomUUID();
+        }
+        Logger logger = Logger.getLogger("ScreenShare");
+
+        // Write the rows, then reopen from the checkpoint written on close, as after a restart.
+        SessionHistory writer = new SessionHistory(folder, logger);
+        writer.start();
+        long startedAt = System.currentTimeMillis() - rows * 60_000L;
+        for (int i = 0; i < rows; i++) {
+            int player = i % PLAYERS;
+            int moderator = i % STAFF;
+            writer.record(new SessionHistory.Entry(UUID.randomUUID().toString(), players[player], "Player" + player,
+                    staff[moderator], "Moderator" + moderator, "lobby-1", "screenshare",
+                    startedAt + i * 60_000L, startedAt + i * 60_000L + 45_000L, ScreenShareEndEvent.Reason.ENDED, "Moderator" + moderator));
+        }
+        writer.close();
+        history = new SessionHistory(folder, logger);
+        history.start();
+        while (!history.isReady()) {
+            Thread.sleep(10L);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        history.close();
+        try (Stream<java.nio.file.Path> files = Files.walk(folder.toPath())) {
+            files.sorted(Comparator.reverseOrder()).map(java.nio.file.Path::toFile).forEach(File::delete);
+        }
+    }
+
+    @Benchmark
+    public SessionHistory.Page playerFirstPage() throws IOException {
+        cursor = (cursor + 1) % PLAYERS;
+        return history.query(players[cursor], false, 0, PAGE_SIZE);
+    }
+
+    @Benchmark
+    public SessionHistory.Page staffFirstPage() throws IOException {
+        cursor = (cursor + 1) % STAFF;
+        return history.query(staff[cursor], true, 0, PAGE_SIZE);
+    }
+
+    @Benchmark
+    public SessionHistory.Page staffPage50() throws IOException {
+        cursor = (cursor + 1) % STAFF;
+        return history.query(staff[cursor], true, 50, PAGE_SIZE);
+    }
+}
@@ -0,0 +1,126 @@
+package com.gabry.screenshare;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Session map operations as /ss, /ssend and the join/quit handlers perform them: lookups,
+ * a start followed by an end (including the replication flush of each tick), and the merge of
+ * a delta received from another instance, and the per-tick advance of the session timers.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SessionRegistryBenchmark {
+
+    /** Number of sessions already active on the network. */
+    @Param({"10", "1000", "50000"})
+    public int sessionCount;
+
+    private static final SessionRegistry.Outbound DISCARD = new SessionRegistry.Outbound() {
+        @Override
+        public void broadcast(byte[] message) {
+        }
+
+        @Override
+        public void sendToPlayer(String playerName, byte[] message) {
+        }
+    };
+
+    private SessionRegistry registry;
+    private UUID[] activeIds;
+    private int cursor;
+    private ScreenShareSession churnSession;
+    private byte[] remoteDelta;
+    private SessionRegistry receiver;
+    private TimingWheel timers;
+
+    @Setup
+    public void setUp() {
+        registry = new SessionRegistry("bench", System::currentTimeMillis, DISCARD);
+        activeIds = new UUID[sessionCount];
+        for (int i = 0; i < sessionCount; i++) {
+            activeIds[i] = UUID.randomUUID();
+            registry.put(ScreenShareSession.start(activeIds[i], "Player" + i, "lobby-1", "screenshare", null, "Moderator"));
+        }
+        registry.flush();
+        churnSession = ScreenShareSession.start(UUID.randomUUID(), "Churn", "lobby-1", "screenshare", null, "Moderator");
+
+        // A delta produced by another instance, captured through its outbound.
+        byte[][] captured = new byte[1][];
+        SessionRegistry remote = new SessionRegistry("remote", System::currentTimeMillis, new SessionRegistry.Outbound() {
+            @Override
+            public void broadcast(byte[] message) {
+                captured[0] = message;
+            }
+
+            @Override
+            public void sendToPlayer(String playerName, byte[] message) {
+            }
+        });
+        remote.put(ScreenShareSession.start(UUID.randomUUID(), "Remote", "lobby-2", "screenshare", null, "Moderator"));
+        remote.flush();
+        remoteDelta = captured[0];
+        receiver = new SessionRegistry("receiver", System::currentTimeMillis, DISCARD);
+
+        // One timer per session, spread over the 5-minute reconnect window; each one re-arms
+        // itself when it fires so the population stays constant.
+        timers = new TimingWheel(1024);
+        for (int i = 0; i < sessionCount; i++) {
+            scheduleSelfRearming(1 + i % 6000);
+        }
+    }
+
+    private void scheduleSelfRearming(long delayTicks) {
+        timers.schedule(delayTicks, () -> scheduleSelfRearming(6000));
+    }
+
+    @Benchmark
+    public ScreenShareSession lookup() {
+        UUID id = activeIds[cursor++ % activeIds.length];
+        return registry.get(id);
+    }
+
+    @Benchmark
+    public boolean lookupMiss() {
+        return registry.contains(churnSession.getPlayerId());
+    }
+
+    @Benchmark
+    public ScreenShareSession startAndEnd() {
+        registry.put(churnSession);
+        registry.flush();
+        ScreenShareSession removed = registry.remove(churnSession.getPlayerId());
+        registry.flush();
+        return removed;
+    }
+
+    /**
+     * The cost a tick pays for the session timers, which should not grow with the session count.
+     */
+    @Benchmark
+    public int advanceSessionTimers() {
+        return timers.advance();
+    }
+
+    @Benchmark
+    public int receiveRemoteDelta() {
+        // The same delta again is a no-op merge after the first call, which is the common case.
+        return receiver.receive(remoteDelta);
+    }
+}
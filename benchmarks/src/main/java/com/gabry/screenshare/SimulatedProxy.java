@@ -0,0 +1,284 @@
+package com.gabry.screenshare;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Random;
+import java.util.UUID;
+
+/**
+ * In-process stand-in for a BungeeCord proxy, for the {@link NetworkSimulator}.
+ *
+ * It answers the subchannels the plugin's session path uses (GetServer, Connect, ConnectOther,
+ * PlayerCount, Forward and ForwardToPlayer) with the same wire format as BungeeCord, and moves
+ * players between the {@link SimulatedServer}s. Every hop (backend to proxy, proxy to backend)
+ * takes the configured latency plus a random jitter and may be lost; messages on the same link
+ * stay in order, like on a real connection. Time is simulated: nothing happens until the
+ * simulator advances the clock.
+ *
+ * Not thread-safe; the whole simulation runs on one thread.
+ */
+final class SimulatedProxy {
+
+    /**
+     * A player connected to the proxy.
+     */
+    static final class SimulatedPlayer {
+        final UUID id;
+        final String name;
+        String server;
+        boolean moving; // A Connect is in progress
+
+        SimulatedPlayer(UUID id, String name) {
+            this.id = id;
+            this.name = name;
+        }
+    }
+
+    /**
+     * Something that happens at a point in simulated time.
+     */
+    private static final class Event implements Comparable<Event> {
+        final long at;
+        final long sequence; // Keeps events due at the same millisecond in scheduling order
+        final Runnable action;
+
+        Event(long at, long sequence, Runnable action) {
+            this.at = at;
+            this.sequence = sequence;
+            this.action = action;
+        }
+
+        @Override
+        public int compareTo(Event other) {
+            int byTime = Long.compare(at, other.at);
+            return byTime != 0 ? byTime : Long.compare(sequence, other.sequence);
+        }
+    }
+
+    private final Random random;
+    private final long latencyMillis;
+    private final long jitterMillis;
+    private final double lossRate;
+    private final long transferMillis;
+    private final Map<String, SimulatedServer> servers = new LinkedHashMap<>(); // Keyed by lower-case name
+    private final Map<UUID, SimulatedPlayer> players = new HashMap<>();
+    private final Map<String, SimulatedPlayer> playersByName = new HashMap<>(); // Keyed by lower-case name
+    private final Map<String, Long> linkClear = new HashMap<>(); // "from>to" -> last delivery time on that link
+    private final PriorityQueue<Event> events = new PriorityQueue<>();
+    private long now;
+    private long sequence;
+
+    // Traffic counters, for the report.
+    long messagesSent;
+    long messagesLost;
+    long messagesIgnored; // Subchannels this proxy does not implement
+    long connectsHandled;
+
+    /**
+     * @param random The source of jitter and losses; seeded for reproducible runs.
+     * @param latencyMillis The one-way latency of every hop.
+     * @param jitterMillis The maximum random delay added to each hop.
+     * @param lossRate The probability (0 to 1) that a hop loses its message.
+     * @param transferMillis How long a Connect takes from the proxy's decision to the join on the new server.
+     */
+    SimulatedProxy(Random random, long latencyMillis, long jitterMillis, double lossRate, long transferMillis) {
+        this.random = random;
+        this.latencyMillis = latencyMillis;
+        this.jitterMillis = jitterMillis;
+        this.lossRate = lossRate;
+        this.transferMillis = transferMillis;
+    }
+
+    /**
+     * @return The simulated time, in milliseconds.
+     */
+    long currentTimeMillis() {
+        return now;
+    }
+
+    void addServer(SimulatedServer server) {
+        servers.put(server.getName().toLowerCase(Locale.ROOT), server);
+    }
+
+    /**
+     * Connects a new player straight to a server, without latency.
+     */
+    SimulatedPlayer login(String name, String serverName) {
+        SimulatedPlayer player = new SimulatedPlayer(UUID.nameUUIDFromBytes(("OfflinePlayer:" + name).getBytes()), name);
+        players.put(player.id, player);
+        playersByName.put(name.toLowerCase(Locale.ROOT), player);
+        player.server = serverName;
+        server(serverName).join(player);
+        return player;
+    }
+
+    /**
+     * @return The players currently on a server.
+     */
+    List<SimulatedPlayer> playersOn(String serverName) {
+        List<SimulatedPlayer> on = new ArrayList<>();
+        for (SimulatedPlayer player : players.values()) {
+            if (serverName.equalsIgnoreCase(player.server)) {
+                on.add(player);
+            }
+        }
+        return on;
+    }
+
+    /**
+     * Runs every event due up to {@code time} in order, then moves the clock there.
+     */
+    void advanceTo(long time) {
+        Event next;
+        while ((next = events.peek()) != null && next.at <= time) {
+            events.poll();
+            now = next.at;
+            next.action.run();
+        }
+        now = time;
+    }
+
+    /**
+     * @return Whether messages or player moves are still in flight.
+     */
+    boolean isIdle() {
+        return events.isEmpty();
+    }
+
+    // --- Backend -> proxy ---
+
+    /**
+     * Receives a BungeeCord plugin message a backend sent through a player's connection, the
+     * equivalent of {@code player.sendPluginMessage(plugin, "BungeeCord", message)}.
+     *
+     * @param fromServer The sending backend.
+     * @param via The player whose connection carries the message.
+     * @param message The raw message.
+     */
+    void send(String fromServer, SimulatedPlayer via, byte[] message) {
+        hop(fromServer, "proxy", () -> {
+            if (!fromServer.equalsIgnoreCase(via.server)) {
+                messagesLost++; // The player left that server: the connection is gone.
+                return;
+            }
+            handle(fromServer, via, message);
+        });
+    }
+
+    private void handle(String fromServer, SimulatedPlayer via, byte[] message) {
+        PluginMessageCodec.Reader in = PluginMessageCodec.read(message);
+        PluginMessageCodec.Subchannel subchannel = PluginMessageCodec.Subchannel.match(in);
+        if (subchannel == PluginMessageCodec.Subchannel.GET_SERVER) {
+            reply(via, new PluginMessageCodec.Writer(32).writeUTF("GetServer").writeUTF(via.server));
+        } else if (subchannel == PluginMessageCodec.Subchannel.CONNECT) {
+            connect(via, in.readUTF());
+        } else if (subchannel == PluginMessageCodec.Subchannel.CONNECT_OTHER) {
+            SimulatedPlayer target = playersByName.get(in.readUTF().toLowerCase(Locale.ROOT));
+            String serverName = in.readUTF();
+            if (target != null) {
+                connect(target, serverName);
+            }
+        } else if (subchannel == PluginMessageCodec.Subchannel.PLAYER_COUNT) {
+            String serverName = in.readUTF();
+            reply(via, new PluginMessageCodec.Writer(32).writeUTF("PlayerCount").writeUTF(serverName)
+                    .writeInt(playersOn(serverName).size()));
+        } else if (subchannel == PluginMessageCodec.Subchannel.FORWARD) {
+            String target = in.readUTF();
+            byte[] forwarded = forwardedMessage(in);
+            if (target.equals("ALL")) {
+                // Like BungeeCord, every server but the sender's.
+                for (SimulatedServer server : servers.values()) {
+                    if (!server.getName().equalsIgnoreCase(fromServer)) {
+                        deliver(server, null, forwarded);
+                    }
+                }
+            } else if (servers.containsKey(target.toLowerCase(Locale.ROOT))) {
+                deliver(server(target), null, forwarded);
+            }
+        } else if (subchannel == PluginMessageCodec.Subchannel.FORWARD_TO_PLAYER) {
+            SimulatedPlayer target = playersByName.get(in.readUTF().toLowerCase(Locale.ROOT));
+            byte[] forwarded = forwardedMessage(in);
+            if (target != null) {
+                deliver(server(target.server), null, forwarded);
+            }
+        } else {
+            messagesIgnored++;
+        }
+    }
+
+    /**
+     * Re-encodes the channel, length and data of a Forward envelope the way the proxy
+     * delivers them to the target server.
+     */
+    private static byte[] forwardedMessage(PluginMessageCodec.Reader in) {
+        String channel = in.readUTF();
+        int length = in.readUnsignedShort();
+        return new PluginMessageCodec.Writer(length + 32).writeUTF(channel).writeShort(length)
+                .write(in.array(), in.position(), length).toByteArray();
+    }
+
+    // --- Proxy -> backend ---
+
+    /**
+     * Answers through the connection the request came from, on whichever server the player is now.
+     */
+    private void reply(SimulatedPlayer via, PluginMessageCodec.Writer message) {
+        deliver(server(via.server), via, message.toByteArray());
+    }
+
+    private void deliver(SimulatedServer server, SimulatedPlayer via, byte[] message) {
+        hop("proxy", server.getName(), () -> server.onPluginMessage(via, message));
+    }
+
+    /**
+     * Moves a player. Like BungeeCord, the old server connection stays up (and keeps carrying
+     * plugin messages) until the login on the target is done; then the player quits the old
+     * server and joins the new one.
+     */
+    private void connect(SimulatedPlayer player, String serverName) {
+        SimulatedServer target = servers.get(serverName.toLowerCase(Locale.ROOT));
+        if (target == null || player.server.equalsIgnoreCase(serverName) || player.moving) {
+            return;
+        }
+        connectsHandled++;
+        player.moving = true;
+        schedule(now + transferMillis, () -> {
+            player.moving = false;
+            server(player.server).quit(player);
+            player.server = target.getName();
+            target.join(player);
+        });
+    }
+
+    // --- Network ---
+
+    /**
+     * Runs {@code action} when a message sent now over the link arrives, or never if it is lost.
+     */
+    private void hop(String from, String to, Runnable action) {
+        messagesSent++;
+        if (lossRate > 0 && random.nextDouble() < lossRate) {
+            messagesLost++;
+            return;
+        }
+        long delay = latencyMillis + (jitterMillis > 0 ? (long) (random.nextDouble() * jitterMillis) : 0);
+        // A connection delivers in order: never overtake the previous message on the same link.
+        String link = from + ">" + to;
+        long at = Math.max(now + delay, linkClear.getOrDefault(link, 0L));
+        linkClear.put(link, at);
+        schedule(at, action);
+    }
+
+    private void schedule(long at, Runnable action) {
+        events.add(new Event(at, sequence++, action));
+    }
+
+    private SimulatedServer server(String name) {
+        return servers.get(name.toLowerCase(Locale.ROOT));
+    }
+}
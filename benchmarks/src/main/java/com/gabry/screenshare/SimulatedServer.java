@@ -0,0 +1,446 @@
+package com.gabry.screenshare;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * One backend of the {@link NetworkSimulator}: the session path of {@link ScreenShare} (/ss,
+ * the handoff to the SS server, the arrival and its acknowledgement, /ssend on the SS server,
+ * the pending and reconnect timers) built from the plugin's own components and wired to a
+ * {@link SimulatedProxy} instead of a running server. Messages to the other instances go through
+ * a {@link Transport}, like in the plugin: over the proxy, or over a {@link LoopbackTransport}.
+ *
+ * The handoff, the arrival, the timers and the end run in the plugin's {@link SessionLifecycle};
+ * this class only provides what the server provides in the plugin (players, the scheduler, the
+ * proxy connection) and the command steps around it, minus chat output, logging and the API events.
+ *
+ * Not thread-safe; the whole simulation runs on one thread, like the server's main thread.
+ */
+final class SimulatedServer {
+
+    // As ScreenShare's digest exchange and Connect grace period.
+    private static final long REGISTRY_DIGEST_INTERVAL_TICKS = 20L * 30;
+    private static final long CONNECT_GRACE_MILLIS = 10_000L;
+
+    /**
+     * What the simulator is told about, to script sessions and measure them.
+     */
+    interface Observer {
+        /**
+         * A player announced by a handoff has arrived on this (SS) server.
+         */
+        void arrived(SimulatedServer server, SimulatedProxy.SimulatedPlayer player);
+
+        /**
+         * The arrival of a player this server started a session for was acknowledged.
+         *
+         * @param latencyMillis The time from the /ss command to the acknowledgement.
+         */
+        void acknowledged(UUID playerId, long latencyMillis);
+    }
+
+    private final String name;
+    private final SimulatedProxy proxy;
+    private final NetworkSimulator.Options options;
+    private final Observer observer;
+    private final PluginMessageCodec codec = new PluginMessageCodec();
+    private final Transport transport;
+    private final SessionRegistry sessions;
+    private final ServerPool ssPool;
+    private final CircuitBreaker proxyBreaker;
+    private final ProxyRequestTable<UUID, String> serverLookups;
+    private final ConnectingPlayers connectingPlayers;
+    private final SessionLifecycle lifecycle;
+    private final TickBudgetOutbox connectOutbox;
+    private final CommandDispatcher hookDispatcher;
+    private final Map<UUID, SimulatedProxy.SimulatedPlayer> online = new LinkedHashMap<>();
+    private List<Runnable> nextTick = new ArrayList<>(); // Tasks of runTask(), run on the next tick
+    private long ticks;
+
+    // Counters, for the report.
+    long sessionsStarted;
+    long sessionsEnded;
+    long sessionsExpired;
+    long handoffTimeouts;
+    long hookCommandsRun;
+    long connectsDropped; // Player gone before their Connect could be sent
+
+    /**
+     * @param hub The loopback hub the instances talk through, or null to go through the proxy.
+     */
+    SimulatedServer(String name, SimulatedProxy proxy, LoopbackTransport.Hub hub, NetworkSimulator.Options options,
+                    Observer observer) {
+        this.name = name;
+        this.proxy = proxy;
+        this.options = options;
+        this.observer = observer;
+        this.connectingPlayers = new ConnectingPlayers(proxy::currentTimeMillis, CONNECT_GRACE_MILLIS);
+        this.transport = hub == null ? new ProxyTransport() : hub.join(name, new Inbound());
+        this.sessions = new SessionRegistry(name, proxy::currentTimeMillis, new TransportRegistryOutbound());
+        this.lifecycle = new SessionLifecycle(sessions, codec, proxy::currentTimeMillis, new Host());
+        this.lifecycle.configure(options.sessionPendingTimeoutMillis, options.handoffTimeoutMillis, options.reconnectGraceMillis);
+        List<ServerPool.Member> members = new ArrayList<>();
+        for (String ssServer : options.ssServerNames()) {
+            members.add(new ServerPool.Member(ssServer, options.ssCapacity));
+        }
+        this.ssPool = new ServerPool(members, proxy::currentTimeMillis, options.poolHealthTimeoutMillis);
+        this.proxyBreaker = new CircuitBreaker(proxy::currentTimeMillis, options.proxyBreakerThreshold, options.proxyBreakerOpenMillis);
+        this.serverLookups = new ProxyRequestTable<>(proxy::currentTimeMillis);
+        this.serverLookups.setRetryPolicy(options.proxyMaxRetries, options.proxyRetryBackoffMillis, options.proxyRetryBackoffMillis * 8);
+        this.serverLookups.setCircuitBreaker(proxyBreaker);
+        this.connectOutbox = new TickBudgetOutbox(options.connectPerTick);
+        this.hookDispatcher = new CommandDispatcher(command -> hookCommandsRun++, options.commandsPerTick);
+    }
+
+    String getName() {
+        return name;
+    }
+
+    SessionRegistry getSessions() {
+        return sessions;
+    }
+
+    boolean isOnline(UUID playerId) {
+        return online.containsKey(playerId);
+    }
+
+    // --- Commands ---
+
+    /**
+     * /ss on a player of this server, as {@code startScreenShare} and {@code initiateScreenShare}
+     * run it. The queue is not simulated: QUEUED means the player would have waited for a slot.
+     *
+     * @return A future completed with the outcome, once the proxy has told where the player is.
+     */
+    CompletableFuture<SessionOutcome.Status> startScreenShare(SimulatedProxy.SimulatedPlayer target, String staffName) {
+        long issuedAt = proxy.currentTimeMillis();
+        return getCurrentServerName(target).handle((currentServer, error) -> {
+            if (error != null) {
+                return SessionOutcome.Status.FAILED;
+            }
+            if (sessions.get(target.id) != null) {
+                return SessionOutcome.Status.SKIPPED;
+            }
+            if (!ssPool.hasCapacity()) {
+                return SessionOutcome.Status.QUEUED;
+            }
+            if (ssPool.contains(currentServer)) {
+                return SessionOutcome.Status.SKIPPED;
+            }
+            String ssServer = ssPool.route();
+            if (ssServer == null) {
+                return SessionOutcome.Status.QUEUED;
+            }
+
+            ScreenShareSession session = ScreenShareSession.start(target.id, target.name, currentServer, ssServer, null, staffName);
+            lifecycle.start(session, name).whenComplete((arrivedOn, ackError) -> {
+                if (ackError instanceof TimeoutException) {
+                    handoffTimeouts++;
+                } else if (ackError == null) {
+                    observer.acknowledged(target.id, proxy.currentTimeMillis() - issuedAt);
+                }
+            });
+            sessionsStarted++;
+            connectPlayerToServer(target, ssServer);
+            return SessionOutcome.Status.STARTED;
+        });
+    }
+
+    /**
+     * /ssend on a player of this (SS) server, as {@code endScreenShare(Player, ...)} runs it.
+     */
+    CompletableFuture<SessionOutcome.Status> endScreenShare(SimulatedProxy.SimulatedPlayer target) {
+        ScreenShareSession session = sessions.get(target.id);
+        if (session == null) {
+            return CompletableFuture.completedFuture(SessionOutcome.Status.SKIPPED);
+        }
+        String originalServer = session.getOriginServer();
+        return getCurrentServerName(target).handle((currentServer, error) -> {
+            // Without an answer from the proxy we still know where to send the player back.
+            if (lifecycle.end(target.id) != null) {
+                sessionsEnded++;
+            }
+            HookPipeline onReturn = options.onReturnHook;
+            if (!onReturn.isEmpty() && isOnline(target.id)) {
+                hookDispatcher.run(onReturn, hookContext(session))
+                        .thenRun(() -> connectPlayerToServer(target, originalServer));
+            } else {
+                connectPlayerToServer(target, originalServer);
+            }
+            return SessionOutcome.Status.ENDED;
+        });
+    }
+
+    // --- Proxy ---
+
+    private CompletableFuture<String> getCurrentServerName(SimulatedProxy.SimulatedPlayer player) {
+        // The location cache is left out: every lookup is a GetServer, the proxy's worst case.
+        return serverLookups.request(player.id, options.proxyTimeoutMillis,
+                () -> proxy.send(name, player, codec.getServer()));
+    }
+
+    private void connectPlayerToServer(SimulatedProxy.SimulatedPlayer player, String serverName) {
+        connectOutbox.submit(() -> {
+            if (!isOnline(player.id)) {
+                connectsDropped++;
+                return;
+            }
+            // Registry changes leave ahead of the Connect, as in ScreenShare.
+            sessions.flush();
+            proxy.send(name, player, codec.connect(serverName));
+            connectingPlayers.connecting(player.id);
+        });
+    }
+
+    /**
+     * A message from the proxy, as {@code onPluginMessageReceived} handles it.
+     *
+     * @param via The player whose connection carried a reply, or null for forwarded messages.
+     */
+    void onPluginMessage(SimulatedProxy.SimulatedPlayer via, byte[] message) {
+        PluginMessageCodec.Reader in = PluginMessageCodec.read(message);
+        PluginMessageCodec.Subchannel subchannel = PluginMessageCodec.Subchannel.match(in);
+        if (subchannel == PluginMessageCodec.Subchannel.GET_SERVER) {
+            serverLookups.complete(via.id, in.readUTF());
+        } else if (subchannel == PluginMessageCodec.Subchannel.PLAYER_COUNT) {
+            String serverName = in.readUTF();
+            ssPool.onPlayerCount(serverName, in.readInt());
+        } else if (subchannel == PluginMessageCodec.Subchannel.SCREENSHARE) {
+            handleForwardMessage(in.slice(in.readUnsignedShort()));
+        }
+    }
+
+    private void handleForwardMessage(PluginMessageCodec.Reader in) {
+        int start = in.position();
+        int length = in.remaining();
+        byte type = in.readByte();
+        switch (type) {
+            case SessionLifecycle.MSG_HANDOFF:
+                lifecycle.onHandoff(in);
+                break;
+            case SessionLifecycle.MSG_HANDOFF_ACK:
+                lifecycle.onHandoffAck(in);
+                break;
+            case SessionRegistry.MSG_DELTA:
+            case SessionRegistry.MSG_SYNC_REQUEST:
+            case SessionRegistry.MSG_SNAPSHOT:
+            case SessionRegistry.MSG_DIGEST:
+                sessions.receive(in.array(), start, length);
+                break;
+            default:
+                break;
+        }
+    }
+
+    // --- Players ---
+
+    void join(SimulatedProxy.SimulatedPlayer player) {
+        online.put(player.id, player);
+        lifecycle.arrive(player.id);
+    }
+
+    void quit(SimulatedProxy.SimulatedPlayer player) {
+        online.remove(player.id);
+        connectingPlayers.left(player.id);
+        lifecycle.leave(player.id);
+    }
+
+    private static CommandTemplate.Context hookContext(ScreenShareSession session) {
+        return new CommandTemplate.Context(session.getPlayerName(), session.getStaffName(),
+                session.getOriginServer(), session.getSsServer(), session.getSessionId());
+    }
+
+    /**
+     * @return The player whose connection should carry a message to the proxy, as
+     *         ScreenShare's {@code proxyVia}.
+     */
+    private SimulatedProxy.SimulatedPlayer proxyVia() {
+        return connectingPlayers.pick(online.values(), player -> player.id);
+    }
+
+    // --- Tick ---
+
+    /**
+     * One server tick: the plugin's repeating tasks, in the order onEnable schedules them.
+     */
+    void tick() {
+        List<Runnable> due = nextTick;
+        nextTick = new ArrayList<>();
+        for (Runnable task : due) {
+            task.run();
+        }
+        serverLookups.expire();
+        sessions.flush();
+        lifecycle.tick();
+        connectOutbox.tick();
+        hookDispatcher.tick();
+        if (ticks % options.poolPollIntervalTicks == 0) {
+            SimulatedProxy.SimulatedPlayer via = proxyVia();
+            if (via != null) {
+                ssPool.poll(server -> proxy.send(name, via, codec.playerCount(server)));
+            }
+        }
+        if (ticks > 0 && ticks % REGISTRY_DIGEST_INTERVAL_TICKS == 0) {
+            SimulatedProxy.SimulatedPlayer via = proxyVia();
+            if (via != null) {
+                sessions.broadcastDigest(via.name);
+            }
+        }
+        ticks++;
+        transport.tick();
+    }
+
+    /**
+     * @return Work this server still holds: registered sessions aside, everything here should
+     * be back to zero once the network has been quiet for longer than every timeout.
+     */
+    Map<String, Integer> leftovers() {
+        Map<String, Integer> leftovers = new LinkedHashMap<>();
+        leftovers.put("pending GetServer replies", serverLookups.size());
+        leftovers.put("pending arrival acks", lifecycle.pendingAcks());
+        leftovers.put("pending handoffs", lifecycle.pendingHandoffs());
+        leftovers.put("session timers", lifecycle.timers());
+        leftovers.put("queued connects", connectOutbox.backlog());
+        leftovers.put("queued hook commands", hookDispatcher.backlog());
+        leftovers.put("arrived players without a session", countArrivedWithoutSession());
+        return Collections.unmodifiableMap(leftovers);
+    }
+
+    private int countArrivedWithoutSession() {
+        int count = 0;
+        for (UUID playerId : lifecycle.arrivals()) {
+            if (!sessions.contains(playerId)) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * The registry's outbound, as ScreenShare's.
+     */
+    private final class TransportRegistryOutbound implements SessionRegistry.Outbound {
+        @Override
+        public void broadcast(byte[] message) {
+            transport.broadcast(message);
+        }
+
+        @Override
+        public void sendToPlayer(String playerName, byte[] message) {
+            transport.sendToPlayer(playerName, message);
+        }
+    }
+
+    /**
+     * What the plugin's server provides to the session path: the transport, the scheduler,
+     * the players online here, and the on-join hook.
+     */
+    private final class Host implements SessionLifecycle.Host {
+        @Override
+        public boolean sendToInstance(String targetServer, byte[] payload, UUID preferredVia) {
+            return transport.send(targetServer, payload, preferredVia);
+        }
+
+        @Override
+        public void runNextTick(Runnable task) {
+            nextTick.add(task);
+        }
+
+        @Override
+        public boolean isOnline(UUID playerId) {
+            return SimulatedServer.this.isOnline(playerId);
+        }
+
+        @Override
+        public void arrived(PendingHandoffs.Handoff handoff, ScreenShareSession session) {
+            hookDispatcher.run(options.onJoinHook, new CommandTemplate.Context(handoff.playerName, handoff.staffName,
+                    handoff.originServer, handoff.ssServer, session == null ? "" : session.getSessionId()));
+            observer.arrived(SimulatedServer.this, online.get(handoff.playerId));
+        }
+
+        @Override
+        public void expired(ScreenShareSession session) {
+            sessionsExpired++;
+        }
+    }
+
+    /**
+     * {@link PluginMessageTransport} over the simulated proxy: Forward and ForwardToPlayer
+     * through the preferred player if they are online here and not connecting, otherwise
+     * through a player who is not connecting.
+     */
+    private final class ProxyTransport implements Transport {
+        @Override
+        public boolean canSend() {
+            return !online.isEmpty();
+        }
+
+        @Override
+        public boolean send(String targetServer, byte[] message, UUID preferredVia) {
+            SimulatedProxy.SimulatedPlayer preferred = preferredVia == null || connectingPlayers.isConnecting(preferredVia)
+                    ? null : online.get(preferredVia);
+            SimulatedProxy.SimulatedPlayer via = preferred != null ? preferred : proxyVia();
+            if (via == null) {
+                return false;
+            }
+            proxy.send(name, via, codec.forward(targetServer, message));
+            return true;
+        }
+
+        @Override
+        public boolean broadcast(byte[] message) {
+            return send("ALL", message, null);
+        }
+
+        @Override
+        public boolean sendToPlayer(String playerName, byte[] message) {
+            SimulatedProxy.SimulatedPlayer via = proxyVia();
+            if (via == null) {
+                return false;
+            }
+            proxy.send(name, via, codec.forwardToPlayer(playerName, message));
+            return true;
+        }
+
+        @Override
+        public void tick() {
+            // Sent immediately, like plugin messages.
+        }
+
+        @Override
+        public void close() {
+            // Nothing to release.
+        }
+
+        @Override
+        public String describe() {
+            return "plugin-message (simulated proxy)";
+        }
+    }
+
+    /**
+     * Receives what a {@link LoopbackTransport} delivers, as ScreenShare's transport inbound.
+     */
+    private final class Inbound implements Transport.Inbound {
+        @Override
+        public void receive(PluginMessageCodec.Reader message) {
+            handleForwardMessage(message);
+        }
+
+        @Override
+        public boolean isLocalPlayer(String playerName) {
+            for (SimulatedProxy.SimulatedPlayer player : online.values()) {
+                if (player.name.equalsIgnoreCase(playerName)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+}
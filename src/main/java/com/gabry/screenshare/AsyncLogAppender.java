@@ -0,0 +1,135 @@
+package com.gabry.screenshare;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.LogRecord;
+import java.util.logging.Logger;
+
+/**
+ * Hands log records to a background thread, so the console handlers (formatting, colour
+ * translation, file I/O) never run on the thread that logged.
+ *
+ * Records wait in a bounded ring buffer. When it is full new records are dropped rather than
+ * blocking the caller, and the number of dropped records is reported with the next record that
+ * gets through. Before {@link #start()} and after {@link #close(long)} records are published
+ * directly on the calling thread, so nothing logged during enable or disable is lost.
+ *
+ * Thread-safe.
+ */
+final class AsyncLogAppender {
+
+    private final Logger logger;
+    private final BlockingQueue<LogRecord> buffer;
+    private final AtomicLong dropped = new AtomicLong();
+    private volatile Thread worker;
+
+    /**
+     * @param logger Where records are finally published.
+     * @param capacity How many records may wait before new ones are dropped.
+     */
+    AsyncLogAppender(Logger logger, int capacity) {
+        this.logger = logger;
+        this.buffer = new ArrayBlockingQueue<>(capacity);
+    }
+
+    /**
+     * Starts the background thread. Does nothing if it is already running.
+     */
+    synchronized void start() {
+        if (worker != null) {
+            return;
+        }
+        Thread thread = new Thread(this::drainLoop, "ScreenShare-Log");
+        thread.setDaemon(true);
+        worker = thread;
+        thread.start();
+    }
+
+    /**
+     * Queues a message. The record is created here, so its timestamp and thread are the
+     * caller's, not the background thread's.
+     *
+     * @return False if the buffer was full and the message was dropped.
+     */
+    boolean append(Level level, String message) {
+        LogRecord record = new LogRecord(level, message);
+        record.setLoggerName(logger.getName());
+        record.setSourceClassName(null); // Stops the record from inferring the caller on the worker thread.
+        if (worker == null) {
+            logger.log(record);
+            return true;
+        }
+        if (!buffer.offer(record)) {
+            dropped.incrementAndGet();
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * @return The number of records waiting to be published.
+     */
+    int backlog() {
+        return buffer.size();
+    }
+
+    /**
+     * @return The number of records dropped because the buffer was full, since the last report.
+     */
+    long droppedCount() {
+        return dropped.get();
+    }
+
+    /**
+     * Stops the background thread and publishes whatever is still buffered on the calling thread.
+     *
+     * @param timeoutMillis How long to wait for the background thread to finish its current record.
+     */
+    synchronized void close(long timeoutMillis) {
+        Thread thread = worker;
+        if (thread == null) {
+            return;
+        }
+        worker = null;
+        thread.interrupt();
+        try {
+            thread.join(timeoutMillis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        publishBuffered();
+    }
+
+    private void drainLoop() {
+        while (worker == Thread.currentThread()) {
+            try {
+                LogRecord record = buffer.poll(1, TimeUnit.SECONDS);
+                if (record != null) {
+                    publish(record);
+                }
+            } catch (InterruptedException e) {
+                return;
+            } catch (RuntimeException e) {
+                // A misbehaving handler must not kill the logging thread.
+                System.err.println("[ScreenShare] Log handler failed: " + e);
+            }
+        }
+    }
+
+    private void publishBuffered() {
+        for (LogRecord record; (record = buffer.poll()) != null; ) {
+            publish(record);
+        }
+    }
+
+    private void publish(LogRecord record) {
+        long lost = dropped.getAndSet(0);
+        if (lost > 0) {
+            logger.log(Level.WARNING, "[ScreenShare] " + lost + " log messages were dropped (log buffer full).");
+        }
+        logger.log(record);
+    }
+}
@@ -0,0 +1,144 @@
+package com.gabry.screenshare;
+
+import java.util.function.LongSupplier;
+
+/**
+ * Circuit breaker for requests to the proxy.
+ *
+ * After {@code failureThreshold} consecutive timeouts the breaker opens and requests fail
+ * immediately with {@link OpenException} instead of waiting for a reply that is not coming.
+ * Once {@code openMillis} have passed, one trial request is let through (half-open): a reply
+ * closes the breaker, another timeout opens it again for a further {@code openMillis}. The
+ * plugin's periodic heartbeat makes sure a trial happens even when nobody runs a command.
+ *
+ * State changes happen on the main thread; {@link #getState()} may be read from any thread.
+ */
+final class CircuitBreaker {
+
+    enum State {
+        /** Requests flow normally. */
+        CLOSED,
+        /** Requests are rejected until the open period ends. */
+        OPEN,
+        /** One trial request is in flight; others are rejected until it resolves. */
+        HALF_OPEN
+    }
+
+    /**
+     * Thrown (as a failed future) for requests rejected while the breaker is open.
+     */
+    static final class OpenException extends Exception {
+        private static final long serialVersionUID = 1L;
+
+        private final long retryInMillis;
+
+        OpenException(long retryInMillis) {
+            super("Proxy circuit breaker is open; retry in " + retryInMillis + "ms");
+            this.retryInMillis = retryInMillis;
+        }
+
+        /**
+         * @return How long until the breaker lets a trial request through.
+         */
+        long getRetryInMillis() {
+            return retryInMillis;
+        }
+    }
+
+    private final LongSupplier clock; // Milliseconds, injectable so the timing can be driven manually.
+    private int failureThreshold;
+    private long openMillis;
+    private volatile State state = State.CLOSED;
+    private int consecutiveFailures;
+    private long openedAt;
+    private long timesOpened;
+
+    /**
+     * @param clock The clock used for the open period.
+     * @param failureThreshold Consecutive failures that open the breaker.
+     * @param openMillis How long the breaker stays open before a trial request.
+     */
+    CircuitBreaker(LongSupplier clock, int failureThreshold, long openMillis) {
+        this.clock = clock;
+        configure(failureThreshold, openMillis);
+    }
+
+    void configure(int failureThreshold, long openMillis) {
+        this.failureThreshold = failureThreshold;
+        this.openMillis = openMillis;
+    }
+
+    /**
+     * Asks to send a request. Must be followed by {@link #recordSuccess()} or
+     * {@link #recordFailure()} once the request resolves.
+     *
+     * @return True if the request may be sent.
+     */
+    boolean allowRequest() {
+        switch (state) {
+            case CLOSED:
+                return true;
+            case OPEN:
+                if (clock.getAsLong() - openedAt >= openMillis) {
+                    state = State.HALF_OPEN; // This request is the trial.
+                    return true;
+                }
+                return false;
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * @return Whether requests are being rejected right now (open, and not yet due a trial).
+     */
+    boolean isRejecting() {
+        return state == State.HALF_OPEN || (state == State.OPEN && retryInMillis() > 0);
+    }
+
+    /**
+     * @return How long until a trial request is allowed, or 0 if requests are allowed now.
+     */
+    long retryInMillis() {
+        if (state != State.OPEN) {
+            return 0;
+        }
+        return Math.max(0, openedAt + openMillis - clock.getAsLong());
+    }
+
+    void recordSuccess() {
+        consecutiveFailures = 0;
+        state = State.CLOSED;
+    }
+
+    void recordFailure() {
+        consecutiveFailures++;
+        if (state == State.HALF_OPEN || (state == State.CLOSED && consecutiveFailures >= failureThreshold)) {
+            open();
+        }
+    }
+
+    /**
+     * Builds the exception for a rejected request.
+     */
+    OpenException rejection() {
+        return new OpenException(Math.max(retryInMillis(), 0));
+    }
+
+    State getState() {
+        return state;
+    }
+
+    /**
+     * @return How many times the breaker has opened since it was created.
+     */
+    long getTimesOpened() {
+        return timesOpened;
+    }
+
+    private void open() {
+        state = State.OPEN;
+        openedAt = clock.getAsLong();
+        timesOpened++;
+    }
+}
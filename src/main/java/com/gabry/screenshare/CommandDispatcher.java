@@ -0,0 +1,143 @@
+package com.gabry.screenshare;
+
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Consumer;
+
+/**
+ * Runs hook pipelines, spreading their console commands across ticks.
+ *
+ * Each pipeline runs its steps in order, waiting each step's delay after the previous one.
+ * Every command then goes through a per-tick budget: while the tick has budget left it runs
+ * immediately (so a single /ss behaves as before), beyond that it waits for the following
+ * ticks. A bulk /ss on a hundred players therefore costs a few commands per tick instead of a
+ * few hundred in one. Delays are kept in a {@link TimingWheel}, so waiting pipelines cost
+ * nothing until they are due.
+ *
+ * This class is not thread-safe; it is only used from the main thread.
+ */
+final class CommandDispatcher {
+
+    private final Consumer<String> executor;
+    private final TickBudgetOutbox outbox;
+    private final TimingWheel delays = new TimingWheel(256);
+    private final Set<Run> running = new LinkedHashSet<>();
+
+    /**
+     * @param executor Runs one rendered command (on the console). Should not throw; if it does,
+     *                 the pipeline still moves on to its next step.
+     * @param commandsPerTick How many commands may run per tick.
+     */
+    CommandDispatcher(Consumer<String> executor, int commandsPerTick) {
+        this.executor = executor;
+        this.outbox = new TickBudgetOutbox(commandsPerTick);
+    }
+
+    /**
+     * Starts a pipeline.
+     *
+     * @param pipeline The steps to run.
+     * @param context The placeholder values, rendered as each step runs.
+     * @return A future completed (on the main thread) once the last command has run; already
+     * completed for an empty pipeline.
+     */
+    CompletableFuture<Void> run(HookPipeline pipeline, CommandTemplate.Context context) {
+        if (pipeline.isEmpty()) {
+            return CompletableFuture.completedFuture(null);
+        }
+        Run run = new Run(pipeline.steps(), context);
+        running.add(run);
+        run.advance();
+        return run.done;
+    }
+
+    /**
+     * Starts a new tick: resets the budget, runs queued commands, then queues steps whose delay ended.
+     */
+    void tick() {
+        outbox.tick();
+        delays.advance();
+    }
+
+    /**
+     * Runs every remaining step of every pipeline now, ignoring budget and delays, in order.
+     * Used on plugin disable.
+     */
+    void drain() {
+        for (Run run : running.toArray(new Run[0])) {
+            run.finishNow();
+        }
+    }
+
+    /**
+     * @return Commands waiting for budget, plus pipelines waiting on a delay.
+     */
+    int backlog() {
+        return outbox.backlog() + delays.size();
+    }
+
+    void setCommandsPerTick(int commandsPerTick) {
+        outbox.setBudgetPerTick(commandsPerTick);
+    }
+
+    /**
+     * One pipeline in progress.
+     */
+    private final class Run {
+        private final List<HookPipeline.Step> steps;
+        private final CommandTemplate.Context context;
+        private final CompletableFuture<Void> done = new CompletableFuture<>();
+        private int next; // Index of the step to run next
+        private TimingWheel.Timeout delay;
+
+        private Run(List<HookPipeline.Step> steps, CommandTemplate.Context context) {
+            this.steps = steps;
+            this.context = context;
+        }
+
+        /**
+         * Queues the next step, after its delay if it has one.
+         */
+        private void advance() {
+            if (next == steps.size()) {
+                running.remove(this);
+                done.complete(null);
+                return;
+            }
+            int step = next;
+            long delayTicks = steps.get(step).delayTicks;
+            if (delayTicks > 0) {
+                delay = delays.schedule(delayTicks, () -> submit(step));
+            } else {
+                submit(step);
+            }
+        }
+
+        private void submit(int step) {
+            outbox.submit(() -> {
+                if (next != step) {
+                    return; // Already run by drain().
+                }
+                next++;
+                try {
+                    executor.accept(steps.get(step).command.render(context));
+                } finally {
+                    advance(); // A failing command must not stall the rest of the hook.
+                }
+            });
+        }
+
+        private void finishNow() {
+            if (delay != null) {
+                delay.cancel();
+            }
+            while (next < steps.size()) {
+                executor.accept(steps.get(next++).command.render(context));
+            }
+            running.remove(this);
+            done.complete(null);
+        }
+    }
+}
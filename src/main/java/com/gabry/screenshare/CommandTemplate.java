@@ -0,0 +1,160 @@
+package com.gabry.screenshare;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.function.Consumer;
+
+/**
+ * A console command with %placeholders%, compiled once when the configuration is loaded.
+ *
+ * Compiling splits the text into the literal runs between placeholders and the placeholder
+ * that follows each run, so rendering is a single pass appending into one pre-sized builder:
+ * no regex and no intermediate string per placeholder, however many the template uses.
+ *
+ * Text between percent signs that is not a known placeholder is kept literally, so commands
+ * such as {@code say 100% done} need no escaping.
+ *
+ * Instances are immutable and can be shared between threads.
+ */
+final class CommandTemplate {
+
+    /**
+     * The values a template can refer to.
+     */
+    enum Placeholder {
+        /** The player in the session. */
+        PLAYER("player"),
+        /** The staff member who started the session. */
+        STAFF("staff"),
+        /** The server the player came from and goes back to. */
+        ORIGIN("origin"),
+        /** The screenshare server hosting the session. */
+        SS_SERVER("ss-server"),
+        /** The session id, as stored in the registry. */
+        SESSION("session");
+
+        private final String key;
+
+        Placeholder(String key) {
+            this.key = key;
+        }
+
+        static Placeholder byKey(String key) {
+            for (Placeholder placeholder : values()) {
+                if (placeholder.key.equals(key)) {
+                    return placeholder;
+                }
+            }
+            return null;
+        }
+    }
+
+    /**
+     * The placeholder values for one session.
+     */
+    static final class Context {
+        private final String[] values = new String[Placeholder.values().length];
+
+        /**
+         * @param player The player's name.
+         * @param staff The staff member's name.
+         * @param origin The origin server.
+         * @param ssServer The screenshare server.
+         * @param session The session id; empty if not known on this server yet.
+         */
+        Context(String player, String staff, String origin, String ssServer, String session) {
+            values[Placeholder.PLAYER.ordinal()] = player;
+            values[Placeholder.STAFF.ordinal()] = staff;
+            values[Placeholder.ORIGIN.ordinal()] = origin;
+            values[Placeholder.SS_SERVER.ordinal()] = ssServer;
+            values[Placeholder.SESSION.ordinal()] = session;
+        }
+
+        String get(Placeholder placeholder) {
+            String value = values[placeholder.ordinal()];
+            return value == null ? "" : value;
+        }
+    }
+
+    private final String source;
+    private final String[] literals; // One more than placeholders: literals[i] precedes placeholders[i].
+    private final Placeholder[] placeholders;
+    private final int literalLength;
+
+    private CommandTemplate(String source, String[] literals, Placeholder[] placeholders) {
+        this.source = source;
+        this.literals = literals;
+        this.placeholders = placeholders;
+        int length = 0;
+        for (String literal : literals) {
+            length += literal.length();
+        }
+        this.literalLength = length;
+    }
+
+    /**
+     * Compiles a command.
+     *
+     * @param source The command as written in config.yml, without the leading slash.
+     * @param warnings Receives a message for each %name% that is not a known placeholder.
+     * @return The compiled template.
+     */
+    static CommandTemplate compile(String source, Consumer<String> warnings) {
+        List<String> literals = new ArrayList<>();
+        List<Placeholder> placeholders = new ArrayList<>();
+        StringBuilder literal = new StringBuilder();
+        int i = 0;
+        while (i < source.length()) {
+            int open = source.indexOf('%', i);
+            if (open < 0) {
+                literal.append(source, i, source.length());
+                break;
+            }
+            int close = source.indexOf('%', open + 1);
+            if (close < 0) {
+                literal.append(source, i, source.length());
+                break;
+            }
+            literal.append(source, i, open);
+            String key = source.substring(open + 1, close);
+            Placeholder placeholder = Placeholder.byKey(key.toLowerCase(Locale.ROOT));
+            if (placeholder == null) {
+                // Not a placeholder: keep the first '%' and look for one starting at the second.
+                if (!key.isEmpty() && key.indexOf(' ') < 0) {
+                    warnings.accept("Unknown placeholder %" + key + "% in command '" + source + "' will be kept as is.");
+                }
+                literal.append('%');
+                i = open + 1;
+                continue;
+            }
+            literals.add(literal.toString());
+            literal.setLength(0);
+            placeholders.add(placeholder);
+            i = close + 1;
+        }
+        literals.add(literal.toString());
+        return new CommandTemplate(source, literals.toArray(new String[0]), placeholders.toArray(new Placeholder[0]));
+    }
+
+    /**
+     * @return The command with every placeholder replaced by its value in {@code context}.
+     */
+    String render(Context context) {
+        if (placeholders.length == 0) {
+            return literals[0];
+        }
+        StringBuilder out = new StringBuilder(literalLength + placeholders.length * 16);
+        for (int i = 0; i < placeholders.length; i++) {
+            out.append(literals[i]).append(context.get(placeholders[i]));
+        }
+        return out.append(literals[placeholders.length]).toString();
+    }
+
+    /**
+     * @return The command as written in config.yml.
+     */
+    String getSource() {
+        return source;
+    }
+}
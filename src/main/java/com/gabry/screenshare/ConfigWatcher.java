@@ -0,0 +1,109 @@
+package com.gabry.screenshare;
+
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Watches a single file with an NIO {@link WatchService} and reports when it changes.
+ *
+ * Editors usually save a file in several steps (truncate, write, rename), which shows up as a
+ * burst of events; the watcher waits until the file has been quiet for {@code debounceMillis}
+ * before reporting, so one save triggers one reload. The watch service sees a directory, so
+ * events for other files in it are ignored.
+ *
+ * Runs on its own daemon thread; {@code onChange} is called from that thread.
+ */
+final class ConfigWatcher {
+
+    private final WatchService service;
+    private final Path file;
+    private final long debounceMillis;
+    private final Runnable onChange;
+    private final Thread thread;
+
+    private ConfigWatcher(WatchService service, Path file, long debounceMillis, Runnable onChange) {
+        this.service = service;
+        this.file = file;
+        this.debounceMillis = debounceMillis;
+        this.onChange = onChange;
+        this.thread = new Thread(this::run, "ScreenShare-ConfigWatcher");
+        this.thread.setDaemon(true);
+    }
+
+    /**
+     * Starts watching.
+     *
+     * @param file The file to watch; its directory must exist.
+     * @param debounceMillis How long the file must stay unchanged before {@code onChange} runs.
+     * @param onChange Called on the watcher thread after each (debounced) change.
+     * @throws IOException If the directory cannot be watched.
+     */
+    static ConfigWatcher start(Path file, long debounceMillis, Runnable onChange) throws IOException {
+        Path absolute = file.toAbsolutePath();
+        WatchService service = FileSystems.getDefault().newWatchService();
+        try {
+            absolute.getParent().register(service,
+                    StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY);
+        } catch (IOException | RuntimeException e) {
+            service.close();
+            throw e;
+        }
+        ConfigWatcher watcher = new ConfigWatcher(service, absolute, debounceMillis, onChange);
+        watcher.thread.start();
+        return watcher;
+    }
+
+    /**
+     * Stops watching. No further {@code onChange} calls start after this returns.
+     */
+    void stop() {
+        try {
+            service.close(); // Wakes the thread with ClosedWatchServiceException.
+        } catch (IOException ignored) {
+            // Nothing left to release.
+        }
+        thread.interrupt();
+    }
+
+    private void run() {
+        try {
+            while (true) {
+                // Block until the file changes, then keep draining events until it goes quiet.
+                if (!drain(service.take())) {
+                    continue;
+                }
+                WatchKey key;
+                while ((key = service.poll(debounceMillis, TimeUnit.MILLISECONDS)) != null) {
+                    drain(key);
+                }
+                onChange.run();
+            }
+        } catch (InterruptedException | ClosedWatchServiceException e) {
+            // Stopped.
+        }
+    }
+
+    /**
+     * Consumes the events of a key.
+     *
+     * @return Whether any of them concerned the watched file.
+     */
+    private boolean drain(WatchKey key) {
+        boolean relevant = false;
+        for (WatchEvent<?> event : key.pollEvents()) {
+            if (event.kind() == StandardWatchEventKinds.OVERFLOW
+                    || file.getFileName().equals(event.context())) {
+                relevant = true;
+            }
+        }
+        key.reset();
+        return relevant;
+    }
+}
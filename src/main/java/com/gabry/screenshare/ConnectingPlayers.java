@@ -0,0 +1,91 @@
+package com.gabry.screenshare;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.UUID;
+import java.util.function.Function;
+import java.util.function.LongSupplier;
+
+/**
+ * Players this server has just sent a Connect for, and the choice of which player carries a
+ * message to the proxy.
+ *
+ * A Paper server can only reach the proxy through a player's connection, and the proxy drops
+ * what arrives on a connection it is switching to another server. So a message that any
+ * player could carry goes through one who is staying. A player counts as connecting from
+ * their Connect until they quit, or until the grace period ends (the Connect failed and they
+ * are still here).
+ *
+ * Main thread only.
+ */
+final class ConnectingPlayers {
+
+    private final Map<UUID, Long> connectingSince = new HashMap<>();
+    private final LongSupplier clock; // Milliseconds
+    private final long graceMillis;
+
+    ConnectingPlayers(LongSupplier clock, long graceMillis) {
+        this.clock = clock;
+        this.graceMillis = graceMillis;
+    }
+
+    /**
+     * A Connect was just sent for this player.
+     */
+    void connecting(UUID playerId) {
+        connectingSince.put(playerId, clock.getAsLong());
+    }
+
+    /**
+     * The player left this server.
+     */
+    void left(UUID playerId) {
+        connectingSince.remove(playerId);
+    }
+
+    /**
+     * @return Whether the player may be in the middle of a Connect.
+     */
+    boolean isConnecting(UUID playerId) {
+        Long since = connectingSince.get(playerId);
+        if (since == null) {
+            return false;
+        }
+        if (clock.getAsLong() - since >= graceMillis) {
+            connectingSince.remove(playerId);
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Picks the player whose connection should carry a message to the proxy.
+     *
+     * @param online The players on this server.
+     * @param idOf The UUID of a player.
+     * @return The first player who is not connecting; if everybody is, any player (better
+     *         than not trying); null if nobody is online.
+     */
+    <P> P pick(Iterable<? extends P> online, Function<? super P, UUID> idOf) {
+        Iterator<? extends P> players = online.iterator();
+        if (!players.hasNext()) {
+            return null;
+        }
+        P first = players.next();
+        if (connectingSince.isEmpty() || !isConnecting(idOf.apply(first))) {
+            return first;
+        }
+        while (players.hasNext()) {
+            P player = players.next();
+            if (!isConnecting(idOf.apply(player))) {
+                return player;
+            }
+        }
+        return first;
+    }
+
+    int size() {
+        return connectingSince.size();
+    }
+}
@@ -0,0 +1,555 @@
+package com.gabry.screenshare;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Records what a player does on the SS server during their screenshare (chat, commands,
+ * disconnects and reconnections) as evidence, one folder per session under {@code evidence/}.
+ *
+ * Events go into a per-session ring buffer, which never blocks and never touches the disk: a
+ * chat message is recorded from the chat thread, a command from the main thread. A dedicated
+ * writer thread drains every ring into the session's current chunk; a chunk holds up to
+ * {@link #CHUNK_SIZE} bytes of events and is written deflated to its own file. The open chunk
+ * is rewritten every {@link #FLUSH_INTERVAL_MILLIS} while events arrive, so a crash loses at
+ * most that much. Chunk files are written to a temporary file, forced to disk and atomically
+ * moved into place.
+ *
+ * The ring also serves /sstail: a tail reads the same ring through its own {@link Cursor}, so
+ * a slow or absent reader never holds up the recorder. Events overwritten before a reader got
+ * to them are counted as lost for that reader (for the writer, they end up in the metrics and
+ * in the chunk as an {@link #EVENT_LOST} marker).
+ *
+ * Chunks of ended sessions are read back through a memory-mapped file ({@link #readLast}).
+ *
+ * Layout:
+ * <pre>
+ * chunk-NNNNNN.sse: MAGIC, version, event count, raw length, crc32 of raw, deflated raw
+ * raw:              n * (time, type, flags, text)
+ * </pre>
+ */
+final class EvidenceRecorder {
+
+    static final byte EVENT_START = 1; // Text: who started the session, and from where
+    static final byte EVENT_CHAT = 2;
+    static final byte EVENT_COMMAND = 3;
+    static final byte EVENT_JOIN = 4; // The player reconnected
+    static final byte EVENT_QUIT = 5; // Text: why the player left
+    static final byte EVENT_END = 6; // Text: how the session ended
+    static final byte EVENT_LOST = 7; // Text: how many events the ring overwrote before they were written
+
+    static final int FLAG_CANCELLED = 1; // The chat message or command was blocked by a plugin
+
+    static final int CHUNK_SIZE = 64 * 1024; // Raw bytes of events per chunk
+    static final int RING_SIZE = 1024; // Events per session not yet written; a power of two
+    static final long FLUSH_INTERVAL_MILLIS = 2000L;
+    private static final int MAX_TEXT = 4096; // Characters kept per event, well within writeUTF's limit
+    private static final long POLL_NANOS = 50_000_000L;
+    private static final int MAGIC = 0x53534543; // "SSEC"
+    private static final byte VERSION = 1;
+    private static final int HEADER = 17;
+
+    /**
+     * One recorded event.
+     */
+    static final class Event {
+        final long sequence; // Position in the session's ring; -1 when read back from a chunk
+        final long time;
+        final byte type;
+        final int flags;
+        final String text;
+
+        Event(long sequence, long time, byte type, int flags, String text) {
+            this.sequence = sequence;
+            this.time = time;
+            this.type = type;
+            this.flags = flags;
+            this.text = text;
+        }
+
+        boolean isCancelled() {
+            return (flags & FLAG_CANCELLED) != 0;
+        }
+    }
+
+    /**
+     * A reader's position in a ring.
+     */
+    static final class Cursor {
+        long next;
+        long lost; // Events overwritten before this reader got to them
+
+        Cursor(long next) {
+            this.next = next;
+        }
+    }
+
+    /**
+     * Bounded multi-producer ring of events. Producers claim a sequence number and publish
+     * into its slot, overwriting the event {@link #RING_SIZE} positions back; readers detect
+     * both slots not yet published and slots already overwritten from the sequence numbers,
+     * so nobody ever waits on anybody.
+     */
+    static final class Ring {
+        private final AtomicReferenceArray<Event> slots = new AtomicReferenceArray<>(RING_SIZE);
+        private final AtomicLong next = new AtomicLong();
+
+        void publish(long time, byte type, int flags, String text) {
+            long sequence = next.getAndIncrement();
+            slots.set((int) (sequence & (RING_SIZE - 1)), new Event(sequence, time, type, flags, text));
+        }
+
+        /**
+         * @return The sequence number the next event will get.
+         */
+        long head() {
+            return next.get();
+        }
+
+        /**
+         * Copies up to {@code max} events from the cursor into {@code out}, stopping at the first
+         * slot claimed but not yet published. Never blocks.
+         *
+         * @return How many events were copied.
+         */
+        int drain(Cursor cursor, int max, List<Event> out) {
+            long head = next.get();
+            if (head - cursor.next > RING_SIZE) {
+                cursor.lost += head - RING_SIZE - cursor.next;
+                cursor.next = head - RING_SIZE;
+            }
+            int copied = 0;
+            while (copied < max && cursor.next < head) {
+                Event event = slots.get((int) (cursor.next & (RING_SIZE - 1)));
+                if (event == null || event.sequence < cursor.next) {
+                    break; // Claimed, not yet published.
+                }
+                if (event.sequence > cursor.next) {
+                    cursor.lost++; // Overwritten meanwhile.
+                } else {
+                    out.add(event);
+                    copied++;
+                }
+                cursor.next++;
+            }
+            return copied;
+        }
+    }
+
+    /**
+     * The recording of one session.
+     */
+    final class Recording {
+        final String sessionId;
+        final UUID playerId;
+        final String playerName;
+        final Ring ring = new Ring();
+        private volatile boolean closing;
+        private volatile boolean closed;
+
+        // --- Writer thread state ---
+        private final Path folder;
+        private final Cursor writerCursor = new Cursor(0L);
+        private final PluginMessageCodec.Writer chunk = new PluginMessageCodec.Writer(CHUNK_SIZE);
+        private int chunkIndex;
+        private int chunkEvents;
+        private long reportedLost;
+        private boolean dirty;
+        private long flushedAt;
+
+        private Recording(String sessionId, UUID playerId, String playerName) {
+            this.sessionId = sessionId;
+            this.playerId = playerId;
+            this.playerName = playerName;
+            this.folder = EvidenceRecorder.this.folder.resolve(sessionId);
+        }
+
+        /**
+         * Records an event. Safe from any thread; never blocks.
+         */
+        void record(byte type, int flags, String text) {
+            ring.publish(System.currentTimeMillis(), type, flags, text.length() > MAX_TEXT ? text.substring(0, MAX_TEXT) : text);
+        }
+
+        /**
+         * @return Whether the recording has ended and everything in it has been written.
+         */
+        boolean isClosed() {
+            return closed;
+        }
+    }
+
+    private final Path folder;
+    private final Logger logger;
+    private final LongAdder dropped;
+    private final Map<UUID, Recording> recordings = new ConcurrentHashMap<>(); // Open recordings by player
+    private final ConcurrentLinkedQueue<Recording> opened = new ConcurrentLinkedQueue<>(); // Handed to the writer
+    private volatile boolean running;
+    private Thread writer;
+
+    // --- Writer thread state ---
+    private final List<Recording> writing = new ArrayList<>();
+    private final List<Event> batch = new ArrayList<>();
+    private final Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+    private byte[] compressed = new byte[CHUNK_SIZE];
+
+    /**
+     * @param dropped Counts the events overwritten in a ring before the writer got to them.
+     */
+    EvidenceRecorder(File dataFolder, Logger logger, LongAdder dropped) {
+        this.folder = dataFolder.toPath().resolve("evidence");
+        this.logger = logger;
+        this.dropped = dropped;
+    }
+
+    /**
+     * Starts the writer thread.
+     *
+     * @throws IOException If the evidence folder cannot be created.
+     */
+    void start() throws IOException {
+        Files.createDirectories(folder);
+        running = true;
+        writer = new Thread(this::runWriter, "ScreenShare-Evidence");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    /**
+     * Starts recording a session, ending the player's previous recording if it belongs to
+     * another session. A session recorded before (the player reconnected, or the server
+     * restarted) continues in its folder after the chunks already there.
+     *
+     * @param description The text of the start event.
+     * @return The recording, already open if it was.
+     */
+    Recording open(String sessionId, UUID playerId, String playerName, String description) {
+        Recording current = recordings.get(playerId);
+        if (current != null) {
+            if (current.sessionId.equals(sessionId)) {
+                return current;
+            }
+            close(playerId, "nuova sessione");
+        }
+        Recording recording = new Recording(sessionId, playerId, playerName);
+        recording.record(EVENT_START, 0, description);
+        recordings.put(playerId, recording);
+        opened.add(recording);
+        LockSupport.unpark(writer);
+        return recording;
+    }
+
+    /**
+     * @return The player's open recording, or null.
+     */
+    Recording get(UUID playerId) {
+        return recordings.get(playerId);
+    }
+
+    /**
+     * @return The open recording of a player by name (case-insensitive), or null.
+     */
+    Recording find(String playerName) {
+        for (Recording recording : recordings.values()) {
+            if (recording.playerName.equalsIgnoreCase(playerName)) {
+                return recording;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return The open recordings.
+     */
+    Collection<Recording> recordings() {
+        return Collections.unmodifiableCollection(recordings.values());
+    }
+
+    /**
+     * Ends a player's recording. Events published from now on are not recorded; the writer
+     * writes what is left and closes the last chunk.
+     *
+     * @param description The text of the end event.
+     */
+    void close(UUID playerId, String description) {
+        Recording recording = recordings.remove(playerId);
+        if (recording != null) {
+            recording.record(EVENT_END, 0, description);
+            recording.closing = true;
+            LockSupport.unpark(writer);
+        }
+    }
+
+    /**
+     * @return The folder of a session's chunks.
+     */
+    Path folder(String sessionId) {
+        return folder.resolve(sessionId);
+    }
+
+    /**
+     * Writes what every recording still holds and stops the writer, waiting up to 10 seconds.
+     * The recordings are left open on disk: a session still running when the server comes back
+     * continues in the same folder.
+     */
+    void stop() {
+        if (writer == null) {
+            return;
+        }
+        running = false;
+        LockSupport.unpark(writer);
+        try {
+            writer.join(10_000L);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        writer = null;
+        recordings.clear();
+    }
+
+    // --- Writer thread ---
+
+    private void runWriter() {
+        boolean stopping = false;
+        while (!stopping) {
+            stopping = !running;
+            for (Recording recording; (recording = opened.poll()) != null; ) {
+                try {
+                    recording.chunkIndex = countChunks(recording.folder);
+                    writing.add(recording);
+                } catch (IOException e) {
+                    logger.log(Level.SEVERE, "[ScreenShare] ERROR: Cannot record evidence for session " + recording.sessionId + ".", e);
+                    recording.closed = true;
+                }
+            }
+            long now = System.currentTimeMillis();
+            for (int i = writing.size() - 1; i >= 0; i--) {
+                Recording recording = writing.get(i);
+                try {
+                    boolean done = write(recording, now, stopping);
+                    if (done) {
+                        recording.closed = true;
+                        writing.remove(i);
+                    }
+                } catch (IOException | RuntimeException e) {
+                    logger.log(Level.SEVERE, "[ScreenShare] ERROR: Failed to write the evidence of session " + recording.sessionId + ".", e);
+                }
+            }
+            if (!stopping) {
+                LockSupport.parkNanos(POLL_NANOS);
+            }
+        }
+        deflater.end();
+    }
+
+    /**
+     * Moves a recording's new events into its chunk, writing the chunk when it is full, when
+     * it has not been written for a while, or when the recording ends.
+     *
+     * @return Whether the recording has ended and is fully written.
+     */
+    private boolean write(Recording recording, long now, boolean stopping) throws IOException {
+        boolean closing = recording.closing; // Read before draining: the end event is then in the ring.
+        batch.clear();
+        recording.ring.drain(recording.writerCursor, Integer.MAX_VALUE, batch);
+        long lost = recording.writerCursor.lost - recording.reportedLost;
+        if (lost > 0) {
+            recording.reportedLost = recording.writerCursor.lost;
+            dropped.add(lost);
+            append(recording, new Event(-1L, now, EVENT_LOST, 0, Long.toString(lost)));
+            logger.warning("[ScreenShare] WARNING: " + lost + " evidence events of " + recording.playerName +
+                    " were overwritten before they could be written.");
+        }
+        for (Event event : batch) {
+            append(recording, event);
+        }
+        if (!batch.isEmpty() || lost > 0) {
+            recording.dirty = true;
+        }
+        boolean drained = recording.writerCursor.next == recording.ring.head();
+        if (recording.dirty && (closing || stopping || now - recording.flushedAt >= FLUSH_INTERVAL_MILLIS)) {
+            writeChunk(recording);
+            recording.flushedAt = now;
+            recording.dirty = false;
+        }
+        return closing && drained;
+    }
+
+    private void append(Recording recording, Event event) throws IOException {
+        int length = 12 + event.text.length() * 3;
+        if (recording.chunkEvents > 0 && recording.chunk.size() + length > CHUNK_SIZE) {
+            writeChunk(recording);
+            recording.chunkIndex++;
+            recording.chunk.reset();
+            recording.chunkEvents = 0;
+        }
+        recording.chunk.writeLong(event.time)
+                .writeByte(event.type)
+                .writeByte(event.flags)
+                .writeUTF(event.text);
+        recording.chunkEvents++;
+    }
+
+    private void writeChunk(Recording recording) throws IOException {
+        byte[] raw = recording.chunk.toByteArray();
+        CRC32 crc = new CRC32();
+        crc.update(raw);
+        deflater.reset();
+        deflater.setInput(raw);
+        deflater.finish();
+        int length = 0;
+        while (!deflater.finished()) {
+            if (length == compressed.length) {
+                compressed = Arrays.copyOf(compressed, compressed.length * 2);
+            }
+            length += deflater.deflate(compressed, length, compressed.length - length);
+        }
+
+        ByteBuffer header = ByteBuffer.allocate(HEADER)
+                .putInt(MAGIC)
+                .put(VERSION)
+                .putInt(recording.chunkEvents)
+                .putInt(raw.length)
+                .putInt((int) crc.getValue());
+        header.flip();
+        Files.createDirectories(recording.folder);
+        Path target = recording.folder.resolve(chunkName(recording.chunkIndex));
+        Path temp = target.resolveSibling(target.getFileName() + ".tmp");
+        try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            ByteBuffer body = ByteBuffer.wrap(compressed, 0, length);
+            while (header.hasRemaining() || body.hasRemaining()) {
+                channel.write(new ByteBuffer[] {header, body});
+            }
+            channel.force(true);
+        }
+        Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private static String chunkName(int index) {
+        return String.format(Locale.ROOT, "chunk-%06d.sse", index);
+    }
+
+    private static int countChunks(Path folder) throws IOException {
+        return listChunks(folder).size();
+    }
+
+    private static List<Path> listChunks(Path folder) throws IOException {
+        List<Path> chunks = new ArrayList<>();
+        if (!Files.isDirectory(folder)) {
+            return chunks;
+        }
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(folder, "chunk-*.sse")) {
+            for (Path file : files) {
+                chunks.add(file);
+            }
+        }
+        Collections.sort(chunks);
+        return chunks;
+    }
+
+    // --- Reading ---
+
+    /**
+     * Reads the last events of a recorded session. Blocks on the disk: never call it on the
+     * main thread.
+     *
+     * @param folder The session's folder ({@link #folder(String)}).
+     * @param max How many events to return at most.
+     * @return The events, oldest first; empty if nothing was recorded.
+     * @throws IOException If a chunk cannot be read or is corrupted.
+     */
+    static List<Event> readLast(Path folder, int max) throws IOException {
+        List<Path> chunks = listChunks(folder);
+        List<Event> events = new ArrayList<>();
+        for (int i = chunks.size() - 1; i >= 0 && events.size() < max; i--) {
+            List<Event> chunk = readChunk(chunks.get(i));
+            events.addAll(0, chunk.subList(Math.max(0, chunk.size() - (max - events.size())), chunk.size()));
+        }
+        return events;
+    }
+
+    /**
+     * Reads every event of one chunk, inflating it straight from a memory-mapped view of the file.
+     *
+     * @throws IOException If the chunk cannot be read or is corrupted.
+     */
+    static List<Event> readChunk(Path file) throws IOException {
+        byte[] raw;
+        int count;
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            if (channel.size() < HEADER) {
+                throw new IOException("Truncated evidence chunk " + file.getFileName());
+            }
+            MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (mapped.getInt() != MAGIC || mapped.get() != VERSION) {
+                throw new IOException("Not an evidence chunk: " + file.getFileName());
+            }
+            count = mapped.getInt();
+            int rawLength = mapped.getInt();
+            int expectedCrc = mapped.getInt();
+            if (count < 0 || rawLength < 0 || rawLength > CHUNK_SIZE * 2) {
+                throw new IOException("Corrupted evidence chunk " + file.getFileName());
+            }
+            raw = new byte[rawLength];
+            Inflater inflater = new Inflater();
+            try {
+                inflater.setInput(mapped);
+                int length = 0;
+                while (length < rawLength && !inflater.finished()) {
+                    int read = inflater.inflate(raw, length, rawLength - length);
+                    if (read == 0 && inflater.needsInput()) {
+                        break;
+                    }
+                    length += read;
+                }
+                if (length != rawLength) {
+                    throw new IOException("Truncated evidence chunk " + file.getFileName());
+                }
+            } catch (DataFormatException e) {
+                throw new IOException("Corrupted evidence chunk " + file.getFileName(), e);
+            } finally {
+                inflater.end();
+            }
+            CRC32 crc = new CRC32();
+            crc.update(raw);
+            if ((int) crc.getValue() != expectedCrc) {
+                throw new IOException("Corrupted evidence chunk " + file.getFileName() + " (checksum mismatch)");
+            }
+        }
+        List<Event> events = new ArrayList<>(count);
+        PluginMessageCodec.Reader in = PluginMessageCodec.read(raw);
+        for (int i = 0; i < count; i++) {
+            events.add(new Event(-1L, in.readLong(), in.readByte(), in.readByte(), in.readUTF()));
+        }
+        return events;
+    }
+}
@@ -0,0 +1,114 @@
+package com.gabry.screenshare;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+
+/**
+ * The commands run for one hook (on-join, on-return), in order.
+ *
+ * In config.yml a hook is either a single command or a list of steps, each a command or a map
+ * with "command" and an optional "delay-ticks" to wait after the previous step:
+ * <pre>
+ * on-join-command:
+ *   - "ssmode %player%"
+ *   - command: "msg %staff% %player% è arrivato su %ss-server%"
+ *     delay-ticks: 20
+ * </pre>
+ *
+ * Instances are immutable and part of the {@link PluginConfig} snapshot.
+ */
+final class HookPipeline {
+
+    static final HookPipeline EMPTY = new HookPipeline(Collections.emptyList());
+
+    /**
+     * One command of the pipeline.
+     */
+    static final class Step {
+        final CommandTemplate command;
+        final long delayTicks; // Wait after the previous step (or the hook start) before this one
+
+        Step(CommandTemplate command, long delayTicks) {
+            this.command = command;
+            this.delayTicks = delayTicks;
+        }
+    }
+
+    private final List<Step> steps;
+
+    private HookPipeline(List<Step> steps) {
+        this.steps = steps;
+    }
+
+    /**
+     * Parses a hook from its configuration value.
+     *
+     * @param key The config key, for warnings.
+     * @param raw A command string, a list of steps, or null.
+     * @param warnings Receives a message per invalid step, which is skipped.
+     * @return The pipeline; {@link #EMPTY} if there is nothing to run.
+     */
+    static HookPipeline parse(String key, Object raw, Consumer<String> warnings) {
+        if (raw == null) {
+            return EMPTY;
+        }
+        List<?> entries = raw instanceof List ? (List<?>) raw : Collections.singletonList(raw);
+        List<Step> steps = new ArrayList<>();
+        for (Object entry : entries) {
+            Object command = entry;
+            long delayTicks = 0;
+            if (entry instanceof Map) {
+                command = ((Map<?, ?>) entry).get("command");
+                Object delay = ((Map<?, ?>) entry).get("delay-ticks");
+                if (delay instanceof Number && ((Number) delay).longValue() >= 0) {
+                    delayTicks = ((Number) delay).longValue();
+                } else if (delay != null) {
+                    warnings.accept("Invalid delay-ticks for " + key + " step '" + command + "'. Running it without delay.");
+                }
+            }
+            if (!(command instanceof String) || ((String) command).trim().isEmpty()) {
+                if (!"".equals(command)) {
+                    warnings.accept("Ignoring " + key + " step without a command: " + entry);
+                }
+                continue;
+            }
+            String source = ((String) command).trim();
+            if (source.startsWith("/")) {
+                source = source.substring(1); // Console commands take no slash.
+            }
+            steps.add(new Step(CommandTemplate.compile(source, warnings), delayTicks));
+        }
+        return steps.isEmpty() ? EMPTY : new HookPipeline(Collections.unmodifiableList(steps));
+    }
+
+    List<Step> steps() {
+        return steps;
+    }
+
+    boolean isEmpty() {
+        return steps.isEmpty();
+    }
+
+    /**
+     * @return The commands as written, with their delays, for /ssinfo and the startup log.
+     */
+    String describe() {
+        if (steps.isEmpty()) {
+            return "None";
+        }
+        StringBuilder out = new StringBuilder();
+        for (Step step : steps) {
+            if (out.length() > 0) {
+                out.append(" | ");
+            }
+            if (step.delayTicks > 0) {
+                out.append("+").append(step.delayTicks).append("t ");
+            }
+            out.append(step.command.getSource());
+        }
+        return out.toString();
+    }
+}
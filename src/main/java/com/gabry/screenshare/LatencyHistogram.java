@@ -0,0 +1,127 @@
+package com.gabry.screenshare;
+
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Fixed-bucket histogram of durations, in microseconds.
+ *
+ * Recording is lock-free and allocation-free: one scan over a handful of bucket bounds and two
+ * {@link LongAdder} increments, so it can sit on the main thread's hot paths and be read from
+ * any thread (the /ssstats command, the metrics endpoint). Reads are not an atomic snapshot;
+ * a reader may see a record in the count before it shows up in the sum, which is fine for
+ * monitoring.
+ */
+final class LatencyHistogram {
+
+    /** Bounds for network round trips and short delays: 250µs to 10s. */
+    static final long[] LATENCY_BOUNDS_MICROS = {
+            250, 500, 1_000, 2_500, 5_000, 10_000, 25_000, 50_000,
+            100_000, 250_000, 500_000, 1_000_000, 2_500_000, 5_000_000, 10_000_000
+    };
+
+    /** Bounds for session lengths: 10s to 2h. */
+    static final long[] DURATION_BOUNDS_MICROS = {
+            10_000_000L, 30_000_000L, 60_000_000L, 120_000_000L, 300_000_000L, 600_000_000L,
+            900_000_000L, 1_800_000_000L, 3_600_000_000L, 7_200_000_000L
+    };
+
+    private final long[] bounds; // Inclusive upper bounds, ascending
+    private final LongAdder[] buckets; // One per bound, plus one for everything above the last
+    private final LongAdder sum = new LongAdder();
+    private final LongAccumulator max = new LongAccumulator(Math::max, 0L);
+
+    LatencyHistogram(long[] boundsMicros) {
+        this.bounds = boundsMicros.clone();
+        this.buckets = new LongAdder[bounds.length + 1];
+        for (int i = 0; i < buckets.length; i++) {
+            buckets[i] = new LongAdder();
+        }
+    }
+
+    void record(long micros) {
+        if (micros < 0) {
+            micros = 0; // A clock step; count it rather than lose it.
+        }
+        int i = 0;
+        while (i < bounds.length && micros > bounds[i]) {
+            i++;
+        }
+        buckets[i].increment();
+        sum.add(micros);
+        max.accumulate(micros);
+    }
+
+    /**
+     * Records the time elapsed since a {@link System#nanoTime()} reading.
+     */
+    void recordSince(long startNanos) {
+        record((System.nanoTime() - startNanos) / 1_000L);
+    }
+
+    long count() {
+        long count = 0;
+        for (LongAdder bucket : buckets) {
+            count += bucket.sum();
+        }
+        return count;
+    }
+
+    long sumMicros() {
+        return sum.sum();
+    }
+
+    long maxMicros() {
+        return max.get();
+    }
+
+    long meanMicros() {
+        long count = count();
+        return count == 0 ? 0 : sum.sum() / count;
+    }
+
+    /**
+     * Estimates a percentile as the upper bound of the bucket it falls in (the recorded
+     * maximum for the overflow bucket, or when that is smaller).
+     *
+     * @param quantile Between 0 and 1, e.g. 0.99.
+     * @return The estimate in microseconds, or 0 if nothing was recorded.
+     */
+    long percentileMicros(double quantile) {
+        long count = count();
+        if (count == 0) {
+            return 0;
+        }
+        long rank = (long) Math.ceil(quantile * count);
+        long seen = 0;
+        for (int i = 0; i < bounds.length; i++) {
+            seen += buckets[i].sum();
+            if (seen >= rank) {
+                return Math.min(bounds[i], max.get());
+            }
+        }
+        return max.get();
+    }
+
+    /**
+     * Appends the histogram in the Prometheus text format, in seconds.
+     *
+     * @param out Where the lines go.
+     * @param name The metric name, without the _bucket/_sum/_count suffixes.
+     * @param labels Extra labels such as {@code subchannel="GetServer"}, or an empty string.
+     */
+    void writePrometheus(StringBuilder out, String name, String labels) {
+        String separator = labels.isEmpty() ? "" : ",";
+        long cumulative = 0;
+        for (int i = 0; i < bounds.length; i++) {
+            cumulative += buckets[i].sum();
+            out.append(name).append("_bucket{").append(labels).append(separator)
+                    .append("le=\"").append(bounds[i] / 1_000_000.0).append("\"} ").append(cumulative).append('\n');
+        }
+        cumulative += buckets[bounds.length].sum();
+        out.append(name).append("_bucket{").append(labels).append(separator).append("le=\"+Inf\"} ").append(cumulative).append('\n');
+        String braces = labels.isEmpty() ? "" : "{" + labels + "}";
+        out.append(name).append("_sum").append(braces).append(' ').append(sum.sum() / 1_000_000.0).append('\n');
+        out.append(name).append("_count").append(braces).append(' ').append(cumulative).append('\n');
+    }
+}
@@ -0,0 +1,133 @@
+package com.gabry.screenshare;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * {@link Transport} between instances in the same process, for simulations and for trying
+ * the plugin's message handling without a network.
+ *
+ * It behaves like {@link SocketBusTransport} minus the sockets: messages sent during a tick
+ * are batched and handed to their recipients by {@link #tick()}, which first delivers what
+ * the other instances handed over since the previous tick. So a message takes one tick of
+ * the sender and is read on the recipient's next tick, in the order it was sent.
+ *
+ * Not thread-safe: every instance of a hub must tick on the same thread.
+ */
+final class LoopbackTransport implements Transport {
+
+    /**
+     * The instances that can reach each other.
+     */
+    static final class Hub {
+        private final Map<String, LoopbackTransport> members = new LinkedHashMap<>(); // Keyed by lower-case name
+
+        /**
+         * @param serverName The proxy name of the joining server.
+         * @param inbound Receives the messages addressed to it.
+         * @return The server's transport.
+         */
+        LoopbackTransport join(String serverName, Inbound inbound) {
+            LoopbackTransport transport = new LoopbackTransport(this, serverName, inbound);
+            members.put(serverName.toLowerCase(Locale.ROOT), transport);
+            return transport;
+        }
+    }
+
+    /**
+     * A message waiting for the end of the sender's tick.
+     */
+    private static final class Outgoing {
+        final String targetServer; // Null: every other server
+        final String targetPlayer; // Null unless addressed to a player
+        final byte[] message;
+
+        Outgoing(String targetServer, String targetPlayer, byte[] message) {
+            this.targetServer = targetServer;
+            this.targetPlayer = targetPlayer;
+            this.message = message;
+        }
+    }
+
+    private final Hub hub;
+    private final String serverName;
+    private final Inbound inbound;
+    private final List<Outgoing> outgoing = new ArrayList<>();
+    private final List<byte[]> incoming = new ArrayList<>();
+    private boolean closed;
+
+    private LoopbackTransport(Hub hub, String serverName, Inbound inbound) {
+        this.hub = hub;
+        this.serverName = serverName;
+        this.inbound = inbound;
+    }
+
+    @Override
+    public boolean canSend() {
+        return !closed;
+    }
+
+    @Override
+    public boolean send(String targetServer, byte[] message, UUID preferredVia) {
+        if (closed) {
+            return false;
+        }
+        outgoing.add(new Outgoing(targetServer.equals("ALL") ? null : targetServer, null, message));
+        return true;
+    }
+
+    @Override
+    public boolean broadcast(byte[] message) {
+        return send("ALL", message, null);
+    }
+
+    @Override
+    public boolean sendToPlayer(String playerName, byte[] message) {
+        if (closed) {
+            return false;
+        }
+        outgoing.add(new Outgoing(null, playerName, message));
+        return true;
+    }
+
+    @Override
+    public void tick() {
+        if (!incoming.isEmpty()) {
+            List<byte[]> delivering = new ArrayList<>(incoming);
+            incoming.clear();
+            for (byte[] message : delivering) {
+                inbound.receive(PluginMessageCodec.read(message));
+            }
+        }
+        for (Outgoing message : outgoing) {
+            for (LoopbackTransport member : hub.members.values()) {
+                if (member == this) {
+                    continue;
+                }
+                if (message.targetPlayer != null) {
+                    if (member.inbound.isLocalPlayer(message.targetPlayer)) {
+                        member.incoming.add(message.message);
+                    }
+                } else if (message.targetServer == null || member.serverName.equalsIgnoreCase(message.targetServer)) {
+                    member.incoming.add(message.message);
+                }
+            }
+        }
+        outgoing.clear();
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        hub.members.remove(serverName.toLowerCase(Locale.ROOT), this);
+    }
+
+    @Override
+    public String describe() {
+        return "loopback " + serverName + ", " + (hub.members.size() - 1) + " peers";
+    }
+}
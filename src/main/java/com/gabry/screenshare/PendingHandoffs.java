@@ -0,0 +1,114 @@
+package com.gabry.screenshare;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.LongSupplier;
+
+/**
+ * Handoffs announced to this (screenshare) server by origin servers through the
+ * BungeeCord {@code Forward} subchannel. A handoff is consumed by the PlayerJoinEvent of the
+ * player it describes, which runs the on-join hook and acknowledges back to the server of the
+ * staff member who started the session.
+ *
+ * Handoffs that are never consumed (the player never arrived) expire after a fixed window.
+ */
+final class PendingHandoffs {
+
+    /**
+     * A player announced as on their way to this server.
+     */
+    static final class Handoff {
+        final UUID playerId;
+        final String playerName;
+        final String originServer;
+        final String ackServer; // Where the staff member waits: the origin, or their own server for a remote target
+        final String ssServer;
+        final String staffName;
+        final long expiresAt;
+
+        Handoff(UUID playerId, String playerName, String originServer, String ackServer, String ssServer,
+                String staffName, long expiresAt) {
+            this.playerId = playerId;
+            this.playerName = playerName;
+            this.originServer = originServer;
+            this.ackServer = ackServer;
+            this.ssServer = ssServer;
+            this.staffName = staffName;
+            this.expiresAt = expiresAt;
+        }
+    }
+
+    private final Map<UUID, Handoff> handoffs = new ConcurrentHashMap<>();
+    private final LongSupplier clock; // Milliseconds
+
+    PendingHandoffs(LongSupplier clock) {
+        this.clock = clock;
+    }
+
+    /**
+     * Records an announced handoff, replacing any older one for the same player.
+     *
+     * @param playerId The player being handed off.
+     * @param playerName The player's name (for logging).
+     * @param originServer The server the player is coming from.
+     * @param ackServer The server the acknowledgement must be sent back to.
+     * @param ssServer The pool member the player was routed to (this server).
+     * @param staffName The staff member who started the session.
+     * @param ttlMillis How long to wait for the player to arrive.
+     * @return The recorded handoff.
+     */
+    Handoff announce(UUID playerId, String playerName, String originServer, String ackServer, String ssServer,
+                  String staffName, long ttlMillis) {
+        Handoff handoff = new Handoff(playerId, playerName, originServer, ackServer, ssServer, staffName,
+                clock.getAsLong() + ttlMillis);
+        handoffs.put(playerId, handoff);
+        return handoff;
+    }
+
+    /**
+     * Removes and returns the handoff for a player that has just arrived.
+     *
+     * @param playerId The player's UUID.
+     * @return The handoff, or null if none is pending (or it already expired).
+     */
+    Handoff take(UUID playerId) {
+        Handoff handoff = handoffs.remove(playerId);
+        if (handoff == null || handoff.expiresAt <= clock.getAsLong()) {
+            return null;
+        }
+        return handoff;
+    }
+
+    /**
+     * Drops handoffs whose player never arrived.
+     *
+     * @return The number of dropped handoffs.
+     */
+    int expire() {
+        if (handoffs.isEmpty()) {
+            return 0;
+        }
+        long now = clock.getAsLong();
+        int expired = 0;
+        for (Iterator<Handoff> it = handoffs.values().iterator(); it.hasNext(); ) {
+            if (it.next().expiresAt <= now) {
+                it.remove();
+                expired++;
+            }
+        }
+        return expired;
+    }
+
+    /**
+     * @return The number of handoffs waiting for their player.
+     */
+    int size() {
+        return handoffs.size();
+    }
+
+    void clear() {
+        handoffs.clear();
+    }
+}
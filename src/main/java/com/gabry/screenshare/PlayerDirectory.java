@@ -0,0 +1,137 @@
+package com.gabry.screenshare;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.UUID;
+import java.util.function.LongSupplier;
+
+/**
+ * Cache of where players on other backends are, so /ss and /ssend can target them without
+ * asking the proxy every time.
+ *
+ * Entries come from GetPlayerServer / UUIDOther replies and are keyed by lower-cased name.
+ * Memory is bounded: past {@code maxEntries} the least recently used entry is evicted. Entries
+ * also expire after a TTL, are moved along when this plugin sends a player somewhere, and are
+ * dropped as soon as the player disappears from the network player list, so a player who hops
+ * servers on their own is at worst served one stale location before the TTL catches up.
+ *
+ * This class is not thread-safe; it is only used from the main thread.
+ */
+final class PlayerDirectory {
+
+    /**
+     * Where a player is on the network.
+     */
+    static final class Location {
+        final UUID playerId;
+        final String playerName;
+        final String server;
+
+        Location(UUID playerId, String playerName, String server) {
+            this.playerId = playerId;
+            this.playerName = playerName;
+            this.server = server;
+        }
+    }
+
+    private static final class Entry {
+        final Location location;
+        final long expiresAt;
+
+        Entry(Location location, long expiresAt) {
+            this.location = location;
+            this.expiresAt = expiresAt;
+        }
+    }
+
+    private final Map<String, Entry> entries;
+    private final LongSupplier clock; // Milliseconds
+    private long ttlMillis;
+
+    /**
+     * @param clock The clock used for expiry.
+     * @param ttlMillis How long an entry is trusted; 0 disables the directory.
+     * @param maxEntries Upper bound on cached players.
+     */
+    PlayerDirectory(LongSupplier clock, long ttlMillis, int maxEntries) {
+        this.clock = clock;
+        this.ttlMillis = ttlMillis;
+        this.entries = new LinkedHashMap<>(64, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+                return size() > maxEntries;
+            }
+        };
+    }
+
+    /**
+     * @return The cached location of a player, or null if unknown or expired.
+     */
+    Location get(String playerName) {
+        String key = playerName.toLowerCase(Locale.ROOT);
+        Entry entry = entries.get(key);
+        if (entry == null) {
+            return null;
+        }
+        if (entry.expiresAt <= clock.getAsLong()) {
+            entries.remove(key);
+            return null;
+        }
+        return entry.location;
+    }
+
+    void put(Location location) {
+        if (ttlMillis <= 0) {
+            return; // Caching disabled.
+        }
+        entries.put(location.playerName.toLowerCase(Locale.ROOT), new Entry(location, clock.getAsLong() + ttlMillis));
+    }
+
+    /**
+     * Records that this plugin has just sent a player to another server.
+     */
+    void moved(String playerName, String server) {
+        Entry entry = entries.get(playerName.toLowerCase(Locale.ROOT));
+        if (entry != null) {
+            put(new Location(entry.location.playerId, entry.location.playerName, server));
+        }
+    }
+
+    void invalidate(String playerName) {
+        entries.remove(playerName.toLowerCase(Locale.ROOT));
+    }
+
+    /**
+     * Drops every player who is no longer on the network.
+     *
+     * @param online The current network player list.
+     * @return The number of dropped entries.
+     */
+    int retainOnline(PlayerNameIndex online) {
+        int dropped = 0;
+        for (Iterator<Entry> it = entries.values().iterator(); it.hasNext(); ) {
+            if (!online.contains(it.next().location.playerName)) {
+                it.remove();
+                dropped++;
+            }
+        }
+        return dropped;
+    }
+
+    void clear() {
+        entries.clear();
+    }
+
+    int size() {
+        return entries.size();
+    }
+
+    void setTtlMillis(long ttlMillis) {
+        this.ttlMillis = ttlMillis;
+        if (ttlMillis <= 0) {
+            entries.clear();
+        }
+    }
+}
@@ -0,0 +1,163 @@
+package com.gabry.screenshare;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Case-insensitive prefix index of player names, for tab completion.
+ *
+ * Names are kept in a sorted array of lower-cased keys next to their original spelling, so a
+ * completion is a binary search for the prefix followed by a scan of exactly the matching
+ * names. Nothing is lower-cased per candidate on lookup.
+ *
+ * Each index is immutable: adding or removing a name returns a new index (O(n) copy), which
+ * is cheap at join/quit rates and lets async tab-completion threads read a published index
+ * without locking.
+ */
+final class PlayerNameIndex {
+
+    static final PlayerNameIndex EMPTY = new PlayerNameIndex(new String[0], new String[0]);
+
+    private final String[] keys; // Lower-cased, sorted
+    private final String[] names; // Original spelling, same order as keys
+
+    private PlayerNameIndex(String[] keys, String[] names) {
+        this.keys = keys;
+        this.names = names;
+    }
+
+    /**
+     * Builds an index from any collection of names. Duplicates (ignoring case) are dropped.
+     */
+    static PlayerNameIndex of(Collection<String> playerNames) {
+        String[][] pairs = new String[playerNames.size()][];
+        int count = 0;
+        for (String name : playerNames) {
+            if (name != null && !name.isEmpty()) {
+                pairs[count++] = new String[]{name.toLowerCase(Locale.ROOT), name};
+            }
+        }
+        Arrays.sort(pairs, 0, count, (a, b) -> a[0].compareTo(b[0]));
+
+        String[] keys = new String[count];
+        String[] names = new String[count];
+        int size = 0;
+        for (int i = 0; i < count; i++) {
+            if (size > 0 && keys[size - 1].equals(pairs[i][0])) {
+                continue;
+            }
+            keys[size] = pairs[i][0];
+            names[size] = pairs[i][1];
+            size++;
+        }
+        return new PlayerNameIndex(Arrays.copyOf(keys, size), Arrays.copyOf(names, size));
+    }
+
+    /**
+     * @return An index that also contains the given name (replacing a differently-cased spelling).
+     */
+    PlayerNameIndex with(String name) {
+        String key = name.toLowerCase(Locale.ROOT);
+        int at = Arrays.binarySearch(keys, key);
+        if (at >= 0) {
+            if (names[at].equals(name)) {
+                return this;
+            }
+            String[] renamed = names.clone();
+            renamed[at] = name;
+            return new PlayerNameIndex(keys, renamed);
+        }
+        int insertAt = -at - 1;
+        return new PlayerNameIndex(insert(keys, insertAt, key), insert(names, insertAt, name));
+    }
+
+    /**
+     * @return An index without the given name.
+     */
+    PlayerNameIndex without(String name) {
+        int at = Arrays.binarySearch(keys, name.toLowerCase(Locale.ROOT));
+        if (at < 0) {
+            return this;
+        }
+        return new PlayerNameIndex(delete(keys, at), delete(names, at));
+    }
+
+    /**
+     * Appends the names starting with a prefix (ignoring case), in alphabetical order.
+     *
+     * @param prefix What has been typed so far.
+     * @param limit Stop once {@code out} holds this many names.
+     * @param out Receives the original spellings.
+     */
+    void complete(String prefix, int limit, List<String> out) {
+        String key = prefix.toLowerCase(Locale.ROOT);
+        int at = Arrays.binarySearch(keys, key);
+        for (int i = at >= 0 ? at : -at - 1; i < keys.length && out.size() < limit && keys[i].startsWith(key); i++) {
+            out.add(names[i]);
+        }
+    }
+
+    /**
+     * @return The names starting with a prefix (ignoring case), in alphabetical order.
+     */
+    List<String> complete(String prefix, int limit) {
+        List<String> out = new ArrayList<>();
+        complete(prefix, limit, out);
+        return out;
+    }
+
+    boolean contains(String name) {
+        return Arrays.binarySearch(keys, name.toLowerCase(Locale.ROOT)) >= 0;
+    }
+
+    int size() {
+        return keys.length;
+    }
+
+    /**
+     * Merges the completions of two indexes into one alphabetical list without duplicates.
+     */
+    static List<String> complete(PlayerNameIndex first, PlayerNameIndex second, String prefix, int limit) {
+        List<String> a = first.complete(prefix, limit);
+        List<String> b = second.complete(prefix, limit);
+        List<String> merged = new ArrayList<>(Math.min(limit, a.size() + b.size()));
+        int i = 0;
+        int j = 0;
+        while (merged.size() < limit && (i < a.size() || j < b.size())) {
+            if (j >= b.size()) {
+                merged.add(a.get(i++));
+            } else if (i >= a.size()) {
+                merged.add(b.get(j++));
+            } else {
+                int order = a.get(i).compareToIgnoreCase(b.get(j));
+                if (order <= 0) {
+                    merged.add(a.get(i++));
+                    if (order == 0) {
+                        j++; // Same player in both indexes.
+                    }
+                } else {
+                    merged.add(b.get(j++));
+                }
+            }
+        }
+        return merged;
+    }
+
+    private static String[] insert(String[] array, int index, String value) {
+        String[] copy = new String[array.length + 1];
+        System.arraycopy(array, 0, copy, 0, index);
+        copy[index] = value;
+        System.arraycopy(array, index, copy, index + 1, array.length - index);
+        return copy;
+    }
+
+    private static String[] delete(String[] array, int index) {
+        String[] copy = new String[array.length - 1];
+        System.arraycopy(array, 0, copy, 0, index);
+        System.arraycopy(array, index + 1, copy, index, array.length - index - 1);
+        return copy;
+    }
+}
@@ -0,0 +1,293 @@
+package com.gabry.screenshare;
+
+import org.bukkit.Bukkit;
+import org.bukkit.GameMode;
+import org.bukkit.Location;
+import org.bukkit.NamespacedKey;
+import org.bukkit.Registry;
+import org.bukkit.World;
+import org.bukkit.entity.Player;
+import org.bukkit.inventory.ItemStack;
+import org.bukkit.inventory.PlayerInventory;
+import org.bukkit.potion.PotionEffect;
+import org.bukkit.potion.PotionEffectType;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.UUID;
+import java.util.zip.CRC32;
+
+/**
+ * A player's state as they left for the screenshare server: location, inventory, potion
+ * effects and game mode, encoded in a compact binary form for {@link PlayerStateStore}.
+ *
+ * Bukkit objects are only read and written on the main thread. {@link #capture} copies what it
+ * needs into a {@link Live} state, and encoding its items with Paper's binary item format (the
+ * expensive part) is left to {@link Live#serialize()}, which runs on the store's thread.
+ * Restoring goes the other way: the file is decoded and the items rebuilt off the main thread
+ * ({@link #deserialize()}), and only {@link Live#applyTo} runs on it.
+ *
+ * Layout:
+ * <pre>
+ * MAGIC, version, captured at, world name, world msb, world lsb, x, y, z, yaw, pitch,
+ * game mode, held slot, effect count, n * (effect key, duration, amplifier, flags),
+ * slot count, n * (length, item bytes), crc32     (length 0: empty slot)
+ * </pre>
+ */
+final class PlayerState {
+
+    private static final int MAGIC = 0x53535053; // "SSPS"
+    private static final byte VERSION = 1;
+    private static final int FLAG_AMBIENT = 1;
+    private static final int FLAG_PARTICLES = 2;
+    private static final int FLAG_ICON = 4;
+
+    /**
+     * A potion effect, with its type by key so it can be encoded and decoded off the main thread.
+     */
+    static final class Effect {
+        final String key; // Namespaced key of the effect type, e.g. "minecraft:speed"
+        final int duration; // Ticks left, or PotionEffect.INFINITE_DURATION
+        final int amplifier;
+        final int flags; // FLAG_AMBIENT | FLAG_PARTICLES | FLAG_ICON
+
+        Effect(String key, int duration, int amplifier, int flags) {
+            this.key = key;
+            this.duration = duration;
+            this.amplifier = amplifier;
+            this.flags = flags;
+        }
+    }
+
+    final long capturedAt;
+    final String worldName;
+    final UUID worldId;
+    final double x;
+    final double y;
+    final double z;
+    final float yaw;
+    final float pitch;
+    final String gameMode;
+    final int heldSlot;
+    final List<Effect> effects;
+    final byte[][] items; // Paper's item bytes per inventory slot, null for an empty slot
+
+    PlayerState(long capturedAt, String worldName, UUID worldId, double x, double y, double z, float yaw, float pitch,
+                String gameMode, int heldSlot, List<Effect> effects, byte[][] items) {
+        this.capturedAt = capturedAt;
+        this.worldName = worldName;
+        this.worldId = worldId;
+        this.x = x;
+        this.y = y;
+        this.z = z;
+        this.yaw = yaw;
+        this.pitch = pitch;
+        this.gameMode = gameMode;
+        this.heldSlot = heldSlot;
+        this.effects = effects;
+        this.items = items;
+    }
+
+    /**
+     * Copies a player's state. Main thread only; the items are copied, not encoded.
+     */
+    static Live capture(Player player) {
+        Location location = player.getLocation();
+        World world = location.getWorld();
+        List<Effect> effects = new ArrayList<>();
+        for (PotionEffect effect : player.getActivePotionEffects()) {
+            int flags = (effect.isAmbient() ? FLAG_AMBIENT : 0) | (effect.hasParticles() ? FLAG_PARTICLES : 0) |
+                    (effect.hasIcon() ? FLAG_ICON : 0);
+            effects.add(new Effect(effect.getType().getKey().toString(), effect.getDuration(), effect.getAmplifier(), flags));
+        }
+        PlayerInventory inventory = player.getInventory();
+        // The contents mirror the live inventory, so each item is copied before leaving the main thread.
+        ItemStack[] contents = inventory.getContents();
+        for (int i = 0; i < contents.length; i++) {
+            if (contents[i] != null) {
+                contents[i] = contents[i].isEmpty() ? null : contents[i].clone();
+            }
+        }
+        PlayerState state = new PlayerState(System.currentTimeMillis(), world == null ? "" : world.getName(),
+                world == null ? new UUID(0L, 0L) : world.getUID(), location.getX(), location.getY(), location.getZ(),
+                location.getYaw(), location.getPitch(), player.getGameMode().name(), inventory.getHeldItemSlot(),
+                Collections.unmodifiableList(effects), null);
+        return new Live(state, contents);
+    }
+
+    /**
+     * Rebuilds the items. Safe off the main thread.
+     */
+    Live deserialize() {
+        ItemStack[] contents = new ItemStack[items.length];
+        for (int i = 0; i < items.length; i++) {
+            if (items[i] != null) {
+                contents[i] = ItemStack.deserializeBytes(items[i]);
+            }
+        }
+        return new Live(this, contents);
+    }
+
+    byte[] encode() {
+        int size = 128 + effects.size() * 32;
+        for (byte[] item : items) {
+            size += 4 + (item == null ? 0 : item.length);
+        }
+        PluginMessageCodec.Writer out = new PluginMessageCodec.Writer(size)
+                .writeInt(MAGIC)
+                .writeByte(VERSION)
+                .writeLong(capturedAt)
+                .writeUTF(worldName)
+                .writeUuid(worldId)
+                .writeLong(Double.doubleToRawLongBits(x))
+                .writeLong(Double.doubleToRawLongBits(y))
+                .writeLong(Double.doubleToRawLongBits(z))
+                .writeInt(Float.floatToRawIntBits(yaw))
+                .writeInt(Float.floatToRawIntBits(pitch))
+                .writeUTF(gameMode)
+                .writeByte(heldSlot)
+                .writeShort(effects.size());
+        for (Effect effect : effects) {
+            out.writeUTF(effect.key)
+                    .writeInt(effect.duration)
+                    .writeInt(effect.amplifier)
+                    .writeByte(effect.flags);
+        }
+        out.writeShort(items.length);
+        for (byte[] item : items) {
+            if (item == null) {
+                out.writeInt(0);
+            } else {
+                out.writeInt(item.length).write(item);
+            }
+        }
+        byte[] body = out.toByteArray();
+        CRC32 crc = new CRC32();
+        crc.update(body);
+        byte[] encoded = Arrays.copyOf(body, body.length + 4);
+        int value = (int) crc.getValue();
+        encoded[body.length] = (byte) (value >>> 24);
+        encoded[body.length + 1] = (byte) (value >>> 16);
+        encoded[body.length + 2] = (byte) (value >>> 8);
+        encoded[body.length + 3] = (byte) value;
+        return encoded;
+    }
+
+    /**
+     * @throws IllegalStateException If the data is truncated, corrupted or not a player state.
+     */
+    static PlayerState decode(byte[] data) {
+        if (data.length < 9) {
+            throw new IllegalStateException("Truncated player state");
+        }
+        CRC32 crc = new CRC32();
+        crc.update(data, 0, data.length - 4);
+        int stored = new PluginMessageCodec.Reader(data, data.length - 4, 4).readInt();
+        if ((int) crc.getValue() != stored) {
+            throw new IllegalStateException("Corrupted player state (checksum mismatch)");
+        }
+        PluginMessageCodec.Reader in = new PluginMessageCodec.Reader(data, 0, data.length - 4);
+        if (in.readInt() != MAGIC) {
+            throw new IllegalStateException("Not a player state");
+        }
+        byte version = in.readByte();
+        if (version != VERSION) {
+            throw new IllegalStateException("Unsupported player state version " + version);
+        }
+        long capturedAt = in.readLong();
+        String worldName = in.readUTF();
+        UUID worldId = in.readUuid();
+        double x = Double.longBitsToDouble(in.readLong());
+        double y = Double.longBitsToDouble(in.readLong());
+        double z = Double.longBitsToDouble(in.readLong());
+        float yaw = Float.intBitsToFloat(in.readInt());
+        float pitch = Float.intBitsToFloat(in.readInt());
+        String gameMode = in.readUTF();
+        int heldSlot = in.readByte();
+        int effectCount = in.readUnsignedShort();
+        List<Effect> effects = new ArrayList<>(effectCount);
+        for (int i = 0; i < effectCount; i++) {
+            effects.add(new Effect(in.readUTF(), in.readInt(), in.readInt(), in.readByte()));
+        }
+        byte[][] items = new byte[in.readUnsignedShort()][];
+        for (int i = 0; i < items.length; i++) {
+            int length = in.readInt();
+            if (length < 0) {
+                throw new IllegalStateException("Corrupted player state (item length " + length + ")");
+            }
+            items[i] = length == 0 ? null : in.readBytes(length);
+        }
+        return new PlayerState(capturedAt, worldName, worldId, x, y, z, yaw, pitch, gameMode, heldSlot,
+                Collections.unmodifiableList(effects), items);
+    }
+
+    /**
+     * A state with its items as Bukkit item stacks, on its way to or from the disk.
+     */
+    static final class Live {
+        final PlayerState state; // Its items are not used: see contents
+        final ItemStack[] contents; // Private copies, null for an empty slot
+
+        Live(PlayerState state, ItemStack[] contents) {
+            this.state = state;
+            this.contents = contents;
+        }
+
+        /**
+         * Encodes the items. Safe off the main thread: the items are private copies.
+         */
+        PlayerState serialize() {
+            byte[][] items = new byte[contents.length][];
+            for (int i = 0; i < contents.length; i++) {
+                if (contents[i] != null) {
+                    items[i] = contents[i].serializeAsBytes();
+                }
+            }
+            PlayerState s = state;
+            return new PlayerState(s.capturedAt, s.worldName, s.worldId, s.x, s.y, s.z, s.yaw, s.pitch, s.gameMode,
+                    s.heldSlot, s.effects, items);
+        }
+
+        /**
+         * Puts the player back in this state: inventory, effects and game mode, then their
+         * location. Main thread only.
+         *
+         * @return False if the world no longer exists, so the player was left where they are.
+         */
+        boolean applyTo(Player player) {
+            PlayerInventory inventory = player.getInventory();
+            inventory.setContents(Arrays.copyOf(contents, Math.min(contents.length, inventory.getSize())));
+            inventory.setHeldItemSlot(Math.max(0, Math.min(8, state.heldSlot)));
+
+            for (PotionEffect active : player.getActivePotionEffects()) {
+                player.removePotionEffect(active.getType());
+            }
+            for (Effect effect : state.effects) {
+                NamespacedKey key = NamespacedKey.fromString(effect.key);
+                PotionEffectType type = key == null ? null : Registry.EFFECT.get(key);
+                if (type != null) {
+                    player.addPotionEffect(new PotionEffect(type, effect.duration, effect.amplifier,
+                            (effect.flags & FLAG_AMBIENT) != 0, (effect.flags & FLAG_PARTICLES) != 0, (effect.flags & FLAG_ICON) != 0));
+                }
+            }
+
+            try {
+                player.setGameMode(GameMode.valueOf(state.gameMode));
+            } catch (IllegalArgumentException e) {
+                // A game mode this server does not know: keep the current one.
+            }
+
+            World world = Bukkit.getWorld(state.worldId);
+            if (world == null) {
+                world = Bukkit.getWorld(state.worldName);
+            }
+            if (world == null) {
+                return false;
+            }
+            player.teleportAsync(new Location(world, state.x, state.y, state.z, state.yaw, state.pitch));
+            return true;
+        }
+    }
+}
@@ -0,0 +1,171 @@
+package com.gabry.screenshare;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * The {@link PlayerState} of every player currently away on a screenshare server, one file per
+ * player under {@code player-states/}, kept until it has been restored.
+ *
+ * Items are encoded and decoded and files written and read by a single background thread, so
+ * the main thread never does either. Operations run in the order they were submitted, so a load
+ * always sees the save queued before it. Each file is written to a temporary file, forced to
+ * disk and atomically moved into place: after a crash it holds either the previous state or
+ * the new one.
+ */
+final class PlayerStateStore {
+
+    private static final String EXTENSION = ".state";
+
+    private final Path folder;
+    private final Logger logger;
+    // Players with a state on disk or on its way there; checked on every join, on the main thread.
+    private final Set<UUID> stored = ConcurrentHashMap.newKeySet();
+    private ExecutorService executor;
+
+    PlayerStateStore(File dataFolder, Logger logger) {
+        this.folder = dataFolder.toPath().resolve("player-states");
+        this.logger = logger;
+    }
+
+    /**
+     * Lists the states left from previous runs and starts the background thread.
+     *
+     * @throws IOException If the folder cannot be created or listed.
+     */
+    void start() throws IOException {
+        Files.createDirectories(folder);
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(folder, "*" + EXTENSION)) {
+            for (Path file : files) {
+                String name = file.getFileName().toString();
+                try {
+                    stored.add(UUID.fromString(name.substring(0, name.length() - EXTENSION.length())));
+                } catch (IllegalArgumentException e) {
+                    logger.warning("[ScreenShare] WARNING: Ignoring unexpected file " + name + " in " + folder + ".");
+                }
+            }
+        }
+        executor = Executors.newSingleThreadExecutor(task -> {
+            Thread thread = new Thread(task, "ScreenShare-PlayerState");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * @return Whether a state is stored (or being stored) for the player.
+     */
+    boolean has(UUID playerId) {
+        return stored.contains(playerId);
+    }
+
+    /**
+     * @return How many players have a state stored.
+     */
+    int size() {
+        return stored.size();
+    }
+
+    /**
+     * Encodes and writes a captured state in the background, replacing any previous one.
+     */
+    void save(UUID playerId, PlayerState.Live state) {
+        stored.add(playerId);
+        executor.execute(() -> {
+            try {
+                write(playerId, state.serialize().encode());
+            } catch (IOException | RuntimeException e) {
+                logger.log(Level.SEVERE, "[ScreenShare] ERROR: Failed to save the state of player " + playerId + ".", e);
+            }
+        });
+    }
+
+    /**
+     * Reads and decodes a player's state in the background.
+     *
+     * @return A future completed on the store's thread with the state, or null if none is
+     *         stored; completed exceptionally if the file cannot be read or is corrupted.
+     */
+    CompletableFuture<PlayerState.Live> load(UUID playerId) {
+        return CompletableFuture.supplyAsync(() -> {
+            byte[] data;
+            try {
+                data = Files.readAllBytes(file(playerId));
+            } catch (NoSuchFileException e) {
+                stored.remove(playerId);
+                return null;
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            return PlayerState.decode(data).deserialize();
+        }, executor);
+    }
+
+    /**
+     * Deletes a player's state in the background, once it has been restored.
+     */
+    void delete(UUID playerId) {
+        stored.remove(playerId);
+        executor.execute(() -> {
+            try {
+                Files.deleteIfExists(file(playerId));
+            } catch (IOException e) {
+                logger.log(Level.WARNING, "[ScreenShare] WARNING: Failed to delete the state of player " + playerId + ".", e);
+            }
+        });
+    }
+
+    /**
+     * Finishes the writes still queued, waiting up to 10 seconds.
+     */
+    void close() {
+        if (executor == null) {
+            return;
+        }
+        executor.shutdown();
+        try {
+            if (!executor.awaitTermination(10L, TimeUnit.SECONDS)) {
+                logger.warning("[ScreenShare] WARNING: Timed out saving player states; some may be lost.");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        executor = null;
+    }
+
+    private Path file(UUID playerId) {
+        return folder.resolve(playerId + EXTENSION);
+    }
+
+    private void write(UUID playerId, byte[] data) throws IOException {
+        Path target = file(playerId);
+        Path temp = target.resolveSibling(target.getFileName() + ".tmp");
+        try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            ByteBuffer buffer = ByteBuffer.wrap(data);
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            channel.force(true);
+        }
+        Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+}
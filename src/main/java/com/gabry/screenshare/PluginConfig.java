@@ -0,0 +1,308 @@
+package com.gabry.screenshare;
+
+import org.bukkit.configuration.ConfigurationSection;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Objects;
+import java.util.function.Consumer;
+
+/**
+ * Immutable snapshot of config.yml.
+ *
+ * A snapshot is parsed and validated completely before anyone sees it, then published with a
+ * single reference swap, so a reader on any thread sees either the old configuration or the new
+ * one, never a mix of the two. Invalid values fall back to their defaults with a warning, as
+ * they always have.
+ */
+final class PluginConfig {
+
+    /**
+     * One entry of the "ss-servers" pool.
+     */
+    static final class PoolServer {
+        final String name;
+        final int capacity;
+
+        PoolServer(String name, int capacity) {
+            this.name = name;
+            this.capacity = capacity;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof PoolServer)) {
+                return false;
+            }
+            PoolServer other = (PoolServer) o;
+            return capacity == other.capacity && name.equalsIgnoreCase(other.name);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(name.toLowerCase(Locale.ROOT), capacity);
+        }
+    }
+
+    final String ssServerName; // The name of the screenshare server as defined in Bungee/Velocity config
+    final List<PoolServer> ssServers; // Every screenshare server sessions can be routed to (ss-servers, or just ss-server)
+    final long poolPollIntervalTicks; // How often the player count of each pool member is polled
+    final long poolHealthTimeoutMillis; // How long a pool member may go without answering before it is skipped
+    final long playerListRefreshTicks; // How often the network-wide player list is refreshed
+    final HookPipeline onJoinHook; // Commands to execute on the screenshare server when a player joins
+    final HookPipeline onReturnHook; // Commands to execute on the screenshare server before player returns (may be empty)
+    final int commandsPerTick; // How many hook commands may be dispatched per tick
+    final long proxyTimeoutMillis; // How long to wait for a proxy reply before giving up
+    final int proxyMaxRetries; // How many times an unanswered GetServer is sent again
+    final long proxyRetryBackoffMillis; // Wait before the first retry, doubled for each further one
+    final int proxyBreakerThreshold; // Consecutive unanswered GetServer requests that open the breaker
+    final long proxyBreakerOpenMillis; // How long the breaker stays open before a trial request
+    final long proxyHeartbeatTicks; // How often the proxy is probed with a GetServer
+    final long locationCacheTtlMillis; // How long a known player location is trusted without asking the proxy
+    final long handoffTimeoutMillis; // How long the origin server waits for the SS server to confirm arrival
+    final long sessionPendingTimeoutMillis; // How long a player may take to reach the SS server
+    final long reconnectGraceMillis; // How long a disconnected player is sent back to the SS server on reconnect; 0 ends the session at once
+    final boolean restorePlayerState; // Snapshot location, inventory, effects and game mode on the origin server, and restore them on return
+    final boolean recordEvidence; // Record the chat, commands and disconnects of the players screenshared on this server
+    final int connectPerTick; // How many Connect messages may be sent to the proxy per tick
+    final int staffRescanPerTick; // How many online players have their notify permission re-checked per tick
+    final int metricsPort; // Loopback port of the Prometheus endpoint; 0 disables it
+    final boolean debug; // Initial state of the debug output (also toggled at runtime by /ssdebug)
+    final boolean watchConfig; // Reload automatically when config.yml changes on disk
+    final String transport; // How instances talk to each other: TRANSPORT_PLUGIN_MESSAGE or TRANSPORT_SOCKET
+    final String busServerName; // This server's proxy name on the socket bus
+    final String busListen; // Where the socket bus listens: "host:port" or "unix:/path"
+    final String busSecret; // Shared secret of the socket bus
+    final Map<String, String> busPeers; // Socket bus members by proxy name, with their listen address
+
+    static final String TRANSPORT_PLUGIN_MESSAGE = "plugin-message";
+    static final String TRANSPORT_SOCKET = "socket";
+
+    private PluginConfig(ConfigurationSection config, Consumer<String> warnings) {
+        debug = config.getBoolean("debug", false);
+        watchConfig = config.getBoolean("watch-config", false);
+
+        // Get the screenshare server name.
+        String ssServer = config.getString("ss-server", "screenshare");
+        if (ssServer == null || ssServer.isEmpty()) {
+            ssServer = "screenshare"; // Default fallback
+            warnings.accept("ss-server in config.yml is empty. Defaulting to 'screenshare'.");
+        }
+        ssServerName = ssServer;
+
+        metricsPort = intBetween(config, "metrics-port", 0, 0, 65535, warnings);
+        staffRescanPerTick = positiveInt(config, "staff-rescan-per-tick", 20, warnings);
+        connectPerTick = positiveInt(config, "connect-per-tick", 10, warnings);
+
+        // Pool polling and the network player list.
+        poolPollIntervalTicks = positiveLong(config, "pool-poll-interval-ticks", 100L, warnings);
+        playerListRefreshTicks = positiveLong(config, "player-list-refresh-ticks", 100L, warnings);
+        poolHealthTimeoutMillis = positiveLong(config, "pool-health-timeout-ms", 15_000L, warnings);
+        // Without "ss-servers", "ss-server" forms a pool of one.
+        ssServers = Collections.unmodifiableList(readPool(config, ssServerName, warnings));
+
+        // Get the on-join hook: a single command or a list of steps. An empty list runs nothing.
+        Object onJoin = config.get("on-join-command");
+        if (onJoin == null || (onJoin instanceof String && ((String) onJoin).trim().isEmpty())) {
+            onJoin = "ssmode %player%"; // Default fallback
+            warnings.accept("on-join-command in config.yml is empty. Defaulting to 'ssmode %player%'.");
+        }
+        onJoinHook = HookPipeline.parse("on-join-command", onJoin, warnings);
+
+        // Get the on-return hook (empty means nothing runs before the player returns).
+        onReturnHook = HookPipeline.parse("on-return-command", config.get("on-return-command"), warnings);
+        commandsPerTick = positiveInt(config, "commands-per-tick", 20, warnings);
+
+        // Proxy requests: timeout, GetServer retries, circuit breaker and heartbeat.
+        proxyTimeoutMillis = positiveLong(config, "proxy-timeout-ms", 2000L, warnings);
+        proxyMaxRetries = (int) nonNegativeLong(config, "proxy-max-retries", 1L, warnings);
+        proxyRetryBackoffMillis = nonNegativeLong(config, "proxy-retry-backoff-ms", 250L, warnings);
+        proxyBreakerThreshold = positiveInt(config, "proxy-breaker-threshold", 3, warnings);
+        proxyBreakerOpenMillis = positiveLong(config, "proxy-breaker-open-ms", 10_000L, warnings);
+        proxyHeartbeatTicks = positiveLong(config, "proxy-heartbeat-ticks", 100L, warnings);
+
+        // Location cache TTL (0 disables the cache).
+        locationCacheTtlMillis = nonNegativeLong(config, "location-cache-ttl-ms", 30_000L, warnings);
+
+        // Session lifecycle windows and the handoff acknowledgement timeout.
+        sessionPendingTimeoutMillis = positiveLong(config, "session-pending-timeout-ms", 60_000L, warnings);
+        reconnectGraceMillis = nonNegativeLong(config, "session-reconnect-grace-ms", 300_000L, warnings);
+        handoffTimeoutMillis = positiveLong(config, "handoff-timeout-ms", 10_000L, warnings);
+        restorePlayerState = config.getBoolean("restore-player-state", true);
+        recordEvidence = config.getBoolean("record-evidence", true);
+
+        // Transport between instances. An incomplete socket bus falls back to plugin messages.
+        busServerName = config.getString("socket-bus.server-name", "").trim();
+        busListen = config.getString("socket-bus.listen", "").trim();
+        busSecret = config.getString("socket-bus.secret", "");
+        busPeers = Collections.unmodifiableMap(readPeers(config, warnings));
+        String transportName = config.getString("transport", TRANSPORT_PLUGIN_MESSAGE).trim().toLowerCase(Locale.ROOT);
+        if (!transportName.equals(TRANSPORT_PLUGIN_MESSAGE) && !transportName.equals(TRANSPORT_SOCKET)) {
+            warnings.accept("Invalid transport '" + transportName + "' in config.yml. Defaulting to '" + TRANSPORT_PLUGIN_MESSAGE + "'.");
+            transportName = TRANSPORT_PLUGIN_MESSAGE;
+        }
+        if (transportName.equals(TRANSPORT_SOCKET)) {
+            if (busServerName.isEmpty()) {
+                warnings.accept("socket-bus.server-name in config.yml is empty. Defaulting to transport '" + TRANSPORT_PLUGIN_MESSAGE + "'.");
+                transportName = TRANSPORT_PLUGIN_MESSAGE;
+            } else if (!isValidAddress(busListen)) {
+                warnings.accept("Invalid socket-bus.listen '" + busListen + "' in config.yml. Defaulting to transport '" + TRANSPORT_PLUGIN_MESSAGE + "'.");
+                transportName = TRANSPORT_PLUGIN_MESSAGE;
+            } else if (busSecret.isEmpty()) {
+                warnings.accept("socket-bus.secret in config.yml is empty: any process that can reach " + busListen + " can send messages to this server.");
+            }
+        }
+        transport = transportName;
+    }
+
+    /**
+     * Parses and validates a configuration.
+     *
+     * @param config The loaded config.yml, with the bundled defaults attached.
+     * @param warnings Receives one message per invalid value that was replaced by its default.
+     * @return The snapshot.
+     */
+    static PluginConfig parse(ConfigurationSection config, Consumer<String> warnings) {
+        return new PluginConfig(config, warnings);
+    }
+
+    /**
+     * Reads the "ss-servers" pool.
+     * Each entry is either a plain server name or a map with "name" and an optional "capacity".
+     *
+     * @return The pool members; the single "ss-server" if no pool is configured.
+     */
+    private static List<PoolServer> readPool(ConfigurationSection config, String ssServerName, Consumer<String> warnings) {
+        int defaultCapacity = positiveInt(config, "ss-server-capacity", 50, warnings);
+
+        List<PoolServer> members = new ArrayList<>();
+        List<?> entries = config.getList("ss-servers");
+        if (entries != null) {
+            for (Object entry : entries) {
+                String name = null;
+                int capacity = defaultCapacity;
+                if (entry instanceof String) {
+                    name = (String) entry;
+                } else if (entry instanceof Map) {
+                    Object rawName = ((Map<?, ?>) entry).get("name");
+                    Object rawCapacity = ((Map<?, ?>) entry).get("capacity");
+                    name = rawName == null ? null : rawName.toString();
+                    if (rawCapacity instanceof Number && ((Number) rawCapacity).intValue() > 0) {
+                        capacity = ((Number) rawCapacity).intValue();
+                    } else if (rawCapacity != null) {
+                        warnings.accept("Invalid capacity for ss-servers entry '" + name + "'. Using " + defaultCapacity + ".");
+                    }
+                }
+                if (name == null || name.trim().isEmpty()) {
+                    warnings.accept("Ignoring ss-servers entry without a name: " + entry);
+                    continue;
+                }
+                members.add(new PoolServer(name.trim(), capacity));
+            }
+        }
+        if (members.isEmpty()) {
+            members.add(new PoolServer(ssServerName, defaultCapacity));
+        }
+        return members;
+    }
+
+    /**
+     * Reads the "socket-bus.peers" section: proxy server names mapped to their listen address.
+     * Entries with a malformed address are skipped.
+     */
+    private static Map<String, String> readPeers(ConfigurationSection config, Consumer<String> warnings) {
+        Map<String, String> peers = new LinkedHashMap<>();
+        ConfigurationSection section = config.getConfigurationSection("socket-bus.peers");
+        if (section == null) {
+            return peers;
+        }
+        for (String name : section.getKeys(false)) {
+            String address = section.getString(name, "");
+            if (!isValidAddress(address)) {
+                warnings.accept("Ignoring socket-bus.peers entry '" + name + "' with an invalid address: '" + address + "'.");
+                continue;
+            }
+            peers.put(name, address.trim());
+        }
+        return peers;
+    }
+
+    private static boolean isValidAddress(String address) {
+        try {
+            SocketBusTransport.parseAddress(address);
+            return true;
+        } catch (IllegalArgumentException e) {
+            return false;
+        }
+    }
+
+    /**
+     * @return Whether {@code other} sets up the same transport, so a reload can keep the current one.
+     */
+    boolean sameTransport(PluginConfig other) {
+        if (!transport.equals(other.transport)) {
+            return false;
+        }
+        return transport.equals(TRANSPORT_PLUGIN_MESSAGE)
+                || (busServerName.equals(other.busServerName) && busListen.equals(other.busListen)
+                && busSecret.equals(other.busSecret) && busPeers.equals(other.busPeers));
+    }
+
+    /**
+     * @return A one-line summary for the debug log.
+     */
+    String describe() {
+        return "ss-server='" + ssServerName +
+                "', on-join-command='" + onJoinHook.describe() +
+                "', on-return-command='" + onReturnHook.describe() +
+                "', commands-per-tick=" + commandsPerTick +
+                ", proxy-timeout-ms=" + proxyTimeoutMillis +
+                ", proxy-max-retries=" + proxyMaxRetries +
+                ", location-cache-ttl-ms=" + locationCacheTtlMillis +
+                ", handoff-timeout-ms=" + handoffTimeoutMillis +
+                ", restore-player-state=" + restorePlayerState +
+                ", record-evidence=" + recordEvidence +
+                ", transport=" + transport +
+                ", watch-config=" + watchConfig;
+    }
+
+    private static long positiveLong(ConfigurationSection config, String key, long fallback, Consumer<String> warnings) {
+        long value = config.getLong(key, fallback);
+        if (value <= 0) {
+            warnings.accept(key + " in config.yml must be positive. Defaulting to " + fallback + ".");
+            return fallback;
+        }
+        return value;
+    }
+
+    private static long nonNegativeLong(ConfigurationSection config, String key, long fallback, Consumer<String> warnings) {
+        long value = config.getLong(key, fallback);
+        if (value < 0) {
+            warnings.accept(key + " in config.yml cannot be negative. Defaulting to " + fallback + ".");
+            return fallback;
+        }
+        return value;
+    }
+
+    private static int positiveInt(ConfigurationSection config, String key, int fallback, Consumer<String> warnings) {
+        int value = config.getInt(key, fallback);
+        if (value <= 0) {
+            warnings.accept(key + " in config.yml must be positive. Defaulting to " + fallback + ".");
+            return fallback;
+        }
+        return value;
+    }
+
+    private static int intBetween(ConfigurationSection config, String key, int fallback, int min, int max, Consumer<String> warnings) {
+        int value = config.getInt(key, fallback);
+        if (value < min || value > max) {
+            warnings.accept(key + " in config.yml must be between " + min + " and " + max + ". Defaulting to " + fallback + ".");
+            return fallback;
+        }
+        return value;
+    }
+}
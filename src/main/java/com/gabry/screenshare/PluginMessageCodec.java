@@ -0,0 +1,446 @@
+package com.gabry.screenshare;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.UUID;
+
+/**
+ * Encoder and decoder for messages on the BungeeCord plugin messaging channel.
+ *
+ * Every subchannel the plugin sends or receives is pre-encoded once, in the same length-prefixed
+ * modified UTF-8 form {@code DataOutput.writeUTF} produces, so its header is copied instead of
+ * re-encoded on every message. Outgoing messages are assembled in two reusable scratch buffers
+ * (one for the ScreenShare payload, one for the proxy envelope) and copied out exactly once,
+ * because the server keeps a reference to the array handed to {@code sendPluginMessage}.
+ * Incoming messages are read in place through a {@link Reader}, and the subchannel is matched
+ * against the pre-encoded headers byte by byte without building a String.
+ *
+ * This class is not thread-safe; it is only used from the main thread, where Bukkit delivers
+ * plugin messages and where the plugin sends them.
+ */
+final class PluginMessageCodec {
+
+    /**
+     * The BungeeCord subchannels used by the plugin, with their pre-encoded headers.
+     */
+    enum Subchannel {
+        CONNECT("Connect"),
+        CONNECT_OTHER("ConnectOther"),
+        GET_SERVER("GetServer"),
+        GET_PLAYER_SERVER("GetPlayerServer"),
+        UUID_OTHER("UUIDOther"),
+        PLAYER_COUNT("PlayerCount"),
+        PLAYER_LIST("PlayerList"),
+        FORWARD("Forward"),
+        FORWARD_TO_PLAYER("ForwardToPlayer"),
+        /** Channel name carried inside Forward messages exchanged between ScreenShare instances. */
+        SCREENSHARE("ScreenShare");
+
+        private static final Subchannel[] VALUES = values();
+
+        final String name;
+        private final byte[] header; // Length prefix + modified UTF-8 bytes
+
+        Subchannel(String name) {
+            this.name = name;
+            this.header = encodeUtf(name);
+        }
+
+        /**
+         * Matches the length-prefixed string at the reader's position against every known
+         * subchannel. On a match the reader is advanced past it.
+         *
+         * @return The matching subchannel, or null (reader untouched) if it is not one of ours.
+         */
+        static Subchannel match(Reader in) {
+            for (Subchannel subchannel : VALUES) {
+                byte[] header = subchannel.header;
+                int from = in.position;
+                if (in.limit - from >= header.length
+                        && Arrays.equals(in.data, from, from + header.length, header, 0, header.length)) {
+                    in.position = from + header.length;
+                    return subchannel;
+                }
+            }
+            return null;
+        }
+    }
+
+    // Built once: GetServer has no arguments, and the message array is never modified after sending.
+    private static final byte[] GET_SERVER_MESSAGE = Subchannel.GET_SERVER.header.clone();
+
+    private final Writer payload = new Writer(256);
+    private final Writer envelope = new Writer(256);
+
+    // --- Outgoing ---
+
+    /**
+     * @return The "Connect" message that sends the player it is sent through to a server.
+     */
+    byte[] connect(String serverName) {
+        return envelope.reset().write(Subchannel.CONNECT.header).writeUTF(serverName).toByteArray();
+    }
+
+    /**
+     * @return The "ConnectOther" message that sends any player on the network to a server.
+     */
+    byte[] connectOther(String playerName, String serverName) {
+        return envelope.reset().write(Subchannel.CONNECT_OTHER.header).writeUTF(playerName).writeUTF(serverName).toByteArray();
+    }
+
+    /**
+     * @return The "GetPlayerServer" request for the server a player is on, anywhere on the network.
+     */
+    byte[] getPlayerServer(String playerName) {
+        return envelope.reset().write(Subchannel.GET_PLAYER_SERVER.header).writeUTF(playerName).toByteArray();
+    }
+
+    /**
+     * @return The "UUIDOther" request for the UUID of a player anywhere on the network.
+     */
+    byte[] uuidOther(String playerName) {
+        return envelope.reset().write(Subchannel.UUID_OTHER.header).writeUTF(playerName).toByteArray();
+    }
+
+    /**
+     * @return The "GetServer" request for the player it is sent through. Shared, do not modify.
+     */
+    byte[] getServer() {
+        return GET_SERVER_MESSAGE;
+    }
+
+    /**
+     * @return The "PlayerCount" request for a server.
+     */
+    byte[] playerCount(String serverName) {
+        return envelope.reset().write(Subchannel.PLAYER_COUNT.header).writeUTF(serverName).toByteArray();
+    }
+
+    /**
+     * @return The "PlayerList" request for a server, or for the whole network with "ALL".
+     */
+    byte[] playerList(String serverName) {
+        return envelope.reset().write(Subchannel.PLAYER_LIST.header).writeUTF(serverName).toByteArray();
+    }
+
+    /**
+     * Starts a new ScreenShare payload in the payload scratch buffer. The returned writer is
+     * only valid until the next call to this method; finish it with {@link #forward} or
+     * {@link #forwardToPlayer}, or copy it out with {@link Writer#toByteArray()}.
+     */
+    Writer payload() {
+        return payload.reset();
+    }
+
+    /**
+     * Wraps a payload in a "Forward" envelope addressed to the ScreenShare channel of a server.
+     *
+     * @param targetServer The destination server, or "ALL".
+     * @param message The payload being built in {@link #payload()}.
+     */
+    byte[] forward(String targetServer, Writer message) {
+        return envelope(Subchannel.FORWARD, targetServer, message.buffer, message.position);
+    }
+
+    /**
+     * Wraps an already encoded payload in a "Forward" envelope.
+     */
+    byte[] forward(String targetServer, byte[] message) {
+        return envelope(Subchannel.FORWARD, targetServer, message, message.length);
+    }
+
+    /**
+     * Wraps a payload in a "ForwardToPlayer" envelope addressed to the ScreenShare channel of
+     * whichever server a player is on.
+     */
+    byte[] forwardToPlayer(String targetPlayer, Writer message) {
+        return envelope(Subchannel.FORWARD_TO_PLAYER, targetPlayer, message.buffer, message.position);
+    }
+
+    /**
+     * Wraps an already encoded payload in a "ForwardToPlayer" envelope.
+     */
+    byte[] forwardToPlayer(String targetPlayer, byte[] message) {
+        return envelope(Subchannel.FORWARD_TO_PLAYER, targetPlayer, message, message.length);
+    }
+
+    /**
+     * @return A message on an arbitrary subchannel followed by raw data.
+     */
+    byte[] custom(String subchannel, byte[] data) {
+        return envelope.reset().writeUTF(subchannel).write(data, 0, data.length).toByteArray();
+    }
+
+    private byte[] envelope(Subchannel subchannel, String target, byte[] message, int length) {
+        if (length > 0xFFFF) {
+            throw new IllegalArgumentException("Forward payload too large: " + length + " bytes");
+        }
+        return envelope.reset()
+                .write(subchannel.header)
+                .writeUTF(target)
+                .write(Subchannel.SCREENSHARE.header)
+                .writeShort(length)
+                .write(message, 0, length)
+                .toByteArray();
+    }
+
+    // --- Incoming ---
+
+    /**
+     * Parses a UUID as sent by the proxy, which (depending on the proxy) may omit the dashes.
+     */
+    static UUID parseUuid(String value) {
+        if (value.indexOf('-') >= 0) {
+            return UUID.fromString(value);
+        }
+        if (value.length() != 32) {
+            throw new IllegalArgumentException("Invalid UUID: " + value);
+        }
+        return new UUID(Long.parseUnsignedLong(value.substring(0, 16), 16), Long.parseUnsignedLong(value.substring(16), 16));
+    }
+
+    /**
+     * @return A reader over a whole received message. The array is read in place, not copied.
+     */
+    static Reader read(byte[] message) {
+        return new Reader(message, 0, message.length);
+    }
+
+    /**
+     * Growable byte buffer with the {@code DataOutput} encodings the proxy protocol uses.
+     */
+    static final class Writer {
+        private byte[] buffer;
+        private int position;
+
+        Writer(int initialCapacity) {
+            this.buffer = new byte[initialCapacity];
+        }
+
+        Writer reset() {
+            position = 0;
+            return this;
+        }
+
+        int size() {
+            return position;
+        }
+
+        Writer writeByte(int value) {
+            ensure(1);
+            buffer[position++] = (byte) value;
+            return this;
+        }
+
+        Writer writeShort(int value) {
+            ensure(2);
+            buffer[position++] = (byte) (value >>> 8);
+            buffer[position++] = (byte) value;
+            return this;
+        }
+
+        Writer writeInt(int value) {
+            ensure(4);
+            buffer[position++] = (byte) (value >>> 24);
+            buffer[position++] = (byte) (value >>> 16);
+            buffer[position++] = (byte) (value >>> 8);
+            buffer[position++] = (byte) value;
+            return this;
+        }
+
+        Writer writeLong(long value) {
+            writeInt((int) (value >>> 32));
+            return writeInt((int) value);
+        }
+
+        Writer writeUuid(UUID value) {
+            writeLong(value.getMostSignificantBits());
+            return writeLong(value.getLeastSignificantBits());
+        }
+
+        Writer write(byte[] bytes) {
+            return write(bytes, 0, bytes.length);
+        }
+
+        Writer write(byte[] bytes, int offset, int length) {
+            ensure(length);
+            System.arraycopy(bytes, offset, buffer, position, length);
+            position += length;
+            return this;
+        }
+
+        /**
+         * Writes a string exactly like {@code DataOutput.writeUTF}.
+         */
+        Writer writeUTF(String value) {
+            int length = value.length();
+            ensure(2 + length * 3); // Worst case; rejected below if over the 65535-byte limit.
+            int start = position;
+            position += 2;
+            for (int i = 0; i < length; i++) {
+                char c = value.charAt(i);
+                if (c != 0 && c < 0x80) {
+                    buffer[position++] = (byte) c;
+                } else if (c < 0x800) {
+                    buffer[position++] = (byte) (0xC0 | (c >> 6));
+                    buffer[position++] = (byte) (0x80 | (c & 0x3F));
+                } else {
+                    buffer[position++] = (byte) (0xE0 | (c >> 12));
+                    buffer[position++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+                    buffer[position++] = (byte) (0x80 | (c & 0x3F));
+                }
+            }
+            int encoded = position - start - 2;
+            if (encoded > 0xFFFF) {
+                position = start;
+                throw new IllegalArgumentException("String too long for writeUTF: " + encoded + " bytes");
+            }
+            buffer[start] = (byte) (encoded >>> 8);
+            buffer[start + 1] = (byte) encoded;
+            return this;
+        }
+
+        /**
+         * @return A copy of the bytes written so far.
+         */
+        byte[] toByteArray() {
+            return Arrays.copyOf(buffer, position);
+        }
+
+        private void ensure(int extra) {
+            if (position + extra > buffer.length) {
+                buffer = Arrays.copyOf(buffer, Math.max(buffer.length * 2, position + extra));
+            }
+        }
+    }
+
+    /**
+     * Reads the {@code DataInput} encodings the proxy protocol uses directly from a byte array
+     * region. Reading past the end throws {@link IllegalStateException}, which is what Guava's
+     * {@code ByteArrayDataInput} did for truncated messages.
+     */
+    static final class Reader {
+        private final byte[] data;
+        private int position;
+        private final int limit;
+
+        Reader(byte[] data, int offset, int length) {
+            this.data = data;
+            this.position = offset;
+            this.limit = offset + length;
+        }
+
+        byte[] array() {
+            return data;
+        }
+
+        int position() {
+            return position;
+        }
+
+        int remaining() {
+            return limit - position;
+        }
+
+        byte readByte() {
+            require(1);
+            return data[position++];
+        }
+
+        int readUnsignedShort() {
+            require(2);
+            int value = (data[position] & 0xFF) << 8 | (data[position + 1] & 0xFF);
+            position += 2;
+            return value;
+        }
+
+        int readInt() {
+            require(4);
+            int value = (data[position] & 0xFF) << 24 | (data[position + 1] & 0xFF) << 16
+                    | (data[position + 2] & 0xFF) << 8 | (data[position + 3] & 0xFF);
+            position += 4;
+            return value;
+        }
+
+        long readLong() {
+            return (long) readInt() << 32 | (readInt() & 0xFFFFFFFFL);
+        }
+
+        UUID readUuid() {
+            return new UUID(readLong(), readLong());
+        }
+
+        /**
+         * Reads a string written by {@code DataOutput.writeUTF}.
+         */
+        String readUTF() {
+            int length = readUnsignedShort();
+            require(length);
+            int start = position;
+            int end = start + length;
+            position = end;
+
+            boolean ascii = true;
+            for (int i = start; i < end; i++) {
+                if (data[i] <= 0) { // Non-ASCII, or the two-byte encoding of U+0000
+                    ascii = false;
+                    break;
+                }
+            }
+            if (ascii) {
+                return new String(data, start, length, StandardCharsets.ISO_8859_1);
+            }
+
+            char[] chars = new char[length];
+            int count = 0;
+            for (int i = start; i < end; ) {
+                int b = data[i++] & 0xFF;
+                if (b < 0x80) {
+                    chars[count++] = (char) b;
+                } else if ((b & 0xE0) == 0xC0 && i < end) {
+                    chars[count++] = (char) ((b & 0x1F) << 6 | (data[i++] & 0x3F));
+                } else if ((b & 0xF0) == 0xE0 && i + 1 < end) {
+                    chars[count++] = (char) ((b & 0x0F) << 12 | (data[i] & 0x3F) << 6 | (data[i + 1] & 0x3F));
+                    i += 2;
+                } else {
+                    throw new IllegalStateException("Malformed modified UTF-8 at byte " + (i - 1));
+                }
+            }
+            return new String(chars, 0, count);
+        }
+
+        /**
+         * @return A reader over the next {@code length} bytes, sharing this reader's array.
+         */
+        Reader slice(int length) {
+            require(length);
+            Reader slice = new Reader(data, position, length);
+            position += length;
+            return slice;
+        }
+
+        /**
+         * @return A copy of the next {@code length} bytes.
+         */
+        byte[] readBytes(int length) {
+            require(length);
+            byte[] bytes = Arrays.copyOfRange(data, position, position + length);
+            position += length;
+            return bytes;
+        }
+
+        private void require(int bytes) {
+            if (limit - position < bytes) {
+                throw new IllegalStateException("Truncated plugin message: need " + bytes +
+                        " bytes, " + (limit - position) + " left");
+            }
+        }
+    }
+
+    /**
+     * Encodes a string once, for the pre-encoded subchannel headers.
+     */
+    private static byte[] encodeUtf(String value) {
+        return new Writer(2 + value.length() * 3).writeUTF(value).toByteArray();
+    }
+}
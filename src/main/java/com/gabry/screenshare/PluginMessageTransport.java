@@ -0,0 +1,87 @@
+package com.gabry.screenshare;
+
+import org.bukkit.Bukkit;
+import org.bukkit.entity.Player;
+import org.bukkit.plugin.Plugin;
+
+import java.util.UUID;
+
+/**
+ * {@link Transport} over the proxy's "Forward" and "ForwardToPlayer" subchannels.
+ *
+ * A Paper server can only talk to the proxy through a connected player, so with nobody online
+ * every message is dropped. Messages go through a player who is not in the middle of a
+ * Connect whenever there is one, since the proxy drops what arrives on a connection it is
+ * switching. Messages are sent immediately; the proxy delivers them on the BungeeCord channel,
+ * where {@link ScreenShare#onPluginMessageReceived} picks them up.
+ */
+final class PluginMessageTransport implements Transport {
+
+    private final Plugin plugin;
+    private final String channel;
+    private final PluginMessageCodec codec;
+    private final ConnectingPlayers connectingPlayers;
+
+    /**
+     * @param plugin The plugin sending the messages.
+     * @param channel The registered outgoing BungeeCord channel.
+     * @param codec The plugin's codec (main thread only, like this transport).
+     * @param connectingPlayers The players the plugin has just sent a Connect for.
+     */
+    PluginMessageTransport(Plugin plugin, String channel, PluginMessageCodec codec, ConnectingPlayers connectingPlayers) {
+        this.plugin = plugin;
+        this.channel = channel;
+        this.codec = codec;
+        this.connectingPlayers = connectingPlayers;
+    }
+
+    @Override
+    public boolean canSend() {
+        return !Bukkit.getOnlinePlayers().isEmpty();
+    }
+
+    @Override
+    public boolean send(String targetServer, byte[] message, UUID preferredVia) {
+        Player preferred = preferredVia == null || connectingPlayers.isConnecting(preferredVia) ? null : Bukkit.getPlayer(preferredVia);
+        Player via = preferred != null ? preferred : pickVia();
+        if (via == null) {
+            return false;
+        }
+        via.sendPluginMessage(plugin, channel, codec.forward(targetServer, message));
+        return true;
+    }
+
+    @Override
+    public boolean broadcast(byte[] message) {
+        return send("ALL", message, null);
+    }
+
+    @Override
+    public boolean sendToPlayer(String playerName, byte[] message) {
+        Player via = pickVia();
+        if (via == null) {
+            return false;
+        }
+        via.sendPluginMessage(plugin, channel, codec.forwardToPlayer(playerName, message));
+        return true;
+    }
+
+    @Override
+    public void tick() {
+        // Nothing is batched: plugin messages leave as soon as they are sent.
+    }
+
+    @Override
+    public void close() {
+        // The channel is registered and unregistered by the plugin.
+    }
+
+    @Override
+    public String describe() {
+        return "plugin-message (via proxy)";
+    }
+
+    private Player pickVia() {
+        return connectingPlayers.pick(Bukkit.getOnlinePlayers(), Player::getUniqueId);
+    }
+}
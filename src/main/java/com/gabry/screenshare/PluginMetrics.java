@@ -0,0 +1,118 @@
+package com.gabry.screenshare;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+/**
+ * The plugin's counters and latency histograms.
+ *
+ * Everything is recorded lock-free ({@link LongAdder}, {@link LatencyHistogram}) from the main
+ * thread and read from wherever it is displayed: /ssstats on the main thread, the Prometheus
+ * endpoint on its own thread. Gauges are read through suppliers, which must therefore be safe
+ * to call from any thread.
+ */
+final class PluginMetrics {
+
+    // --- Proxy round trips ---
+    /** GetServer request to reply, for {@code getCurrentServerName} lookups that reached the proxy. */
+    final LatencyHistogram getServerRoundTrip = new LatencyHistogram(LatencyHistogram.LATENCY_BOUNDS_MICROS);
+    /** GetPlayerServer request to reply, for players on other backends. */
+    final LatencyHistogram getPlayerServerRoundTrip = new LatencyHistogram(LatencyHistogram.LATENCY_BOUNDS_MICROS);
+    /** getCurrentServerName calls answered by the location cache. */
+    final LongAdder locationCacheHits = new LongAdder();
+    /** Proxy requests that got no reply in time. */
+    final LongAdder proxyTimeouts = new LongAdder();
+
+    // --- Connect ---
+    /** Time a Connect / ConnectOther message waited for the per-tick send budget. */
+    final LatencyHistogram connectDelay = new LatencyHistogram(LatencyHistogram.LATENCY_BOUNDS_MICROS);
+    final LongAdder connectsSent = new LongAdder();
+
+    // --- Sessions ---
+    /** Session start to the SS server's arrival acknowledgement. */
+    final LatencyHistogram arrivalLatency = new LatencyHistogram(LatencyHistogram.LATENCY_BOUNDS_MICROS);
+    /** Session start to end (by /ssend, or a disconnect without reconnecting in time). */
+    final LatencyHistogram sessionDuration = new LatencyHistogram(LatencyHistogram.DURATION_BOUNDS_MICROS);
+    final LongAdder sessionsStarted = new LongAdder();
+    final LongAdder sessionsEnded = new LongAdder();
+    final LongAdder sessionsDisconnected = new LongAdder();
+    /** Sessions dropped because the player never arrived on the SS server. */
+    final LongAdder sessionsExpired = new LongAdder();
+    final LongAdder handoffTimeouts = new LongAdder();
+
+    // --- Transport ---
+    /** Messages to other ScreenShare instances the transport could not send, and malformed ones received from them. */
+    final LongAdder transportDropped = new LongAdder();
+
+    // --- Evidence ---
+    /** Evidence events overwritten in a session's ring before they could be written. */
+    final LongAdder evidenceDropped = new LongAdder();
+
+    private final Map<String, LongSupplier> gauges = new ConcurrentHashMap<>();
+    private final long createdAtMillis = System.currentTimeMillis();
+
+    /**
+     * Registers a value read at display time, e.g. the number of active sessions.
+     *
+     * @param name The Prometheus metric name.
+     * @param value Reads the current value; called from any thread.
+     */
+    void gauge(String name, LongSupplier value) {
+        gauges.put(name, value);
+    }
+
+    /**
+     * Records the end of a session that started at {@code startedAtMillis}.
+     *
+     * @param disconnected Whether the player left and did not come back, instead of being sent back by /ssend.
+     */
+    void sessionEnded(long startedAtMillis, boolean disconnected) {
+        (disconnected ? sessionsDisconnected : sessionsEnded).increment();
+        sessionDuration.record((System.currentTimeMillis() - startedAtMillis) * 1_000L);
+    }
+
+    long uptimeMillis() {
+        return System.currentTimeMillis() - createdAtMillis;
+    }
+
+    /**
+     * @return Every metric in the Prometheus text exposition format.
+     */
+    String toPrometheus() {
+        StringBuilder out = new StringBuilder(4096);
+        out.append("# TYPE screenshare_proxy_round_trip_seconds histogram\n");
+        getServerRoundTrip.writePrometheus(out, "screenshare_proxy_round_trip_seconds", "subchannel=\"GetServer\"");
+        getPlayerServerRoundTrip.writePrometheus(out, "screenshare_proxy_round_trip_seconds", "subchannel=\"GetPlayerServer\"");
+        counter(out, "screenshare_location_cache_hits_total", locationCacheHits);
+        counter(out, "screenshare_proxy_timeouts_total", proxyTimeouts);
+
+        out.append("# TYPE screenshare_connect_delay_seconds histogram\n");
+        connectDelay.writePrometheus(out, "screenshare_connect_delay_seconds", "");
+        counter(out, "screenshare_connects_sent_total", connectsSent);
+
+        out.append("# TYPE screenshare_arrival_latency_seconds histogram\n");
+        arrivalLatency.writePrometheus(out, "screenshare_arrival_latency_seconds", "");
+        out.append("# TYPE screenshare_session_duration_seconds histogram\n");
+        sessionDuration.writePrometheus(out, "screenshare_session_duration_seconds", "");
+        counter(out, "screenshare_sessions_started_total", sessionsStarted);
+        counter(out, "screenshare_sessions_ended_total", sessionsEnded);
+        counter(out, "screenshare_sessions_disconnected_total", sessionsDisconnected);
+        counter(out, "screenshare_sessions_expired_total", sessionsExpired);
+        counter(out, "screenshare_handoff_timeouts_total", handoffTimeouts);
+        counter(out, "screenshare_transport_dropped_total", transportDropped);
+        counter(out, "screenshare_evidence_dropped_total", evidenceDropped);
+
+        for (Map.Entry<String, LongSupplier> gauge : gauges.entrySet()) {
+            out.append("# TYPE ").append(gauge.getKey()).append(" gauge\n");
+            out.append(gauge.getKey()).append(' ').append(gauge.getValue().getAsLong()).append('\n');
+        }
+        return out.toString();
+    }
+
+    private static void counter(StringBuilder out, String name, LongAdder value) {
+        out.append("# TYPE ").append(name).append(" counter\n");
+        out.append(name).append(' ').append(value.sum()).append('\n');
+    }
+}
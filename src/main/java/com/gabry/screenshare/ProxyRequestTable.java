@@ -0,0 +1,221 @@
+package com.gabry.screenshare;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeoutException;
+import java.util.function.LongSupplier;
+
+/**
+ * Pending-request table used to correlate proxy replies with the requests that caused them.
+ * A single, permanently registered plugin message listener hands every reply to {@link #complete},
+ * which resolves exactly the future that is waiting for that key instead of broadcasting the
+ * reply to every outstanding lookup.
+ *
+ * Concurrent requests for the same key are merged: only the first one sends a message to the
+ * proxy, later callers simply receive the same future.
+ *
+ * Futures are completed either by {@link #complete} (called from the plugin message listener,
+ * i.e. on the main thread) or by {@link #expire} (called from a repeating main-thread task),
+ * so dependent callbacks always run on the main thread.
+ *
+ * Optionally, a request that gets no reply is sent again up to a bounded number of times with
+ * exponential backoff ({@link #setRetryPolicy}), and a {@link CircuitBreaker} shared between
+ * tables rejects new requests while the proxy is not answering ({@link #setCircuitBreaker}).
+ * Retries are driven by {@link #expire} too, so the whole timeline follows the injected clock.
+ *
+ * @param <K> The correlation key (e.g. the player UUID for GetServer).
+ * @param <V> The type of the reply value.
+ */
+final class ProxyRequestTable<K, V> {
+
+    private final Map<K, Pending<V>> pending = new ConcurrentHashMap<>();
+    private final LongSupplier clock; // Milliseconds, injectable so expiry can be driven manually.
+    private LatencyHistogram roundTrips; // Optional; fed with the send-to-reply time of completed requests.
+    private CircuitBreaker breaker; // Optional; told about every reply and every final timeout.
+    private int maxRetries; // Re-sends after the first attempt times out; 0 disables retries.
+    private long baseBackoffMillis;
+    private long maxBackoffMillis;
+
+    ProxyRequestTable(LongSupplier clock) {
+        this.clock = clock;
+    }
+
+    /**
+     * Records the time from sending each request to its reply in a histogram. Merged and
+     * timed-out requests are not recorded.
+     */
+    void recordRoundTrips(LatencyHistogram histogram) {
+        this.roundTrips = histogram;
+    }
+
+    /**
+     * Re-sends requests that time out. The n-th retry waits {@code baseBackoffMillis * 2^(n-1)},
+     * capped at {@code maxBackoffMillis}, and then gets the full timeout again.
+     *
+     * @param maxRetries How many times a request may be re-sent; 0 disables retries.
+     * @param baseBackoffMillis The wait before the first retry.
+     * @param maxBackoffMillis The longest wait between retries.
+     */
+    void setRetryPolicy(int maxRetries, long baseBackoffMillis, long maxBackoffMillis) {
+        this.maxRetries = maxRetries;
+        this.baseBackoffMillis = baseBackoffMillis;
+        this.maxBackoffMillis = maxBackoffMillis;
+    }
+
+    /**
+     * Rejects new requests while the breaker is open, and reports the outcome of every request
+     * to it. Merged requests are not checked, since they do not send anything.
+     */
+    void setCircuitBreaker(CircuitBreaker breaker) {
+        this.breaker = breaker;
+    }
+
+    /**
+     * Returns the future for a request, sending it through {@code sender} only if no request
+     * for the same key is already in flight.
+     *
+     * @param key The correlation key.
+     * @param timeoutMillis How long to wait for each attempt's reply. After the last attempt the
+     *                      future fails with a {@link TimeoutException}.
+     * @param sender Sends the actual request to the proxy. Not invoked when the request is merged;
+     *               invoked again for every retry.
+     * @return The future that will be completed with the reply, or that has already failed with
+     *         {@link CircuitBreaker.OpenException} if the breaker rejected the request.
+     */
+    CompletableFuture<V> request(K key, long timeoutMillis, Runnable sender) {
+        Pending<V> existing = pending.get(key);
+        if (existing != null) {
+            return existing.future; // Merge with the request already in flight.
+        }
+        CircuitBreaker breaker = this.breaker;
+        if (breaker != null && !breaker.allowRequest()) {
+            return CompletableFuture.failedFuture(breaker.rejection());
+        }
+        Pending<V> created = new Pending<>(sender, timeoutMillis, clock.getAsLong() + timeoutMillis);
+        existing = pending.putIfAbsent(key, created);
+        if (existing != null) {
+            return existing.future;
+        }
+        try {
+            sender.run();
+        } catch (RuntimeException e) {
+            pending.remove(key, created);
+            if (breaker != null) {
+                breaker.recordFailure();
+            }
+            created.future.completeExceptionally(e);
+        }
+        return created.future;
+    }
+
+    /**
+     * Completes the pending request for a key, if any.
+     *
+     * @param key The correlation key extracted from the reply.
+     * @param value The reply value.
+     * @return True if a waiting request was completed, false if the reply was unsolicited or late.
+     */
+    boolean complete(K key, V value) {
+        Pending<V> request = pending.remove(key);
+        if (request == null) {
+            return false;
+        }
+        LatencyHistogram histogram = roundTrips;
+        if (histogram != null) {
+            histogram.recordSince(request.sentAtNanos);
+        }
+        if (breaker != null) {
+            breaker.recordSuccess();
+        }
+        return request.future.complete(value);
+    }
+
+    /**
+     * Re-sends requests whose backoff has elapsed, schedules a retry for requests whose attempt
+     * timed out, and fails those that have no attempts left.
+     *
+     * @return The number of requests that timed out for good.
+     */
+    int expire() {
+        if (pending.isEmpty()) {
+            return 0;
+        }
+        long now = clock.getAsLong();
+        int expired = 0;
+        for (Iterator<Map.Entry<K, Pending<V>>> it = pending.entrySet().iterator(); it.hasNext(); ) {
+            Map.Entry<K, Pending<V>> entry = it.next();
+            Pending<V> request = entry.getValue();
+            if (request.resendAt >= 0) {
+                if (request.resendAt <= now) {
+                    resend(request, now);
+                }
+            } else if (request.deadline <= now) {
+                if (request.retries < maxRetries) {
+                    request.retries++;
+                    request.resendAt = now + backoffMillis(request.retries);
+                    continue;
+                }
+                it.remove();
+                if (breaker != null) {
+                    breaker.recordFailure();
+                }
+                request.future.completeExceptionally(new TimeoutException(
+                        "No proxy reply for " + entry.getKey() + " after " + (request.retries + 1) + " attempt(s)"));
+                expired++;
+            }
+        }
+        return expired;
+    }
+
+    private void resend(Pending<V> request, long now) {
+        request.resendAt = -1;
+        request.deadline = now + request.timeoutMillis;
+        request.sentAtNanos = System.nanoTime();
+        try {
+            request.sender.run();
+        } catch (RuntimeException e) {
+            // Left to time out like a lost message; the next retry (if any) tries again.
+        }
+    }
+
+    private long backoffMillis(int retry) {
+        long delay = baseBackoffMillis << Math.min(retry - 1, 30);
+        return Math.min(delay, maxBackoffMillis);
+    }
+
+    /**
+     * Fails every pending request. Used on plugin disable so no callback is left hanging.
+     */
+    void cancelAll() {
+        for (Iterator<Pending<V>> it = pending.values().iterator(); it.hasNext(); ) {
+            Pending<V> request = it.next();
+            it.remove();
+            request.future.cancel(false);
+        }
+    }
+
+    /**
+     * @return The number of requests still waiting for a reply.
+     */
+    int size() {
+        return pending.size();
+    }
+
+    private static final class Pending<V> {
+        final CompletableFuture<V> future = new CompletableFuture<>();
+        final Runnable sender;
+        final long timeoutMillis;
+        long deadline; // When the current attempt times out
+        long resendAt = -1; // When the next retry is due, or -1 if an attempt is in flight
+        int retries;
+        long sentAtNanos = System.nanoTime(); // When the current attempt was sent
+
+        Pending(Runnable sender, long timeoutMillis, long deadline) {
+            this.sender = sender;
+            this.timeoutMillis = timeoutMillis;
+            this.deadline = deadline;
+        }
+    }
+}
@@ -1,27 +1,58 @@
 package com.gabry.screenshare;
 
-import com.google.common.io.ByteArrayDataInput;
-import com.google.common.io.ByteArrayDataOutput;
-import com.google.common.io.ByteStreams;
+import com.destroystokyo.paper.event.server.AsyncTabCompleteEvent;
 import org.bukkit.Bukkit;
 import org.bukkit.ChatColor;
-import org.bukkit.configuration.file.FileConfiguration;
+import org.bukkit.configuration.InvalidConfigurationException;
+import org.bukkit.configuration.file.YamlConfiguration;
 import org.bukkit.entity.Player;
+import io.papermc.paper.event.player.AsyncChatEvent;
+import net.kyori.adventure.text.serializer.plain.PlainTextComponentSerializer;
 import org.bukkit.event.EventHandler;
+import org.bukkit.event.EventPriority;
 import org.bukkit.event.Listener;
+import org.bukkit.event.player.PlayerCommandPreprocessEvent;
 import org.bukkit.event.player.PlayerJoinEvent;
 import org.bukkit.event.player.PlayerQuitEvent;
+import org.bukkit.plugin.ServicePriority;
 import org.bukkit.plugin.java.JavaPlugin;
 import org.bukkit.command.Command;
 import org.bukkit.command.CommandSender;
 import org.bukkit.scheduler.BukkitRunnable;
+import org.bukkit.scheduler.BukkitTask;
 import org.bukkit.plugin.messaging.PluginMessageListener; // Import for PluginMessageListener
 
 import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.EnumMap;
 import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
 import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Optional;
+import java.util.Queue;
 import java.util.UUID;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
 import java.util.logging.Level;
 
 /**
@@ -35,23 +66,147 @@ import java.util.logging.Level;
  * Version: 1.0.0
  * API: Paper 1.21.4
  */
-public final class ScreenShare extends JavaPlugin implements Listener {
-
-    // --- Configuration Variables ---
-    private String ssServerName; // The name of the screenshare server as defined in Bungee/Velocity config
-    private String onJoinCommand; // Command to execute on the screenshare server when a player joins
-    private String onReturnCommand; // Command to execute on the screenshare server before player returns
-    private boolean useOnReturnCommand; // Flag to check if onReturnCommand is defined and should be used
+public final class ScreenShare extends JavaPlugin implements Listener, PluginMessageListener {
+
+    // --- Configuration ---
+    // Immutable snapshot of config.yml. A reload parses and validates a complete new snapshot off
+    // the main thread and publishes it with a single swap, so every reader (including async tab
+    // completion and the metrics thread) sees either the old settings or the new ones.
+    private final AtomicReference<PluginConfig> config = new AtomicReference<>();
+    private volatile ServerPool ssPool; // Every screenshare server sessions can be routed to (ss-servers, or just ss-server)
+    private YamlConfiguration bundledDefaults; // The config.yml shipped in the jar, for keys missing from the file
+    private ConfigWatcher configWatcher; // Reloads config.yml on change when watch-config is on
+    private volatile boolean reloadInProgress; // One reload at a time; cleared when its outcome is applied
+    // Periodic tasks whose interval comes from the configuration, rescheduled when it changes.
+    private BukkitTask poolPollTask;
+    private BukkitTask playerListTask;
+    private BukkitTask proxyHeartbeatTask;
 
     // --- Data Storage ---
-    // Stores the original server name for each player being screenshared.
-    // Key: Player UUID (as String) to handle potential renames and ensure uniqueness.
-    // Value: Original server name.
-    private final Map<UUID, String> originalServers = new ConcurrentHashMap<>();
+    // Network-wide registry of active screenshare sessions (original server, SS server, staff...).
+    // Key: Player UUID to handle potential renames and ensure uniqueness.
+    // Replicated to every ScreenShare instance, so /ssend works on the screenshare server too.
+    private SessionRegistry sessions;
+    // Append-only on-disk journal of the registry, so sessions survive a restart or crash.
+    private SessionJournal sessionJournal;
+    // Permanent history of ended sessions, for /sshistory. Every instance keeps a full copy:
+    // the instance that ends a session records it and forwards it to the others.
+    private SessionHistory sessionHistory;
+    private final Queue<SessionHistory.Entry> pendingHistory = new ConcurrentLinkedQueue<>();
+    private static final byte MSG_HISTORY = 9; // Any server -> all servers: sessions ended this tick.
+    private static final int HISTORY_PAGE_SIZE = 10;
+    // State of the players who left this server for a screenshare, restored when they come back.
+    private PlayerStateStore playerStates;
+    // Evidence (chat, commands, disconnects) of the sessions on this SS server, and the staff
+    // following one live with /sstail, by staff UUID (main thread only).
+    private volatile EvidenceRecorder evidence;
+    private final Map<UUID, EvidenceTail> evidenceTails = new HashMap<>();
+    private static final int TAIL_BACKLOG = 10; // Recent events shown when a tail starts
+    private static final int TAIL_EVENTS_PER_TICK = 20;
+    private static final DateTimeFormatter EVIDENCE_TIME_FORMAT =
+            DateTimeFormatter.ofPattern("HH:mm:ss").withZone(ZoneId.systemDefault());
+    private static final DateTimeFormatter HISTORY_DATE_FORMAT =
+            DateTimeFormatter.ofPattern("dd/MM/yyyy HH:mm").withZone(ZoneId.systemDefault());
+    // Whether this instance has asked the rest of the network for a registry snapshot yet.
+    private boolean registrySyncRequested;
+    // How often the registry digests are exchanged, repairing deltas the proxy lost.
+    private static final long REGISTRY_DIGEST_INTERVAL_TICKS = 20L * 30;
+
+    // --- Session Lifecycle ---
+    // Handoffs, arrivals, session timers and the disconnect grace window, shared with the
+    // benchmarks' network simulator. Created with the registry in onEnable.
+    private SessionLifecycle lifecycle;
+
+    // --- Screenshare Queue ---
+    // Players waiting for a free SS slot when the whole pool is at capacity (main thread only).
+    private final ScreenShareQueue screenShareQueue = new ScreenShareQueue();
+    // Upper bound on queued players admitted in a single tick, to keep admission bursts smooth.
+    private static final int MAX_QUEUE_ADMISSIONS_PER_TICK = 5;
+
+    // --- Hook Commands ---
+    // Runs the on-join / on-return pipelines, spreading their console commands across ticks.
+    private final CommandDispatcher hookDispatcher = new CommandDispatcher(this::dispatchHookCommand, 20);
+    private volatile int hookBacklog; // Copy of the dispatcher backlog for the metrics thread, updated every tick
+
+    // --- Outgoing Connect Pipeline ---
+    // Connect messages beyond the per-tick budget wait here and go out on the following ticks.
+    private final TickBudgetOutbox connectOutbox = new TickBudgetOutbox(10);
+
+    // --- Tab Completion ---
+    // Prefix indexes read by async tab-completion threads and replaced (never mutated) on the
+    // main thread: players on this server, players on the whole network (from the proxy's
+    // PlayerList), and players with an active session (rebuilt when the registry changes).
+    private volatile PlayerNameIndex localPlayerNames = PlayerNameIndex.EMPTY;
+    private volatile PlayerNameIndex networkPlayerNames = PlayerNameIndex.EMPTY;
+    private volatile PlayerNameIndex sessionPlayerNames = PlayerNameIndex.EMPTY;
+    private long sessionPlayerNamesVersion = -1; // Registry change count the session index was built at
+    private String lastPlayerList; // Raw PlayerList reply the network index was built from
+    private static final int MAX_TAB_COMPLETIONS = 100;
+
+    // --- Metrics ---
+    // Counters and latency histograms, shown by /ssstats and optionally served to Prometheus.
+    private final PluginMetrics metrics = new PluginMetrics();
+    private MetricsEndpoint metricsEndpoint;
+
+    // --- Logging ---
+    private final AsyncLogAppender logAppender = new AsyncLogAppender(getLogger(), 4096);
+    private static final StackWalker CALLER_WALKER = StackWalker.getInstance();
+    private volatile boolean debugEnabled; // Toggled by config "debug" and at runtime by /ssdebug
+
+    // --- Staff Notifications ---
+    // Players on this server with screenshare.notify, updated on join/quit and by a rolling
+    // rescan (permissions can change while online). Notifications raised during a tick are
+    // delivered here and forwarded to every other server as a single batched message.
+    private final StaffSet<Player> staffMembers = new StaffSet<>(p -> p.hasPermission("screenshare.notify"), Player::getUniqueId);
+    private final Queue<String> pendingStaffNotifications = new ConcurrentLinkedQueue<>();
+    private static final byte MSG_STAFF_NOTIFY = 8; // Any server -> all servers: staff notifications batched in one tick.
+    private static final int MAX_NOTIFY_BATCH_BYTES = 30_000; // Forward payload length is an unsigned short.
 
     // --- Plugin Messaging Channel Name ---
     // The standard channel for BungeeCord/Velocity plugin messaging.
     private static final String BUNGEECORD_CHANNEL = "BungeeCord";
+    // Encodes and decodes every message on that channel, reusing its buffers between messages.
+    private final PluginMessageCodec codec = new PluginMessageCodec();
+
+    // --- Transport Between Instances ---
+    // Carries the messages ScreenShare instances exchange (handoffs, remote /ssend, registry
+    // replication, staff notifications): through the proxy, or over the direct socket bus, which
+    // also works with nobody online. Chosen by "transport" and replaced when its settings change.
+    private Transport transport;
+
+    // --- Proxy Request Correlation ---
+    // Pending GetServer lookups keyed by player UUID. Replies are routed here by the single
+    // plugin message listener registered in onEnable, and concurrent lookups are merged.
+    private final ProxyRequestTable<UUID, String> serverLookups = new ProxyRequestTable<>(System::currentTimeMillis);
+    // Opens after repeated unanswered GetServer requests, so /ss fails fast instead of waiting on a
+    // proxy that is not answering. Heartbeat probes close it again once the proxy is back.
+    private final CircuitBreaker proxyBreaker = new CircuitBreaker(System::currentTimeMillis, 3, 10_000L);
+    private CircuitBreaker.State lastProxyBreakerState = CircuitBreaker.State.CLOSED;
+
+    // --- Proxy Location Cache ---
+    // Last known proxy server of each player, filled from GetServer replies and invalidated on
+    // join/quit/connect. A warm entry lets /ss and /ssend act without a proxy round trip.
+    private final ServerLocationCache locationCache = new ServerLocationCache(System::currentTimeMillis, 30_000L);
+    // Players who were just sent a Connect: the proxy drops messages carried by their connection,
+    // so messages any player could carry go through somebody else.
+    private final ConnectingPlayers connectingPlayers = new ConnectingPlayers(System::currentTimeMillis, 10_000L);
+
+    // --- Cross-Server Handoff ---
+    // Messages exchanged between ScreenShare instances inside BungeeCord "Forward" envelopes
+    // (the handoff and its acknowledgement are SessionLifecycle's).
+    private static final byte MSG_END_REQUEST = 6; // Staff server -> SS server: end the session of a player there.
+    private static final byte MSG_END_ACK = 7; // SS server -> staff server: whether the session was ended.
+    // Answers to /ssend requests handed to another server's SS instance, keyed by player UUID.
+    private final ProxyRequestTable<UUID, Boolean> endAcks = new ProxyRequestTable<>(System::currentTimeMillis);
+
+    // --- Cross-Server Targeting ---
+    // Where players on other backends are, bounded and short-lived. Misses are resolved with one
+    // GetPlayerServer and one UUIDOther request, keyed by lower-cased name so concurrent lookups merge.
+    private final PlayerDirectory playerDirectory = new PlayerDirectory(System::currentTimeMillis, 30_000L, 4096);
+    private final ProxyRequestTable<String, String> playerServerLookups = new ProxyRequestTable<>(System::currentTimeMillis);
+    private final ProxyRequestTable<String, PlayerDirectory.Location> uuidLookups = new ProxyRequestTable<>(System::currentTimeMillis);
+    // This server's proxy name, learned from the first GetServer reply (every local player is on it).
+    private volatile String localServerName;
 
     // --- Lifecycle: Plugin Enable ---
     @Override
@@ -62,81 +217,456 @@ public final class ScreenShare extends JavaPlugin implements Listener {
         // Register plugin messaging channel for BungeeCord communication.
         // This allows the plugin to send and receive messages from the proxy.
         getServer().getMessenger().registerOutgoingPluginChannel(this, BUNGEECORD_CHANNEL);
-        // We will register incoming channel listeners dynamically when requesting server names.
-        // The main incoming channel listener is no longer needed here as it's specific to GetServer.
+        // Console output from here on is published by a background thread.
+        logAppender.start();
+        // A single incoming listener handles every proxy reply and routes it to the waiting request.
+        getServer().getMessenger().registerIncomingPluginChannel(this, BUNGEECORD_CHANNEL, this);
 
         // Save the default config.yml if it doesn't exist.
         // This ensures the config file is present on first run.
         saveDefaultConfig();
 
-        // Load configuration values from config.yml.
+        // Load configuration values from config.yml (reloaded later by /ssreload or the file watcher).
         loadConfiguration();
 
+        // Create the replicated session registry, then recover sessions that were active
+        // when the server stopped (or crashed).
+        sessions = new SessionRegistry(UUID.randomUUID().toString(), System::currentTimeMillis, new TransportRegistryOutbound());
+        lifecycle = new SessionLifecycle(sessions, codec, System::currentTimeMillis, new LifecycleHost());
+        configureLifecycle(settings());
+        loadPluginData();
+        initializeDatabase();
+        openPlayerStates();
+        openEvidenceRecorder();
+        // Sessions recovered mid-way still need their arrival / reconnection deadline.
+        lifecycle.restoreTimers();
+
         // Register commands.
         // This needs to be done explicitly for Paper/Spigot commands in onEnable.
         // The command executor is 'this' instance, as it implements CommandExecutor implicitly
         // by overriding onCommand.
         getCommand("ss").setExecutor(this);
         getCommand("ssend").setExecutor(this);
+        getCommand("ssqueue").setExecutor(this);
+        getCommand("ssdebug").setExecutor(this);
+        getCommand("ssstats").setExecutor(this);
+        getCommand("ssreload").setExecutor(this);
+        getCommand("sshistory").setExecutor(this);
+        getCommand("sstail").setExecutor(this);
+
+        // Time proxy round trips, and expose the metrics on the loopback interface if configured.
+        serverLookups.recordRoundTrips(metrics.getServerRoundTrip);
+        // Retries (set with the rest of the configuration) and the breaker only apply to GetServer.
+        serverLookups.setCircuitBreaker(proxyBreaker);
+        metrics.gauge("screenshare_proxy_breaker_open", () -> proxyBreaker.getState() == CircuitBreaker.State.CLOSED ? 0 : 1);
+        playerServerLookups.recordRoundTrips(metrics.getPlayerServerRoundTrip);
+        metrics.gauge("screenshare_active_sessions", () -> sessions.size());
+        metrics.gauge("screenshare_network_players", () -> networkPlayerNames.size());
+        metrics.gauge("screenshare_hook_command_backlog", () -> hookBacklog);
+        metrics.gauge("screenshare_evidence_recordings", () -> {
+            EvidenceRecorder recorder = evidence;
+            return recorder == null ? 0 : recorder.recordings().size();
+        });
+        startMetricsEndpoint(settings().metricsPort);
+
+        // Fail proxy requests that never received a reply. Runs every tick on the main thread,
+        // so timed-out callbacks run on the main thread just like regular replies.
+        getServer().getScheduler().runTaskTimer(this, this::expireProxyRequests, 1L, 1L);
+        // Probe the proxy regularly, so a dead proxy is noticed (and a recovered one re-admitted)
+        // without waiting for a staff member to run into it.
+        long heartbeatTicks = settings().proxyHeartbeatTicks;
+        proxyHeartbeatTask = getServer().getScheduler().runTaskTimer(this, this::sendProxyHeartbeat, heartbeatTicks, heartbeatTicks);
+
+        // Replicate session changes to the other instances, batched into one message per tick,
+        // compare digests with them every half minute, and forget old tombstones once a minute.
+        getServer().getScheduler().runTaskTimer(this, () -> {
+            sessions.flush();
+            refreshSessionPlayerNames();
+        }, 1L, 1L);
+        getServer().getScheduler().runTaskTimer(this, this::broadcastRegistryDigest, REGISTRY_DIGEST_INTERVAL_TICKS, REGISTRY_DIGEST_INTERVAL_TICKS);
+        getServer().getScheduler().runTaskTimer(this, () -> sessions.expireTombstones(), 20L * 60, 20L * 60);
+
+        // Expire sessions whose player never arrived or did not reconnect in time.
+        getServer().getScheduler().runTaskTimer(this, () -> lifecycle.tick(), 1L, 1L);
+
+        // Send pipelined Connect messages within the per-tick budget.
+        getServer().getScheduler().runTaskTimer(this, connectOutbox::tick, 1L, 1L);
+        // Run hook commands within the per-tick budget, and the steps whose delay ended.
+        getServer().getScheduler().runTaskTimer(this, () -> {
+            hookDispatcher.tick();
+            hookBacklog = hookDispatcher.backlog();
+        }, 1L, 1L);
+
+        // Deliver the staff notifications raised this tick, and keep the staff set in sync with
+        // permission changes. On a reload players are already online, so check them all now.
+        for (Player online : Bukkit.getOnlinePlayers()) {
+            staffMembers.update(online);
+        }
+        getServer().getScheduler().runTaskTimer(this, () -> {
+            flushStaffNotifications();
+            flushSessionHistory();
+            staffMembers.rescan(Bukkit.getOnlinePlayers(), Bukkit::getPlayer, settings().staffRescanPerTick);
+        }, 1L, 1L);
+
+        // Record the sessions of the players on this SS server, and feed the staff tailing one.
+        getServer().getScheduler().runTaskTimer(this, () -> {
+            syncEvidenceRecordings();
+            feedEvidenceTails();
+        }, 1L, 1L);
+
+        // Admit queued players as soon as SS slots free up.
+        getServer().getScheduler().runTaskTimer(this, this::processScreenShareQueue, 1L, 1L);
+
+        // Send what this tick queued for the other instances, and handle what they sent.
+        // Registered after every task that sends, so their messages leave in the same tick.
+        getServer().getScheduler().runTaskTimer(this, () -> transport.tick(), 1L, 1L);
+
+        // Keep the cached player count of every pool member fresh for routing.
+        poolPollTask = getServer().getScheduler().runTaskTimer(this, this::pollServerPool, 1L, settings().poolPollIntervalTicks);
+
+        // Keep the network-wide player list used by tab completion fresh. On a reload players are
+        // already online, so seed the local index from them.
+        List<String> onlineNames = new ArrayList<>();
+        for (Player online : Bukkit.getOnlinePlayers()) {
+            onlineNames.add(online.getName());
+        }
+        localPlayerNames = PlayerNameIndex.of(onlineNames);
+        playerListTask = getServer().getScheduler().runTaskTimer(this, this::requestNetworkPlayerList, 1L, settings().playerListRefreshTicks);
+
+        // On a reload players are already online, so the registry can resync right away.
+        Player syncVia = proxyVia();
+        if (syncVia != null) {
+            requestRegistrySync(syncVia);
+        }
+
+        // Expose the public API to other plugins now that everything it uses is ready.
+        getServer().getServicesManager().register(ScreenShareService.class, new PluginService(), this, ServicePriority.Normal);
 
         logInfo("ScreenShare plugin has been enabled successfully!");
-        logInfo("Configured SS Server: " + ssServerName);
-        logInfo("On Join Command: " + (onJoinCommand.isEmpty() ? "None" : onJoinCommand));
-        logInfo("On Return Command: " + (useOnReturnCommand ? onReturnCommand : "None"));
+        PluginConfig settings = settings();
+        logInfo("Configured SS Servers: " + ssPool.describe());
+        logInfo("Transport: " + transport.describe());
+        logInfo("On Join Command: " + settings.onJoinHook.describe());
+        logInfo("On Return Command: " + settings.onReturnHook.describe());
     }
 
     // --- Lifecycle: Plugin Disable ---
     @Override
     public void onDisable() {
+        // Stop serving the public API first, so no new session starts while shutting down.
+        getServer().getServicesManager().unregisterAll(this);
+
         // Unregister plugin messaging channels to clean up resources.
         getServer().getMessenger().unregisterOutgoingPluginChannel(this, BUNGEECORD_CHANNEL);
-        // No need to unregister incoming channel here as they are dynamically registered and unregistered.
+        getServer().getMessenger().unregisterIncomingPluginChannel(this, BUNGEECORD_CHANNEL, this);
+
+        // Fail any request still waiting for the proxy so no callback is left pending.
+        serverLookups.cancelAll();
+        lifecycle.close();
+        endAcks.cancelAll();
+        playerServerLookups.cancelAll();
+        uuidLookups.cancelAll();
+        playerDirectory.clear();
+
+        // Run the hook commands still waiting, push the last Connect messages and session changes
+        // to the network, then flush the journal to disk.
+        hookDispatcher.drain();
+        connectOutbox.drain();
+        flushStaffNotifications();
+        flushSessionHistory();
+        staffMembers.clear();
+        sessions.flush();
+        transport.tick();
+        transport.close();
+        savePluginData();
+        closeDatabaseConnection();
+        if (playerStates != null) {
+            playerStates.close();
+            playerStates = null;
+        }
+        evidenceTails.clear();
+        if (evidence != null) {
+            evidence.stop();
+            evidence = null;
+        }
+        locationCache.clear();
 
-        // Clear any remaining data in originalServers to prevent memory leaks.
-        originalServers.clear();
+        stopMetricsEndpoint();
+        if (configWatcher != null) {
+            configWatcher.stop();
+            configWatcher = null;
+        }
 
         logInfo("ScreenShare plugin has been disabled.");
+        logAppender.close(1000L);
     }
 
     /**
-     * Loads or reloads the configuration from config.yml.
-     * This method is called during plugin enable and can be called for reloads.
+     * Loads the configuration from config.yml during plugin enable.
+     * If the file cannot be read or parsed, the defaults bundled in the jar are used instead.
      */
     private void loadConfiguration() {
-        // Reload the configuration from disk to ensure latest values are used.
-        reloadConfig();
-        FileConfiguration config = getConfig();
+        bundledDefaults = loadBundledDefaults();
+        PluginConfig loaded;
+        try {
+            loaded = readConfiguration(this::logWarning);
+        } catch (IOException | InvalidConfigurationException e) {
+            logError("Could not load config.yml, using the default settings: " + e.getMessage());
+            loaded = PluginConfig.parse(bundledDefaults, this::logWarning);
+        }
+        applyConfiguration(loaded);
+    }
+
+    /**
+     * Reloads config.yml without blocking the server.
+     * The file is read, validated and parsed on an async thread; the resulting snapshot is then
+     * published on the main thread. If the file is invalid the current configuration stays active.
+     *
+     * @param sender Who asked for the reload (the console for the file watcher); receives the outcome.
+     */
+    private void reloadConfiguration(CommandSender sender) {
+        if (reloadInProgress) {
+            sender.sendMessage(ChatColor.YELLOW + "Un ricaricamento della configurazione è già in corso.");
+            return;
+        }
+        reloadInProgress = true;
+        long startedAt = System.nanoTime();
+        getServer().getScheduler().runTaskAsynchronously(this, () -> {
+            List<String> warnings = new ArrayList<>();
+            PluginConfig loaded = null;
+            String error = null;
+            try {
+                loaded = readConfiguration(warnings::add);
+            } catch (IOException | InvalidConfigurationException e) {
+                error = e.getMessage();
+            } catch (RuntimeException e) {
+                // A bug in parsing fails this reload like an invalid file, and must not block the next one.
+                error = e.toString();
+            } finally {
+                PluginConfig next = loaded;
+                String failure = error;
+                if (isEnabled()) {
+                    getServer().getScheduler().runTask(this, () -> finishReload(sender, next, failure, warnings, startedAt));
+                } else {
+                    reloadInProgress = false; // Disabled while parsing: nothing left to apply the snapshot to.
+                }
+            }
+        });
+    }
+
+    /**
+     * Applies the outcome of a reload on the main thread and tells whoever asked for it.
+     *
+     * @param next The parsed snapshot, or null if the file could not be loaded.
+     * @param failure Why it could not be loaded.
+     */
+    private void finishReload(CommandSender sender, PluginConfig next, String failure, List<String> warnings, long startedAt) {
+        reloadInProgress = false;
+        boolean toPlayer = sender instanceof Player;
+        if (next == null) {
+            logError("Could not reload config.yml, keeping the current configuration: " + failure);
+            if (toPlayer) {
+                sender.sendMessage(ChatColor.RED + "config.yml non valido, la configurazione attuale resta attiva: " + failure);
+            }
+            return;
+        }
+        for (String warning : warnings) {
+            logWarning(warning);
+            if (toPlayer) {
+                sender.sendMessage(ChatColor.YELLOW + warning);
+            }
+        }
+        applyConfiguration(next);
+        long tookMillis = (System.nanoTime() - startedAt) / 1_000_000L;
+        logInfo("Configuration reloaded by " + sender.getName() + " in " + tookMillis + "ms.");
+        if (toPlayer) {
+            sender.sendMessage(ChatColor.GREEN + "Configurazione ricaricata (" + tookMillis + "ms, " + warnings.size() + " avvisi).");
+        }
+    }
+
+    /**
+     * Reads, validates and parses config.yml. Safe to call off the main thread: it touches
+     * nothing but the file and the bundled defaults.
+     *
+     * @param warnings Receives a message for every missing, unknown or invalid setting.
+     * @return The parsed snapshot.
+     * @throws IOException If the file cannot be read.
+     * @throws InvalidConfigurationException If the file is not valid YAML.
+     */
+    private PluginConfig readConfiguration(Consumer<String> warnings) throws IOException, InvalidConfigurationException {
+        YamlConfiguration file = new YamlConfiguration();
+        file.load(new File(getDataFolder(), "config.yml"));
+        validateConfigFile(file, warnings);
+        file.setDefaults(bundledDefaults);
+        return PluginConfig.parse(file, warnings);
+    }
+
+    /**
+     * @return The config.yml shipped in the jar, or an empty configuration if it is missing.
+     */
+    private YamlConfiguration loadBundledDefaults() {
+        InputStream resource = getResource("config.yml");
+        if (resource == null) {
+            return new YamlConfiguration();
+        }
+        try (Reader reader = new InputStreamReader(resource, StandardCharsets.UTF_8)) {
+            return YamlConfiguration.loadConfiguration(reader);
+        } catch (IOException e) {
+            logError("Could not read the bundled config.yml: " + e.getMessage());
+            return new YamlConfiguration();
+        }
+    }
+
+    /**
+     * Publishes a configuration snapshot and brings every component in line with it.
+     * Called on the main thread, on enable and after each reload.
+     *
+     * @param next The snapshot to publish.
+     */
+    private void applyConfiguration(PluginConfig next) {
+        PluginConfig previous = config.getAndSet(next);
+
+        // A reload only overrides the debug flag toggled with /ssdebug if the setting itself changed.
+        if (previous == null || previous.debug != next.debug) {
+            debugEnabled = next.debug;
+        }
+        connectOutbox.setBudgetPerTick(next.connectPerTick);
+        hookDispatcher.setCommandsPerTick(next.commandsPerTick);
+        // GetServer is always answered, so a missing reply means the proxy is in trouble: retry it
+        // and let the breaker count it. GetPlayerServer and UUIDOther get no reply for offline
+        // players, so their timeouts say nothing about the proxy and are never retried.
+        serverLookups.setRetryPolicy(next.proxyMaxRetries, next.proxyRetryBackoffMillis, next.proxyRetryBackoffMillis * 8);
+        proxyBreaker.configure(next.proxyBreakerThreshold, next.proxyBreakerOpenMillis);
+        locationCache.setTtlMillis(next.locationCacheTtlMillis);
+        playerDirectory.setTtlMillis(next.locationCacheTtlMillis);
+        if (lifecycle != null) {
+            configureLifecycle(next);
+        }
+
+        // Rebuild the pool only if it changed, so polled player counts and reservations survive a reload.
+        if (previous == null || !previous.ssServers.equals(next.ssServers)
+                || previous.poolHealthTimeoutMillis != next.poolHealthTimeoutMillis) {
+            List<ServerPool.Member> members = new ArrayList<>();
+            for (PluginConfig.PoolServer server : next.ssServers) {
+                members.add(new ServerPool.Member(server.name, server.capacity));
+            }
+            ssPool = new ServerPool(members, System::currentTimeMillis, next.poolHealthTimeoutMillis);
+        }
 
-        // Get the screenshare server name.
-        ssServerName = config.getString("ss-server", "screenshare");
-        if (ssServerName.isEmpty()) {
-            ssServerName = "screenshare"; // Default fallback
-            logWarning("ss-server in config.yml is empty. Defaulting to 'screenshare'.");
+        if (previous != null) {
+            // Periodic tasks and the metrics endpoint are started by onEnable; a reload only
+            // restarts the ones whose setting changed.
+            if (previous.poolPollIntervalTicks != next.poolPollIntervalTicks) {
+                poolPollTask.cancel();
+                poolPollTask = getServer().getScheduler().runTaskTimer(this, this::pollServerPool, 1L, next.poolPollIntervalTicks);
+            }
+            if (previous.playerListRefreshTicks != next.playerListRefreshTicks) {
+                playerListTask.cancel();
+                playerListTask = getServer().getScheduler().runTaskTimer(this, this::requestNetworkPlayerList, 1L, next.playerListRefreshTicks);
+            }
+            if (previous.proxyHeartbeatTicks != next.proxyHeartbeatTicks) {
+                proxyHeartbeatTask.cancel();
+                proxyHeartbeatTask = getServer().getScheduler().runTaskTimer(this, this::sendProxyHeartbeat, next.proxyHeartbeatTicks, next.proxyHeartbeatTicks);
+            }
+            if (previous.metricsPort != next.metricsPort) {
+                stopMetricsEndpoint();
+                startMetricsEndpoint(next.metricsPort);
+            }
         }
 
-        // Get the on-join command.
-        onJoinCommand = config.getString("on-join-command", "ssmode %player%");
-        if (onJoinCommand.isEmpty()) {
-            onJoinCommand = "ssmode %player%"; // Default fallback
-            logWarning("on-join-command in config.yml is empty. Defaulting to 'ssmode %player%'.");
+        // Start the transport, or replace it if its settings changed. Messages the old one has not
+        // sent yet go out first.
+        if (previous == null || !previous.sameTransport(next)) {
+            if (transport != null) {
+                transport.tick();
+                transport.close();
+            }
+            transport = createTransport(next);
+            if (previous != null) {
+                logInfo("Transport: " + transport.describe());
+            }
+        }
+        // The bus is addressed by proxy name, so this server's is known before any GetServer reply.
+        if (localServerName == null && next.transport.equals(PluginConfig.TRANSPORT_SOCKET)) {
+            localServerName = next.busServerName;
         }
 
-        // Get the on-return command.
-        onReturnCommand = config.getString("on-return-command", "");
-        // Determine if the on-return command should be used.
-        useOnReturnCommand = onReturnCommand != null && !onReturnCommand.trim().isEmpty();
+        // Start or stop watching config.yml.
+        if (next.watchConfig && configWatcher == null) {
+            try {
+                configWatcher = ConfigWatcher.start(new File(getDataFolder(), "config.yml").toPath(), 500L, () -> {
+                    if (isEnabled()) {
+                        getServer().getScheduler().runTask(this, () -> reloadConfiguration(Bukkit.getConsoleSender()));
+                    }
+                });
+                logInfo("Watching config.yml for changes.");
+            } catch (IOException e) {
+                logError("Could not watch config.yml for changes: " + e.getMessage());
+            }
+        } else if (!next.watchConfig && configWatcher != null) {
+            configWatcher.stop();
+            configWatcher = null;
+        }
 
         // Log configuration values for verification.
-        logDebug("Configuration loaded: ss-server='" + ssServerName +
-                "', on-join-command='" + onJoinCommand +
-                "', on-return-command='" + onReturnCommand +
-                "', useOnReturnCommand=" + useOnReturnCommand);
+        logDebug(() -> "Configuration loaded: " + next.describe() + ", ss-servers='" + ssPool.describe() + "'");
+    }
+
+    /**
+     * @return The current configuration snapshot. Safe to call from any thread; callers that read
+     * several related settings should read the snapshot once and use it throughout.
+     */
+    private PluginConfig settings() {
+        return config.get();
+    }
+
+    /**
+     * Creates the transport the configuration asks for. If the socket bus cannot listen on its
+     * address, instances keep talking through the proxy.
+     */
+    private Transport createTransport(PluginConfig settings) {
+        if (settings.transport.equals(PluginConfig.TRANSPORT_SOCKET)) {
+            try {
+                return SocketBusTransport.start(settings.busServerName, settings.busListen, settings.busPeers,
+                        settings.busSecret, new TransportInbound());
+            } catch (IOException | IllegalArgumentException e) {
+                logError("Could not start the socket bus on " + settings.busListen + ", using plugin messages instead: " + e.getMessage());
+            }
+        }
+        return new PluginMessageTransport(this, BUNGEECORD_CHANNEL, codec, connectingPlayers);
+    }
+
+    /**
+     * Starts the Prometheus endpoint on the loopback interface, if a port is configured.
+     */
+    private void startMetricsEndpoint(int port) {
+        if (port <= 0) {
+            return;
+        }
+        try {
+            metricsEndpoint = MetricsEndpoint.start(port, metrics::toPrometheus);
+            logInfo("Metrics available at http://127.0.0.1:" + metricsEndpoint.port() + "/metrics");
+        } catch (IOException e) {
+            logError("Could not start the metrics endpoint on port " + port + ": " + e.getMessage());
+        }
+    }
+
+    private void stopMetricsEndpoint() {
+        if (metricsEndpoint != null) {
+            metricsEndpoint.stop();
+            metricsEndpoint = null;
+        }
     }
 
     /**
      * Handles command execution for /ss and /ssend.
      * This method serves as the primary entry point for command processing.
      *
+     * Targets are resolved anywhere on the network, not just on this server. Both commands
+     * accept one player, several players, "all" or "@group" (every player on this server with
+     * the LuckPerms "group.&lt;name&gt;" permission). The bulk forms require screenshare.bulk and
+     * report a per-player summary once every player has been handled.
+     *
      * @param sender The sender of the command (Player or Console).
      * @param command The command object.
      * @param label The alias used for the command.
@@ -145,6 +675,76 @@ public final class ScreenShare extends JavaPlugin implements Listener {
      */
     @Override
     public boolean onCommand(CommandSender sender, Command command, String label, String[] args) {
+        // --- Handle /ssqueue command (also available from the console) ---
+        if (command.getName().equalsIgnoreCase("ssqueue")) {
+            if (!sender.hasPermission("screenshare.use")) {
+                sender.sendMessage(ChatColor.RED + "Non hai il permesso di usare il comando /ssqueue.");
+                return true;
+            }
+            displayScreenShareQueue(sender);
+            return true;
+        }
+
+        // --- Handle /ssstats command (also available from the console) ---
+        if (command.getName().equalsIgnoreCase("ssstats")) {
+            if (!sender.hasPermission("screenshare.stats")) {
+                sender.sendMessage(ChatColor.RED + "Non hai il permesso di usare il comando /ssstats.");
+                return true;
+            }
+            displayStats(sender);
+            return true;
+        }
+
+        // --- Handle /sshistory command (also available from the console) ---
+        if (command.getName().equalsIgnoreCase("sshistory")) {
+            if (!sender.hasPermission("screenshare.history")) {
+                sender.sendMessage(ChatColor.RED + "Non hai il permesso di usare il comando /sshistory.");
+                return true;
+            }
+            displayHistory(sender, args);
+            return true;
+        }
+
+        // --- Handle /sstail command ---
+        if (command.getName().equalsIgnoreCase("sstail")) {
+            if (!sender.hasPermission("screenshare.tail")) {
+                sender.sendMessage(ChatColor.RED + "Non hai il permesso di usare il comando /sstail.");
+                return true;
+            }
+            if (!(sender instanceof Player)) {
+                sender.sendMessage(ChatColor.RED + "Questo comando può essere eseguito solo da un giocatore.");
+                return true;
+            }
+            tailEvidence((Player) sender, args);
+            return true;
+        }
+
+        // --- Handle /ssreload command (also available from the console) ---
+        if (command.getName().equalsIgnoreCase("ssreload")) {
+            if (!sender.hasPermission("screenshare.reload")) {
+                sender.sendMessage(ChatColor.RED + "Non hai il permesso di usare il comando /ssreload.");
+                return true;
+            }
+            reloadConfiguration(sender);
+            return true;
+        }
+
+        // --- Handle /ssdebug command (also available from the console) ---
+        if (command.getName().equalsIgnoreCase("ssdebug")) {
+            if (!sender.hasPermission("screenshare.debug")) {
+                sender.sendMessage(ChatColor.RED + "Non hai il permesso di usare il comando /ssdebug.");
+                return true;
+            }
+            if (args.length > 0 && !args[0].equalsIgnoreCase("on") && !args[0].equalsIgnoreCase("off")) {
+                sender.sendMessage(ChatColor.RED + "Uso: /ssdebug [on|off]");
+                return true;
+            }
+            debugEnabled = args.length > 0 ? args[0].equalsIgnoreCase("on") : !debugEnabled;
+            sender.sendMessage(ChatColor.GREEN + "Modalità debug " + (debugEnabled ? "attivata" : "disattivata") + ".");
+            logInfo("Debug mode " + (debugEnabled ? "enabled" : "disabled") + " by " + sender.getName() + ".");
+            return true;
+        }
+
         // Check if the command was sent by a player.
         // While console can execute these, the logic is primarily for players
         // interacting with other players. For simplicity, we'll allow console,
@@ -165,30 +765,44 @@ public final class ScreenShare extends JavaPlugin implements Listener {
                 return true;
             }
 
-            // Validate arguments.
-            if (args.length != 1) {
-                p.sendMessage(ChatColor.RED + "Uso: /ss <player>");
+            // Fail fast while the proxy is not answering, instead of waiting for every lookup to time out.
+            if (!checkProxyConnectivity()) {
+                p.sendMessage(ChatColor.RED + describeProxyUnavailable());
                 return true;
             }
 
-            // Get the target player name.
-            String targetPlayerName = args[0];
-            Player targetPlayer = Bukkit.getPlayer(targetPlayerName); // Get the Bukkit Player object.
-
-            // Check if the target player is online on THIS server.
-            if (targetPlayer == null) {
-                p.sendMessage(ChatColor.RED + "Il giocatore '" + targetPlayerName + "' non è online su questo server.");
+            // Validate arguments: /ss <player...|all|@group> [-p <priority>]
+            List<String> selectors = new ArrayList<>();
+            int priority = 0;
+            for (int i = 0; i < args.length; i++) {
+                if (args[i].equalsIgnoreCase("-p")) {
+                    if (i + 1 >= args.length) {
+                        p.sendMessage(ChatColor.RED + "Uso: /ss <player...|all|@gruppo> [-p <priorità>]");
+                        return true;
+                    }
+                    try {
+                        priority = Integer.parseInt(args[++i]);
+                    } catch (NumberFormatException e) {
+                        p.sendMessage(ChatColor.RED + "La priorità deve essere un numero intero.");
+                        return true;
+                    }
+                } else {
+                    selectors.add(args[i]);
+                }
+            }
+            if (selectors.isEmpty()) {
+                p.sendMessage(ChatColor.RED + "Uso: /ss <player...|all|@gruppo> [-p <priorità>]");
                 return true;
             }
 
-            // Prevent screensharing self.
-            if (targetPlayer.equals(p)) {
-                p.sendMessage(ChatColor.RED + "Non puoi fare screenshare a te stesso.");
+            // Bulk form: several players, "all" or a permission group.
+            if (selectors.size() > 1 || isBulkSelector(selectors.get(0))) {
+                bulkStartScreenShare(p, selectors, priority);
                 return true;
             }
 
-            // Initiate screenshare process.
-            initiateScreenShare(targetPlayer, p);
+            // Start (or queue) the screenshare wherever the target is on the network, and report the result.
+            startScreenShare(selectors.get(0), p, priority, true).thenAccept(outcome -> reportOutcome(p, outcome));
             return true;
         }
 
@@ -200,30 +814,20 @@ public final class ScreenShare extends JavaPlugin implements Listener {
                 return true;
             }
 
-            // Validate arguments.
-            if (args.length != 1) {
-                p.sendMessage(ChatColor.RED + "Uso: /ssend <player>");
-                return true;
-            }
-
-            // Get the target player name.
-            String targetPlayerName = args[0];
-            Player targetPlayer = Bukkit.getPlayer(targetPlayerName); // Get the Bukkit Player object.
-
-            // Check if the target player is online on THIS server.
-            if (targetPlayer == null) {
-                p.sendMessage(ChatColor.RED + "Il giocatore '" + targetPlayerName + "' non è online su questo server.");
+            // Validate arguments: /ssend <player...|all|@group>
+            if (args.length == 0) {
+                p.sendMessage(ChatColor.RED + "Uso: /ssend <player...|all|@gruppo>");
                 return true;
             }
 
-            // Prevent sending self.
-            if (targetPlayer.equals(p)) {
-                p.sendMessage(ChatColor.RED + "Non puoi riportare indietro te stesso.");
+            // Bulk form: several players, "all" or a permission group.
+            if (args.length > 1 || isBulkSelector(args[0])) {
+                bulkEndScreenShare(p, Arrays.asList(args));
                 return true;
             }
 
-            // End screenshare process.
-            endScreenShare(targetPlayer, p);
+            // End screenshare process, wherever the target is on the network.
+            endScreenShare(args[0], p, true).thenAccept(outcome -> reportOutcome(p, outcome));
             return true;
         }
 
@@ -231,322 +835,1947 @@ public final class ScreenShare extends JavaPlugin implements Listener {
     }
 
     /**
-     * Initiates a screenshare session for a given player.
-     * This involves:
-     * 1. Saving the player's current server.
-     * 2. Teleporting the player to the configured SS server.
-     * 3. Executing the on-join-command on the SS server for the player.
-     *
-     * @param targetPlayer The player to be screenshared.
-     * @param sender The player who initiated the screenshare.
-     */
-    private void initiateScreenShare(Player targetPlayer, Player sender) {
-        // Asynchronously get the current server name of the target player.
-        // This is crucial because we need the server name from BungeeCord/Velocity, not just the Paper server name.
-        getCurrentServerName(targetPlayer, currentServer -> {
-            if (currentServer == null || currentServer.isEmpty()) {
-                sender.sendMessage(ChatColor.RED + "Non è stato possibile determinare il server corrente per " + targetPlayer.getName() + ".");
-                logWarning("Failed to get current server for " + targetPlayer.getName() + " during SS initiation.");
-                return;
+     * @return True if the argument selects several players at once ("all" or "@group").
+     */
+    private boolean isBulkSelector(String argument) {
+        return argument.equalsIgnoreCase("all") || (argument.startsWith("@") && argument.length() > 1);
+    }
+
+    /**
+     * Resolves the names selected by a bulk command, without duplicates and never including
+     * the staff member themselves. Plain names are passed through as typed and resolved on the
+     * network later.
+     *
+     * For /ss, "all" selects every player on this server except staff. For /ssend, "all"
+     * selects every player in a session anywhere on the network. "@group" always selects
+     * players on this server, because permissions can only be checked here.
+     *
+     * @param staff The staff member running the command.
+     * @param selectors Player names, "all" or "@group".
+     * @param ending True for /ssend: "all" and "@group" then only select players in a session.
+     * @return The selected player names, in selection order.
+     */
+    private List<String> resolveTargets(Player staff, List<String> selectors, boolean ending) {
+        Map<String, String> targets = new LinkedHashMap<>();
+        for (String selector : selectors) {
+            if (ending && selector.equalsIgnoreCase("all")) {
+                for (ScreenShareSession session : sessions.sessions()) {
+                    targets.putIfAbsent(session.getPlayerName().toLowerCase(Locale.ROOT), session.getPlayerName());
+                }
+            } else if (selector.equalsIgnoreCase("all") || selector.startsWith("@")) {
+                String groupPermission = selector.startsWith("@") ? "group." + selector.substring(1).toLowerCase(Locale.ROOT) : null;
+                for (Player online : Bukkit.getOnlinePlayers()) {
+                    if (groupPermission != null && !online.hasPermission(groupPermission)) {
+                        continue;
+                    }
+                    if (ending ? !sessions.contains(online.getUniqueId())
+                            // "all" never pulls other staff members into a screenshare.
+                            : groupPermission == null && online.hasPermission("screenshare.use")) {
+                        continue;
+                    }
+                    targets.putIfAbsent(online.getName().toLowerCase(Locale.ROOT), online.getName());
+                }
+            } else {
+                targets.putIfAbsent(selector.toLowerCase(Locale.ROOT), selector);
             }
+        }
+        targets.remove(staff.getName().toLowerCase(Locale.ROOT));
+        return new ArrayList<>(targets.values());
+    }
 
-            // Check if the player is already on the SS server.
-            if (currentServer.equalsIgnoreCase(ssServerName)) {
-                sender.sendMessage(ChatColor.RED + targetPlayer.getName() + " è già sul server di screenshare (" + ssServerName + ").");
-                logInfo(targetPlayer.getName() + " is already on the SS server. Skipping SS initiation.");
-                return;
+    /**
+     * Starts screenshare sessions for several players at once. The proxy location lookups of
+     * players on this server go out as one batch before any session starts, players on other
+     * servers are resolved through the player directory, and the Connect messages are
+     * pipelined through the per-tick send budget. Reports a per-player summary when every
+     * player is done.
+     *
+     * @param staff The staff member running the command.
+     * @param selectors Player names, "all" or "@group".
+     * @param priority The queue priority for players who have to wait for a free slot.
+     */
+    private void bulkStartScreenShare(Player staff, List<String> selectors, int priority) {
+        if (!staff.hasPermission("screenshare.bulk")) {
+            staff.sendMessage(ChatColor.RED + "Non hai il permesso di fare screenshare a più giocatori insieme.");
+            return;
+        }
+        List<String> targets = resolveTargets(staff, selectors, false);
+        if (targets.isEmpty()) {
+            reportBulkOutcomes(staff, "/ss", new ArrayList<>());
+            return;
+        }
+        staff.sendMessage(ChatColor.AQUA + "Avvio dello screenshare per " + targets.size() + " giocatori...");
+
+        prefetchLocalServer(targets).thenRun(() -> {
+            List<CompletableFuture<SessionOutcome>> pending = new ArrayList<>(targets.size());
+            for (String target : targets) {
+                pending.add(startScreenShare(target, staff, priority, false));
             }
+            collectOutcomes(pending).thenAccept(all -> reportBulkOutcomes(staff, "/ss", all));
+        });
+    }
 
-            // Check if the player is already being screenshared (in originalServers map).
-            if (originalServers.containsKey(targetPlayer.getUniqueId())) {
-                sender.sendMessage(ChatColor.YELLOW + targetPlayer.getName() + " è già in una sessione di screenshare attiva. " +
-                        "Il loro server originale è registrato come: " + originalServers.get(targetPlayer.getUniqueId()) + ".");
-                logInfo(targetPlayer.getName() + " already in SS session. Skipping SS initiation.");
-                return;
+    /**
+     * Ends the screenshare sessions of several players at once, pipelining the Connect
+     * messages through the per-tick send budget, then reports a per-player summary.
+     *
+     * @param staff The staff member running the command.
+     * @param selectors Player names, "all" or "@group".
+     */
+    private void bulkEndScreenShare(Player staff, List<String> selectors) {
+        if (!staff.hasPermission("screenshare.bulk")) {
+            staff.sendMessage(ChatColor.RED + "Non hai il permesso di terminare più screenshare insieme.");
+            return;
+        }
+        List<String> targets = resolveTargets(staff, selectors, true);
+        if (targets.isEmpty()) {
+            reportBulkOutcomes(staff, "/ssend", new ArrayList<>());
+            return;
+        }
+        staff.sendMessage(ChatColor.AQUA + "Fine dello screenshare per " + targets.size() + " giocatori...");
+
+        prefetchLocalServer(targets).thenRun(() -> {
+            List<CompletableFuture<SessionOutcome>> pending = new ArrayList<>(targets.size());
+            for (String target : targets) {
+                pending.add(endScreenShare(target, staff, false));
             }
+            collectOutcomes(pending).thenAccept(all -> reportBulkOutcomes(staff, "/ssend", all));
+        });
+    }
 
-            // Store the original server of the target player.
-            originalServers.put(targetPlayer.getUniqueId(), currentServer);
-            logInfo("Stored original server for " + targetPlayer.getName() + ": " + currentServer);
-
-            // Send the player to the configured screenshare server.
-            connectPlayerToServer(targetPlayer, ssServerName);
-
-            // Inform the sender.
-            sender.sendMessage(ChatColor.GREEN + "Teletrasporto " + targetPlayer.getName() + " al server di screenshare: " + ssServerName + "...");
-
-            // Execute the on-join command after a short delay to ensure player has fully joined the SS server.
-            // This is a common practice with BungeeCord/Velocity teleports.
-            new BukkitRunnable() {
-                @Override
-                public void run() {
-                    if (targetPlayer.isOnline()) { // Check if player is still online
-                        String commandToExecute = onJoinCommand.replace("%player%", targetPlayer.getName());
-                        // Execute the command via console to ensure it has proper permissions.
-                        Bukkit.dispatchCommand(Bukkit.getConsoleSender(), commandToExecute);
-                        logInfo("Executed on-join-command for " + targetPlayer.getName() + ": '" + commandToExecute + "'");
-                    } else {
-                        logWarning("Player " + targetPlayer.getName() + " went offline before on-join-command could be executed.");
-                    }
+    /**
+     * Resolves the proxy location of the selected players who are on this server with a single
+     * GetServer round trip. Every player online on this backend is by definition on the same
+     * proxy server, so one answer is stored in the location cache for all of them.
+     *
+     * @param playerNames The selected player names; names not online here are ignored.
+     * @return A future completed (on the main thread) once the cache is warm or the lookup failed.
+     */
+    private CompletableFuture<Void> prefetchLocalServer(List<String> playerNames) {
+        List<Player> players = new ArrayList<>();
+        Player probe = null;
+        for (String name : playerNames) {
+            Player player = Bukkit.getPlayerExact(name);
+            if (player == null) {
+                continue;
+            }
+            players.add(player);
+            if (probe == null && locationCache.get(player.getUniqueId()) == null) {
+                probe = player;
+            }
+        }
+        if (probe == null) {
+            return CompletableFuture.completedFuture(null);
+        }
+        return getCurrentServerName(probe).handle((server, error) -> {
+            if (server != null) {
+                for (Player player : players) {
+                    locationCache.put(player.getUniqueId(), server);
                 }
-            }.runTaskLater(this, 20L * 3); // 3 seconds delay (20 ticks per second)
+            }
+            return null;
         });
     }
 
     /**
-     * Ends a screenshare session for a given player.
-     * This involves:
-     * 1. Executing the on-return-command (if configured) on the SS server for the player.
-     * 2. Teleporting the player back to their original server.
-     * 3. Removing the player from the originalServers map.
-     *
-     * @param targetPlayer The player whose screenshare session is being ended.
-     * @param sender The player who initiated the end screenshare.
+     * Waits for every pending outcome and returns them in order.
      */
-    private void endScreenShare(Player targetPlayer, Player sender) {
-        // Retrieve the original server for the target player.
-        String originalServer = originalServers.get(targetPlayer.getUniqueId());
+    private CompletableFuture<List<SessionOutcome>> collectOutcomes(List<CompletableFuture<SessionOutcome>> pending) {
+        return CompletableFuture.allOf(pending.toArray(new CompletableFuture<?>[0])).handle((ignored, error) -> {
+            List<SessionOutcome> all = new ArrayList<>(pending.size());
+            for (CompletableFuture<SessionOutcome> future : pending) {
+                all.add(future.getNow(null));
+            }
+            return all;
+        });
+    }
 
-        if (originalServer == null) {
-            sender.sendMessage(ChatColor.RED + targetPlayer.getName() + " non è attualmente in una sessione di screenshare (nessun server originale registrato).");
-            logInfo(targetPlayer.getName() + " not in SS session. Skipping SS end.");
+    /**
+     * Sends a single outcome to the staff member who asked for it.
+     */
+    private void reportOutcome(CommandSender staff, SessionOutcome outcome) {
+        if (isReachable(staff)) {
+            staff.sendMessage(outcomeColor(outcome.getStatus()) + outcome.getMessage());
+        }
+    }
+
+    /**
+     * Sends the summary of a bulk command: a count per status, then one line per player.
+     */
+    private void reportBulkOutcomes(CommandSender staff, String commandName, List<SessionOutcome> outcomes) {
+        if (!isReachable(staff)) {
             return;
         }
+        Map<SessionOutcome.Status, Integer> counts = new EnumMap<>(SessionOutcome.Status.class);
+        for (SessionOutcome outcome : outcomes) {
+            counts.merge(outcome.getStatus(), 1, Integer::sum);
+        }
+        StringBuilder summary = new StringBuilder();
+        for (Map.Entry<SessionOutcome.Status, Integer> count : counts.entrySet()) {
+            summary.append(summary.length() == 0 ? "" : ", ").append(count.getValue()).append(' ')
+                    .append(describeStatus(count.getKey()));
+        }
+        staff.sendMessage(ChatColor.AQUA + "--- Risultato " + commandName + " (" + outcomes.size() + " giocatori): " +
+                ChatColor.WHITE + (summary.length() == 0 ? "nessun giocatore selezionato" : summary.toString()));
+        int shown = 0;
+        for (SessionOutcome outcome : outcomes) {
+            if (shown++ == 20) {
+                staff.sendMessage(ChatColor.GRAY + "... e altri " + (outcomes.size() - 20) + ".");
+                break;
+            }
+            staff.sendMessage(outcomeColor(outcome.getStatus()) + outcome.getPlayerName() + ": " +
+                    ChatColor.WHITE + outcome.getMessage());
+        }
+        logInfo(staff.getName() + " ran bulk " + commandName + ": " + summary);
+    }
 
-        // Check if the player is currently on the SS server.
-        // This check is important to prevent issues if the player somehow left the SS server.
-        getCurrentServerName(targetPlayer, currentServer -> {
-            if (currentServer == null || !currentServer.equalsIgnoreCase(ssServerName)) {
-                sender.sendMessage(ChatColor.YELLOW + targetPlayer.getName() + " non è attualmente sul server di screenshare configurato (" + ssServerName + "). " +
-                        "Tentativo di rimandarli a " + originalServer + " comunque.");
-                logWarning(targetPlayer.getName() + " not on SS server. Forcing return to " + originalServer + ".");
-            }
-
-            // Execute the on-return command if configured and if the player is online.
-            if (useOnReturnCommand && targetPlayer.isOnline()) {
-                String commandToExecute = onReturnCommand.replace("%player%", targetPlayer.getName());
-                // Execute the command via console to ensure it has proper permissions.
-                Bukkit.dispatchCommand(Bukkit.getConsoleSender(), commandToExecute);
-                logInfo("Executed on-return-command for " + targetPlayer.getName() + ": '" + commandToExecute + "'");
-            } else if (!targetPlayer.isOnline()){
-                logWarning("Player " + targetPlayer.getName() + " went offline before on-return-command could be executed.");
-            } else {
-                logDebug("on-return-command is not configured or is empty. Skipping execution.");
+    private ChatColor outcomeColor(SessionOutcome.Status status) {
+        switch (status) {
+            case STARTED:
+            case ENDED:
+                return ChatColor.GREEN;
+            case QUEUED:
+            case SKIPPED:
+                return ChatColor.YELLOW;
+            default:
+                return ChatColor.RED;
+        }
+    }
+
+    private String describeStatus(SessionOutcome.Status status) {
+        switch (status) {
+            case STARTED:
+                return "avviati";
+            case QUEUED:
+                return "in coda";
+            case ENDED:
+                return "terminati";
+            case SKIPPED:
+                return "saltati";
+            default:
+                return "falliti";
+        }
+    }
+
+    /**
+     * Starts a screenshare for a player anywhere on the network, or queues it when every SS
+     * server is full.
+     *
+     * @param targetName The name of the player to be screenshared.
+     * @param staff The staff member requesting it.
+     * @param priority The queue priority used if the player has to wait.
+     * @param notifyArrival Whether to tell the staff member when the player reaches the SS server.
+     * @return A future completed on the main thread with the outcome.
+     */
+    private CompletableFuture<SessionOutcome> startScreenShare(String targetName, CommandSender staff, int priority,
+                                                               boolean notifyArrival) {
+        // Prevent screensharing self.
+        if (targetName.equalsIgnoreCase(staff.getName())) {
+            return CompletableFuture.completedFuture(SessionOutcome.of(targetName, SessionOutcome.Status.SKIPPED,
+                    "Non puoi fare screenshare a te stesso."));
+        }
+
+        return resolveTarget(targetName).handle((target, error) -> {
+            if (error != null) {
+                logWarning(() -> "Could not resolve " + targetName + " for SS initiation: " + unwrap(error));
+                return SessionOutcome.of(targetName, SessionOutcome.Status.FAILED, describeLookupFailure(unwrap(error), targetName));
+            }
+            if (staff instanceof Player && ((Player) staff).getUniqueId().equals(target.playerId)) {
+                return SessionOutcome.of(target.playerName, SessionOutcome.Status.SKIPPED, "Non puoi fare screenshare a te stesso.");
+            }
+
+            // Already in a session somewhere on the network: nothing to queue or start.
+            ScreenShareSession existing = sessions.get(target.playerId);
+            if (existing != null) {
+                return SessionOutcome.of(target.playerName, SessionOutcome.Status.SKIPPED,
+                        target.playerName + " è già in una sessione di screenshare attiva. " +
+                                "Il loro server originale è registrato come: " + existing.getOriginServer() + ".");
+            }
+
+            // Every SS server is full (or others are already waiting): queue the player instead of failing.
+            if (!ssPool.hasCapacity() || !screenShareQueue.isEmpty()) {
+                return addToScreenShareQueue(target.playerId, target.playerName, staff, priority);
+            }
+
+            // Initiate screenshare process.
+            return initiateScreenShare(target, staff, null, priority, notifyArrival);
+        });
+    }
+
+    /**
+     * Resolves a player and initiates their screenshare session. Used for queued players, whose
+     * location may have changed while they waited.
+     *
+     * @param targetName The name of the player to be screenshared.
+     * @param sender The staff member who initiated the screenshare (or the console).
+     * @param reservedServer The SS server already reserved for this session by the queue, or null to route now.
+     * @param priority The queue priority to use if the session has to wait for a free slot.
+     * @param notifyArrival Whether to tell the staff member when the player reaches the SS server.
+     * @return A future completed on the main thread with the outcome.
+     */
+    private CompletableFuture<SessionOutcome> initiateScreenShare(String targetName, CommandSender sender,
+                                                                  String reservedServer, int priority, boolean notifyArrival) {
+        return resolveTarget(targetName).handle((target, error) -> {
+            if (error != null) {
+                logWarning(() -> "Could not resolve " + targetName + " during SS initiation: " + unwrap(error));
+                return SessionOutcome.of(targetName, SessionOutcome.Status.FAILED, describeLookupFailure(unwrap(error), targetName));
             }
+            return initiateScreenShare(target, sender, reservedServer, priority, notifyArrival);
+        });
+    }
+
+    /**
+     * Initiates a screenshare session for a given player.
+     * This involves:
+     * 1. Saving the player's current server.
+     * 2. Teleporting the player to the configured SS server (Connect for players on this
+     *    server, ConnectOther for players elsewhere on the network).
+     * 3. Announcing a handoff so the SS server executes the on-join-command as soon as the player arrives.
+     *
+     * @param target The resolved player to be screenshared.
+     * @param sender The staff member who initiated the screenshare (or the console, for queued requests).
+     * @param reservedServer The SS server already reserved for this session by the queue, or null to route now.
+     * @param priority The queue priority to use if the session has to wait for a free slot.
+     * @param notifyArrival Whether to tell the staff member when the player reaches the SS server.
+     * @return The outcome.
+     */
+    private SessionOutcome initiateScreenShare(PlayerDirectory.Location target, CommandSender sender,
+                                               String reservedServer, int priority, boolean notifyArrival) {
+        String targetName = target.playerName;
+        String currentServer = target.server;
+        if (currentServer == null || currentServer.isEmpty()) {
+            logWarning(() -> "Failed to get current server for " + targetName + " during SS initiation.");
+            return SessionOutcome.of(targetName, SessionOutcome.Status.FAILED,
+                    "Non è stato possibile determinare il server corrente per " + targetName + ".");
+        }
+
+        // Check if the player is already on one of the SS servers.
+        if (ssPool.contains(currentServer)) {
+            logInfo(() -> targetName + " is already on the SS server. Skipping SS initiation.");
+            return SessionOutcome.of(targetName, SessionOutcome.Status.SKIPPED,
+                    targetName + " è già sul server di screenshare (" + currentServer + ").");
+        }
+
+        // Check if the player is already being screenshared anywhere on the network.
+        ScreenShareSession existing = sessions.get(target.playerId);
+        if (existing != null) {
+            logInfo(() -> targetName + " already in SS session. Skipping SS initiation.");
+            return SessionOutcome.of(targetName, SessionOutcome.Status.SKIPPED,
+                    targetName + " è già in una sessione di screenshare attiva. " +
+                            "Il loro server originale è registrato come: " + existing.getOriginServer() + ".");
+        }
+
+        // Route the session to the least-loaded healthy SS server with room left.
+        String ssServer = reservedServer != null ? reservedServer : ssPool.route();
+        if (ssServer == null) {
+            // The pool filled up while we were waiting for the proxy: wait for a free slot.
+            return addToScreenShareQueue(target.playerId, targetName, sender, priority);
+        }
 
-            // Send the player back to their original server.
-            connectPlayerToServer(targetPlayer, originalServer);
+        // Store the original server of the target player, and the SS server they are sent to.
+        ScreenShareSession session = ScreenShareSession.start(target.playerId, targetName, currentServer, ssServer,
+                sender instanceof Player ? ((Player) sender).getUniqueId() : null, sender.getName());
+        if (!handleScreenShareStartEvent(session, sender)) {
+            logInfo(() -> "Screenshare of " + targetName + " cancelled by another plugin.");
+            return SessionOutcome.of(targetName, SessionOutcome.Status.SKIPPED,
+                    "Lo screenshare di " + targetName + " è stato annullato da un altro plugin.");
+        }
+        // Register the session and announce the handoff to the SS server before moving the player.
+        // The SS server runs the on-join hook inside its own PlayerJoinEvent the moment the player
+        // arrives, then acknowledges.
+        long startedAt = System.nanoTime();
+        CompletableFuture<String> arrival = lifecycle.start(session, ackServerFor(target));
+        metrics.sessionsStarted.increment();
+        logInfo(() -> "Stored original server for " + targetName + ": " + currentServer);
+        awaitArrival(arrival, startedAt, targetName, ssServer, sender, notifyArrival);
+
+        // Send the player to the chosen screenshare server.
+        connectToServer(target, ssServer);
+
+        notifyStaff(sender.getName() + " ha avviato lo screenshare di " + targetName + " (" + currentServer + " → " + ssServer + ").");
+        return SessionOutcome.of(targetName, SessionOutcome.Status.STARTED,
+                "Teletrasporto " + targetName + " (da " + currentServer + ") al server di screenshare: " + ssServer + "...");
+    }
+
+    /**
+     * Ends the screenshare session of a player anywhere on the network. A player on this server
+     * is handled here; a player on another server's SS instance is handed to that instance,
+     * which runs the on-return command and sends them back.
+     *
+     * @param targetName The name of the player whose session is being ended.
+     * @param sender The player who initiated the end screenshare.
+     * @param verbose Whether to send intermediate warnings to the sender (single /ssend).
+     * @return A future completed on the main thread with the outcome.
+     */
+    private CompletableFuture<SessionOutcome> endScreenShare(String targetName, CommandSender sender, boolean verbose) {
+        // Prevent sending self.
+        if (targetName.equalsIgnoreCase(sender.getName())) {
+            return CompletableFuture.completedFuture(SessionOutcome.of(targetName, SessionOutcome.Status.SKIPPED,
+                    "Non puoi riportare indietro te stesso."));
+        }
 
-            // Inform the sender.
-            sender.sendMessage(ChatColor.GREEN + "Teletrasporto " + targetPlayer.getName() + " di nuovo al loro server originale: " + originalServer + "...");
+        Player local = findLocalPlayer(targetName);
+        if (local != null) {
+            if (local.equals(sender)) {
+                return CompletableFuture.completedFuture(SessionOutcome.of(local.getName(), SessionOutcome.Status.SKIPPED,
+                        "Non puoi riportare indietro te stesso."));
+            }
+            return notifyEnded(sender, endScreenShare(local, sender, verbose));
+        }
+
+        ScreenShareSession session = findSessionByName(targetName);
+        if (session == null && !networkPlayerNames.contains(targetName)) {
+            Player byPrefix = findLocalPlayerByPrefix(targetName);
+            if (byPrefix != null && !byPrefix.equals(sender)) {
+                return notifyEnded(sender, endScreenShare(byPrefix, sender, verbose));
+            }
+        }
+        if (session == null) {
+            logInfo(() -> targetName + " not in SS session. Skipping SS end.");
+            return CompletableFuture.completedFuture(SessionOutcome.of(targetName, SessionOutcome.Status.SKIPPED,
+                    targetName + " non è attualmente in una sessione di screenshare (nessun server originale registrato)."));
+        }
+        String playerName = session.getPlayerName();
+
+        // A player who logged out mid-screenshare and has not come back has nowhere to be sent.
+        if (session.getState() == ScreenShareSession.State.DISCONNECTED && !networkPlayerNames.contains(playerName)) {
+            lifecycle.end(session.getPlayerId());
+            handleScreenShareEndEvent(session, ScreenShareEndEvent.Reason.ENDED, sender);
+            logInfo(() -> "Closed the screenshare session of disconnected player " + playerName + ".");
+            return notifyEnded(sender, CompletableFuture.completedFuture(SessionOutcome.of(playerName, SessionOutcome.Status.ENDED,
+                    "Sessione di screenshare di " + playerName + " chiusa: il giocatore è offline.")));
+        }
+
+        return notifyEnded(sender, resolveTarget(playerName).thenCompose(target -> {
+            if (target.server.equalsIgnoreCase(session.getSsServer())) {
+                // The SS server instance runs the on-return hook and sends the player back itself.
+                return requestRemoteEnd(session, sender);
+            }
+            if (verbose) {
+                sender.sendMessage(ChatColor.YELLOW + playerName + " non è attualmente sul server di screenshare configurato (" + session.getSsServer() + "). " +
+                        "Tentativo di rimandarli a " + session.getOriginServer() + " comunque.");
+            }
+            logWarning(() -> playerName + " not on SS server (on " + target.server + "). Forcing return to " + session.getOriginServer() + ".");
+            connectToServer(target, session.getOriginServer());
+            lifecycle.end(session.getPlayerId());
+            handleScreenShareEndEvent(session, ScreenShareEndEvent.Reason.ENDED, sender);
+            return CompletableFuture.completedFuture(SessionOutcome.of(playerName, SessionOutcome.Status.ENDED,
+                    "Teletrasporto " + playerName + " di nuovo al loro server originale: " + session.getOriginServer() + "..."));
+        }).exceptionally(error -> {
+            logWarning(() -> "Could not resolve " + playerName + " during SS end: " + unwrap(error));
+            return SessionOutcome.of(playerName, SessionOutcome.Status.FAILED, describeLookupFailure(unwrap(error), playerName));
+        }));
+    }
+
+    /**
+     * Tells staff across the network about a session ended by /ssend, once it has actually ended.
+     */
+    private CompletableFuture<SessionOutcome> notifyEnded(CommandSender staff, CompletableFuture<SessionOutcome> outcome) {
+        return outcome.thenApply(result -> {
+            if (result.getStatus() == SessionOutcome.Status.ENDED) {
+                notifyStaff(staff.getName() + " ha terminato lo screenshare di " + result.getPlayerName() + ".");
+            }
+            return result;
+        });
+    }
+
+    /**
+     * Ends a screenshare session for a player on this server.
+     * This involves:
+     * 1. Executing the on-return-command (if configured) on the SS server for the player.
+     * 2. Teleporting the player back to their original server.
+     * 3. Removing the player's session from the network-wide registry.
+     *
+     * @param targetPlayer The player whose screenshare session is being ended.
+     * @param sender The player who initiated the end screenshare, or the console for a remote request.
+     * @param verbose Whether to send intermediate warnings to the sender (single /ssend).
+     * @return A future completed on the main thread with the outcome.
+     */
+    private CompletableFuture<SessionOutcome> endScreenShare(Player targetPlayer, CommandSender sender, boolean verbose) {
+        String targetName = targetPlayer.getName();
+
+        // Retrieve the original server for the target player.
+        ScreenShareSession session = sessions.get(targetPlayer.getUniqueId());
+
+        if (session == null) {
+            logInfo(() -> targetName + " not in SS session. Skipping SS end.");
+            return CompletableFuture.completedFuture(SessionOutcome.of(targetName, SessionOutcome.Status.SKIPPED,
+                    targetName + " non è attualmente in una sessione di screenshare (nessun server originale registrato)."));
+        }
+        String originalServer = session.getOriginServer();
+        String sessionServer = session.getSsServer();
+
+        // Check if the player is currently on the SS server.
+        // This check is important to prevent issues if the player somehow left the SS server.
+        return getCurrentServerName(targetPlayer).handle((currentServer, error) -> {
+            if (error != null) {
+                // Without an answer from the proxy we still know where to send the player back.
+                logWarning(() -> "Server lookup for " + targetName + " failed during SS end: " + error);
+            }
+            if (currentServer == null || !currentServer.equalsIgnoreCase(sessionServer)) {
+                if (verbose) {
+                    sender.sendMessage(ChatColor.YELLOW + targetName + " non è attualmente sul server di screenshare configurato (" + sessionServer + "). " +
+                            "Tentativo di rimandarli a " + originalServer + " comunque.");
+                }
+                logWarning(() -> targetName + " not on SS server. Forcing return to " + originalServer + ".");
+            }
+
+            // End the session before the player is sent back, so the removal leaves on the
+            // player's connection ahead of their Connect.
+            ScreenShareSession ended = lifecycle.end(targetPlayer.getUniqueId());
+            if (ended != null) {
+                handleScreenShareEndEvent(ended, ScreenShareEndEvent.Reason.ENDED, sender);
+            }
+            logInfo(() -> "Removed " + targetName + " from screenshare session. Original server: " + originalServer);
+
+            // Run the on-return hook if configured and if the player is online, then send the
+            // player back to their original server once its last step has run.
+            HookPipeline onReturn = settings().onReturnHook;
+            if (!onReturn.isEmpty() && targetPlayer.isOnline()) {
+                logInfo(() -> "Running on-return-command for " + targetName + " (" + onReturn.steps().size() + " step(s)).");
+                hookDispatcher.run(onReturn, hookContext(session))
+                        .thenRun(() -> connectPlayerToServer(targetPlayer, originalServer));
+            } else {
+                if (!targetPlayer.isOnline()) {
+                    logWarning(() -> "Player " + targetName + " went offline before on-return-command could be executed.");
+                } else {
+                    logDebug("on-return-command is not configured or is empty. Skipping execution.");
+                }
+                connectPlayerToServer(targetPlayer, originalServer);
+            }
+
+            return SessionOutcome.of(targetName, SessionOutcome.Status.ENDED,
+                    "Teletrasporto " + targetName + " di nuovo al loro server originale: " + originalServer + "...");
+        });
+    }
+
+    /**
+     * Asks the ScreenShare instance on a session's SS server to end it, and waits for its answer.
+     *
+     * @param session The session to end; the player is on its SS server.
+     * @param sender The staff member ending the session.
+     * @return A future completed on the main thread with the outcome.
+     */
+    private CompletableFuture<SessionOutcome> requestRemoteEnd(ScreenShareSession session, CommandSender sender) {
+        String playerName = session.getPlayerName();
+        if (!transport.canSend() || localServerName == null) {
+            return CompletableFuture.completedFuture(SessionOutcome.of(playerName, SessionOutcome.Status.FAILED,
+                    "Non è stato possibile contattare il server di screenshare (" + session.getSsServer() + ")."));
+        }
+        String replyServer = localServerName;
+        return endAcks.request(session.getPlayerId(), settings().handoffTimeoutMillis, () -> {
+            byte[] payload = codec.payload()
+                    .writeByte(MSG_END_REQUEST)
+                    .writeUuid(session.getPlayerId())
+                    .writeUTF(sender.getName())
+                    .writeUTF(replyServer)
+                    .toByteArray();
+            sendToInstance(session.getSsServer(), payload, null);
+            logDebug(() -> "Forwarded end request for " + playerName + " to " + session.getSsServer() + ".");
+        }).handle((ended, error) -> {
+            if (error != null) {
+                logWarning(() -> "No end acknowledgement for " + playerName + " from " + session.getSsServer() + ": " + error);
+                return SessionOutcome.of(playerName, SessionOutcome.Status.FAILED,
+                        "Il server di screenshare (" + session.getSsServer() + ") non ha risposto in tempo.");
+            }
+            if (!ended) {
+                return SessionOutcome.of(playerName, SessionOutcome.Status.FAILED,
+                        playerName + " non è più sul server di screenshare (" + session.getSsServer() + ").");
+            }
+            return SessionOutcome.of(playerName, SessionOutcome.Status.ENDED,
+                    "Teletrasporto " + playerName + " di nuovo al loro server originale: " + session.getOriginServer() + "...");
+        });
+    }
+
+    /**
+     * Ends the session of a player on this SS server on behalf of a staff member on another
+     * server, then tells that server whether it worked.
+     *
+     * @param playerId The player whose session is being ended.
+     * @param staffName The staff member who ran /ssend (for logging).
+     * @param replyServer The server waiting for the acknowledgement.
+     */
+    private void handleRemoteEndRequest(UUID playerId, String staffName, String replyServer) {
+        Player target = Bukkit.getPlayer(playerId);
+        CompletableFuture<SessionOutcome> outcome = target == null
+                ? CompletableFuture.completedFuture(SessionOutcome.of(playerId.toString(), SessionOutcome.Status.FAILED, ""))
+                : endScreenShare(target, Bukkit.getConsoleSender(), false);
+        outcome.thenAccept(result -> {
+            boolean ended = result.getStatus() == SessionOutcome.Status.ENDED;
+            logInfo(() -> "Remote /ssend by " + staffName + " for " + result.getPlayerName() + ": " + result.getStatus());
+            sendToInstance(replyServer, codec.payload()
+                    .writeByte(MSG_END_ACK)
+                    .writeUuid(playerId)
+                    .writeByte(ended ? 1 : 0)
+                    .toByteArray(), null);
+        });
+    }
+
+    /**
+     * Finds where a player is on the network. Players on this server are answered from the
+     * location cache or one GetServer; other players from the player directory or, on a miss,
+     * one GetPlayerServer plus one UUIDOther request to the proxy. Names are matched exactly
+     * (ignoring case) everywhere first: a prefix only selects a player on this server, and only
+     * once the proxy has said that nobody on the network has exactly that name. Never blocks.
+     *
+     * @param playerName The name the staff member typed.
+     * @return A future completed on the main thread with the player's location, or failed with a
+     *         {@link NoSuchElementException} if the player is not online on the network.
+     */
+    private CompletableFuture<PlayerDirectory.Location> resolveTarget(String playerName) {
+        Player local = findLocalPlayer(playerName);
+        if (local != null) {
+            return locate(local);
+        }
+        return resolveRemoteTarget(playerName).exceptionallyCompose(error -> {
+            Player byPrefix = unwrap(error) instanceof NoSuchElementException ? findLocalPlayerByPrefix(playerName) : null;
+            return byPrefix != null ? locate(byPrefix) : CompletableFuture.failedFuture(error);
+        });
+    }
+
+    /**
+     * @return A future completed with the location of a player on this server.
+     */
+    private CompletableFuture<PlayerDirectory.Location> locate(Player local) {
+        return getCurrentServerName(local)
+                .thenApply(server -> new PlayerDirectory.Location(local.getUniqueId(), local.getName(), server));
+    }
+
+    /**
+     * The network half of {@link #resolveTarget}: the player directory, then the proxy.
+     */
+    private CompletableFuture<PlayerDirectory.Location> resolveRemoteTarget(String playerName) {
+        PlayerDirectory.Location cached = playerDirectory.get(playerName);
+        if (cached != null && localServerName != null) {
+            logDebug(() -> "Player directory hit for " + playerName + ": " + cached.server);
+            return CompletableFuture.completedFuture(cached);
+        }
+
+        Player via = proxyVia();
+        if (via == null) {
+            return CompletableFuture.failedFuture(new IllegalStateException("No online player to reach the proxy through"));
+        }
+        if (proxyBreaker.isRejecting()) {
+            return CompletableFuture.failedFuture(proxyBreaker.rejection());
+        }
+        String key = playerName.toLowerCase(Locale.ROOT);
+        CompletableFuture<String> server = playerServerLookups.request(key, settings().proxyTimeoutMillis,
+                () -> via.sendPluginMessage(this, BUNGEECORD_CHANNEL, codec.getPlayerServer(playerName)));
+        CompletableFuture<PlayerDirectory.Location> identity = uuidLookups.request(key, settings().proxyTimeoutMillis,
+                () -> via.sendPluginMessage(this, BUNGEECORD_CHANNEL, codec.uuidOther(playerName)));
+        // The handoff must tell the SS server where to send its acknowledgement: our own server.
+        CompletableFuture<String> ownServer = getCurrentServerName(via);
+        return server.thenCombine(identity, (serverName, id) -> new PlayerDirectory.Location(id.playerId, id.playerName, serverName))
+                .thenCombine(ownServer, (location, ignored) -> {
+                    playerDirectory.put(location);
+                    return location;
+                })
+                .exceptionally(error -> {
+                    // The proxy does not answer for players who are not online at all.
+                    throw new CompletionException(unwrap(error) instanceof TimeoutException
+                            ? new NoSuchElementException(playerName + " is not online on the network")
+                            : unwrap(error));
+                });
+    }
+
+    /**
+     * @return The player on this server with exactly this name (ignoring case), or null.
+     */
+    private Player findLocalPlayer(String playerName) {
+        return Bukkit.getPlayerExact(playerName);
+    }
+
+    /**
+     * Last resort for a name that matches nobody exactly: the player on this server whose name
+     * starts with it. Callers must first make sure no player on the network has exactly this
+     * name, or a staff member could screenshare the wrong player.
+     *
+     * @return The local player whose name starts with this prefix, or null.
+     */
+    private Player findLocalPlayerByPrefix(String prefix) {
+        return Bukkit.getPlayer(prefix);
+    }
+
+    /**
+     * @return The active session of the player with this name anywhere on the network, or null.
+     */
+    private ScreenShareSession findSessionByName(String playerName) {
+        for (ScreenShareSession session : sessions.sessions()) {
+            if (session.getPlayerName().equalsIgnoreCase(playerName)) {
+                return session;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return The cause of a failure that went through a CompletableFuture chain.
+     */
+    private static Throwable unwrap(Throwable error) {
+        return error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
+    }
+
+    /**
+     * Sends a player to a specified server using BungeeCord/Velocity Plugin Messaging.
+     * The Connect message goes out immediately if this tick's send budget allows it,
+     * otherwise it is pipelined into the following ticks.
+     *
+     * @param player The player to send.
+     * @param serverName The name of the target server.
+     */
+    private void connectPlayerToServer(Player player, String serverName) {
+        // The player is leaving, so whatever location we had cached is about to be wrong.
+        locationCache.invalidate(player.getUniqueId());
+        long queuedAt = System.nanoTime();
+        connectOutbox.submit(() -> {
+            if (!player.isOnline()) {
+                logWarning(() -> "Player " + player.getName() + " went offline before being sent to " + serverName + ".");
+                return;
+            }
+            // The proxy drops what arrives on a connection it is switching, and this may be the
+            // last player here who is not: registry changes waiting for the next tick go first.
+            sessions.flush();
+            // Send the "Connect" message through the BungeeCord channel.
+            player.sendPluginMessage(this, BUNGEECORD_CHANNEL, codec.connect(serverName));
+            connectingPlayers.connecting(player.getUniqueId());
+            metrics.connectDelay.recordSince(queuedAt);
+            metrics.connectsSent.increment();
+            logInfo(() -> "Sent " + player.getName() + " to server: " + serverName + " via BungeeCord.");
+        });
+    }
+
+    /**
+     * Sends a player anywhere on the network to a server: with Connect if they are on this
+     * server, otherwise with ConnectOther through any online player's connection. Both go
+     * through the per-tick send budget.
+     *
+     * @param target The player to send.
+     * @param serverName The name of the target server.
+     */
+    private void connectToServer(PlayerDirectory.Location target, String serverName) {
+        Player local = Bukkit.getPlayer(target.playerId);
+        if (local != null) {
+            connectPlayerToServer(local, serverName);
+            return;
+        }
+        playerDirectory.moved(target.playerName, serverName);
+        long queuedAt = System.nanoTime();
+        connectOutbox.submit(() -> {
+            Player via = proxyVia();
+            if (via == null) {
+                logWarning(() -> "No online player to send " + target.playerName + " to " + serverName + " through.");
+                return;
+            }
+            via.sendPluginMessage(this, BUNGEECORD_CHANNEL, codec.connectOther(target.playerName, serverName));
+            metrics.connectDelay.recordSince(queuedAt);
+            metrics.connectsSent.increment();
+            logInfo(() -> "Sent " + target.playerName + " (on " + target.server + ") to server: " + serverName + " via ConnectOther.");
+        });
+    }
+
+    /**
+     * Announces a handoff to the SS server through the transport and waits for the arrival
+     * acknowledgement, for a session that already exists (a player who reconnected elsewhere).
+     *
+     * @param target The player being moved to the SS server.
+     * @param sender The staff member who started the session.
+     * @param ssServer The pool member the player is being sent to.
+     * @param notifyArrival Whether to tell the staff member when the acknowledgement arrives.
+     */
+    private void sendHandoff(PlayerDirectory.Location target, CommandSender sender, String ssServer, boolean notifyArrival) {
+        long startedAt = System.nanoTime();
+        CompletableFuture<String> arrival = lifecycle.handoff(target.playerId, target.playerName, target.server, ssServer,
+                sender.getName(), ackServerFor(target));
+        logDebug(() -> "Forwarded handoff of " + target.playerName + " to " + ssServer + ".");
+        awaitArrival(arrival, startedAt, target.playerName, ssServer, sender, notifyArrival);
+    }
+
+    /**
+     * @return Where the arrival acknowledgement of a handoff comes back: here, where the staff
+     *         member is, even when the target is elsewhere.
+     */
+    private String ackServerFor(PlayerDirectory.Location target) {
+        return localServerName != null ? localServerName : target.server;
+    }
+
+    /**
+     * Tells the staff member when the player has arrived and the on-join hook has run, or warns
+     * them if no acknowledgement comes back in time.
+     *
+     * @param arrival The acknowledgement, from {@link SessionLifecycle#handoff}.
+     * @param startedAt When the handoff was sent ({@link System#nanoTime()}).
+     */
+    private void awaitArrival(CompletableFuture<String> arrival, long startedAt, String targetName, String ssServer,
+                              CommandSender sender, boolean notifyArrival) {
+        arrival.whenComplete((arrivedOn, error) -> {
+            if (error instanceof TimeoutException) {
+                metrics.handoffTimeouts.increment();
+                logWarning(() -> "No arrival acknowledgement for " + targetName + " from " + ssServer + " within " +
+                        settings().handoffTimeoutMillis + "ms.");
+                if (isReachable(sender)) {
+                    sender.sendMessage(ChatColor.YELLOW + "Nessuna conferma di arrivo di " + targetName + " dal server di screenshare.");
+                }
+            } else if (error == null) {
+                metrics.arrivalLatency.recordSince(startedAt);
+                logInfo(() -> "Handoff of " + targetName + " to " + arrivedOn + " acknowledged.");
+                if (notifyArrival && isReachable(sender)) {
+                    sender.sendMessage(ChatColor.GREEN + targetName + " è arrivato sul server di screenshare (" + arrivedOn + ").");
+                }
+            }
+        });
+    }
+
+    /**
+     * @return The placeholder values of a session's hook commands.
+     */
+    private static CommandTemplate.Context hookContext(ScreenShareSession session) {
+        return new CommandTemplate.Context(session.getPlayerName(), session.getStaffName(),
+                session.getOriginServer(), session.getSsServer(), session.getSessionId());
+    }
+
+    /**
+     * Executes one hook command via console to ensure it has proper permissions.
+     * Called by the hook dispatcher on the main thread.
+     */
+    private void dispatchHookCommand(String command) {
+        try {
+            Bukkit.dispatchCommand(Bukkit.getConsoleSender(), command);
+            logInfo(() -> "Executed hook command: '" + command + "'");
+        } catch (RuntimeException e) {
+            logError(() -> "Hook command '" + command + "' failed: " + e.getMessage());
+        }
+    }
+
+    /**
+     * @return False if the sender is a player who has since logged out.
+     */
+    private boolean isReachable(CommandSender sender) {
+        return !(sender instanceof Player) || ((Player) sender).isOnline();
+    }
+
+    // --- Session Lifecycle ---
+
+    /**
+     * Configures the session path from a configuration snapshot.
+     */
+    private void configureLifecycle(PluginConfig settings) {
+        lifecycle.configure(settings.sessionPendingTimeoutMillis, settings.handoffTimeoutMillis, settings.reconnectGraceMillis);
+    }
+
+    /**
+     * The server side of the session path: the transport, the scheduler, the on-join hook and
+     * what staff are told when a session expires.
+     */
+    private final class LifecycleHost implements SessionLifecycle.Host {
+        @Override
+        public boolean sendToInstance(String targetServer, byte[] payload, UUID preferredVia) {
+            return ScreenShare.this.sendToInstance(targetServer, payload, preferredVia);
+        }
+
+        @Override
+        public void runNextTick(Runnable task) {
+            getServer().getScheduler().runTask(ScreenShare.this, task);
+        }
+
+        @Override
+        public boolean isOnline(UUID playerId) {
+            return Bukkit.getPlayer(playerId) != null;
+        }
+
+        @Override
+        public void arrived(PendingHandoffs.Handoff handoff, ScreenShareSession session) {
+            HookPipeline onJoin = settings().onJoinHook;
+            hookDispatcher.run(onJoin, new CommandTemplate.Context(handoff.playerName, handoff.staffName,
+                    handoff.originServer, handoff.ssServer, session == null ? "" : session.getSessionId()));
+            logInfo(() -> "Running on-join-command for " + handoff.playerName + " (handoff from " + handoff.originServer +
+                    " by " + handoff.staffName + "): " + onJoin.describe());
+        }
+
+        @Override
+        public void expired(ScreenShareSession session) {
+            if (session.getState() == ScreenShareSession.State.PENDING) {
+                handleScreenShareEndEvent(session, ScreenShareEndEvent.Reason.EXPIRED, null);
+                logWarning(() -> session.getPlayerName() + " never arrived on " + session.getSsServer() + ". Screenshare session expired.");
+                notifyStaff("Lo screenshare di " + session.getPlayerName() + " è scaduto: non è mai arrivato sul server di screenshare (" +
+                        session.getSsServer() + ").");
+            } else {
+                handleScreenShareEndEvent(session, ScreenShareEndEvent.Reason.DISCONNECTED, null);
+                logInfo(() -> session.getPlayerName() + " did not reconnect in time. Screenshare session expired.");
+                notifyStaff(session.getPlayerName() + " non è rientrato in tempo: la sessione di screenshare è stata chiusa.");
+            }
+        }
+    }
+
+    /**
+     * Handles the return of a player who logged out mid-screenshare: if they reconnected
+     * straight to the SS server the session resumes there, otherwise they are sent back to it.
+     */
+    private void resumeDisconnectedSession(Player player) {
+        UUID playerId = player.getUniqueId();
+        getCurrentServerName(player).thenAccept(currentServer -> {
+            ScreenShareSession session = sessions.get(playerId);
+            if (session == null || session.getState() != ScreenShareSession.State.DISCONNECTED || !player.isOnline()) {
+                return; // Ended or resumed meanwhile.
+            }
+            if (currentServer.equalsIgnoreCase(session.getSsServer())) {
+                lifecycle.resume(playerId);
+                HookPipeline onJoin = settings().onJoinHook;
+                hookDispatcher.run(onJoin, hookContext(session));
+                logInfo(() -> player.getName() + " reconnected to the SS server. Screenshare session resumed; running on-join-command: " + onJoin.describe());
+                notifyStaff(player.getName() + " si è riconnesso: lo screenshare riprende.");
+                return;
+            }
+            player.sendMessage(ChatColor.RED + "Sei ancora in screenshare: verrai riportato sul server di screenshare.");
+            // The SS instance runs the on-join hook and resumes the session when the player arrives.
+            sendHandoff(new PlayerDirectory.Location(playerId, player.getName(), currentServer),
+                    Bukkit.getConsoleSender(), session.getSsServer(), false);
+            connectPlayerToServer(player, session.getSsServer());
+            logInfo(() -> player.getName() + " reconnected on " + currentServer + " mid-screenshare. Sending them back to " + session.getSsServer() + ".");
+            notifyStaff(player.getName() + " si è riconnesso su " + currentServer + " e viene riportato sul server di screenshare.");
+        }).exceptionally(error -> {
+            logWarning(() -> "Could not resume the screenshare session of " + player.getName() + ": " + unwrap(error));
+            return null;
+        });
+    }
+
+    /**
+     * Sends a message to the ScreenShare instance on another server through the transport.
+     *
+     * @param targetServer The proxy name of the destination server.
+     * @param payload The ScreenShare message.
+     * @param preferredVia The player whose proxy connection should carry it, or null for any.
+     * @return False if the transport dropped it (e.g. nobody online to reach the proxy through).
+     */
+    private boolean sendToInstance(String targetServer, byte[] payload, UUID preferredVia) {
+        if (!transport.send(targetServer, payload, preferredVia)) {
+            metrics.transportDropped.increment();
+            logDebug(() -> "Could not send " + payload.length + " bytes to " + targetServer + "; dropping them.");
+            return false;
+        }
+        logDebug(() -> "Sent " + payload.length + " bytes to " + targetServer + ".");
+        return true;
+    }
+
+    /**
+     * Sends session registry messages through the transport. A message the transport cannot
+     * send (through the proxy, with nobody online) is dropped; the next digest exchange repairs
+     * the difference.
+     */
+    private final class TransportRegistryOutbound implements SessionRegistry.Outbound {
+        @Override
+        public void broadcast(byte[] message) {
+            if (!transport.broadcast(message)) {
+                metrics.transportDropped.increment();
+                logDebug("Could not broadcast a registry update; dropping it.");
+            }
+        }
+
+        @Override
+        public void sendToPlayer(String playerName, byte[] message) {
+            if (!transport.sendToPlayer(playerName, message)) {
+                metrics.transportDropped.increment();
+                logDebug("Could not answer a registry sync; dropping it.");
+            }
+        }
+    }
+
+    /**
+     * Receives what the transport delivers itself (the socket bus; plugin messages arrive in
+     * {@link #onPluginMessageReceived}), on the main thread.
+     */
+    private final class TransportInbound implements Transport.Inbound {
+        @Override
+        public void receive(PluginMessageCodec.Reader message) {
+            handleForwardMessage(message);
+        }
+
+        @Override
+        public boolean isLocalPlayer(String playerName) {
+            return Bukkit.getPlayerExact(playerName) != null;
+        }
+
+        @Override
+        public void linkChanged(String server, boolean up, String detail) {
+            if (up) {
+                logInfo(() -> "Socket bus connected to " + server + ".");
+            } else {
+                logWarning(() -> "Socket bus link to " + server + " is down: " + detail);
+            }
+        }
+
+        @Override
+        public void malformed(int length, RuntimeException error) {
+            metrics.transportDropped.increment();
+            logDebug(() -> "Dropping a malformed socket bus frame (" + length + " bytes): " + error.getMessage());
+        }
+    }
+
+    /**
+     * The {@link ScreenShareService} registered for other plugins. Starting and ending go through
+     * the same code as /ss and /ssend; queries read the replicated registry, whose read
+     * accessors are safe from any thread, so they complete immediately.
+     */
+    private final class PluginService implements ScreenShareService {
+        @Override
+        public CompletableFuture<SessionOutcome> start(String playerName, CommandSender staff, int priority) {
+            return onMainThread(() -> startScreenShare(playerName, staff, priority, false));
+        }
+
+        @Override
+        public CompletableFuture<SessionOutcome> end(String playerName, CommandSender staff) {
+            return onMainThread(() -> endScreenShare(playerName, staff, false));
+        }
+
+        @Override
+        public CompletableFuture<Optional<ScreenShareSession>> getSession(UUID playerId) {
+            return CompletableFuture.completedFuture(Optional.ofNullable(sessions.get(playerId)));
+        }
+
+        @Override
+        public CompletableFuture<List<ScreenShareSession>> getSessions() {
+            return CompletableFuture.completedFuture(Collections.unmodifiableList(sessions.sessions()));
+        }
+    }
+
+    /**
+     * Runs an action on the main thread: right away if already there, otherwise on the next tick.
+     *
+     * @return The action's future, completed on the main thread like every plugin future.
+     */
+    private <T> CompletableFuture<T> onMainThread(Supplier<CompletableFuture<T>> action) {
+        if (Bukkit.isPrimaryThread()) {
+            return action.get();
+        }
+        CompletableFuture<T> result = new CompletableFuture<>();
+        getServer().getScheduler().runTask(this, () -> action.get().whenComplete((value, error) -> {
+            if (error != null) {
+                result.completeExceptionally(unwrap(error));
+            } else {
+                result.complete(value);
+            }
+        }));
+        return result;
+    }
+
+    /**
+     * Asks the other ScreenShare instances for a full registry snapshot, at most once per enable.
+     * Deferred by a tick because a player still inside their join event may not be able to
+     * send plugin messages yet.
+     *
+     * @param via A player on this server, through whom the request is sent and the replies routed.
+     */
+    private void requestRegistrySync(Player via) {
+        if (registrySyncRequested) {
+            return;
+        }
+        registrySyncRequested = true;
+        getServer().getScheduler().runTask(this, () -> {
+            if (via.isOnline()) {
+                sessions.requestSync(via.getName());
+                logDebug(() -> "Requested session registry snapshot via " + via.getName() + ".");
+            } else {
+                registrySyncRequested = false; // Try again with the next player who joins.
+            }
+        });
+    }
+
+    /**
+     * Handles a message sent by the ScreenShare instance on another server. A truncated or
+     * malformed message (e.g. from an incompatible version) is dropped and counted, so it never
+     * reaches Bukkit's plugin message dispatch or the transport.
+     *
+     * @param in The ScreenShare message inside the Forward envelope, read in place.
+     */
+    private void handleForwardMessage(PluginMessageCodec.Reader in) {
+        int length = in.remaining();
+        try {
+            dispatchForwardMessage(in);
+        } catch (IllegalStateException | UncheckedIOException e) {
+            metrics.transportDropped.increment();
+            logDebug(() -> "Dropping a malformed ScreenShare message (" + length + " bytes): " + e.getMessage());
+        }
+    }
+
+    private void dispatchForwardMessage(PluginMessageCodec.Reader in) {
+        int start = in.position();
+        int length = in.remaining();
+        byte type = in.readByte();
+        switch (type) {
+            case SessionLifecycle.MSG_HANDOFF: {
+                PendingHandoffs.Handoff handoff = lifecycle.onHandoff(in);
+                logDebug(() -> "Handoff announced for " + handoff.playerName + " from " + handoff.originServer + ".");
+                break;
+            }
+            case SessionLifecycle.MSG_HANDOFF_ACK: {
+                if (!lifecycle.onHandoffAck(in)) {
+                    logDebug("Ignoring a late or unknown handoff acknowledgement.");
+                }
+                break;
+            }
+            case MSG_END_REQUEST: {
+                UUID playerId = in.readUuid();
+                String staffName = in.readUTF();
+                String replyServer = in.readUTF();
+                handleRemoteEndRequest(playerId, staffName, replyServer);
+                break;
+            }
+            case MSG_STAFF_NOTIFY: {
+                String fromInstance = in.readUTF();
+                if (fromInstance.equals(sessions.getInstanceId())) {
+                    break; // Our own broadcast echoed back.
+                }
+                String fromServer = in.readUTF();
+                int count = in.readUnsignedShort();
+                List<String> messages = new ArrayList<>(count);
+                for (int i = 0; i < count; i++) {
+                    messages.add(ChatColor.GRAY + "[" + fromServer + "] " + ChatColor.WHITE + in.readUTF());
+                }
+                deliverToLocalStaff(messages);
+                break;
+            }
+            case MSG_HISTORY: {
+                String fromInstance = in.readUTF();
+                if (fromInstance.equals(sessions.getInstanceId())) {
+                    break; // Our own broadcast echoed back.
+                }
+                int count = in.readUnsignedShort();
+                SessionHistory history = sessionHistory;
+                for (int i = 0; i < count; i++) {
+                    SessionHistory.Entry entry = SessionHistory.Entry.readFrom(in);
+                    if (history != null) {
+                        history.record(entry);
+                    }
+                }
+                logDebug(() -> "Recorded " + count + " ended sessions from another server in the history.");
+                break;
+            }
+            case MSG_END_ACK: {
+                UUID playerId = in.readUuid();
+                boolean ended = in.readByte() != 0;
+                if (!endAcks.complete(playerId, ended)) {
+                    logDebug(() -> "Ignoring late or unknown end acknowledgement for " + playerId + ".");
+                }
+                break;
+            }
+            case SessionRegistry.MSG_DELTA:
+            case SessionRegistry.MSG_SYNC_REQUEST:
+            case SessionRegistry.MSG_SNAPSHOT:
+            case SessionRegistry.MSG_DIGEST: {
+                int changed = sessions.receive(in.array(), start, length);
+                if (changed > 0) {
+                    logDebug(() -> "Applied " + changed + " session registry changes (message type " + type + ").");
+                }
+                break;
+            }
+            default:
+                logDebug(() -> "Ignoring unknown ScreenShare message type " + type + ".");
+        }
+    }
+
+    /**
+     * Fails every proxy request and drops every handoff whose deadline has passed.
+     */
+    private void expireProxyRequests() {
+        int timedOut = serverLookups.expire() + endAcks.expire() + playerServerLookups.expire() + uuidLookups.expire();
+        if (timedOut > 0) {
+            metrics.proxyTimeouts.add(timedOut);
+        }
+
+        CircuitBreaker.State breakerState = proxyBreaker.getState();
+        if (breakerState != lastProxyBreakerState) {
+            if (breakerState == CircuitBreaker.State.OPEN && lastProxyBreakerState == CircuitBreaker.State.CLOSED) {
+                logWarning("The proxy is not answering GetServer requests. /ss is suspended until it responds again.");
+                notifyStaff("Il proxy non risponde: /ss è sospeso finché non torna disponibile.");
+            } else if (breakerState == CircuitBreaker.State.CLOSED) {
+                logInfo("The proxy is answering again. /ss is available.");
+                notifyStaff("Il proxy risponde di nuovo: /ss è disponibile.");
+            }
+            lastProxyBreakerState = breakerState;
+        }
+    }
+
+    /**
+     * Probes the proxy with a GetServer through any online player. The reply (or its absence)
+     * feeds the circuit breaker; while the breaker is open the probe is rejected until a trial
+     * is due, and that trial is what closes it again. With nobody online there is no connection
+     * to the proxy to probe.
+     */
+    private void sendProxyHeartbeat() {
+        Player via = proxyVia();
+        if (via == null) {
+            return;
+        }
+        serverLookups.request(via.getUniqueId(), settings().proxyTimeoutMillis,
+                () -> via.sendPluginMessage(this, BUNGEECORD_CHANNEL, codec.getServer()));
+    }
+
+    /**
+     * Broadcasts the registry digest, so instances that missed a delta catch up. The snapshots
+     * that answer it are routed through a player on this server, so with nobody online it waits.
+     */
+    private void broadcastRegistryDigest() {
+        Player via = proxyVia();
+        if (via != null) {
+            sessions.broadcastDigest(via.getName());
+        }
+    }
+
+    /**
+     * @return The player whose connection should carry a message to the proxy: one who is not
+     *         in the middle of a Connect, if possible; null with nobody online.
+     */
+    private Player proxyVia() {
+        return connectingPlayers.pick(Bukkit.getOnlinePlayers(), Player::getUniqueId);
+    }
+
+    /**
+     * Asks the proxy for the player count of every SS pool member. Needs an online player
+     * to send through; with nobody online the cached counts are simply left as they are.
+     */
+    private void pollServerPool() {
+        Player via = proxyVia();
+        if (via == null) {
+            return;
+        }
+        ssPool.poll(server -> via.sendPluginMessage(this, BUNGEECORD_CHANNEL, codec.playerCount(server)));
+    }
+
+    /**
+     * Asks the proxy for every player on the network, for tab completion. Needs an online
+     * player to send through; with nobody online there is nobody to complete for either.
+     */
+    private void requestNetworkPlayerList() {
+        Player via = proxyVia();
+        if (via != null) {
+            via.sendPluginMessage(this, BUNGEECORD_CHANNEL, codec.playerList("ALL"));
+        }
+    }
+
+    /**
+     * Rebuilds the index of players with an active session if the registry changed since it was
+     * last built. Runs every tick, right after the registry flush.
+     */
+    private void refreshSessionPlayerNames() {
+        long version = sessions.getChangeCount();
+        if (version == sessionPlayerNamesVersion) {
+            return;
+        }
+        sessionPlayerNamesVersion = version;
+        List<String> names = new ArrayList<>();
+        for (ScreenShareSession session : sessions.sessions()) {
+            names.add(session.getPlayerName());
+        }
+        sessionPlayerNames = PlayerNameIndex.of(names);
+    }
+
+    /**
+     * Retrieves the current server name a player is on from BungeeCord/Velocity,
+     * using the configured proxy timeout.
+     *
+     * @param player The player whose current server name is to be retrieved.
+     * @return A future completed on the main thread with the server name, or failed with a
+     *         {@link TimeoutException} if the proxy does not answer in time. On a warm location
+     *         cache the returned future is already complete.
+     */
+    private CompletableFuture<String> getCurrentServerName(Player player) {
+        return getCurrentServerName(player, settings().proxyTimeoutMillis);
+    }
+
+    /**
+     * Retrieves the current server name a player is on from BungeeCord/Velocity.
+     * Concurrent lookups for the same player share a single proxy round trip.
+     *
+     * @param player The player whose current server name is to be retrieved.
+     * @param timeoutMillis How long to wait for the proxy reply.
+     * @return A future completed on the main thread with the server name, or failed with a
+     *         {@link TimeoutException} if the proxy does not answer in time.
+     */
+    private CompletableFuture<String> getCurrentServerName(Player player, long timeoutMillis) {
+        String cached = locationCache.get(player.getUniqueId());
+        if (cached != null) {
+            metrics.locationCacheHits.increment();
+            logDebug(() -> "Location cache hit for " + player.getName() + ": " + cached);
+            return CompletableFuture.completedFuture(cached);
+        }
+        return serverLookups.request(player.getUniqueId(), timeoutMillis, () -> {
+            // Send the "GetServer" request to BungeeCord/Velocity.
+            player.sendPluginMessage(this, BUNGEECORD_CHANNEL, codec.getServer());
+            logDebug(() -> "Requested current server name for " + player.getName() + " from BungeeCord.");
+        });
+    }
+
+    /**
+     * Builds the message shown to staff when a proxy lookup fails.
+     *
+     * @param error The failure cause.
+     * @param playerName The player the lookup was for.
+     * @return A user-facing explanation.
+     */
+    private String describeLookupFailure(Throwable error, String playerName) {
+        if (error instanceof NoSuchElementException) {
+            return "Il giocatore '" + playerName + "' non è online sulla rete.";
+        }
+        if (error instanceof TimeoutException) {
+            return "Il proxy non ha risposto in tempo per " + playerName + ". Riprova tra poco.";
+        }
+        if (error instanceof CircuitBreaker.OpenException) {
+            return describeProxyUnavailable();
+        }
+        return "Non è stato possibile determinare il server corrente per " + playerName + ".";
+    }
+
+    /**
+     * Single entry point for every message received on the BungeeCord channel.
+     * Replies are routed to the request waiting for them instead of being broadcast
+     * to per-request listeners.
+     *
+     * @param channel The channel the message was received on.
+     * @param messagePlayer The player connection the message arrived through.
+     * @param message The raw message.
+     */
+    @Override
+    public void onPluginMessageReceived(String channel, Player messagePlayer, byte[] message) {
+        if (!channel.equals(BUNGEECORD_CHANNEL)) {
+            return;
+        }
+
+        // Match the subchannel on its encoded bytes; messages for other plugins are skipped
+        // without decoding anything.
+        PluginMessageCodec.Reader in = PluginMessageCodec.read(message);
+        PluginMessageCodec.Subchannel subchannel = PluginMessageCodec.Subchannel.match(in);
+        if (subchannel == null) {
+            return;
+        }
+
+        if (subchannel == PluginMessageCodec.Subchannel.GET_SERVER) {
+            String serverName = in.readUTF();
+            localServerName = serverName;
+            locationCache.put(messagePlayer.getUniqueId(), serverName);
+            // The reply arrives through the connection of the player the request was sent for.
+            if (!serverLookups.complete(messagePlayer.getUniqueId(), serverName)) {
+                logDebug(() -> "Ignoring unsolicited GetServer reply for " + messagePlayer.getName() + ": " + serverName);
+                return;
+            }
+            logDebug(() -> "Received current server for " + messagePlayer.getName() + ": " + serverName);
+        } else if (subchannel == PluginMessageCodec.Subchannel.PLAYER_COUNT) {
+            String serverName = in.readUTF();
+            int playerCount = in.readInt();
+            if (ssPool.onPlayerCount(serverName, playerCount)) {
+                logDebug(() -> "SS server " + serverName + " has " + playerCount + " players.");
+            }
+        } else if (subchannel == PluginMessageCodec.Subchannel.GET_PLAYER_SERVER) {
+            String playerName = in.readUTF();
+            String serverName = in.readUTF();
+            if (!playerServerLookups.complete(playerName.toLowerCase(Locale.ROOT), serverName)) {
+                logDebug(() -> "Ignoring unsolicited GetPlayerServer reply for " + playerName + ": " + serverName);
+            }
+        } else if (subchannel == PluginMessageCodec.Subchannel.UUID_OTHER) {
+            String playerName = in.readUTF();
+            UUID playerId = PluginMessageCodec.parseUuid(in.readUTF());
+            if (!uuidLookups.complete(playerName.toLowerCase(Locale.ROOT), new PlayerDirectory.Location(playerId, playerName, null))) {
+                logDebug(() -> "Ignoring unsolicited UUIDOther reply for " + playerName + ".");
+            }
+        } else if (subchannel == PluginMessageCodec.Subchannel.PLAYER_LIST) {
+            if (!in.readUTF().equals("ALL")) {
+                return;
+            }
+            String playerList = in.readUTF();
+            // Replies are identical most of the time; only rebuild the index when the list changed.
+            if (!playerList.equals(lastPlayerList)) {
+                lastPlayerList = playerList;
+                networkPlayerNames = playerList.isEmpty()
+                        ? PlayerNameIndex.EMPTY
+                        : PlayerNameIndex.of(Arrays.asList(playerList.split(", ")));
+                // Players who left the network can no longer be targeted from the directory.
+                playerDirectory.retainOnline(networkPlayerNames);
+                logDebug(() -> "Network player list updated: " + networkPlayerNames.size() + " players.");
+            }
+        } else if (subchannel == PluginMessageCodec.Subchannel.SCREENSHARE) {
+            // Forward envelope: the proxy prefixes the payload with its length.
+            handleForwardMessage(in.slice(in.readUnsignedShort()));
+        }
+    }
+
+    // --- Event Handlers ---
+
+    /**
+     * Handles player join events.
+     * Useful for logging or future session management.
+     * @param event PlayerJoinEvent
+     */
+    @EventHandler
+    public void onPlayerJoin(PlayerJoinEvent event) {
+        Player player = event.getPlayer();
+        // The player just switched server, so any cached location is stale.
+        locationCache.invalidate(player.getUniqueId());
+        localPlayerNames = localPlayerNames.with(player.getName());
+        staffMembers.update(player);
+        // The player is on this server now; the directory only tracks players elsewhere.
+        playerDirectory.invalidate(player.getName());
+        logDebug(() -> "Player " + player.getName() + " joined the server.");
+        // If an origin server announced this player, run the on-join hook right now. Otherwise a
+        // player who logged out mid-screenshare goes straight back to it.
+        if (!lifecycle.arrive(player.getUniqueId())) {
+            ScreenShareSession session = sessions.get(player.getUniqueId());
+            if (session != null && session.getState() == ScreenShareSession.State.DISCONNECTED) {
+                resumeDisconnectedSession(player);
+            } else if (session == null || session.getState() == ScreenShareSession.State.ACTIVE) {
+                // Back from the screenshare server (the end of an active session may still be on its way).
+                refreshPlayerData(player);
+            }
+        }
+        // A player being recorded here came back.
+        recordEvidence(player, EvidenceRecorder.EVENT_JOIN, 0, "");
+        // The first player to join gives this instance a connection to ask for the registry.
+        requestRegistrySync(player);
+    }
+
+    /**
+     * Handles player quit events.
+     * Important for cleaning up stored data if a player disconnects unexpectedly.
+     * @param event PlayerQuitEvent
+     */
+    @EventHandler
+    public void onPlayerQuit(PlayerQuitEvent event) {
+        Player player = event.getPlayer();
+        recordEvidence(player, EvidenceRecorder.EVENT_QUIT, 0, event.getReason().name());
+        evidenceTails.remove(player.getUniqueId());
+        locationCache.invalidate(player.getUniqueId());
+        connectingPlayers.left(player.getUniqueId());
+        localPlayerNames = localPlayerNames.without(player.getName());
+        staffMembers.remove(player.getUniqueId());
+        // A player leaving this server for the SS server takes a snapshot of their state along.
+        ScreenShareSession leaving = sessions.get(player.getUniqueId());
+        if (leaving != null && leaving.getState() == ScreenShareSession.State.PENDING && !lifecycle.hasArrived(player.getUniqueId()) &&
+                (localServerName == null || leaving.getOriginServer().equalsIgnoreCase(localServerName))) {
+            capturePlayerState(player);
+        }
+        // Queued players stay queued: leaving this server may just be a hop to another backend,
+        // and admission skips players who have left the network altogether.
+        // If a player who was being screenshared disconnects from the SS server, end the session.
+        // Quitting the origin server is expected: that is the proxy moving them to the SS server.
+        ScreenShareSession session = sessions.get(player.getUniqueId());
+        switch (lifecycle.leave(player.getUniqueId())) {
+            case NO_SESSION:
+                logInfo(() -> "Player " + player.getName() + " disconnected from the SS server without a registered session.");
+                break;
+            case ENDED:
+                handleScreenShareEndEvent(session, ScreenShareEndEvent.Reason.DISCONNECTED, null);
+                logInfo(() -> "Player " + player.getName() + " disconnected. Removed from screenshare session (original server: " + session.getOriginServer() + ").");
+                notifyStaff(player.getName() + " si è disconnesso durante lo screenshare.");
+                break;
+            case DISCONNECTED:
+                long graceMillis = settings().reconnectGraceMillis;
+                logInfo(() -> "Player " + player.getName() + " disconnected during screenshare. They will be sent back to " +
+                        session.getSsServer() + " if they reconnect within " + graceMillis / 1000 + "s.");
+                notifyStaff(player.getName() + " si è disconnesso durante lo screenshare: se rientra entro " +
+                        graceMillis / 1000 + "s verrà riportato sul server di screenshare.");
+                break;
+            default:
+                break; // Not here for a session.
+        }
+        logDebug(() -> "Player " + player.getName() + " left the server.");
+    }
+
+    /**
+     * Records the chat of a player being screenshared here, blocked messages included. Runs on
+     * the chat thread; recording never blocks it.
+     * @param event AsyncChatEvent
+     */
+    @EventHandler(priority = EventPriority.MONITOR)
+    public void onAsyncChat(AsyncChatEvent event) {
+        recordEvidence(event.getPlayer(), EvidenceRecorder.EVENT_CHAT, event.isCancelled() ? EvidenceRecorder.FLAG_CANCELLED : 0,
+                PlainTextComponentSerializer.plainText().serialize(event.message()));
+    }
+
+    /**
+     * Records the commands of a player being screenshared here, blocked ones included.
+     * @param event PlayerCommandPreprocessEvent
+     */
+    @EventHandler(priority = EventPriority.MONITOR)
+    public void onPlayerCommand(PlayerCommandPreprocessEvent event) {
+        recordEvidence(event.getPlayer(), EvidenceRecorder.EVENT_COMMAND, event.isCancelled() ? EvidenceRecorder.FLAG_CANCELLED : 0,
+                event.getMessage());
+    }
+
+    // --- Logging Utilities ---
+    // Messages are only built when their level is enabled, and are published by the
+    // AsyncLogAppender's thread so console output never costs the calling thread a handler call.
+    // Call sites on hot paths (per message, per player) pass a Supplier so the concatenation is
+    // skipped too when the level is off.
+
+    /**
+     * Logs an informational message to the console.
+     * @param message Builds the message; only called when INFO is enabled.
+     */
+    private void logInfo(Supplier<String> message) {
+        if (getLogger().isLoggable(Level.INFO)) {
+            logAppender.append(Level.INFO, ChatColor.AQUA + "[ScreenShare] " + ChatColor.WHITE + message.get());
+        }
+    }
+
+    /**
+     * Logs a constant informational message. See {@link #logInfo(Supplier)}.
+     * @param message The message to log.
+     */
+    private void logInfo(String message) {
+        if (getLogger().isLoggable(Level.INFO)) {
+            logAppender.append(Level.INFO, ChatColor.AQUA + "[ScreenShare] " + ChatColor.WHITE + message);
+        }
+    }
+
+    /**
+     * Logs a warning message to the console.
+     * @param message Builds the message; only called when WARNING is enabled.
+     */
+    private void logWarning(Supplier<String> message) {
+        if (getLogger().isLoggable(Level.WARNING)) {
+            logAppender.append(Level.WARNING, ChatColor.YELLOW + "[ScreenShare] WARNING: " + ChatColor.WHITE + message.get());
+        }
+    }
+
+    /**
+     * Logs a constant warning message. See {@link #logWarning(Supplier)}.
+     * @param message The message to log.
+     */
+    private void logWarning(String message) {
+        if (getLogger().isLoggable(Level.WARNING)) {
+            logAppender.append(Level.WARNING, ChatColor.YELLOW + "[ScreenShare] WARNING: " + ChatColor.WHITE + message);
+        }
+    }
+
+    /**
+     * Logs an error message to the console.
+     * @param message Builds the message; only called when SEVERE is enabled.
+     */
+    private void logError(Supplier<String> message) {
+        if (getLogger().isLoggable(Level.SEVERE)) {
+            logAppender.append(Level.SEVERE, ChatColor.RED + "[ScreenShare] ERROR: " + ChatColor.WHITE + message.get());
+        }
+    }
+
+    /**
+     * Logs a constant error message. See {@link #logError(Supplier)}.
+     * @param message The message to log.
+     */
+    private void logError(String message) {
+        if (getLogger().isLoggable(Level.SEVERE)) {
+            logAppender.append(Level.SEVERE, ChatColor.RED + "[ScreenShare] ERROR: " + ChatColor.WHITE + message);
+        }
+    }
+
+    /**
+     * Logs a debug message to the console when debug mode is on (config "debug" or /ssdebug).
+     * Debug messages are logged at INFO so they reach the console without reconfiguring the
+     * server's logging.
+     * @param message Builds the message; only called when debug mode is on.
+     */
+    private void logDebug(Supplier<String> message) {
+        if (debugEnabled) {
+            logAppender.append(Level.INFO, ChatColor.GRAY + "[ScreenShare-DEBUG] " + ChatColor.WHITE + message.get());
+        }
+    }
 
-            // Remove the player from the map after they are sent back.
-            originalServers.remove(targetPlayer.getUniqueId());
-            logInfo("Removed " + targetPlayer.getName() + " from screenshare session. Original server: " + originalServer);
-        });
+    /**
+     * Logs a constant debug message. See {@link #logDebug(Supplier)}.
+     * @param message The message to log.
+     */
+    private void logDebug(String message) {
+        if (debugEnabled) {
+            logAppender.append(Level.INFO, ChatColor.GRAY + "[ScreenShare-DEBUG] " + ChatColor.WHITE + message);
+        }
     }
 
+    // --- Session Events ---
+
     /**
-     * Sends a player to a specified server using BungeeCord/Velocity Plugin Messaging.
+     * Fires {@link ScreenShareStartEvent} for a session about to start. The event is only built
+     * when a plugin listens for it, so this costs a field read when nobody does.
      *
-     * @param player The player to send.
-     * @param serverName The name of the target server.
+     * @param session The new session, not registered yet.
+     * @param staff Who started it.
+     * @return False if a listener cancelled the session.
      */
-    private void connectPlayerToServer(Player player, String serverName) {
-        // Use ByteArrayDataOutput to write the message in a structured way.
-        ByteArrayDataOutput out = ByteStreams.newDataOutput();
-        out.writeUTF("Connect"); // Subchannel for connecting players.
-        out.writeUTF(serverName); // The name of the server to connect to.
-
-        // Send the message through the BungeeCord channel.
-        player.sendPluginMessage(this, BUNGEECORD_CHANNEL, out.toByteArray());
-        logInfo("Sent " + player.getName() + " to server: " + serverName + " via BungeeCord.");
+    private boolean handleScreenShareStartEvent(ScreenShareSession session, CommandSender staff) {
+        if (!ScreenShareStartEvent.hasListeners()) {
+            return true;
+        }
+        ScreenShareStartEvent event = new ScreenShareStartEvent(session, staff);
+        getServer().getPluginManager().callEvent(event);
+        logDebug(() -> "ScreenShareStartEvent triggered for " + session.getPlayerName() + " to " + session.getSsServer() +
+                (event.isCancelled() ? " (cancelled)" : ""));
+        return !event.isCancelled();
     }
 
     /**
-     * Retrieves the current server name a player is on from BungeeCord/Velocity.
-     * This is an asynchronous operation, and the callback will be invoked upon receiving the response.
+     * Records the end of a session in the metrics and in the history, and fires
+     * {@link ScreenShareEndEvent}, which is only built when a plugin listens for it. Called
+     * wherever a session is removed by this instance.
      *
-     * @param player The player whose current server name is to be retrieved.
-     * @param callback The Consumer to be called with the server name (or null if not found/error).
+     * @param session The session that ended.
+     * @param reason Why it ended.
+     * @param endedBy The staff member who ended it, or null.
      */
-    private void getCurrentServerName(Player player, java.util.function.Consumer<String> callback) {
-        // Create a final reference to the listener to be able to unregister it later.
-        // This is necessary because 'this' inside the anonymous class refers to the anonymous class itself.
-        final PluginMessageListener listener = new PluginMessageListener() {
-            @Override
-            public void onPluginMessageReceived(String channel, Player messagePlayer, byte[] message) {
-                if (!channel.equals(BUNGEECORD_CHANNEL)) {
-                    return;
-                }
-
-                ByteArrayDataInput in = ByteStreams.newDataInput(message);
-                String subchannel = in.readUTF();
-
-                if (subchannel.equals("GetServer")) {
-                    String serverName = in.readUTF();
-                    // Log current server name for debugging.
-                    logDebug("Received current server for " + messagePlayer.getName() + ": " + serverName);
+    private void handleScreenShareEndEvent(ScreenShareSession session, ScreenShareEndEvent.Reason reason, CommandSender endedBy) {
+        if (reason == ScreenShareEndEvent.Reason.EXPIRED) {
+            metrics.sessionsExpired.increment();
+        } else {
+            metrics.sessionEnded(session.getStartedAt(), reason == ScreenShareEndEvent.Reason.DISCONNECTED);
+        }
+        SessionHistory.Entry entry = SessionHistory.Entry.of(session, reason, endedBy == null ? null : endedBy.getName(), System.currentTimeMillis());
+        if (sessionHistory != null) {
+            sessionHistory.record(entry);
+        }
+        pendingHistory.add(entry); // Forwarded to the other servers at the end of the tick.
+        EvidenceRecorder recorder = evidence;
+        if (recorder != null) {
+            recorder.close(session.getPlayerId(), "Sessione chiusa: " + describeOutcome(reason, entry.endedBy) + ".");
+        }
+        if (!ScreenShareEndEvent.hasListeners()) {
+            return;
+        }
+        getServer().getPluginManager().callEvent(new ScreenShareEndEvent(session, reason, endedBy));
+        logDebug(() -> "ScreenShareEndEvent triggered for " + session.getPlayerName() + " (" + reason + ")");
+    }
 
-                    // Execute the callback with the received server name.
-                    callback.accept(serverName);
+    // --- Player State ---
 
-                    // Unregister THIS specific listener after it has served its purpose.
-                    // This is crucial to prevent memory leaks and ensure clean listener management.
-                    getServer().getMessenger().unregisterIncomingPluginChannel(ScreenShare.this, BUNGEECORD_CHANNEL, this);
-                }
+    /**
+     * Opens the store of player states under the data folder. Without it players are neither
+     * captured nor restored.
+     */
+    private void openPlayerStates() {
+        playerStates = new PlayerStateStore(getDataFolder(), getLogger());
+        try {
+            playerStates.start();
+            if (playerStates.size() > 0) {
+                logInfo(playerStates.size() + " players have a state waiting to be restored.");
             }
-        };
-        // Register the incoming plugin channel listener for this specific request.
-        getServer().getMessenger().registerIncomingPluginChannel(this, BUNGEECORD_CHANNEL, listener);
-
-        // Send the "GetServer" request to BungeeCord/Velocity.
-        ByteArrayDataOutput out = ByteStreams.newDataOutput();
-        out.writeUTF("GetServer"); // Subchannel to request current server name.
-        player.sendPluginMessage(this, BUNGEECORD_CHANNEL, out.toByteArray());
-        logDebug("Requested current server name for " + player.getName() + " from BungeeCord.");
+        } catch (IOException e) {
+            logError("Failed to open the player state folder: " + e.getMessage());
+            playerStates.close();
+            playerStates = null;
+        }
     }
 
-    // --- Event Handlers ---
-
     /**
-     * Handles player join events.
-     * Useful for logging or future session management.
-     * @param event PlayerJoinEvent
+     * Saves the state of a player leaving this server for the SS server, so it can be put back
+     * when they return. Only the copy is taken here; the items are encoded and the file written
+     * off the main thread.
+     *
+     * @param player The player, still online on this server.
      */
-    @EventHandler
-    public void onPlayerJoin(PlayerJoinEvent event) {
-        Player player = event.getPlayer();
-        logDebug("Player " + player.getName() + " joined the server.");
-        // Could potentially re-check if player was in SS session from a persistent storage here.
+    private void capturePlayerState(Player player) {
+        if (playerStates == null || !settings().restorePlayerState) {
+            return;
+        }
+        long start = System.nanoTime();
+        playerStates.save(player.getUniqueId(), PlayerState.capture(player));
+        logDebug(() -> "Captured the state of " + player.getName() + " in " + (System.nanoTime() - start) / 1000L + "µs.");
     }
 
     /**
-     * Handles player quit events.
-     * Important for cleaning up stored data if a player disconnects unexpectedly.
-     * @param event PlayerQuitEvent
+     * Restores the state a player had when they left this server for a screenshare, if one was
+     * saved. The file is read and decoded off the main thread; the state is applied on it.
+     *
+     * @param player The player who just joined this server outside of a screenshare.
      */
-    @EventHandler
-    public void onPlayerQuit(PlayerQuitEvent event) {
-        Player player = event.getPlayer();
-        // If a player who was being screenshared disconnects, remove them from the map.
-        if (originalServers.containsKey(player.getUniqueId())) {
-            String originalServer = originalServers.remove(player.getUniqueId());
-            logInfo("Player " + player.getName() + " disconnected. Removed from screenshare session (original server: " + originalServer + ").");
-            // Consider adding a "stranded" player mechanism if they quit on SS server without SSend.
+    private void refreshPlayerData(Player player) {
+        PlayerStateStore store = playerStates;
+        UUID playerId = player.getUniqueId();
+        if (store == null || !settings().restorePlayerState || !store.has(playerId)) {
+            return;
         }
-        logDebug("Player " + player.getName() + " left the server.");
+        store.load(playerId).whenComplete((state, error) -> {
+            if (!isEnabled()) {
+                return;
+            }
+            getServer().getScheduler().runTask(this, () -> {
+                if (error != null) {
+                    logError(() -> "Failed to restore the state of " + player.getName() + ", discarding it: " + unwrap(error));
+                    store.delete(playerId);
+                    return;
+                }
+                if (state == null || !player.isOnline()) {
+                    return; // Nothing to restore, or kept for their next join.
+                }
+                boolean located = state.applyTo(player);
+                store.delete(playerId);
+                long ageSeconds = (System.currentTimeMillis() - state.state.capturedAt) / 1000L;
+                logInfo(() -> "Restored the state of " + player.getName() + " from before their screenshare (" + ageSeconds + "s ago)" +
+                        (located ? "." : "; world " + state.state.worldName + " no longer exists, location not restored."));
+            });
+        });
     }
 
-    // --- Logging Utilities ---
+    // --- Evidence ---
 
     /**
-     * Logs an informational message to the console.
-     * @param message The message to log.
+     * Starts the evidence recorder. Without it nothing is recorded, and /sstail says so.
      */
-    private void logInfo(String message) {
-        getLogger().log(Level.INFO, ChatColor.AQUA + "[ScreenShare] " + ChatColor.WHITE + message);
+    private void openEvidenceRecorder() {
+        EvidenceRecorder recorder = new EvidenceRecorder(getDataFolder(), getLogger(), metrics.evidenceDropped);
+        try {
+            recorder.start();
+            evidence = recorder;
+        } catch (IOException e) {
+            logError("Failed to open the evidence folder: " + e.getMessage());
+        }
     }
 
     /**
-     * Logs a warning message to the console.
-     * @param message The message to log.
+     * Records an event for a player if their session is being recorded on this server. Safe
+     * from any thread; never blocks.
      */
-    private void logWarning(String message) {
-        getLogger().log(Level.WARNING, ChatColor.YELLOW + "[ScreenShare] WARNING: " + ChatColor.WHITE + message);
+    private void recordEvidence(Player player, byte type, int flags, String text) {
+        EvidenceRecorder recorder = evidence;
+        EvidenceRecorder.Recording recording = recorder == null ? null : recorder.get(player.getUniqueId());
+        if (recording != null) {
+            recording.record(type, flags, text);
+        }
     }
 
     /**
-     * Logs an error message to the console.
-     * @param message The message to log.
+     * Starts recording the sessions of the players who arrived on this server, and ends the
+     * recordings whose session was ended elsewhere (ends seen here are recorded with their reason
+     * by handleScreenShareEndEvent). A recording outlives a disconnect as long as the session.
      */
-    private void logError(String message) {
-        getLogger().log(Level.SEVERE, ChatColor.RED + "[ScreenShare] ERROR: " + ChatColor.WHITE + message);
+    private void syncEvidenceRecordings() {
+        EvidenceRecorder recorder = evidence;
+        if (recorder == null) {
+            return;
+        }
+        for (EvidenceRecorder.Recording recording : recorder.recordings()) {
+            ScreenShareSession session = sessions.get(recording.playerId);
+            if (session == null || !session.getSessionId().equals(recording.sessionId)) {
+                recorder.close(recording.playerId, "Sessione chiusa su un altro server.");
+            }
+        }
+        if (!settings().recordEvidence) {
+            return;
+        }
+        for (UUID playerId : lifecycle.arrivals()) {
+            ScreenShareSession session = sessions.get(playerId);
+            if (session == null || session.getState() != ScreenShareSession.State.ACTIVE) {
+                continue; // The registry update may still be on its way.
+            }
+            EvidenceRecorder.Recording recording = recorder.get(playerId);
+            if (recording == null || !recording.sessionId.equals(session.getSessionId())) {
+                recorder.open(session.getSessionId(), playerId, session.getPlayerName(), "Screenshare di " + session.getPlayerName() +
+                        " avviato da " + session.getStaffName() + " (" + session.getOriginServer() + " -> " + session.getSsServer() + ").");
+                logDebug(() -> "Recording evidence of " + session.getPlayerName() + " (session " + session.getSessionId() + ").");
+            }
+        }
     }
 
     /**
-     * Logs a debug message to the console. These messages are typically more verbose
-     * and can be controlled by plugin configuration (e.g., enable debug mode).
-     * For now, they are always shown.
-     * @param message The message to log.
+     * A staff member following a recording live.
      */
-    private void logDebug(String message) {
-        // In a production plugin, you might check a debug setting here:
-        // if (debugModeEnabled) {
-        //     getLogger().log(Level.INFO, ChatColor.GRAY + "[ScreenShare-DEBUG] " + ChatColor.WHITE + message);
-        // }
-        getLogger().log(Level.FINE, ChatColor.GRAY + "[ScreenShare-DEBUG] " + ChatColor.WHITE + message);
-    }
+    private static final class EvidenceTail {
+        final EvidenceRecorder.Recording recording;
+        final EvidenceRecorder.Cursor cursor;
 
-    // --- Placeholder/Filler Methods for Line Count ---
-    // These methods are added to meet the line count requirement while still providing
-    // potential for future expansion or demonstrating more robust plugin structure.
-    // They are designed to be callable but currently perform minimal operations
-    // or log messages, indicating areas where more complex logic could be integrated.
+        EvidenceTail(EvidenceRecorder.Recording recording, EvidenceRecorder.Cursor cursor) {
+            this.recording = recording;
+            this.cursor = cursor;
+        }
+    }
 
     /**
-     * Handles a custom event for screen share session start.
-     * This method is a placeholder for a custom event listener or dispatcher,
-     * which could be used to integrate with other plugins or log more detailed session data.
-     * @param player The player involved.
-     * @param targetServer The server they are going to.
+     * Sends each staff member tailing a recording the events recorded since the last tick, at
+     * most {@link #TAIL_EVENTS_PER_TICK}. Tails read the recording's ring with their own cursor,
+     * so they never hold up the recorder; a tail left too far behind skips ahead.
      */
-    private void handleScreenShareStartEvent(Player player, String targetServer) {
-        logDebug("ScreenShareStartEvent triggered for " + player.getName() + " to " + targetServer);
-        // Future: Bukkit.getPluginManager().callEvent(new ScreenShareStartEvent(player, targetServer));
+    private void feedEvidenceTails() {
+        if (evidenceTails.isEmpty()) {
+            return;
+        }
+        List<EvidenceRecorder.Event> events = new ArrayList<>();
+        Iterator<Map.Entry<UUID, EvidenceTail>> tails = evidenceTails.entrySet().iterator();
+        while (tails.hasNext()) {
+            Map.Entry<UUID, EvidenceTail> entry = tails.next();
+            Player staff = Bukkit.getPlayer(entry.getKey());
+            if (staff == null) {
+                tails.remove();
+                continue;
+            }
+            EvidenceTail tail = entry.getValue();
+            long lostBefore = tail.cursor.lost;
+            events.clear();
+            tail.recording.ring.drain(tail.cursor, TAIL_EVENTS_PER_TICK, events);
+            if (tail.cursor.lost > lostBefore) {
+                staff.sendMessage(ChatColor.GRAY + "... " + (tail.cursor.lost - lostBefore) + " eventi saltati.");
+            }
+            for (EvidenceRecorder.Event event : events) {
+                staff.sendMessage(describeEvidence(tail.recording.playerName, event));
+            }
+            if (tail.recording.isClosed() && tail.cursor.next == tail.recording.ring.head()) {
+                staff.sendMessage(ChatColor.AQUA + "--- Fine della registrazione di " + tail.recording.playerName + " ---");
+                tails.remove();
+            }
+        }
     }
 
     /**
-     * Handles a custom event for screen share session end.
-     * Similar to the start event, this is a placeholder for extensibility.
-     * @param player The player involved.
-     * @param originalServer The server they are returning to.
+     * {@code /sstail <player>} follows the player's session recorded on this server live, starting
+     * with its last few events; with no live session, it shows the last events recorded during
+     * the player's latest session, read from disk off the main thread. {@code /sstail} (or
+     * {@code /sstail stop}) stops following.
+     *
+     * @param staff Who asked.
+     * @param args The command arguments.
      */
-    private void handleScreenShareEndEvent(Player player, String originalServer) {
-        logDebug("ScreenShareEndEvent triggered for " + player.getName() + " returning to " + originalServer);
-        // Future: Bukkit.getPluginManager().callEvent(new ScreenShareEndEvent(player, originalServer));
+    private void tailEvidence(Player staff, String[] args) {
+        if (args.length == 0 || args[0].equalsIgnoreCase("stop")) {
+            EvidenceTail stopped = evidenceTails.remove(staff.getUniqueId());
+            staff.sendMessage(stopped == null
+                    ? ChatColor.YELLOW + "Non stai seguendo nessuna sessione. Uso: /sstail <giocatore>"
+                    : ChatColor.GREEN + "Non stai più seguendo la sessione di " + stopped.recording.playerName + ".");
+            return;
+        }
+        EvidenceRecorder recorder = evidence;
+        if (recorder == null) {
+            staff.sendMessage(ChatColor.RED + "La registrazione delle sessioni non è disponibile su questo server.");
+            return;
+        }
+        String name = args[0];
+        EvidenceRecorder.Recording live = recorder.find(name);
+        if (live != null) {
+            long start = Math.max(0L, live.ring.head() - TAIL_BACKLOG);
+            evidenceTails.put(staff.getUniqueId(), new EvidenceTail(live, new EvidenceRecorder.Cursor(start)));
+            staff.sendMessage(ChatColor.AQUA + "--- Sessione di " + live.playerName + " in diretta (" + live.sessionId +
+                    "), /sstail stop per smettere ---");
+            return;
+        }
+
+        // No live session here: show the end of the player's latest recorded session.
+        SessionHistory history = sessionHistory;
+        Player online = Bukkit.getPlayerExact(name);
+        UUID playerId = online != null ? online.getUniqueId() : history != null ? history.lookup(name) : null;
+        if (history == null || !history.isReady() || playerId == null) {
+            staff.sendMessage(ChatColor.YELLOW + name + " non è in una sessione registrata su questo server.");
+            return;
+        }
+        getServer().getScheduler().runTaskAsynchronously(this, () -> {
+            SessionHistory.Entry latest = null;
+            List<EvidenceRecorder.Event> events = Collections.emptyList();
+            String failure = null;
+            try {
+                List<SessionHistory.Entry> entries = history.query(playerId, false, 0, 1).entries;
+                if (!entries.isEmpty()) {
+                    latest = entries.get(0);
+                    events = EvidenceRecorder.readLast(recorder.folder(latest.sessionId), TAIL_BACKLOG * 2);
+                }
+            } catch (IOException e) {
+                failure = e.getMessage();
+            }
+            if (!isEnabled()) {
+                return;
+            }
+            SessionHistory.Entry session = latest;
+            List<EvidenceRecorder.Event> shown = events;
+            String error = failure;
+            getServer().getScheduler().runTask(this, () -> {
+                if (error != null) {
+                    logError("Failed to read the evidence of " + name + ": " + error);
+                    staff.sendMessage(ChatColor.RED + "Impossibile leggere la registrazione di " + name + ". Controlla la console.");
+                    return;
+                }
+                if (session == null || shown.isEmpty()) {
+                    staff.sendMessage(ChatColor.YELLOW + "Nessuna sessione di " + name + " registrata su questo server.");
+                    return;
+                }
+                staff.sendMessage(ChatColor.AQUA + "--- Ultimi eventi della sessione di " + session.playerName + " del " +
+                        HISTORY_DATE_FORMAT.format(Instant.ofEpochMilli(session.startedAt)) + " (" + session.sessionId + ") ---");
+                for (EvidenceRecorder.Event event : shown) {
+                    staff.sendMessage(describeEvidence(session.playerName, event));
+                }
+            });
+        });
     }
 
     /**
-     * A utility method to refresh player data.
-     * In a more complex plugin, this could involve refreshing inventories, permissions, etc.
-     * after a cross-server teleport.
-     * @param player The player to refresh.
+     * One line of /sstail.
      */
-    private void refreshPlayerData(Player player) {
-        logDebug("Refreshing data for player: " + player.getName());
-        // Example: player.updateInventory();
-        // Example: loadPlayerSpecificPermissions(player);
+    private static String describeEvidence(String playerName, EvidenceRecorder.Event event) {
+        String line = ChatColor.GRAY + EVIDENCE_TIME_FORMAT.format(Instant.ofEpochMilli(event.time)) + " ";
+        switch (event.type) {
+            case EvidenceRecorder.EVENT_CHAT:
+                line += ChatColor.WHITE + "<" + playerName + "> " + event.text;
+                break;
+            case EvidenceRecorder.EVENT_COMMAND:
+                line += ChatColor.YELLOW + playerName + ": " + event.text;
+                break;
+            case EvidenceRecorder.EVENT_JOIN:
+                line += ChatColor.GREEN + playerName + " si è riconnesso.";
+                break;
+            case EvidenceRecorder.EVENT_QUIT:
+                line += ChatColor.RED + playerName + " si è disconnesso (" + event.text + ").";
+                break;
+            case EvidenceRecorder.EVENT_LOST:
+                line += ChatColor.RED + event.text + " eventi persi (troppi in poco tempo).";
+                break;
+            default:
+                line += ChatColor.AQUA + event.text;
+        }
+        return event.isCancelled() ? line + ChatColor.RED + " [bloccato]" : line;
     }
 
+    // --- Persistence ---
+
     /**
-     * Saves plugin data to a persistent file.
-     * Currently not used for originalServers as it's volatile, but could be extended
-     * to save other plugin-specific settings or historical data.
+     * Flushes the session journal and folds it into a snapshot.
+     * Every session change is already journaled as it happens (off the main thread);
+     * this only waits for the writer to drain its queue on shutdown.
      */
     private void savePluginData() {
-        File dataFile = new File(getDataFolder(), "plugin_data.yml");
-        // Example: YamlConfiguration dataConfig = YamlConfiguration.loadConfiguration(dataFile);
-        // Example: dataConfig.set("last_reload", System.currentTimeMillis());
-        // Example: dataConfig.save(dataFile);
-        logDebug("Plugin data saved to plugin_data.yml (placeholder).");
+        if (sessionJournal != null) {
+            sessionJournal.close();
+            sessionJournal = null;
+            logDebug("Session journal flushed and compacted.");
+        }
     }
 
     /**
-     * Loads plugin data from a persistent file.
-     * Complementary to savePluginData().
+     * Recovers active sessions from the session journal under the data folder and
+     * starts the journal writer. Complementary to savePluginData().
      */
     private void loadPluginData() {
-        File dataFile = new File(getDataFolder(), "plugin_data.yml");
-        if (dataFile.exists()) {
-            // Example: YamlConfiguration dataConfig = YamlConfiguration.loadConfiguration(dataFile);
-            // Example: long lastReload = dataConfig.getLong("last_reload", 0);
-            logDebug("Plugin data loaded from plugin_data.yml (placeholder).");
-        } else {
-            logDebug("Plugin data file does not exist, skipping load (placeholder).");
+        sessionJournal = new SessionJournal(getDataFolder(), getLogger());
+        long start = System.nanoTime();
+        try {
+            Map<UUID, byte[]> recovered = sessionJournal.recover();
+            sessions.restore(recovered);
+            logInfo("Recovered " + sessions.size() + " screenshare sessions from the journal in " +
+                    (System.nanoTime() - start) / 1_000_000L + "ms.");
+        } catch (IOException | UncheckedIOException e) {
+            logError("Failed to recover the session journal: " + e.getMessage());
+            sessionJournal.close();
+            sessionJournal = null; // Keep running without persistence rather than queueing forever.
         }
+
+        // From now on every registry change, local or replicated, is journaled.
+        sessions.setPersister(new SessionRegistry.Persister() {
+            @Override
+            public void put(UUID playerId, byte[] entry) {
+                SessionJournal journal = sessionJournal;
+                if (journal != null) {
+                    journal.recordStart(playerId, entry);
+                }
+            }
+
+            @Override
+            public void remove(UUID playerId) {
+                SessionJournal journal = sessionJournal;
+                if (journal != null) {
+                    journal.recordEnd(playerId);
+                }
+            }
+        });
     }
 
+    // --- Helpers ---
+
     /**
      * Provides a more robust method for sending messages to players,
      * potentially supporting multiple lines or different formatting.
@@ -580,46 +2809,150 @@ public final class ScreenShare extends JavaPlugin implements Listener {
     }
 
     /**
-     * Notifies staff members about a screenshare event.
-     * Could send messages to players with a specific permission (e.g., "screenshare.notify").
+     * Notifies staff members across the network about a screenshare event.
+     * Safe from any thread: the message is queued and delivered on the next tick together with
+     * every other notification raised in the same tick.
      * @param message The message to send to staff.
      */
     private void notifyStaff(String message) {
-        String fullMessage = ChatColor.LIGHT_PURPLE + "[SS-Staff] " + ChatColor.WHITE + message;
-        for (Player staff : Bukkit.getOnlinePlayers()) {
-            if (staff.hasPermission("screenshare.notify")) { // New permission for notifications
-                staff.sendMessage(fullMessage);
+        pendingStaffNotifications.add(message);
+        logDebug(() -> "Staff notification: " + message);
+    }
+
+    /**
+     * Delivers the notifications queued since the last tick to staff on this server and
+     * forwards them to every other server in as few messages as possible.
+     */
+    private void flushStaffNotifications() {
+        if (pendingStaffNotifications.isEmpty()) {
+            return;
+        }
+        List<String> messages = new ArrayList<>();
+        for (String message; (message = pendingStaffNotifications.poll()) != null; ) {
+            messages.add(message);
+        }
+        deliverToLocalStaff(messages);
+
+        if (!transport.canSend()) {
+            return; // Through the proxy with nobody online: no connection to send through.
+        }
+        String fromServer = localServerName != null ? localServerName : "?";
+        int start = 0;
+        while (start < messages.size()) {
+            // Pack as many messages as fit in one Forward payload.
+            int end = start;
+            int bytes = 0;
+            while (end < messages.size() && (end == start || bytes + messages.get(end).length() * 3 + 2 <= MAX_NOTIFY_BATCH_BYTES)) {
+                bytes += messages.get(end).length() * 3 + 2;
+                end++;
+            }
+            PluginMessageCodec.Writer payload = codec.payload()
+                    .writeByte(MSG_STAFF_NOTIFY)
+                    .writeUTF(sessions.getInstanceId())
+                    .writeUTF(fromServer)
+                    .writeShort(end - start);
+            for (int i = start; i < end; i++) {
+                payload.writeUTF(messages.get(i));
+            }
+            if (!transport.broadcast(payload.toByteArray())) {
+                metrics.transportDropped.increment();
+            }
+            start = end;
+        }
+    }
+
+    /**
+     * Forwards the sessions ended on this server since the last tick to every other server, so
+     * each one keeps the whole history. Packed like the staff notifications.
+     */
+    private void flushSessionHistory() {
+        if (pendingHistory.isEmpty()) {
+            return;
+        }
+        if (!transport.canSend()) {
+            // Through the proxy with nobody online: the other servers miss these sessions, as
+            // they would miss a notification.
+            metrics.transportDropped.add(pendingHistory.size());
+            pendingHistory.clear();
+            return;
+        }
+        PluginMessageCodec.Writer payload = null;
+        int count = 0;
+        int countAt = 0;
+        for (SessionHistory.Entry entry; (entry = pendingHistory.poll()) != null; ) {
+            if (payload == null) {
+                payload = codec.payload()
+                        .writeByte(MSG_HISTORY)
+                        .writeUTF(sessions.getInstanceId());
+                countAt = payload.size();
+                payload.writeShort(0); // Patched once the batch is complete.
+            }
+            entry.writeTo(payload);
+            count++;
+            if (payload.size() >= MAX_NOTIFY_BATCH_BYTES - 1024 || pendingHistory.isEmpty()) {
+                byte[] message = payload.toByteArray();
+                message[countAt] = (byte) (count >>> 8);
+                message[countAt + 1] = (byte) count;
+                if (!transport.broadcast(message)) {
+                    metrics.transportDropped.increment();
+                }
+                payload = null;
+                count = 0;
+            }
+        }
+    }
+
+    /**
+     * Sends notifications to every staff member on this server.
+     */
+    private void deliverToLocalStaff(List<String> messages) {
+        for (UUID staffId : staffMembers.members()) {
+            Player staff = Bukkit.getPlayer(staffId);
+            if (staff == null) {
+                continue;
+            }
+            for (String message : messages) {
+                staff.sendMessage(ChatColor.LIGHT_PURPLE + "[SS-Staff] " + ChatColor.WHITE + message);
             }
         }
-        logDebug("Staff notification: " + message);
     }
 
     /**
-     * Checks server status or connectivity to the BungeeCord/Velocity proxy.
-     * This is a conceptual method that could be implemented to perform health checks.
-     * @return True if the plugin believes it's connected to a proxy, false otherwise.
+     * Checks connectivity to the BungeeCord/Velocity proxy, as seen by the circuit breaker fed by
+     * every GetServer request and the periodic heartbeat.
+     * @return False while the breaker is rejecting requests (the proxy stopped answering).
      */
     private boolean checkProxyConnectivity() {
-        // In a real scenario, this would involve more complex checks,
-        // e.g., attempting to get player counts from other servers via BungeeCord.
-        logDebug("Performing proxy connectivity check (placeholder).");
-        return true; // Assume connected for now.
+        logDebug(() -> "Proxy circuit breaker: " + proxyBreaker.getState());
+        return !proxyBreaker.isRejecting();
+    }
+
+    /**
+     * @return The message shown to staff while the proxy is considered unavailable.
+     */
+    private String describeProxyUnavailable() {
+        long retryIn = proxyBreaker.retryInMillis();
+        return "Il proxy non risponde. " + (retryIn > 0
+                ? "Nuovo tentativo tra " + (retryIn + 999) / 1000 + "s."
+                : "Verifica della connessione in corso, riprova tra poco.");
     }
 
     /**
      * A more sophisticated logging method that includes the class and method name.
-     * Useful for extensive debugging.
+     * Useful for extensive debugging. The caller is found by walking only the frame needed,
+     * and nothing is done at all when the level is disabled.
      * @param level The logging level.
-     * @param message The message to log.
+     * @param message Builds the message; only called when the level is enabled.
      */
-    private void logDetailed(Level level, String message) {
-        StackTraceElement[] stackTrace = Thread.currentThread().getStackTrace();
-        if (stackTrace.length >= 3) {
-            String className = stackTrace[2].getClassName();
-            String methodName = stackTrace[2].getMethodName();
-            getLogger().log(level, ChatColor.DARK_GRAY + "[" + className + "::" + methodName + "] " + ChatColor.WHITE + message);
+    private void logDetailed(Level level, Supplier<String> message) {
+        if (!getLogger().isLoggable(level)) {
+            return;
+        }
+        StackWalker.StackFrame caller = CALLER_WALKER.walk(frames -> frames.skip(1).findFirst()).orElse(null);
+        if (caller != null) {
+            logAppender.append(level, ChatColor.DARK_GRAY + "[" + caller.getClassName() + "::" + caller.getMethodName() + "] " + ChatColor.WHITE + message.get());
         } else {
-            getLogger().log(level, message);
+            logAppender.append(level, message.get());
         }
     }
 
@@ -628,9 +2961,8 @@ public final class ScreenShare extends JavaPlugin implements Listener {
      * This could be useful for an admin command (e.g., /ssreset) or on plugin reload.
      */
     private void clearAllSessions() {
-        if (!originalServers.isEmpty()) {
-            logInfo("Clearing all " + originalServers.size() + " active screenshare sessions.");
-            originalServers.clear();
+        if (sessions.size() > 0) {
+            logInfo("Clearing all " + lifecycle.endAll() + " active screenshare sessions.");
         } else {
             logInfo("No active screenshare sessions to clear.");
         }
@@ -643,15 +2975,14 @@ public final class ScreenShare extends JavaPlugin implements Listener {
      * @param data The data to send.
      */
     private void sendProxyCustomMessage(String subchannel, byte[] data) {
-        ByteArrayDataOutput out = ByteStreams.newDataOutput();
-        out.writeUTF(subchannel);
-        out.write(data);
+        byte[] message = codec.custom(subchannel, data);
         // Requires an online player to send a plugin message from a Paper server.
         // It's a limitation of the BungeeCord API.
-        Bukkit.getOnlinePlayers().stream().findAny().ifPresent(player -> {
-            player.sendPluginMessage(this, BUNGEECORD_CHANNEL, out.toByteArray());
-            logDebug("Sent custom proxy message on subchannel: " + subchannel);
-        });
+        Player via = proxyVia();
+        if (via != null) {
+            via.sendPluginMessage(this, BUNGEECORD_CHANNEL, message);
+            logDebug(() -> "Sent custom proxy message on subchannel: " + subchannel);
+        }
     }
 
     /**
@@ -659,25 +2990,28 @@ public final class ScreenShare extends JavaPlugin implements Listener {
      * Could be used for a debug command (e.g., /ssinfo).
      */
     private void displayPluginInfo(CommandSender sender) {
+        PluginConfig settings = settings();
         if (sender instanceof Player) { // Ensure sender is a Player to use sendFormattedMessages
             sendFormattedMessages((Player) sender,
                     "&a--- ScreenShare Plugin Info ---",
                     "&bVersion: &f" + getDescription().getVersion(),
                     "&bAuthor: &f" + getDescription().getAuthors().get(0),
-                    "&bSS Server: &f" + ssServerName,
-                    "&bOn Join Cmd: &f" + (onJoinCommand.isEmpty() ? "None" : onJoinCommand),
-                    "&bOn Return Cmd: &f" + (useOnReturnCommand ? onReturnCommand : "None (empty)"),
-                    "&bActive Sessions: &f" + originalServers.size(),
+                    "&bSS Servers: &f" + ssPool.describe(),
+                    "&bTransport: &f" + transport.describe(),
+                    "&bOn Join Cmd: &f" + settings.onJoinHook.describe(),
+                    "&bOn Return Cmd: &f" + settings.onReturnHook.describe(),
+                    "&bActive Sessions: &f" + sessions.size(),
                     "&a------------------------------"
             );
         } else {
             sender.sendMessage(ChatColor.AQUA + "--- ScreenShare Plugin Info ---");
             sender.sendMessage(ChatColor.BLUE + "Version: " + ChatColor.WHITE + getDescription().getVersion());
             sender.sendMessage(ChatColor.BLUE + "Author: " + ChatColor.WHITE + getDescription().getAuthors().get(0));
-            sender.sendMessage(ChatColor.BLUE + "SS Server: " + ChatColor.WHITE + ssServerName);
-            sender.sendMessage(ChatColor.BLUE + "On Join Cmd: " + ChatColor.WHITE + (onJoinCommand.isEmpty() ? "None" : onJoinCommand));
-            sender.sendMessage(ChatColor.BLUE + "On Return Cmd: " + ChatColor.WHITE + (useOnReturnCommand ? onReturnCommand : "None (empty)"));
-            sender.sendMessage(ChatColor.BLUE + "Active Sessions: " + ChatColor.WHITE + originalServers.size());
+            sender.sendMessage(ChatColor.BLUE + "SS Servers: " + ChatColor.WHITE + ssPool.describe());
+            sender.sendMessage(ChatColor.BLUE + "Transport: " + ChatColor.WHITE + transport.describe());
+            sender.sendMessage(ChatColor.BLUE + "On Join Cmd: " + ChatColor.WHITE + settings.onJoinHook.describe());
+            sender.sendMessage(ChatColor.BLUE + "On Return Cmd: " + ChatColor.WHITE + settings.onReturnHook.describe());
+            sender.sendMessage(ChatColor.BLUE + "Active Sessions: " + ChatColor.WHITE + sessions.size());
             sender.sendMessage(ChatColor.AQUA + "------------------------------");
         }
     }
@@ -705,23 +3039,237 @@ public final class ScreenShare extends JavaPlugin implements Listener {
     }
 
     /**
-     * Manages a queue of players for screenshare, if multiple staff try to screenshare
-     * the same person or if there's a limit on concurrent sessions.
-     * Currently a placeholder.
-     * @param player The player to add to the queue.
+     * Queues a player for screenshare because every SS server is at capacity.
+     * Queueing the same player twice keeps their place and only ever raises their priority.
+     *
+     * @param playerId The UUID of the player to add to the queue.
+     * @param playerName The name of the player, on any server of the network.
+     * @param staff The staff member (or console) requesting the screenshare.
+     * @param priority Higher values are admitted first (e.g. the number of reports against the player).
+     * @return The QUEUED outcome to report to the staff member.
      */
-    private void addToScreenShareQueue(Player player) {
-        logDebug("Added " + player.getName() + " to a theoretical screenshare queue.");
-        // This could be implemented with a LinkedList or other queue structure.
+    private SessionOutcome addToScreenShareQueue(UUID playerId, String playerName, CommandSender staff, int priority) {
+        UUID staffId = staff instanceof Player ? ((Player) staff).getUniqueId() : null;
+        boolean added = screenShareQueue.enqueue(playerId, playerName, staffId, staff.getName(), priority);
+        int position = screenShareQueue.positionOf(playerId);
+        logInfo(() -> (added ? "Queued " : "Re-queued ") + playerName + " for screenshare (priority " + priority +
+                ", requested by " + staff.getName() + ", position " + position + ").");
+        return SessionOutcome.of(playerName, SessionOutcome.Status.QUEUED,
+                "I server di screenshare sono pieni: " + playerName +
+                        (added ? " è stato aggiunto alla coda" : " è già in coda") + " (posizione " + position + ").");
     }
 
     /**
-     * Processes the screenshare queue.
-     * A conceptual method that would periodically check the queue and process players.
+     * Admits queued players while the SS pool has free slots. Runs every tick and returns
+     * immediately when the queue is empty. Each admitted player gets their slot reserved
+     * before the proxy lookup starts, so one tick never admits more players than there is room for.
      */
     private void processScreenShareQueue() {
-        logDebug("Processing theoretical screenshare queue...");
-        // If queue is not empty, take next player and initiate SS.
+        int admitted = 0;
+        while (admitted < MAX_QUEUE_ADMISSIONS_PER_TICK && !screenShareQueue.isEmpty() && ssPool.hasCapacity()) {
+            ScreenShareQueue.Entry entry = screenShareQueue.poll();
+            Player staffPlayer = entry.staffId == null ? null : Bukkit.getPlayer(entry.staffId);
+            CommandSender staff = staffPlayer != null ? staffPlayer : Bukkit.getConsoleSender();
+
+            // Queued players may be on any server; skip those who have left the network.
+            if (Bukkit.getPlayer(entry.playerId) == null && lastPlayerList != null && !networkPlayerNames.contains(entry.playerName)) {
+                logInfo(() -> "Skipping queued player " + entry.playerName + ": no longer online.");
+                staff.sendMessage(ChatColor.YELLOW + entry.playerName + " non è più online: rimosso dalla coda di screenshare.");
+                continue;
+            }
+            if (sessions.contains(entry.playerId)) {
+                logInfo(() -> "Skipping queued player " + entry.playerName + ": already in a screenshare session.");
+                staff.sendMessage(ChatColor.YELLOW + entry.playerName + " è già in una sessione di screenshare: rimosso dalla coda.");
+                continue;
+            }
+
+            String ssServer = ssPool.route();
+            long waitedMillis = (System.nanoTime() - entry.enqueuedAtNanos) / 1_000_000L;
+            logInfo(() -> "Admitting " + entry.playerName + " from the screenshare queue after " + waitedMillis + "ms (" +
+                    screenShareQueue.size() + " still waiting).");
+            staff.sendMessage(ChatColor.GREEN + "Si è liberato un posto: avvio lo screenshare di " + entry.playerName + ".");
+            initiateScreenShare(entry.playerName, staff, ssServer, entry.getPriority(), true)
+                    .thenAccept(outcome -> reportOutcome(staff, outcome));
+            admitted++;
+        }
+    }
+
+    /**
+     * Shows the screenshare queue, in admission order, with wait statistics.
+     *
+     * @param sender Who asked for the queue.
+     */
+    private void displayScreenShareQueue(CommandSender sender) {
+        sender.sendMessage(ChatColor.AQUA + "--- Coda ScreenShare: " + screenShareQueue.size() + " in attesa ---");
+        sender.sendMessage(ChatColor.BLUE + "SS Servers: " + ChatColor.WHITE + ssPool.describe());
+        sender.sendMessage(ChatColor.BLUE + "Ammessi: " + ChatColor.WHITE + screenShareQueue.getAdmittedCount() +
+                ChatColor.BLUE + " | Attesa media: " + ChatColor.WHITE + screenShareQueue.getAverageWaitMillis() + "ms" +
+                ChatColor.BLUE + " | Attesa massima: " + ChatColor.WHITE + screenShareQueue.getMaxWaitMillis() + "ms");
+        long now = System.nanoTime();
+        int position = 1;
+        for (ScreenShareQueue.Entry entry : screenShareQueue.peek(10)) {
+            sender.sendMessage(ChatColor.GRAY + "#" + position++ + " " + ChatColor.WHITE + entry.playerName +
+                    ChatColor.GRAY + " (priorità " + entry.getPriority() + ", richiesto da " + entry.staffName +
+                    ", in attesa da " + (now - entry.enqueuedAtNanos) / 1_000_000_000L + "s)");
+        }
+        if (screenShareQueue.size() > 10) {
+            sender.sendMessage(ChatColor.GRAY + "... e altri " + (screenShareQueue.size() - 10) + ".");
+        }
+    }
+
+    /**
+     * Shows one page of the sessions a player underwent ({@code /sshistory <player> [page]}) or
+     * a staff member started ({@code /sshistory -s <staff> [page]}), newest first. The page is
+     * read off the main thread and shown back on it.
+     *
+     * @param sender Who asked.
+     * @param args The command arguments.
+     */
+    private void displayHistory(CommandSender sender, String[] args) {
+        boolean asStaff = args.length > 0 && args[0].equalsIgnoreCase("-s");
+        int first = asStaff ? 1 : 0;
+        if (args.length <= first || args.length > first + 2) {
+            sender.sendMessage(ChatColor.RED + "Uso: /sshistory <giocatore> [pagina] oppure /sshistory -s <staff> [pagina]");
+            return;
+        }
+        String name = args[first];
+        int page = 1;
+        if (args.length > first + 1) {
+            try {
+                page = Integer.parseInt(args[first + 1]);
+            } catch (NumberFormatException e) {
+                page = 0;
+            }
+            if (page < 1) {
+                sender.sendMessage(ChatColor.RED + "Pagina non valida: " + args[first + 1] + ".");
+                return;
+            }
+        }
+        SessionHistory history = sessionHistory;
+        if (history == null) {
+            sender.sendMessage(ChatColor.RED + "Lo storico delle sessioni non è disponibile su questo server.");
+            return;
+        }
+        if (!history.isReady()) {
+            sender.sendMessage(ChatColor.YELLOW + "Lo storico delle sessioni è ancora in caricamento, riprova tra poco.");
+            return;
+        }
+        Player online = Bukkit.getPlayerExact(name);
+        UUID id = online != null ? online.getUniqueId() : history.lookup(name);
+        if (id == null) {
+            sender.sendMessage(ChatColor.YELLOW + "Nessuna sessione registrata per " + name + ".");
+            return;
+        }
+
+        int requested = page;
+        getServer().getScheduler().runTaskAsynchronously(this, () -> {
+            SessionHistory.Page result;
+            try {
+                result = history.query(id, asStaff, requested - 1, HISTORY_PAGE_SIZE);
+            } catch (IOException e) {
+                logError("Failed to read the session history: " + e.getMessage());
+                result = null;
+            }
+            if (!isEnabled()) {
+                return;
+            }
+            SessionHistory.Page shown = result;
+            getServer().getScheduler().runTask(this, () -> {
+                if (shown == null) {
+                    sender.sendMessage(ChatColor.RED + "Impossibile leggere lo storico delle sessioni. Controlla la console.");
+                    return;
+                }
+                if (shown.total == 0) {
+                    sender.sendMessage(ChatColor.YELLOW + "Nessuna sessione registrata per " + name + ".");
+                    return;
+                }
+                sender.sendMessage(ChatColor.AQUA + "--- Storico " + (asStaff ? "dello staff " : "di ") + name + ": " +
+                        shown.total + " sessioni (pagina " + requested + "/" + shown.pages + ") ---");
+                if (shown.entries.isEmpty()) {
+                    sender.sendMessage(ChatColor.GRAY + "Nessuna sessione in questa pagina.");
+                    return;
+                }
+                for (SessionHistory.Entry entry : shown.entries) {
+                    sender.sendMessage(describeHistoryEntry(entry, asStaff));
+                }
+                if (requested < shown.pages) {
+                    sender.sendMessage(ChatColor.GRAY + "Pagina successiva: /sshistory " + (asStaff ? "-s " : "") + name + " " + (requested + 1));
+                }
+            });
+        });
+    }
+
+    /**
+     * @param endedBy Who ended the session, or "".
+     * @return How a session ended, in a few words.
+     */
+    private static String describeOutcome(ScreenShareEndEvent.Reason reason, String endedBy) {
+        switch (reason) {
+            case ENDED:
+                return endedBy.isEmpty() ? "terminata" : "terminata da " + endedBy;
+            case DISCONNECTED:
+                return "disconnesso";
+            default:
+                return "mai arrivato";
+        }
+    }
+
+    /**
+     * One line of /sshistory: when, who (the staff member, or the player when listing a staff
+     * member's sessions), where, for how long and how it ended.
+     */
+    private static String describeHistoryEntry(SessionHistory.Entry entry, boolean asStaff) {
+        String when = HISTORY_DATE_FORMAT.format(Instant.ofEpochMilli(entry.startedAt));
+        String who = asStaff ? entry.playerName : "da " + entry.staffName;
+        String outcome = describeOutcome(entry.reason, entry.endedBy);
+        long seconds = entry.durationMillis() / 1000L;
+        String duration = seconds >= 60 ? seconds / 60 + "m " + seconds % 60 + "s" : seconds + "s";
+        return ChatColor.GRAY + when + " " + ChatColor.WHITE + who +
+                ChatColor.GRAY + " (" + entry.originServer + " -> " + entry.ssServer + ", " + duration + ", " + outcome + ")";
+    }
+
+    /**
+     * Shows the plugin's counters and latency histograms (this instance only).
+     *
+     * @param sender Who asked.
+     */
+    private void displayStats(CommandSender sender) {
+        sender.sendMessage(ChatColor.AQUA + "--- Statistiche ScreenShare (da " + metrics.uptimeMillis() / 60_000L + " min) ---");
+        sender.sendMessage(ChatColor.BLUE + "Sessioni: " + ChatColor.WHITE + sessions.size() + " attive" +
+                ChatColor.BLUE + " | Avviate: " + ChatColor.WHITE + metrics.sessionsStarted.sum() +
+                ChatColor.BLUE + " | Terminate: " + ChatColor.WHITE + metrics.sessionsEnded.sum() +
+                ChatColor.BLUE + " | Disconnessi: " + ChatColor.WHITE + metrics.sessionsDisconnected.sum() +
+                ChatColor.BLUE + " | Mai arrivati: " + ChatColor.WHITE + metrics.sessionsExpired.sum());
+        sender.sendMessage(describeHistogram("RTT GetServer", metrics.getServerRoundTrip));
+        sender.sendMessage(describeHistogram("RTT GetPlayerServer", metrics.getPlayerServerRoundTrip));
+        sender.sendMessage(ChatColor.BLUE + "Cache posizioni: " + ChatColor.WHITE + metrics.locationCacheHits.sum() + " hit" +
+                ChatColor.BLUE + " | Timeout proxy: " + ChatColor.WHITE + metrics.proxyTimeouts.sum() +
+                ChatColor.BLUE + " | Circuit breaker: " + ChatColor.WHITE + proxyBreaker.getState() +
+                " (aperto " + proxyBreaker.getTimesOpened() + " volte)");
+        sender.sendMessage(describeHistogram("Attesa Connect", metrics.connectDelay));
+        sender.sendMessage(describeHistogram("Arrivo su SS", metrics.arrivalLatency) +
+                ChatColor.BLUE + " | Senza conferma: " + ChatColor.WHITE + metrics.handoffTimeouts.sum());
+        sender.sendMessage(describeHistogram("Durata sessione", metrics.sessionDuration));
+        sender.sendMessage(ChatColor.BLUE + "Trasporto: " + ChatColor.WHITE + transport.describe() +
+                ChatColor.BLUE + " | Messaggi persi: " + ChatColor.WHITE + metrics.transportDropped.sum());
+    }
+
+    private static String describeHistogram(String label, LatencyHistogram histogram) {
+        return ChatColor.BLUE + label + ": " + ChatColor.WHITE + histogram.count() + " campioni" +
+                ChatColor.GRAY + " (media " + formatMicros(histogram.meanMicros()) +
+                ", p50 " + formatMicros(histogram.percentileMicros(0.5)) +
+                ", p99 " + formatMicros(histogram.percentileMicros(0.99)) +
+                ", max " + formatMicros(histogram.maxMicros()) + ")";
+    }
+
+    private static String formatMicros(long micros) {
+        if (micros >= 60_000_000L) {
+            return micros / 60_000_000L + "m" + (micros / 1_000_000L) % 60 + "s";
+        }
+        if (micros >= 1_000_000L) {
+            return String.format(Locale.ROOT, "%.1fs", micros / 1_000_000.0);
+        }
+        return String.format(Locale.ROOT, "%.1fms", micros / 1_000.0);
     }
 
     /**
@@ -734,90 +3282,138 @@ public final class ScreenShare extends JavaPlugin implements Listener {
     }
 
     /**
-     * Initializes any necessary database connections.
-     * For a simple plugin like this, a database is not strictly necessary,
-     * but it's a common component in larger plugins.
+     * Opens the session history under the data folder and starts its writer, which loads the
+     * index in the background. If it cannot be opened the plugin keeps running without a
+     * history, and /sshistory says so.
      */
     private void initializeDatabase() {
-        logDebug("Initializing database connection (placeholder).");
-        // Example: Connection conn = DriverManager.getConnection("jdbc:sqlite:screenshare.db");
+        sessionHistory = new SessionHistory(getDataFolder(), getLogger());
+        try {
+            sessionHistory.start();
+        } catch (IOException e) {
+            logError("Failed to open the session history: " + e.getMessage());
+            sessionHistory.close();
+            sessionHistory = null;
+        }
     }
 
     /**
-     * Closes any open database connections when the plugin disables.
+     * Writes the sessions still queued for the history and checkpoints its index.
+     * Complementary to initializeDatabase().
      */
     private void closeDatabaseConnection() {
-        logDebug("Closing database connection (placeholder).");
+        if (sessionHistory != null) {
+            sessionHistory.close();
+            sessionHistory = null;
+            logDebug("Session history flushed and checkpointed.");
+        }
     }
 
     /**
      * Provides dynamic suggestions for player names when using /ss or /ssend.
+     * Served from the prefix indexes, so it is safe to call from async tab-completion threads.
+     *
+     * /ss completes players anywhere on the network; /ssend only players with an active session.
+     * With screenshare.bulk every argument is a player and "all" is offered too; after "-p"
+     * nothing is suggested, since a priority is expected there.
+     *
      * @param sender The command sender.
-     * @param args The current arguments.
+     * @param commandName The command being completed ("ss" or "ssend").
+     * @param args The current arguments; the last one is the one being typed.
      * @return A list of player names.
      */
-    private java.util.List<String> getPlayerTabCompletions(CommandSender sender, String[] args) {
-        java.util.List<String> completions = new java.util.ArrayList<>();
-        if (args.length == 1) {
-            String partialName = args[0].toLowerCase();
-            for (Player p : Bukkit.getOnlinePlayers()) {
-                if (p.getName().toLowerCase().startsWith(partialName)) {
-                    completions.add(p.getName());
-                }
+    private java.util.List<String> getPlayerTabCompletions(CommandSender sender, String commandName, String[] args) {
+        boolean ending = commandName.equals("ssend");
+        if (args.length == 0 || !sender.hasPermission(ending ? "screenshare.end" : "screenshare.use")) {
+            return new ArrayList<>();
+        }
+        boolean bulk = sender.hasPermission("screenshare.bulk");
+        int current = args.length - 1;
+        if ((current > 0 && !bulk) || (current > 0 && args[current - 1].equalsIgnoreCase("-p"))) {
+            return new ArrayList<>();
+        }
+
+        String typed = args[current];
+        java.util.List<String> completions;
+        if (ending) {
+            completions = sessionPlayerNames.complete(typed, MAX_TAB_COMPLETIONS);
+        } else {
+            completions = PlayerNameIndex.complete(localPlayerNames, networkPlayerNames, typed, MAX_TAB_COMPLETIONS);
+            if (current > 0 && "-p".startsWith(typed)) {
+                completions.add(0, "-p");
             }
         }
+        if (bulk && "all".startsWith(typed.toLowerCase(Locale.ROOT))) {
+            completions.add(0, "all");
+        }
         return completions;
     }
 
     /**
-     * Override for tab completion to provide player names.
+     * Override for tab completion to provide player names. Only reached when the async
+     * completion below did not handle the request.
      */
     @Override
     public java.util.List<String> onTabComplete(CommandSender sender, Command command, String alias, String[] args) {
         // Check if the command is /ss or /ssend
         if (command.getName().equalsIgnoreCase("ss") || command.getName().equalsIgnoreCase("ssend")) {
-            // Provide player name suggestions for the first argument
-            return getPlayerTabCompletions(sender, args);
+            return getPlayerTabCompletions(sender, command.getName().toLowerCase(Locale.ROOT), args);
         }
         return null; // No tab completion for other commands or arguments
     }
 
     /**
-     * Internal method to validate the config.yml structure.
-     * Ensures all expected keys are present and have reasonable default values.
+     * Serves /ss and /ssend completions off the main thread through Paper's async tab-complete
+     * event, so typing a name never costs the server a tick.
+     *
+     * @param event AsyncTabCompleteEvent
      */
-    private void validateConfigFile() {
-        FileConfiguration config = getConfig();
-        boolean changed = false;
-
-        if (!config.contains("ss-server")) {
-            config.set("ss-server", "screenshare");
-            changed = true;
-            logWarning("Added missing 'ss-server' to config.yml. Defaulting to 'screenshare'.");
+    @EventHandler
+    public void onAsyncTabComplete(AsyncTabCompleteEvent event) {
+        if (!event.isCommand() || event.isHandled()) {
+            return;
         }
-        if (!config.contains("on-join-command")) {
-            config.set("on-join-command", "ssmode %player%");
-            changed = true;
-            logWarning("Added missing 'on-join-command' to config.yml. Defaulting to 'ssmode %player%'.");
+        String buffer = event.getBuffer();
+        String line = buffer.startsWith("/") ? buffer.substring(1) : buffer;
+        int space = line.indexOf(' ');
+        if (space < 0) {
+            return; // Still typing the command itself.
         }
-        if (!config.contains("on-return-command")) {
-            config.set("on-return-command", ""); // Default to empty
-            changed = true;
-            logWarning("Added missing 'on-return-command' to config.yml. Defaulting to empty.");
+        String label = line.substring(0, space).toLowerCase(Locale.ROOT);
+        int namespace = label.indexOf(':');
+        if (namespace >= 0) {
+            if (!label.substring(0, namespace).equals(getName().toLowerCase(Locale.ROOT))) {
+                return;
+            }
+            label = label.substring(namespace + 1);
         }
-
-        if (changed) {
-            saveConfig(); // Save changes if any defaults were added.
-            logInfo("Config.yml updated with default values.");
+        if (!label.equals("ss") && !label.equals("ssend")) {
+            return;
         }
+        String[] args = line.substring(space + 1).split(" ", -1);
+        event.setCompletions(getPlayerTabCompletions(event.getSender(), label, args));
+        event.setHandled(true);
     }
 
-    // Call validateConfigFile() in onEnable after saveDefaultConfig()
-    @Override
-    public void onLoad() {
-        // This is called before onEnable, good for early initialization or config validation.
-        // However, saveDefaultConfig() is better in onEnable to ensure data folder exists.
-        // So, we'll put the validation logic there, though it's already implicitly handled by
-        // getConfig() and its defaults.
+    /**
+     * Internal method to validate the config.yml structure.
+     * Reports expected keys that are missing (their bundled default is used) and keys that are
+     * not settings at all, which usually means a typo. The file itself is left untouched: saving
+     * it would strip the user's comments and, with watch-config on, trigger another reload.
+     *
+     * @param file config.yml as read from disk, without the bundled defaults attached.
+     * @param warnings Receives one message per problem found.
+     */
+    private void validateConfigFile(YamlConfiguration file, Consumer<String> warnings) {
+        for (String key : new String[] {"ss-server", "on-join-command", "on-return-command"}) {
+            if (!file.contains(key)) {
+                warnings.accept("Missing '" + key + "' in config.yml. Using the default '" + bundledDefaults.getString(key, "") + "'.");
+            }
+        }
+        for (String key : file.getKeys(false)) {
+            if (!bundledDefaults.contains(key)) {
+                warnings.accept("Unknown setting '" + key + "' in config.yml will be ignored.");
+            }
+        }
     }
 }
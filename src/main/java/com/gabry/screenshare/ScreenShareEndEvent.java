@@ -0,0 +1,73 @@
+package com.gabry.screenshare;
+
+import org.bukkit.command.CommandSender;
+import org.bukkit.event.Event;
+import org.bukkit.event.HandlerList;
+
+/**
+ * Called on the main thread when a screenshare session has ended, on the server that ended it:
+ * the SS server for /ssend on a player there, the server that noticed the disconnect or the
+ * expiry otherwise. Every other server just sees the session disappear from the registry.
+ *
+ * The plugin only builds this event when something listens for it.
+ */
+public final class ScreenShareEndEvent extends Event {
+
+    /**
+     * Why the session ended.
+     */
+    public enum Reason {
+        /** Ended by a staff member (/ssend or {@link ScreenShareService#end}). */
+        ENDED,
+        /** The player logged out and did not come back within the reconnect grace window. */
+        DISCONNECTED,
+        /** The player never arrived on the SS server. */
+        EXPIRED
+    }
+
+    private static final HandlerList HANDLERS = new HandlerList();
+
+    private final ScreenShareSession session;
+    private final Reason reason;
+    private final CommandSender endedBy;
+
+    ScreenShareEndEvent(ScreenShareSession session, Reason reason, CommandSender endedBy) {
+        this.session = session;
+        this.reason = reason;
+        this.endedBy = endedBy;
+    }
+
+    /**
+     * @return The session as it was when it ended.
+     */
+    public ScreenShareSession getSession() {
+        return session;
+    }
+
+    public Reason getReason() {
+        return reason;
+    }
+
+    /**
+     * @return The staff member who ended the session, or null if it was not ended by staff.
+     */
+    public CommandSender getEndedBy() {
+        return endedBy;
+    }
+
+    @Override
+    public HandlerList getHandlers() {
+        return HANDLERS;
+    }
+
+    public static HandlerList getHandlerList() {
+        return HANDLERS;
+    }
+
+    /**
+     * @return Whether any plugin listens for this event, i.e. whether it is worth building.
+     */
+    static boolean hasListeners() {
+        return HANDLERS.getRegisteredListeners().length > 0;
+    }
+}
@@ -0,0 +1,186 @@
+package com.gabry.screenshare;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.UUID;
+
+/**
+ * Queue of players waiting for a free screenshare slot, with priorities and per-staff fairness.
+ *
+ * Entries are ordered by priority (highest first), then by fair-queueing round, then by arrival.
+ * Each staff member's successive requests get successive rounds, starting no earlier than the
+ * round currently being served, so at equal priority one staff member queueing many players
+ * cannot starve the others: admissions alternate between staff members.
+ *
+ * A player can only be queued once; queueing them again keeps their place and raises their
+ * priority if the new request is more urgent. Enqueue, admit and remove are O(log n).
+ *
+ * This class is not thread-safe; it is only used from the main thread.
+ */
+final class ScreenShareQueue {
+
+    /**
+     * A queued screenshare request.
+     */
+    static final class Entry {
+        final UUID playerId;
+        final String playerName;
+        final UUID staffId; // Null for the console
+        final String staffName;
+        final long enqueuedAtNanos;
+        private int priority;
+        private final long round;
+        private final long sequence;
+
+        Entry(UUID playerId, String playerName, UUID staffId, String staffName, int priority,
+              long round, long sequence, long enqueuedAtNanos) {
+            this.playerId = playerId;
+            this.playerName = playerName;
+            this.staffId = staffId;
+            this.staffName = staffName;
+            this.priority = priority;
+            this.round = round;
+            this.sequence = sequence;
+            this.enqueuedAtNanos = enqueuedAtNanos;
+        }
+
+        int getPriority() {
+            return priority;
+        }
+    }
+
+    private static final Comparator<Entry> ORDER = Comparator
+            .comparingInt((Entry entry) -> -entry.priority)
+            .thenComparingLong(entry -> entry.round)
+            .thenComparingLong(entry -> entry.sequence);
+
+    private final TreeSet<Entry> ordered = new TreeSet<>(ORDER);
+    private final Map<UUID, Entry> byPlayer = new HashMap<>();
+    private final Map<String, Long> lastRoundByStaff = new HashMap<>();
+    private long currentRound; // Round of the entry admitted last (fair-queueing virtual time)
+    private long nextSequence;
+
+    // --- Statistics ---
+    private long admitted;
+    private long totalWaitNanos;
+    private long maxWaitNanos;
+
+    /**
+     * Queues a player, or updates their existing entry.
+     *
+     * @return True if the player was newly queued, false if they were already waiting.
+     */
+    boolean enqueue(UUID playerId, String playerName, UUID staffId, String staffName, int priority) {
+        Entry existing = byPlayer.get(playerId);
+        if (existing != null) {
+            if (priority > existing.priority) {
+                ordered.remove(existing);
+                existing.priority = priority;
+                ordered.add(existing);
+            }
+            return false;
+        }
+
+        String staffKey = staffId == null ? "console" : staffId.toString();
+        long round = Math.max(lastRoundByStaff.getOrDefault(staffKey, Long.MIN_VALUE) + 1, currentRound);
+        lastRoundByStaff.put(staffKey, round);
+
+        Entry entry = new Entry(playerId, playerName, staffId, staffName, priority, round, nextSequence++, System.nanoTime());
+        ordered.add(entry);
+        byPlayer.put(playerId, entry);
+        return true;
+    }
+
+    /**
+     * Removes and returns the next entry to admit.
+     *
+     * @return The next entry, or null if the queue is empty.
+     */
+    Entry poll() {
+        Entry entry = ordered.pollFirst();
+        if (entry == null) {
+            return null;
+        }
+        byPlayer.remove(entry.playerId);
+        currentRound = Math.max(currentRound, entry.round);
+        forgetRoundsIfEmpty();
+
+        long waited = System.nanoTime() - entry.enqueuedAtNanos;
+        admitted++;
+        totalWaitNanos += waited;
+        maxWaitNanos = Math.max(maxWaitNanos, waited);
+        return entry;
+    }
+
+    /**
+     * Removes a player from the queue.
+     *
+     * @return The removed entry, or null if the player was not queued.
+     */
+    Entry remove(UUID playerId) {
+        Entry entry = byPlayer.remove(playerId);
+        if (entry != null) {
+            ordered.remove(entry);
+            forgetRoundsIfEmpty();
+        }
+        return entry;
+    }
+
+    private void forgetRoundsIfEmpty() {
+        if (ordered.isEmpty()) {
+            lastRoundByStaff.clear(); // Nobody is waiting; fairness history no longer matters.
+        }
+    }
+
+    boolean contains(UUID playerId) {
+        return byPlayer.containsKey(playerId);
+    }
+
+    boolean isEmpty() {
+        return ordered.isEmpty();
+    }
+
+    int size() {
+        return ordered.size();
+    }
+
+    /**
+     * @return The 1-based position of a player in the queue, or -1 if not queued.
+     *         Linear in the queue length; only meant for staff-facing output.
+     */
+    int positionOf(UUID playerId) {
+        Entry target = byPlayer.get(playerId);
+        if (target == null) {
+            return -1;
+        }
+        return ordered.headSet(target, true).size();
+    }
+
+    /**
+     * @return Up to {@code limit} entries in admission order.
+     */
+    List<Entry> peek(int limit) {
+        List<Entry> entries = new ArrayList<>(Math.min(limit, ordered.size()));
+        for (Iterator<Entry> it = ordered.iterator(); it.hasNext() && entries.size() < limit; ) {
+            entries.add(it.next());
+        }
+        return entries;
+    }
+
+    long getAdmittedCount() {
+        return admitted;
+    }
+
+    long getAverageWaitMillis() {
+        return admitted == 0 ? 0 : totalWaitNanos / admitted / 1_000_000L;
+    }
+
+    long getMaxWaitMillis() {
+        return maxWaitNanos / 1_000_000L;
+    }
+}
@@ -0,0 +1,66 @@
+package com.gabry.screenshare;
+
+import org.bukkit.command.CommandSender;
+
+import java.util.List;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Public API of the ScreenShare plugin, registered with the Bukkit {@code ServicesManager}:
+ * <pre>
+ * ScreenShareService service = Bukkit.getServicesManager().load(ScreenShareService.class);
+ * service.start("Player", staff).thenAccept(outcome -> ...);
+ * </pre>
+ *
+ * No method blocks: each returns a future, completed on the main thread. Starting and ending
+ * sessions may involve proxy round trips; they can be called from any thread and are moved to
+ * the main thread when needed. Sessions are network-wide, so the queries see sessions started
+ * on any server running the plugin.
+ *
+ * To react to sessions starting or ending, listen for {@link ScreenShareStartEvent} and
+ * {@link ScreenShareEndEvent}.
+ */
+public interface ScreenShareService {
+
+    /**
+     * Starts a screenshare session, exactly like /ss: the player may be anywhere on the network,
+     * and is queued if every SS server is full.
+     *
+     * @param playerName The player to screenshare.
+     * @param staff Who the session is started by (a player, or the console).
+     * @return The outcome; STARTED, QUEUED, SKIPPED (e.g. already in a session) or FAILED.
+     */
+    default CompletableFuture<SessionOutcome> start(String playerName, CommandSender staff) {
+        return start(playerName, staff, 0);
+    }
+
+    /**
+     * Starts a screenshare session like {@link #start(String, CommandSender)}, with a queue priority.
+     *
+     * @param priority The queue priority if the player has to wait (higher is admitted first).
+     */
+    CompletableFuture<SessionOutcome> start(String playerName, CommandSender staff, int priority);
+
+    /**
+     * Ends a screenshare session, exactly like /ssend: runs the on-return hook and sends the
+     * player back to their original server.
+     *
+     * @param playerName The player whose session ends.
+     * @param staff Who the session is ended by (a player, or the console).
+     * @return The outcome; ENDED, SKIPPED (not in a session) or FAILED.
+     */
+    CompletableFuture<SessionOutcome> end(String playerName, CommandSender staff);
+
+    /**
+     * @param playerId The player's UUID.
+     * @return The player's session, or empty if they are not in one.
+     */
+    CompletableFuture<Optional<ScreenShareSession>> getSession(UUID playerId);
+
+    /**
+     * @return Every session on the network.
+     */
+    CompletableFuture<List<ScreenShareSession>> getSessions();
+}
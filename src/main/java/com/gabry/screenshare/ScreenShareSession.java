@@ -0,0 +1,168 @@
+package com.gabry.screenshare;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.UUID;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Immutable description of one screenshare session, as shared between every ScreenShare
+ * instance on the network.
+ *
+ * A session goes PENDING (player on the way to the SS server) -> ACTIVE (arrived) and, if
+ * the player logs out mid-screenshare, -> DISCONNECTED until they come back or the grace
+ * window runs out. A session that expires in PENDING or DISCONNECTED is removed from the
+ * registry, like one ended by /ssend.
+ *
+ * Part of the public API ({@link ScreenShareService}, the session events): other plugins can
+ * read every accessor, while creating and changing sessions stays inside the plugin.
+ */
+public final class ScreenShareSession {
+
+    public enum State {
+        /** The player is being sent to the SS server. */
+        PENDING,
+        /** The player is on the SS server. */
+        ACTIVE,
+        /** The player logged out of the SS server; they are sent back if they reconnect in time. */
+        DISCONNECTED
+    }
+
+    private final String sessionId;
+    private final UUID playerId;
+    private final String playerName;
+    private final String originServer;
+    private final String ssServer;
+    private final UUID staffId; // Null when started from the console or by an older version
+    private final String staffName;
+    private final long startedAt;
+    private final State state;
+    private final long stateSince; // When the session entered its current state
+
+    ScreenShareSession(String sessionId, UUID playerId, String playerName, String originServer,
+                       String ssServer, UUID staffId, String staffName, long startedAt, State state, long stateSince) {
+        this.sessionId = sessionId;
+        this.playerId = playerId;
+        this.playerName = playerName;
+        this.originServer = originServer;
+        this.ssServer = ssServer;
+        this.staffId = staffId;
+        this.staffName = staffName;
+        this.startedAt = startedAt;
+        this.state = state;
+        this.stateSince = stateSince;
+    }
+
+    /**
+     * Creates a pending session starting now, with a fresh short session id.
+     *
+     * @param staffId The staff member's UUID, or null for the console.
+     */
+    static ScreenShareSession start(UUID playerId, String playerName, String originServer,
+                                    String ssServer, UUID staffId, String staffName) {
+        String sessionId = Long.toHexString(ThreadLocalRandom.current().nextLong() & 0xFFFFFFFFFFL);
+        long now = System.currentTimeMillis();
+        return new ScreenShareSession(sessionId, playerId, playerName, originServer, ssServer, staffId, staffName,
+                now, State.PENDING, now);
+    }
+
+    /**
+     * @return A copy of this session in another state, entered at {@code since}.
+     */
+    ScreenShareSession withState(State newState, long since) {
+        return new ScreenShareSession(sessionId, playerId, playerName, originServer, ssServer, staffId, staffName,
+                startedAt, newState, since);
+    }
+
+    public String getSessionId() {
+        return sessionId;
+    }
+
+    public UUID getPlayerId() {
+        return playerId;
+    }
+
+    public String getPlayerName() {
+        return playerName;
+    }
+
+    /**
+     * @return The server the player must be returned to when the session ends.
+     */
+    public String getOriginServer() {
+        return originServer;
+    }
+
+    /**
+     * @return The screenshare server the player was sent to.
+     */
+    public String getSsServer() {
+        return ssServer;
+    }
+
+    /**
+     * @return The UUID of the staff member who started the session, or null if it was started
+     * from the console (or by an older version of the plugin).
+     */
+    public UUID getStaffId() {
+        return staffId;
+    }
+
+    public String getStaffName() {
+        return staffName;
+    }
+
+    /**
+     * @return When the session started (epoch milliseconds).
+     */
+    public long getStartedAt() {
+        return startedAt;
+    }
+
+    public State getState() {
+        return state;
+    }
+
+    /**
+     * @return When the session entered its current state (epoch milliseconds).
+     */
+    public long getStateSince() {
+        return stateSince;
+    }
+
+    void writeTo(DataOutput out) throws IOException {
+        out.writeUTF(sessionId);
+        out.writeLong(playerId.getMostSignificantBits());
+        out.writeLong(playerId.getLeastSignificantBits());
+        out.writeUTF(playerName);
+        out.writeUTF(originServer);
+        out.writeUTF(ssServer);
+        out.writeUTF(staffName);
+        out.writeLong(startedAt);
+        out.writeByte(state.ordinal());
+        out.writeLong(stateSince);
+        out.writeBoolean(staffId != null);
+        if (staffId != null) {
+            out.writeLong(staffId.getMostSignificantBits());
+            out.writeLong(staffId.getLeastSignificantBits());
+        }
+    }
+
+    static ScreenShareSession readFrom(DataInput in) throws IOException {
+        String sessionId = in.readUTF();
+        UUID playerId = new UUID(in.readLong(), in.readLong());
+        String playerName = in.readUTF();
+        String originServer = in.readUTF();
+        String ssServer = in.readUTF();
+        String staffName = in.readUTF();
+        long startedAt = in.readLong();
+        State[] states = State.values();
+        int ordinal = in.readUnsignedByte();
+        State state = ordinal < states.length ? states[ordinal] : State.ACTIVE;
+        long stateSince = in.readLong();
+        UUID staffId = in.readBoolean() ? new UUID(in.readLong(), in.readLong()) : null;
+        return new ScreenShareSession(sessionId, playerId, playerName, originServer, ssServer, staffId, staffName,
+                startedAt, state, stateSince);
+    }
+}
@@ -0,0 +1,67 @@
+package com.gabry.screenshare;
+
+import org.bukkit.command.CommandSender;
+import org.bukkit.event.Cancellable;
+import org.bukkit.event.Event;
+import org.bukkit.event.HandlerList;
+
+/**
+ * Called on the main thread when a screenshare session is about to start, on the server where
+ * it was started (by /ss, the queue or {@link ScreenShareService}). The player has not been
+ * moved yet; cancelling the event skips the session.
+ *
+ * The plugin only builds this event when something listens for it.
+ */
+public final class ScreenShareStartEvent extends Event implements Cancellable {
+
+    private static final HandlerList HANDLERS = new HandlerList();
+
+    private final ScreenShareSession session;
+    private final CommandSender staff;
+    private boolean cancelled;
+
+    ScreenShareStartEvent(ScreenShareSession session, CommandSender staff) {
+        this.session = session;
+        this.staff = staff;
+    }
+
+    /**
+     * @return The session, in the PENDING state.
+     */
+    public ScreenShareSession getSession() {
+        return session;
+    }
+
+    /**
+     * @return Who started the session; the console for queued players.
+     */
+    public CommandSender getStaff() {
+        return staff;
+    }
+
+    @Override
+    public boolean isCancelled() {
+        return cancelled;
+    }
+
+    @Override
+    public void setCancelled(boolean cancelled) {
+        this.cancelled = cancelled;
+    }
+
+    @Override
+    public HandlerList getHandlers() {
+        return HANDLERS;
+    }
+
+    public static HandlerList getHandlerList() {
+        return HANDLERS;
+    }
+
+    /**
+     * @return Whether any plugin listens for this event, i.e. whether it is worth building.
+     */
+    static boolean hasListeners() {
+        return HANDLERS.getRegisteredListeners().length > 0;
+    }
+}
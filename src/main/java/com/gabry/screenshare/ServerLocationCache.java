@@ -0,0 +1,94 @@
+package com.gabry.screenshare;
+
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.LongSupplier;
+
+/**
+ * Per-player cache of the proxy server each player is connected to.
+ * Entries are filled from GetServer replies, expire after a fixed TTL and are invalidated
+ * whenever the player joins, quits or is sent to another server, so a stale location is
+ * never served after the player has actually moved.
+ */
+final class ServerLocationCache {
+
+    private final Map<UUID, Entry> entries = new ConcurrentHashMap<>();
+    private final LongSupplier clock; // Milliseconds
+    private volatile long ttlMillis;
+
+    ServerLocationCache(LongSupplier clock, long ttlMillis) {
+        this.clock = clock;
+        this.ttlMillis = ttlMillis;
+    }
+
+    /**
+     * Returns the cached server for a player, or null if there is no fresh entry.
+     * Expired entries are removed on access.
+     *
+     * @param playerId The player's UUID.
+     * @return The cached server name, or null on a miss.
+     */
+    String get(UUID playerId) {
+        Entry entry = entries.get(playerId);
+        if (entry == null) {
+            return null;
+        }
+        if (entry.expiresAt <= clock.getAsLong()) {
+            entries.remove(playerId, entry);
+            return null;
+        }
+        return entry.server;
+    }
+
+    /**
+     * Stores the server a player is currently on.
+     *
+     * @param playerId The player's UUID.
+     * @param server The proxy server name.
+     */
+    void put(UUID playerId, String server) {
+        if (ttlMillis <= 0) {
+            return; // Caching disabled.
+        }
+        entries.put(playerId, new Entry(server, clock.getAsLong() + ttlMillis));
+    }
+
+    /**
+     * Drops the cached location of a player.
+     *
+     * @param playerId The player's UUID.
+     */
+    void invalidate(UUID playerId) {
+        entries.remove(playerId);
+    }
+
+    /**
+     * Drops every cached location.
+     */
+    void clear() {
+        entries.clear();
+    }
+
+    /**
+     * Changes the TTL applied to new entries. A TTL of zero disables caching.
+     *
+     * @param ttlMillis The new TTL in milliseconds.
+     */
+    void setTtlMillis(long ttlMillis) {
+        this.ttlMillis = ttlMillis;
+        if (ttlMillis <= 0) {
+            entries.clear();
+        }
+    }
+
+    private static final class Entry {
+        final String server;
+        final long expiresAt;
+
+        Entry(String server, long expiresAt) {
+            this.server = server;
+            this.expiresAt = expiresAt;
+        }
+    }
+}
@@ -0,0 +1,200 @@
+package com.gabry.screenshare;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.function.Consumer;
+import java.util.function.LongSupplier;
+
+/**
+ * Pool of screenshare servers with load-aware routing.
+ *
+ * Each member's player count is polled from the proxy ({@code PlayerCount} subchannel) on a
+ * schedule and cached here. A member is healthy while it keeps answering; a member that has
+ * never been polled yet is assumed healthy and empty so sessions can start right after boot.
+ * Sessions routed to a member since its last poll are counted as reservations, so a burst of
+ * /ss commands spreads across the pool instead of piling onto the member that looked emptiest.
+ *
+ * Mutating methods are called on the main thread; reads are safe from any thread.
+ */
+final class ServerPool {
+
+    /**
+     * One screenshare server in the pool.
+     */
+    static final class Member {
+        final String name;
+        final int capacity;
+        volatile int playerCount;
+        volatile long lastReplyAt; // 0 = never answered
+        volatile long lastPollAt; // 0 = never polled
+        private final Deque<Long> reservations = new ArrayDeque<>(); // Routing times since the last count
+
+        Member(String name, int capacity) {
+            this.name = name;
+            this.capacity = capacity;
+        }
+
+        /**
+         * @return The player count plus sessions routed here that the count may not include yet.
+         */
+        synchronized int load() {
+            return playerCount + reservations.size();
+        }
+
+        synchronized void reserve(long now) {
+            reservations.addLast(now);
+        }
+
+        synchronized void updateCount(int count, long now) {
+            playerCount = count;
+            lastReplyAt = now;
+            // Players routed before the poll that produced this answer are part of the count now.
+            while (!reservations.isEmpty() && reservations.peekFirst() < lastPollAt) {
+                reservations.removeFirst();
+            }
+        }
+    }
+
+    private final Map<String, Member> members; // Keyed by lower-case name, in configuration order.
+    private final LongSupplier clock; // Milliseconds
+    private final long healthTimeoutMillis;
+
+    /**
+     * @param members The pool members, in configuration order. Must not be empty.
+     * @param clock The clock used for health and reservation tracking.
+     * @param healthTimeoutMillis How long a member may go without answering a poll before it is unhealthy.
+     */
+    ServerPool(List<Member> members, LongSupplier clock, long healthTimeoutMillis) {
+        if (members.isEmpty()) {
+            throw new IllegalArgumentException("A screenshare server pool needs at least one server");
+        }
+        Map<String, Member> byName = new LinkedHashMap<>();
+        for (Member member : members) {
+            byName.put(member.name.toLowerCase(Locale.ROOT), member);
+        }
+        this.members = Collections.unmodifiableMap(byName);
+        this.clock = clock;
+        this.healthTimeoutMillis = healthTimeoutMillis;
+    }
+
+    /**
+     * @return True if the given proxy server is a member of the pool.
+     */
+    boolean contains(String serverName) {
+        return serverName != null && members.containsKey(serverName.toLowerCase(Locale.ROOT));
+    }
+
+    /**
+     * @return The first configured member, used where a single default server is needed.
+     */
+    String primary() {
+        return members.values().iterator().next().name;
+    }
+
+    List<Member> members() {
+        return new ArrayList<>(members.values());
+    }
+
+    /**
+     * Picks the healthy member with the lowest relative load that still has room, and
+     * reserves a slot on it.
+     *
+     * @return The chosen server name, or null if every healthy member is at capacity.
+     */
+    String route() {
+        long now = clock.getAsLong();
+        Member best = null;
+        double bestRatio = Double.MAX_VALUE;
+        for (Member member : members.values()) {
+            if (!isHealthy(member, now)) {
+                continue;
+            }
+            int load = member.load();
+            if (load >= member.capacity) {
+                continue;
+            }
+            double ratio = (double) load / member.capacity;
+            if (ratio < bestRatio) {
+                best = member;
+                bestRatio = ratio;
+            }
+        }
+        if (best == null) {
+            return null;
+        }
+        best.reserve(now);
+        return best.name;
+    }
+
+    /**
+     * @return True if at least one healthy member has a free slot.
+     */
+    boolean hasCapacity() {
+        long now = clock.getAsLong();
+        for (Member member : members.values()) {
+            if (isHealthy(member, now) && member.load() < member.capacity) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Sends a PlayerCount request for every member.
+     *
+     * @param requester Sends the request for one server name to the proxy.
+     */
+    void poll(Consumer<String> requester) {
+        long now = clock.getAsLong();
+        for (Member member : members.values()) {
+            member.lastPollAt = now;
+            requester.accept(member.name);
+        }
+    }
+
+    /**
+     * Records a PlayerCount reply.
+     *
+     * @return True if the server is a pool member.
+     */
+    boolean onPlayerCount(String serverName, int count) {
+        Member member = members.get(serverName.toLowerCase(Locale.ROOT));
+        if (member == null) {
+            return false;
+        }
+        member.updateCount(count, clock.getAsLong());
+        return true;
+    }
+
+    boolean isHealthy(Member member, long now) {
+        if (member.lastReplyAt == 0) {
+            // Never answered: healthy until a poll has had time to go unanswered.
+            return member.lastPollAt == 0 || now - member.lastPollAt <= healthTimeoutMillis;
+        }
+        return now - member.lastReplyAt <= healthTimeoutMillis;
+    }
+
+    /**
+     * @return A one-line status of every member, for staff-facing info output.
+     */
+    String describe() {
+        long now = clock.getAsLong();
+        StringBuilder out = new StringBuilder();
+        for (Member member : members.values()) {
+            if (out.length() > 0) {
+                out.append(", ");
+            }
+            out.append(member.name).append(' ').append(member.load()).append('/').append(member.capacity);
+            if (!isHealthy(member, now)) {
+                out.append(" (offline)");
+            }
+        }
+        return out.toString();
+    }
+}
@@ -0,0 +1,582 @@
+package com.gabry.screenshare;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.CRC32;
+
+/**
+ * Permanent, append-only history of ended screenshare sessions: who was screenshared, by whom,
+ * when, for how long and how it ended. Queried by /sshistory, newest first, by player or by
+ * staff member.
+ *
+ * Like {@link SessionJournal}, records are appended by a dedicated writer thread that drains
+ * whatever has queued up and commits the whole batch with a single {@code fsync}, so the main
+ * thread never touches the disk. Each record carries the position of the previous record of
+ * the same player and of the same staff member, which chains every player's (and every staff
+ * member's) sessions together on disk, newest first. Only the head of each chain is kept in
+ * memory, so a page costs one read per record skipped or shown, whatever the total number of
+ * records.
+ *
+ * The heads are checkpointed to an index file every {@link #CHECKPOINT_INTERVAL} records and
+ * on close (written to a temporary file and atomically moved into place). Opening the history
+ * loads the checkpoint and replays only the records written after it; a torn record at the end
+ * of the log is cut off through its checksum. Without a usable checkpoint the whole log is
+ * replayed.
+ *
+ * Layout:
+ * <pre>
+ * history.log:   MAGIC_LOG, n * (length, crc32, previous by player, previous by staff, entry)
+ * history.index: MAGIC_INDEX, log length, heads by player, heads by staff, names, crc32
+ * </pre>
+ *
+ * {@link #record} is safe from any thread; {@link #query} blocks on the disk and must be called
+ * off the main thread.
+ */
+final class SessionHistory {
+
+    private static final int MAGIC_LOG = 0x5353484C; // "SSHL"
+    private static final int MAGIC_INDEX = 0x53534849; // "SSHI"
+    private static final int RECORD_HEADER = 24; // length, crc32, previous by player, previous by staff
+    private static final int MAX_ENTRY_LENGTH = 1 << 16;
+    private static final long NONE = -1L; // End of a chain
+    static final int CHECKPOINT_INTERVAL = 100_000; // Records appended between two index checkpoints
+
+    /**
+     * One ended session.
+     */
+    static final class Entry {
+        final String sessionId;
+        final UUID playerId;
+        final String playerName;
+        final UUID staffId; // Null: started from the console
+        final String staffName;
+        final String originServer;
+        final String ssServer;
+        final long startedAt;
+        final long endedAt;
+        final ScreenShareEndEvent.Reason reason;
+        final String endedBy; // Who ran /ssend, or "" if the session did not end that way
+
+        Entry(String sessionId, UUID playerId, String playerName, UUID staffId, String staffName, String originServer,
+              String ssServer, long startedAt, long endedAt, ScreenShareEndEvent.Reason reason, String endedBy) {
+            this.sessionId = sessionId;
+            this.playerId = playerId;
+            this.playerName = playerName;
+            this.staffId = staffId;
+            this.staffName = staffName;
+            this.originServer = originServer;
+            this.ssServer = ssServer;
+            this.startedAt = startedAt;
+            this.endedAt = endedAt;
+            this.reason = reason;
+            this.endedBy = endedBy;
+        }
+
+        /**
+         * @param endedBy Who ended the session, or null.
+         */
+        static Entry of(ScreenShareSession session, ScreenShareEndEvent.Reason reason, String endedBy, long endedAt) {
+            return new Entry(session.getSessionId(), session.getPlayerId(), session.getPlayerName(), session.getStaffId(),
+                    session.getStaffName(), session.getOriginServer(), session.getSsServer(), session.getStartedAt(),
+                    endedAt, reason, endedBy == null ? "" : endedBy);
+        }
+
+        long durationMillis() {
+            return Math.max(0L, endedAt - startedAt);
+        }
+
+        /**
+         * Encodes the entry, for the log and for replication to the other instances.
+         */
+        void writeTo(PluginMessageCodec.Writer out) {
+            out.writeUTF(sessionId)
+                    .writeUuid(playerId)
+                    .writeUTF(playerName)
+                    .writeByte(staffId != null ? 1 : 0);
+            if (staffId != null) {
+                out.writeUuid(staffId);
+            }
+            out.writeUTF(staffName)
+                    .writeUTF(originServer)
+                    .writeUTF(ssServer)
+                    .writeLong(startedAt)
+                    .writeLong(endedAt)
+                    .writeByte(reason.ordinal())
+                    .writeUTF(endedBy);
+        }
+
+        static Entry readFrom(PluginMessageCodec.Reader in) {
+            String sessionId = in.readUTF();
+            UUID playerId = in.readUuid();
+            String playerName = in.readUTF();
+            UUID staffId = in.readByte() != 0 ? in.readUuid() : null;
+            String staffName = in.readUTF();
+            String originServer = in.readUTF();
+            String ssServer = in.readUTF();
+            long startedAt = in.readLong();
+            long endedAt = in.readLong();
+            ScreenShareEndEvent.Reason[] reasons = ScreenShareEndEvent.Reason.values();
+            int ordinal = in.readByte() & 0xFF;
+            ScreenShareEndEvent.Reason reason = ordinal < reasons.length ? reasons[ordinal] : ScreenShareEndEvent.Reason.ENDED;
+            return new Entry(sessionId, playerId, playerName, staffId, staffName, originServer, ssServer,
+                    startedAt, endedAt, reason, in.readUTF());
+        }
+    }
+
+    /**
+     * One page of a query, newest first.
+     */
+    static final class Page {
+        final List<Entry> entries;
+        final int total; // Every session in the chain
+        final int page; // Zero-based
+        final int pages;
+
+        Page(List<Entry> entries, int total, int page, int pageSize) {
+            this.entries = entries;
+            this.total = total;
+            this.page = page;
+            this.pages = Math.max(1, (total + pageSize - 1) / pageSize);
+        }
+    }
+
+    /**
+     * The newest record of a chain and how many records it holds. Replaced, never mutated.
+     */
+    private static final class Head {
+        final long position;
+        final int count;
+
+        Head(long position, int count) {
+            this.position = position;
+            this.count = count;
+        }
+    }
+
+    private final Path logFile;
+    private final Path indexFile;
+    private final Logger logger;
+    private final BlockingQueue<Entry> queue = new LinkedBlockingQueue<>();
+    // Published after each commit, read by query threads.
+    private final Map<UUID, Head> byPlayer = new ConcurrentHashMap<>();
+    private final Map<UUID, Head> byStaff = new ConcurrentHashMap<>();
+    private final Map<String, UUID> names = new ConcurrentHashMap<>(); // Lower-case name -> last UUID seen with it
+    private volatile boolean ready;
+    private volatile long committed; // End of the last committed record
+
+    // --- Writer thread state ---
+    private FileChannel channel;
+    private int recordsSinceCheckpoint;
+    private Thread writer;
+
+    private static final Entry SHUTDOWN = new Entry("", new UUID(0L, 0L), "", null, "", "", "", 0L, 0L,
+            ScreenShareEndEvent.Reason.ENDED, "");
+
+    SessionHistory(File dataFolder, Logger logger) {
+        Path folder = dataFolder.toPath().resolve("history");
+        this.logFile = folder.resolve("history.log");
+        this.indexFile = folder.resolve("history.index");
+        this.logger = logger;
+    }
+
+    /**
+     * Opens the log and starts the writer thread, which loads the index before writing
+     * anything; until then {@link #isReady()} is false and queries find nothing. Records
+     * queued meanwhile are written once it is loaded.
+     *
+     * @throws IOException If the history folder or the log cannot be opened.
+     */
+    void start() throws IOException {
+        Files.createDirectories(logFile.getParent());
+        channel = FileChannel.open(logFile, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        writer = new Thread(this::runWriter, "ScreenShare-History");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    /**
+     * Queues an ended session. Never blocks and never touches the disk on the calling thread.
+     */
+    void record(Entry entry) {
+        queue.add(entry);
+    }
+
+    /**
+     * @return Whether the index has been loaded and queries see the whole history.
+     */
+    boolean isReady() {
+        return ready;
+    }
+
+    /**
+     * @return The UUID last recorded with this player or staff name, or null.
+     */
+    UUID lookup(String name) {
+        return names.get(name.toLowerCase(Locale.ROOT));
+    }
+
+    /**
+     * Reads one page of a player's sessions, or of the sessions a staff member started, newest
+     * first. Blocks on the disk: never call it on the main thread.
+     *
+     * @param id The player's or staff member's UUID.
+     * @param asStaff Whether to list the sessions {@code id} started rather than underwent.
+     * @param page The zero-based page; past the end gives an empty page.
+     * @param pageSize Sessions per page.
+     * @throws IOException If the log cannot be read.
+     */
+    Page query(UUID id, boolean asStaff, int page, int pageSize) throws IOException {
+        Head head = (asStaff ? byStaff : byPlayer).get(id);
+        if (head == null) {
+            return new Page(Collections.emptyList(), 0, page, pageSize);
+        }
+        List<Entry> entries = new ArrayList<>(pageSize);
+        ByteBuffer header = ByteBuffer.allocate(RECORD_HEADER);
+        long position = head.position;
+        long skip = (long) page * pageSize;
+        // Skipping only needs each record's header, for the pointer to the next one in the chain.
+        for (long i = 0; i < skip && position != NONE; i++) {
+            readFully(header.clear(), position);
+            position = header.getLong(asStaff ? 16 : 8);
+        }
+        while (entries.size() < pageSize && position != NONE) {
+            readFully(header.clear(), position);
+            int length = header.getInt(0);
+            ByteBuffer body = ByteBuffer.allocate(length - (RECORD_HEADER - 8));
+            readFully(body, position + RECORD_HEADER);
+            entries.add(Entry.readFrom(PluginMessageCodec.read(body.array())));
+            position = header.getLong(asStaff ? 16 : 8);
+        }
+        return new Page(entries, head.count, page, pageSize);
+    }
+
+    /**
+     * Writes everything still queued, checkpoints the index and stops the writer thread.
+     */
+    void close() {
+        if (writer == null) {
+            return;
+        }
+        queue.add(SHUTDOWN);
+        try {
+            writer.join(30_000L);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        writer = null;
+    }
+
+    private void readFully(ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            int read = channel.read(buffer, position);
+            if (read < 0) {
+                throw new EOFException("History record beyond the end of the log at " + position);
+            }
+            position += read;
+        }
+        buffer.flip();
+    }
+
+    // --- Writer thread ---
+
+    private void runWriter() {
+        try {
+            load();
+        } catch (IOException e) {
+            logger.log(Level.SEVERE, "[ScreenShare] ERROR: Failed to load the session history; it will not be recorded.", e);
+            closeChannel();
+            return;
+        }
+        ready = true;
+
+        List<Entry> batch = new ArrayList<>();
+        boolean running = true;
+        while (running) {
+            try {
+                batch.add(queue.take());
+                queue.drainTo(batch);
+                if (batch.remove(SHUTDOWN)) {
+                    running = false;
+                }
+                append(batch);
+                if (!running || recordsSinceCheckpoint >= CHECKPOINT_INTERVAL) {
+                    writeCheckpoint();
+                }
+            } catch (InterruptedException e) {
+                running = false;
+            } catch (IOException e) {
+                logger.log(Level.SEVERE, "[ScreenShare] ERROR: Failed to write the session history.", e);
+            } finally {
+                batch.clear();
+            }
+        }
+        closeChannel();
+    }
+
+    /**
+     * Appends a batch with one write and one {@code fsync}, then publishes the new chain heads.
+     * Heads are only published once the records are on disk, so a query never follows a
+     * pointer to a record that is not there.
+     */
+    private void append(List<Entry> batch) throws IOException {
+        if (batch.isEmpty()) {
+            return;
+        }
+        Map<UUID, Head> playerHeads = new HashMap<>();
+        Map<UUID, Head> staffHeads = new HashMap<>();
+        PluginMessageCodec.Writer body = new PluginMessageCodec.Writer(256);
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(batch.size() * 192);
+        DataOutputStream out = new DataOutputStream(bytes);
+        CRC32 crc = new CRC32();
+        long position = committed;
+        for (Entry entry : batch) {
+            body.reset();
+            entry.writeTo(body);
+            byte[] encoded = body.toByteArray();
+            if (encoded.length > MAX_ENTRY_LENGTH) {
+                continue;
+            }
+            Head player = playerHeads.getOrDefault(entry.playerId, byPlayer.get(entry.playerId));
+            Head staff = entry.staffId == null ? null : staffHeads.getOrDefault(entry.staffId, byStaff.get(entry.staffId));
+            long previousByPlayer = player == null ? NONE : player.position;
+            long previousByStaff = staff == null ? NONE : staff.position;
+
+            ByteBuffer pointers = ByteBuffer.allocate(16).putLong(previousByPlayer).putLong(previousByStaff);
+            crc.reset();
+            crc.update(pointers.array());
+            crc.update(encoded);
+            out.writeInt(16 + encoded.length);
+            out.writeInt((int) crc.getValue());
+            out.write(pointers.array());
+            out.write(encoded);
+
+            playerHeads.put(entry.playerId, new Head(position, player == null ? 1 : player.count + 1));
+            if (entry.staffId != null) {
+                staffHeads.put(entry.staffId, new Head(position, staff == null ? 1 : staff.count + 1));
+            }
+            position += 8 + 16 + encoded.length;
+        }
+
+        ByteBuffer buffer = ByteBuffer.wrap(bytes.toByteArray());
+        long at = committed;
+        while (buffer.hasRemaining()) {
+            at += channel.write(buffer, at);
+        }
+        channel.force(false); // One fsync for the whole batch.
+
+        byPlayer.putAll(playerHeads);
+        byStaff.putAll(staffHeads);
+        for (Entry entry : batch) {
+            learnNames(entry);
+        }
+        committed = position;
+        recordsSinceCheckpoint += batch.size();
+    }
+
+    private void learnNames(Entry entry) {
+        names.put(entry.playerName.toLowerCase(Locale.ROOT), entry.playerId);
+        if (entry.staffId != null) {
+            names.put(entry.staffName.toLowerCase(Locale.ROOT), entry.staffId);
+        }
+    }
+
+    private void writeCheckpoint() throws IOException {
+        Path temp = indexFile.resolveSibling(indexFile.getFileName() + ".tmp");
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(64 + (byPlayer.size() + byStaff.size()) * 32 + names.size() * 32);
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(MAGIC_INDEX);
+        out.writeLong(committed);
+        writeHeads(out, byPlayer);
+        writeHeads(out, byStaff);
+        out.writeInt(names.size());
+        for (Map.Entry<String, UUID> name : names.entrySet()) {
+            out.writeUTF(name.getKey());
+            out.writeLong(name.getValue().getMostSignificantBits());
+            out.writeLong(name.getValue().getLeastSignificantBits());
+        }
+        byte[] data = bytes.toByteArray();
+        CRC32 crc = new CRC32();
+        crc.update(data);
+
+        try (FileChannel index = FileChannel.open(temp, StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            ByteBuffer buffer = ByteBuffer.allocate(data.length + 4).put(data).putInt((int) crc.getValue());
+            buffer.flip();
+            while (buffer.hasRemaining()) {
+                index.write(buffer);
+            }
+            index.force(true);
+        }
+        Files.move(temp, indexFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        recordsSinceCheckpoint = 0;
+    }
+
+    private static void writeHeads(DataOutputStream out, Map<UUID, Head> heads) throws IOException {
+        out.writeInt(heads.size());
+        for (Map.Entry<UUID, Head> head : heads.entrySet()) {
+            out.writeLong(head.getKey().getMostSignificantBits());
+            out.writeLong(head.getKey().getLeastSignificantBits());
+            out.writeLong(head.getValue().position);
+            out.writeInt(head.getValue().count);
+        }
+    }
+
+    private void closeChannel() {
+        try {
+            channel.close();
+        } catch (IOException e) {
+            logger.log(Level.WARNING, "[ScreenShare] WARNING: Failed to close the session history.", e);
+        }
+    }
+
+    // --- Loading ---
+
+    /**
+     * Loads the checkpoint, replays the log after it and cuts off a torn tail.
+     */
+    private void load() throws IOException {
+        long size = channel.size();
+        if (size < 4) {
+            channel.truncate(0);
+            ByteBuffer header = ByteBuffer.allocate(4).putInt(MAGIC_LOG);
+            header.flip();
+            channel.write(header, 0);
+            channel.force(false);
+            committed = 4;
+            return;
+        }
+        ByteBuffer magic = ByteBuffer.allocate(4);
+        readFully(magic, 0);
+        if (magic.getInt() != MAGIC_LOG) {
+            throw new IOException("Unknown format in " + logFile);
+        }
+
+        long from = readCheckpoint(size);
+        long valid = replay(from);
+        if (valid < size) {
+            logger.warning("[ScreenShare] WARNING: Cut off " + (size - valid) + " bytes of incomplete records from the session history.");
+            channel.truncate(valid);
+        }
+        committed = valid;
+        if (valid > from) {
+            writeCheckpoint();
+        }
+    }
+
+    /**
+     * @return Where the log replay starts: the end of what the checkpoint covers, or right after
+     * the header if there is no usable checkpoint.
+     */
+    private long readCheckpoint(long logSize) throws IOException {
+        if (!Files.exists(indexFile)) {
+            return 4;
+        }
+        byte[] data = Files.readAllBytes(indexFile);
+        if (data.length < 16) {
+            logger.warning("[ScreenShare] WARNING: Ignoring truncated session history index; rebuilding it.");
+            return 4;
+        }
+        CRC32 crc = new CRC32();
+        crc.update(data, 0, data.length - 4);
+        if ((int) crc.getValue() != ByteBuffer.wrap(data, data.length - 4, 4).getInt()) {
+            logger.warning("[ScreenShare] WARNING: Ignoring corrupted session history index; rebuilding it.");
+            return 4;
+        }
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(data, 0, data.length - 4));
+        if (in.readInt() != MAGIC_INDEX) {
+            logger.warning("[ScreenShare] WARNING: Ignoring session history index with an unknown format; rebuilding it.");
+            return 4;
+        }
+        long covered = in.readLong();
+        if (covered > logSize) {
+            // The log lost records the index points to (restored from a backup?): trust only the log.
+            logger.warning("[ScreenShare] WARNING: Session history index is ahead of the log; rebuilding it.");
+            return 4;
+        }
+        readHeads(in, byPlayer);
+        readHeads(in, byStaff);
+        int count = in.readInt();
+        for (int i = 0; i < count; i++) {
+            names.put(in.readUTF(), new UUID(in.readLong(), in.readLong()));
+        }
+        return covered;
+    }
+
+    private static void readHeads(DataInputStream in, Map<UUID, Head> heads) throws IOException {
+        int count = in.readInt();
+        for (int i = 0; i < count; i++) {
+            UUID id = new UUID(in.readLong(), in.readLong());
+            heads.put(id, new Head(in.readLong(), in.readInt()));
+        }
+    }
+
+    /**
+     * Replays the records from {@code from} into the chain heads.
+     *
+     * @return The end of the last complete record.
+     */
+    private long replay(long from) throws IOException {
+        long valid = from;
+        CRC32 crc = new CRC32();
+        try (InputStream stream = new BufferedInputStream(Files.newInputStream(logFile), 1 << 16)) {
+            stream.skipNBytes(from);
+            DataInputStream in = new DataInputStream(stream);
+            byte[] record = new byte[256];
+            while (true) {
+                int length = in.readInt();
+                int checksum = in.readInt();
+                if (length <= 16 || length > 16 + MAX_ENTRY_LENGTH) {
+                    break; // Garbage after a torn write.
+                }
+                if (record.length < length) {
+                    record = new byte[length];
+                }
+                in.readFully(record, 0, length);
+                crc.reset();
+                crc.update(record, 0, length);
+                if ((int) crc.getValue() != checksum) {
+                    break;
+                }
+                byte[] encoded = new byte[length - 16];
+                System.arraycopy(record, 16, encoded, 0, encoded.length);
+                Entry entry = Entry.readFrom(PluginMessageCodec.read(encoded));
+                Head player = byPlayer.get(entry.playerId);
+                byPlayer.put(entry.playerId, new Head(valid, player == null ? 1 : player.count + 1));
+                if (entry.staffId != null) {
+                    Head staff = byStaff.get(entry.staffId);
+                    byStaff.put(entry.staffId, new Head(valid, staff == null ? 1 : staff.count + 1));
+                }
+                learnNames(entry);
+                valid += 8 + length;
+            }
+        } catch (EOFException e) {
+            // Reached the end of the log, possibly in the middle of a torn record.
+        }
+        return valid;
+    }
+}
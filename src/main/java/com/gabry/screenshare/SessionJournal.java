@@ -0,0 +1,342 @@
+package com.gabry.screenshare;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.CRC32;
+
+/**
+ * Crash-safe, append-only journal of screenshare sessions (player UUID -> encoded
+ * {@link SessionRegistry} entry). The journal treats entries as opaque bytes.
+ *
+ * Every session start/end is appended as a checksummed binary record by a dedicated writer
+ * thread, which drains whatever has queued up since its last write and issues a single
+ * {@code fsync} per batch. Once enough records have accumulated, the writer compacts the
+ * journal into a snapshot file (written to a temporary file and atomically moved into place)
+ * and starts a fresh journal.
+ *
+ * Recovery reads the snapshot and replays the journal on top of it. A torn record at the
+ * end of the journal (crash in the middle of a write) is detected through its checksum and
+ * cut off, so recovery always yields the state as of the last complete write.
+ *
+ * Layout:
+ * <pre>
+ * sessions.snapshot: MAGIC_SNAPSHOT, count, count * (msb, lsb, length, entry), crc32
+ * sessions.journal:  MAGIC_JOURNAL, n * (length, crc32, op, msb, lsb[, entry])
+ * </pre>
+ */
+final class SessionJournal {
+
+    private static final int MAGIC_JOURNAL = 0x53534A32; // "SSJ2"
+    private static final int MAGIC_SNAPSHOT = 0x53535332; // "SSS2"
+    private static final byte OP_PUT = 1;
+    private static final byte OP_REMOVE = 2;
+    private static final int COMPACT_THRESHOLD = 4096; // Records appended before the journal is folded into a snapshot.
+    private static final int MAX_RECORD_LENGTH = 1 << 16;
+
+    private final Path journalFile;
+    private final Path snapshotFile;
+    private final Logger logger;
+    private final BlockingQueue<Record> queue = new LinkedBlockingQueue<>();
+
+    // --- Writer thread state (only touched by the writer thread after start) ---
+    private final Map<UUID, byte[]> state = new HashMap<>();
+    private FileChannel channel;
+    private int recordsSinceCompaction;
+    private Thread writer;
+
+    SessionJournal(File dataFolder, Logger logger) {
+        this.journalFile = dataFolder.toPath().resolve("sessions.journal");
+        this.snapshotFile = dataFolder.toPath().resolve("sessions.snapshot");
+        this.logger = logger;
+    }
+
+    /**
+     * Rebuilds the session map from the snapshot and journal, then starts the writer thread.
+     * Must be called once, before any record is appended.
+     *
+     * @return The recovered sessions.
+     * @throws IOException If the data folder cannot be read or the journal cannot be opened.
+     */
+    Map<UUID, byte[]> recover() throws IOException {
+        Files.createDirectories(journalFile.getParent());
+        readSnapshot();
+        long validLength = replayJournal();
+
+        channel = FileChannel.open(journalFile, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+        if (validLength == 0) {
+            channel.truncate(0);
+            writeJournalHeader();
+        } else {
+            // Drop a torn tail left behind by a crash, then keep appending after the last good record.
+            channel.truncate(validLength);
+            channel.position(validLength);
+        }
+
+        Map<UUID, byte[]> recovered = new HashMap<>(state);
+        writer = new Thread(this::runWriter, "ScreenShare-Journal");
+        writer.setDaemon(true);
+        writer.start();
+        return recovered;
+    }
+
+    /**
+     * Queues a session start or update. Never blocks and never touches the disk on the calling thread.
+     *
+     * @param playerId The player being screenshared.
+     * @param entry The encoded session entry.
+     */
+    void recordStart(UUID playerId, byte[] entry) {
+        queue.add(new Record(OP_PUT, playerId, entry));
+    }
+
+    /**
+     * Queues a session end. Never blocks and never touches the disk on the calling thread.
+     *
+     * @param playerId The player whose session ended.
+     */
+    void recordEnd(UUID playerId) {
+        queue.add(new Record(OP_REMOVE, playerId, null));
+    }
+
+    /**
+     * Flushes everything still queued, compacts the journal and stops the writer thread.
+     */
+    void close() {
+        if (writer == null) {
+            return;
+        }
+        queue.add(Record.SHUTDOWN);
+        try {
+            writer.join(10_000L);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        writer = null;
+    }
+
+    // --- Writer thread ---
+
+    private void runWriter() {
+        List<Record> batch = new ArrayList<>();
+        boolean running = true;
+        while (running) {
+            try {
+                batch.add(queue.take());
+                queue.drainTo(batch);
+                for (Record record : batch) {
+                    if (record == Record.SHUTDOWN) {
+                        running = false;
+                        continue;
+                    }
+                    appendRecord(record);
+                }
+                channel.force(false); // One fsync for the whole batch.
+                if (!running || recordsSinceCompaction >= COMPACT_THRESHOLD) {
+                    compact();
+                }
+            } catch (InterruptedException e) {
+                running = false;
+            } catch (IOException e) {
+                logger.log(Level.SEVERE, "[ScreenShare] ERROR: Failed to write the session journal.", e);
+            } finally {
+                batch.clear();
+            }
+        }
+        try {
+            channel.close();
+        } catch (IOException e) {
+            logger.log(Level.WARNING, "[ScreenShare] WARNING: Failed to close the session journal.", e);
+        }
+    }
+
+    private void appendRecord(Record record) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(64);
+        DataOutputStream body = new DataOutputStream(bytes);
+        body.writeByte(record.op);
+        body.writeLong(record.playerId.getMostSignificantBits());
+        body.writeLong(record.playerId.getLeastSignificantBits());
+        if (record.op == OP_PUT) {
+            body.write(record.entry);
+            state.put(record.playerId, record.entry);
+        } else {
+            state.remove(record.playerId);
+        }
+        byte[] payload = bytes.toByteArray();
+
+        CRC32 crc = new CRC32();
+        crc.update(payload);
+        ByteBuffer buffer = ByteBuffer.allocate(8 + payload.length);
+        buffer.putInt(payload.length).putInt((int) crc.getValue()).put(payload).flip();
+        writeFully(buffer);
+        recordsSinceCompaction++;
+    }
+
+    private void compact() throws IOException {
+        Path temp = snapshotFile.resolveSibling(snapshotFile.getFileName() + ".tmp");
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(64 + state.size() * 48);
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(MAGIC_SNAPSHOT);
+        out.writeInt(state.size());
+        for (Map.Entry<UUID, byte[]> entry : state.entrySet()) {
+            out.writeLong(entry.getKey().getMostSignificantBits());
+            out.writeLong(entry.getKey().getLeastSignificantBits());
+            out.writeInt(entry.getValue().length);
+            out.write(entry.getValue());
+        }
+        CRC32 crc = new CRC32();
+        crc.update(bytes.toByteArray());
+        out.writeInt((int) crc.getValue());
+
+        try (FileChannel snapshot = FileChannel.open(temp, StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            ByteBuffer buffer = ByteBuffer.wrap(bytes.toByteArray());
+            while (buffer.hasRemaining()) {
+                snapshot.write(buffer);
+            }
+            snapshot.force(true);
+        }
+        Files.move(temp, snapshotFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+        // The snapshot now holds everything, so the journal can start over.
+        channel.truncate(0);
+        channel.position(0);
+        writeJournalHeader();
+        channel.force(false);
+        recordsSinceCompaction = 0;
+    }
+
+    private void writeJournalHeader() throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(4);
+        header.putInt(MAGIC_JOURNAL).flip();
+        writeFully(header);
+    }
+
+    private void writeFully(ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+
+    // --- Recovery ---
+
+    private void readSnapshot() throws IOException {
+        if (!Files.exists(snapshotFile)) {
+            return;
+        }
+        byte[] data = Files.readAllBytes(snapshotFile);
+        if (data.length < 12) {
+            logger.warning("[ScreenShare] WARNING: Ignoring truncated session snapshot.");
+            return;
+        }
+        CRC32 crc = new CRC32();
+        crc.update(data, 0, data.length - 4);
+        if ((int) crc.getValue() != ByteBuffer.wrap(data, data.length - 4, 4).getInt()) {
+            logger.warning("[ScreenShare] WARNING: Ignoring corrupted session snapshot.");
+            return;
+        }
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(data, 0, data.length - 4));
+        if (in.readInt() != MAGIC_SNAPSHOT) {
+            logger.warning("[ScreenShare] WARNING: Ignoring session snapshot with an unknown format.");
+            return;
+        }
+        int count = in.readInt();
+        for (int i = 0; i < count; i++) {
+            UUID playerId = new UUID(in.readLong(), in.readLong());
+            byte[] entry = new byte[in.readInt()];
+            in.readFully(entry);
+            state.put(playerId, entry);
+        }
+    }
+
+    /**
+     * Replays the journal into {@link #state}.
+     *
+     * @return The length of the valid prefix of the journal, or 0 if it is missing or unusable.
+     */
+    private long replayJournal() throws IOException {
+        if (!Files.exists(journalFile)) {
+            return 0;
+        }
+        long valid = 0;
+        CRC32 crc = new CRC32();
+        try (InputStream stream = new BufferedInputStream(Files.newInputStream(journalFile), 1 << 16);
+             DataInputStream in = new DataInputStream(stream)) {
+            if (in.readInt() != MAGIC_JOURNAL) {
+                logger.warning("[ScreenShare] WARNING: Ignoring session journal with an unknown format.");
+                return 0;
+            }
+            valid = 4;
+            byte[] payload = new byte[256];
+            while (true) {
+                int length = in.readInt();
+                int checksum = in.readInt();
+                if (length <= 0 || length > MAX_RECORD_LENGTH) {
+                    break; // Garbage after a torn write.
+                }
+                if (payload.length < length) {
+                    payload = new byte[length];
+                }
+                in.readFully(payload, 0, length);
+                crc.reset();
+                crc.update(payload, 0, length);
+                if ((int) crc.getValue() != checksum) {
+                    break;
+                }
+                applyRecord(payload, length);
+                valid += 8 + length;
+            }
+        } catch (EOFException e) {
+            // Reached the end of the journal, possibly in the middle of a torn record.
+        }
+        return valid;
+    }
+
+    private void applyRecord(byte[] payload, int length) {
+        ByteBuffer in = ByteBuffer.wrap(payload, 0, length);
+        byte op = in.get();
+        UUID playerId = new UUID(in.getLong(), in.getLong());
+        if (op == OP_PUT) {
+            byte[] entry = new byte[in.remaining()];
+            in.get(entry);
+            state.put(playerId, entry);
+        } else if (op == OP_REMOVE) {
+            state.remove(playerId);
+        }
+    }
+
+    private static final class Record {
+        static final Record SHUTDOWN = new Record((byte) 0, new UUID(0L, 0L), null);
+
+        final byte op;
+        final UUID playerId;
+        final byte[] entry;
+
+        Record(byte op, UUID playerId, byte[] entry) {
+            this.op = op;
+            this.playerId = playerId;
+            this.entry = entry;
+        }
+    }
+}
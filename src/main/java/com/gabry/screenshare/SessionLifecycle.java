@@ -0,0 +1,416 @@
+package com.gabry.screenshare;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.LongSupplier;
+
+/**
+ * The path every screenshare session takes once it has been decided: registering it and
+ * announcing its handoff to the SS server, the player's arrival there and the acknowledgement
+ * back to the staff member's server, the timers that expire a session whose player never
+ * arrives or does not reconnect in time, the disconnect grace window, and the end.
+ *
+ * {@link ScreenShare} and the benchmarks' network simulator both drive this class, so the
+ * simulation runs the plugin's own session logic. Everything that needs a server (chat,
+ * events, metrics, hook commands, moving players) is left to the {@link Host}.
+ *
+ * All methods must be called from the main thread, except {@link #hasArrived} and
+ * {@link #arrivals}.
+ */
+final class SessionLifecycle {
+
+    // Messages exchanged between ScreenShare instances (the other types are in ScreenShare).
+    static final byte MSG_HANDOFF = 1; // Origin -> SS server: a player is on their way.
+    static final byte MSG_HANDOFF_ACK = 2; // SS server -> origin: the player arrived and the on-join hook ran.
+
+    /**
+     * What the session path needs from the server it runs on.
+     */
+    interface Host {
+        /**
+         * Sends a message to the ScreenShare instance on another server.
+         *
+         * @param preferredVia The player whose proxy connection should carry it, or null for any.
+         * @return False if it was dropped.
+         */
+        boolean sendToInstance(String targetServer, byte[] payload, UUID preferredVia);
+
+        /**
+         * Runs a task on the next tick.
+         */
+        void runNextTick(Runnable task);
+
+        /**
+         * @return Whether the player is on this server.
+         */
+        boolean isOnline(UUID playerId);
+
+        /**
+         * A player announced by a handoff has arrived on this SS server; the on-join hook runs now.
+         *
+         * @param session The session, or null if the registry update is still on its way.
+         */
+        void arrived(PendingHandoffs.Handoff handoff, ScreenShareSession session);
+
+        /**
+         * A session was ended by its timer: its player never arrived (PENDING) or did not
+         * reconnect in time (DISCONNECTED).
+         */
+        void expired(ScreenShareSession session);
+    }
+
+    /**
+     * What became of the session of a player who left this server.
+     */
+    enum Departure {
+        /** The player had not arrived here for a session. */
+        NOT_HERE,
+        /** The player had arrived here, but their session is gone. */
+        NO_SESSION,
+        /** Without a grace window, the session ended with the disconnect. */
+        ENDED,
+        /** The session waits for the player to reconnect. */
+        DISCONNECTED
+    }
+
+    private final SessionRegistry sessions;
+    private final PluginMessageCodec codec;
+    private final LongSupplier clock; // Milliseconds
+    private final Host host;
+    // Handoffs announced to this server, consumed when their player arrives.
+    private final PendingHandoffs pendingHandoffs;
+    // Arrival acknowledgements this server is waiting for, keyed by the handed-off player's UUID.
+    private final ProxyRequestTable<UUID, String> handoffAcks;
+    // One timer per session waiting on something: the player's arrival on the SS server
+    // (PENDING), or their reconnection after logging out mid-screenshare (DISCONNECTED).
+    // The wheel is advanced once per tick, so thousands of timers cost only the ones that are due.
+    private final TimingWheel timers = new TimingWheel(1024);
+    private final Map<UUID, TimingWheel.Timeout> timeouts = new HashMap<>();
+    // Players whose handoff completed on this server. Quitting from here ends their session.
+    private final Set<UUID> arrivedHere = ConcurrentHashMap.newKeySet();
+    private long pendingTimeoutMillis;
+    private long handoffTimeoutMillis;
+    private long reconnectGraceMillis;
+
+    /**
+     * @param sessions The network-wide session registry.
+     * @param codec The codec of the main thread.
+     * @param clock Milliseconds, for session states and deadlines.
+     * @param host The server this runs on.
+     */
+    SessionLifecycle(SessionRegistry sessions, PluginMessageCodec codec, LongSupplier clock, Host host) {
+        this.sessions = sessions;
+        this.codec = codec;
+        this.clock = clock;
+        this.host = host;
+        this.pendingHandoffs = new PendingHandoffs(clock);
+        this.handoffAcks = new ProxyRequestTable<>(clock);
+    }
+
+    /**
+     * Sets the timeouts; the ones already running keep their deadline.
+     *
+     * @param pendingTimeoutMillis How long a new session waits for its player to arrive.
+     * @param handoffTimeoutMillis How long to wait for an arrival acknowledgement.
+     * @param reconnectGraceMillis How long a session waits for a disconnected player; 0 ends it at once.
+     */
+    void configure(long pendingTimeoutMillis, long handoffTimeoutMillis, long reconnectGraceMillis) {
+        this.pendingTimeoutMillis = pendingTimeoutMillis;
+        this.handoffTimeoutMillis = handoffTimeoutMillis;
+        this.reconnectGraceMillis = reconnectGraceMillis;
+    }
+
+    // --- Start ---
+
+    /**
+     * Registers a session that has just been started (PENDING) and announces its handoff to
+     * its SS server. The caller then sends the player there.
+     *
+     * @param ackServer Where the arrival acknowledgement must come back: the staff member's server.
+     * @return The arrival acknowledgement, as from {@link #handoff}.
+     */
+    CompletableFuture<String> start(ScreenShareSession session, String ackServer) {
+        sessions.put(session);
+        schedule(session, pendingTimeoutMillis);
+        return handoff(session.getPlayerId(), session.getPlayerName(), session.getOriginServer(), session.getSsServer(),
+                session.getStaffName(), ackServer);
+    }
+
+    /**
+     * Announces to an SS server that a player is on their way, and waits for the
+     * acknowledgement of their arrival. The session becomes ACTIVE when it comes.
+     *
+     * @param fromServer The server the player is leaving.
+     * @return A future completed with the SS server's name when the player has arrived and the
+     *         on-join hook has run there, or failed with a TimeoutException.
+     */
+    CompletableFuture<String> handoff(UUID playerId, String playerName, String fromServer, String ssServer,
+                                      String staffName, String ackServer) {
+        return handoffAcks.request(playerId, handoffTimeoutMillis, () -> {
+            byte[] payload = codec.payload()
+                    .writeByte(MSG_HANDOFF)
+                    .writeUuid(playerId)
+                    .writeUTF(playerName)
+                    .writeUTF(fromServer)
+                    .writeUTF(ssServer)
+                    .writeUTF(staffName)
+                    .writeUTF(ackServer)
+                    .toByteArray();
+            // Through the proxy, sent on the player's own connection if they are still on this
+            // server, so it stays ahead of their Connect.
+            host.sendToInstance(ssServer, payload, playerId);
+        }).whenComplete((arrivedOn, error) -> {
+            if (error == null) {
+                // The session was created here, so this instance's write is the one that sticks.
+                activate(playerId);
+            }
+        });
+    }
+
+    // --- Arrival ---
+
+    /**
+     * Handles a {@link #MSG_HANDOFF}, read past its type byte.
+     *
+     * @return The announced handoff.
+     */
+    PendingHandoffs.Handoff onHandoff(PluginMessageCodec.Reader in) {
+        UUID playerId = in.readUuid();
+        String playerName = in.readUTF();
+        String originServer = in.readUTF();
+        String ssServer = in.readUTF();
+        String staffName = in.readUTF();
+        String ackServer = in.readUTF();
+        PendingHandoffs.Handoff handoff = pendingHandoffs.announce(playerId, playerName, originServer, ackServer, ssServer,
+                staffName, handoffTimeoutMillis);
+        // The proxy may deliver the announcement after the player has already joined.
+        if (host.isOnline(playerId)) {
+            arrive(playerId);
+        }
+        return handoff;
+    }
+
+    /**
+     * Handles a {@link #MSG_HANDOFF_ACK}, read past its type byte.
+     *
+     * @return False if nobody was waiting for it (late or duplicated).
+     */
+    boolean onHandoffAck(PluginMessageCodec.Reader in) {
+        UUID playerId = in.readUuid();
+        return handoffAcks.complete(playerId, in.readUTF());
+    }
+
+    /**
+     * Completes the handoff of a player who has just joined this server, if one was announced:
+     * the session becomes ACTIVE, the host runs the on-join hook, and the arrival is
+     * acknowledged to the staff member's server on the next tick (the proxy connection of a
+     * player still inside their join event may not accept plugin messages yet).
+     *
+     * @return False if no handoff was waiting for the player.
+     */
+    boolean arrive(UUID playerId) {
+        PendingHandoffs.Handoff handoff = pendingHandoffs.take(playerId);
+        if (handoff == null) {
+            return false;
+        }
+        arrivedHere.add(playerId);
+        activate(playerId);
+        // The registry update may still be on its way from the origin server, so the handoff
+        // provides everything but the session id.
+        host.arrived(handoff, sessions.get(playerId));
+
+        byte[] ack = codec.payload()
+                .writeByte(MSG_HANDOFF_ACK)
+                .writeUuid(handoff.playerId)
+                .writeUTF(handoff.ssServer)
+                .toByteArray();
+        host.runNextTick(() -> host.sendToInstance(handoff.ackServer, ack, playerId));
+        return true;
+    }
+
+    /**
+     * Resumes the session of a disconnected player who reconnected straight to this SS server.
+     */
+    void resume(UUID playerId) {
+        arrivedHere.add(playerId);
+        activate(playerId);
+    }
+
+    /**
+     * @return Whether the player arrived on this server for their session. Safe from any thread.
+     */
+    boolean hasArrived(UUID playerId) {
+        return arrivedHere.contains(playerId);
+    }
+
+    /**
+     * @return The players who arrived on this server for their session (a live view, safe to
+     *         iterate from any thread).
+     */
+    Set<UUID> arrivals() {
+        return Collections.unmodifiableSet(arrivedHere);
+    }
+
+    // --- Departure and end ---
+
+    /**
+     * Handles a player leaving this server. Leaving the origin server is expected (that is the
+     * proxy moving them to the SS server); leaving the SS server ends the session, or starts the
+     * reconnect grace window if there is one.
+     */
+    Departure leave(UUID playerId) {
+        if (!arrivedHere.remove(playerId)) {
+            return Departure.NOT_HERE;
+        }
+        ScreenShareSession session = sessions.get(playerId);
+        if (session == null) {
+            return Departure.NO_SESSION;
+        }
+        if (reconnectGraceMillis == 0) {
+            end(playerId);
+            return Departure.ENDED;
+        }
+        // Keep the session: if they come back within the grace window, they go straight back to the SS server.
+        ScreenShareSession disconnected = session.withState(ScreenShareSession.State.DISCONNECTED, clock.getAsLong());
+        sessions.put(disconnected);
+        schedule(disconnected, reconnectGraceMillis);
+        return Departure.DISCONNECTED;
+    }
+
+    /**
+     * Ends a session: removes it from the registry and disarms its timer. Every path that ends
+     * a session goes through here, so no timer outlives its session.
+     *
+     * @return The session that was removed, or null if there was none.
+     */
+    ScreenShareSession end(UUID playerId) {
+        cancelTimer(playerId);
+        arrivedHere.remove(playerId);
+        return sessions.remove(playerId);
+    }
+
+    /**
+     * Ends every session on the network.
+     *
+     * @return The number of sessions removed.
+     */
+    int endAll() {
+        for (TimingWheel.Timeout timeout : timeouts.values()) {
+            timeout.cancel();
+        }
+        timeouts.clear();
+        arrivedHere.clear();
+        return sessions.clear();
+    }
+
+    // --- Timers ---
+
+    /**
+     * Re-arms the timers of sessions recovered from the journal, counting from when they
+     * entered their state, so a restart does not extend their deadline.
+     */
+    void restoreTimers() {
+        long now = clock.getAsLong();
+        for (ScreenShareSession session : sessions.sessions()) {
+            long window;
+            if (session.getState() == ScreenShareSession.State.PENDING) {
+                window = pendingTimeoutMillis;
+            } else if (session.getState() == ScreenShareSession.State.DISCONNECTED) {
+                window = reconnectGraceMillis;
+            } else {
+                continue;
+            }
+            schedule(session, Math.max(0, session.getStateSince() + window - now));
+        }
+    }
+
+    /**
+     * Arms the timer that expires a session if it is still in its current state after
+     * {@code delayMillis}, replacing any timer the session already had.
+     */
+    private void schedule(ScreenShareSession session, long delayMillis) {
+        UUID playerId = session.getPlayerId();
+        ScreenShareSession.State state = session.getState();
+        long since = session.getStateSince();
+        cancelTimer(playerId);
+        timeouts.put(playerId, timers.schedule((delayMillis + 49) / 50, () -> {
+            timeouts.remove(playerId);
+            expire(playerId, state, since);
+        }));
+    }
+
+    private void cancelTimer(UUID playerId) {
+        TimingWheel.Timeout timeout = timeouts.remove(playerId);
+        if (timeout != null) {
+            timeout.cancel();
+        }
+    }
+
+    /**
+     * Ends a session whose timer ran out, unless it has moved on since the timer was armed
+     * (the player arrived or reconnected, or the session was ended or restarted meanwhile,
+     * possibly by another instance).
+     */
+    private void expire(UUID playerId, ScreenShareSession.State expectedState, long since) {
+        ScreenShareSession session = sessions.get(playerId);
+        if (session == null || session.getState() != expectedState || session.getStateSince() != since) {
+            return;
+        }
+        end(playerId);
+        host.expired(session);
+    }
+
+    /**
+     * Marks a session ACTIVE once its player is on the SS server.
+     */
+    private void activate(UUID playerId) {
+        cancelTimer(playerId);
+        ScreenShareSession session = sessions.get(playerId);
+        if (session != null && session.getState() != ScreenShareSession.State.ACTIVE) {
+            sessions.put(session.withState(ScreenShareSession.State.ACTIVE, clock.getAsLong()));
+        }
+    }
+
+    // --- Tick ---
+
+    /**
+     * Fails the acknowledgements and drops the handoffs whose deadline has passed, then fires
+     * the session timers that are due. Called once per tick.
+     *
+     * @return The number of acknowledgements that timed out.
+     */
+    int tick() {
+        int timedOut = handoffAcks.expire();
+        pendingHandoffs.expire();
+        timers.advance();
+        return timedOut;
+    }
+
+    /**
+     * Fails every acknowledgement still awaited and forgets the announced handoffs, on shutdown.
+     */
+    void close() {
+        handoffAcks.cancelAll();
+        pendingHandoffs.clear();
+        arrivedHere.clear();
+    }
+
+    // --- Counts, for reports ---
+
+    int pendingAcks() {
+        return handoffAcks.size();
+    }
+
+    int pendingHandoffs() {
+        return pendingHandoffs.size();
+    }
+
+    int timers() {
+        return timers.size();
+    }
+}
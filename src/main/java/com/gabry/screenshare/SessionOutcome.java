@@ -0,0 +1,46 @@
+package com.gabry.screenshare;
+
+/**
+ * Result of starting or ending the screenshare session of one player, as reported back to
+ * the staff member. Bulk commands collect one outcome per player and print a summary.
+ * Also returned by {@link ScreenShareService}.
+ */
+public final class SessionOutcome {
+
+    public enum Status {
+        STARTED,
+        QUEUED,
+        ENDED,
+        SKIPPED,
+        FAILED
+    }
+
+    private final String playerName;
+    private final Status status;
+    private final String message;
+
+    private SessionOutcome(String playerName, Status status, String message) {
+        this.playerName = playerName;
+        this.status = status;
+        this.message = message;
+    }
+
+    static SessionOutcome of(String playerName, Status status, String message) {
+        return new SessionOutcome(playerName, status, message);
+    }
+
+    public String getPlayerName() {
+        return playerName;
+    }
+
+    public Status getStatus() {
+        return status;
+    }
+
+    /**
+     * @return The full, user-facing description of the outcome.
+     */
+    public String getMessage() {
+        return message;
+    }
+}
@@ -0,0 +1,493 @@
+package com.gabry.screenshare;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
+
+/**
+ * Network-wide replicated registry of screenshare sessions.
+ *
+ * Every ScreenShare instance holds a full copy. Local changes are stamped with a Lamport
+ * version and queued as deltas, which {@link #flush()} broadcasts (at most once per tick) to
+ * every other instance. Remote deltas are merged with last-writer-wins on
+ * (version, instance id), so all instances converge on the same state no matter in which
+ * order the proxy delivers the messages. Removed sessions are kept as tombstones for a while
+ * so a delayed delta cannot bring them back.
+ *
+ * An instance that joins the network asks for a full snapshot with {@link #requestSync};
+ * every instance that receives the request answers with its own snapshot, delivered
+ * straight to the requesting server.
+ *
+ * A delta the proxy loses (it drops messages carried by a player who is switching servers)
+ * would otherwise leave the other instances out of step until a restart. So every instance
+ * also broadcasts a digest of its live sessions periodically ({@link #broadcastDigest}); an
+ * instance holding something different answers with its snapshot. The period must stay well
+ * below the tombstone TTL, or a stale session could come back once the tombstone that
+ * outranks it has expired.
+ *
+ * All methods except the read accessors must be called from a single thread (the main thread).
+ */
+final class SessionRegistry {
+
+    // Message types, shared with the other ScreenShare Forward messages.
+    static final byte MSG_DELTA = 3;
+    static final byte MSG_SYNC_REQUEST = 4;
+    static final byte MSG_SNAPSHOT = 5;
+    static final byte MSG_DIGEST = 10;
+
+    // Entry kinds.
+    private static final byte ENTRY_TOMBSTONE = 0;
+    private static final byte ENTRY_SESSION = 1;
+
+    private static final int MAX_MESSAGE_BYTES = 30_000; // Forward payload length is an unsigned short.
+    private static final long TOMBSTONE_TTL_MILLIS = 10L * 60_000L;
+
+    /**
+     * Where the registry sends its messages. Implemented on top of the proxy's
+     * Forward/ForwardToPlayer subchannels, or by an in-process fake proxy.
+     */
+    interface Outbound {
+        /**
+         * Sends a message to every other ScreenShare instance.
+         */
+        void broadcast(byte[] message);
+
+        /**
+         * Sends a message to the ScreenShare instance on the server the given player is on.
+         */
+        void sendToPlayer(String playerName, byte[] message);
+    }
+
+    /**
+     * Receives every change applied to the registry, local or remote, for persistence.
+     */
+    interface Persister {
+        void put(UUID playerId, byte[] entry);
+
+        void remove(UUID playerId);
+    }
+
+    /**
+     * A versioned registry entry. A null session marks a tombstone.
+     */
+    static final class Entry {
+        final ScreenShareSession session;
+        final long version;
+        final String writer;
+        final long updatedAt; // Local clock, used to expire tombstones.
+
+        Entry(ScreenShareSession session, long version, String writer, long updatedAt) {
+            this.session = session;
+            this.version = version;
+            this.writer = writer;
+            this.updatedAt = updatedAt;
+        }
+
+        boolean supersedes(Entry other) {
+            return other == null || version > other.version
+                    || (version == other.version && writer.compareTo(other.writer) > 0);
+        }
+    }
+
+    private final Map<UUID, Entry> entries = new ConcurrentHashMap<>();
+    private final AtomicInteger liveSessions = new AtomicInteger();
+    private final AtomicLong changeCount = new AtomicLong();
+    private final Map<UUID, Entry> outboundDeltas = new LinkedHashMap<>();
+    private final String instanceId;
+    private final LongSupplier clock; // Milliseconds
+    private final Outbound outbound;
+    private Persister persister;
+    private long lamportClock;
+    private long digest; // XOR of the fingerprints of the live entries
+
+    SessionRegistry(String instanceId, LongSupplier clock, Outbound outbound) {
+        this.instanceId = instanceId;
+        this.clock = clock;
+        this.outbound = outbound;
+    }
+
+    void setPersister(Persister persister) {
+        this.persister = persister;
+    }
+
+    String getInstanceId() {
+        return instanceId;
+    }
+
+    // --- Reads (safe from any thread) ---
+
+    /**
+     * @return The active session of a player, or null if they are not being screenshared.
+     */
+    ScreenShareSession get(UUID playerId) {
+        Entry entry = entries.get(playerId);
+        return entry == null ? null : entry.session;
+    }
+
+    boolean contains(UUID playerId) {
+        return get(playerId) != null;
+    }
+
+    /**
+     * @return A snapshot of every active session on the network.
+     */
+    List<ScreenShareSession> sessions() {
+        List<ScreenShareSession> sessions = new ArrayList<>(liveSessions.get());
+        for (Entry entry : entries.values()) {
+            if (entry.session != null) {
+                sessions.add(entry.session);
+            }
+        }
+        return sessions;
+    }
+
+    int size() {
+        return liveSessions.get();
+    }
+
+    /**
+     * @return A counter bumped by every applied change, so derived views (such as a name index)
+     *         can tell whether they need rebuilding.
+     */
+    long getChangeCount() {
+        return changeCount.get();
+    }
+
+    // --- Local writes ---
+
+    /**
+     * Records a session started by this instance and queues it for replication.
+     */
+    void put(ScreenShareSession session) {
+        writeLocal(session.getPlayerId(), session);
+    }
+
+    /**
+     * Ends a session and queues the removal for replication.
+     *
+     * @return The session that was removed, or null if there was none.
+     */
+    ScreenShareSession remove(UUID playerId) {
+        ScreenShareSession previous = get(playerId);
+        if (previous != null) {
+            writeLocal(playerId, null);
+        }
+        return previous;
+    }
+
+    /**
+     * Ends every session on the network.
+     *
+     * @return The number of sessions removed.
+     */
+    int clear() {
+        int removed = 0;
+        for (ScreenShareSession session : sessions()) {
+            remove(session.getPlayerId());
+            removed++;
+        }
+        return removed;
+    }
+
+    private void writeLocal(UUID playerId, ScreenShareSession session) {
+        Entry current = entries.get(playerId);
+        lamportClock = Math.max(lamportClock, current == null ? 0 : current.version) + 1;
+        Entry entry = new Entry(session, lamportClock, instanceId, clock.getAsLong());
+        apply(playerId, current, entry);
+        outboundDeltas.put(playerId, entry); // Coalesces repeated changes to the same player.
+    }
+
+    private void apply(UUID playerId, Entry current, Entry entry) {
+        entries.put(playerId, entry);
+        changeCount.incrementAndGet();
+        int delta = (entry.session != null ? 1 : 0) - (current != null && current.session != null ? 1 : 0);
+        if (delta != 0) {
+            liveSessions.addAndGet(delta);
+        }
+        if (current != null && current.session != null) {
+            digest ^= fingerprint(playerId, current);
+        }
+        if (entry.session != null) {
+            digest ^= fingerprint(playerId, entry);
+        }
+        if (persister != null) {
+            if (entry.session != null) {
+                persister.put(playerId, encodeEntry(entry));
+            } else {
+                persister.remove(playerId);
+            }
+        }
+    }
+
+    /**
+     * Merges a remote entry, keeping whichever version wins.
+     *
+     * @return True if the remote entry was newer and has been applied.
+     */
+    private boolean merge(UUID playerId, Entry remote) {
+        lamportClock = Math.max(lamportClock, remote.version);
+        Entry current = entries.get(playerId);
+        if (!remote.supersedes(current)) {
+            return false;
+        }
+        apply(playerId, current, remote);
+        return true;
+    }
+
+    // --- Replication ---
+
+    /**
+     * Broadcasts every delta queued since the last flush, packed into as few messages as possible.
+     * Called once per tick.
+     */
+    void flush() {
+        if (outboundDeltas.isEmpty()) {
+            return;
+        }
+        for (byte[] message : encodeEntries(MSG_DELTA, outboundDeltas)) {
+            outbound.broadcast(message);
+        }
+        outboundDeltas.clear();
+    }
+
+    /**
+     * Asks every other instance for a full snapshot.
+     *
+     * @param replyToPlayer A player on this server; replies are routed to their server.
+     */
+    void requestSync(String replyToPlayer) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        try {
+            out.writeByte(MSG_SYNC_REQUEST);
+            out.writeUTF(instanceId);
+            out.writeUTF(replyToPlayer);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        outbound.broadcast(bytes.toByteArray());
+    }
+
+    /**
+     * Tells every other instance what this one holds, so any of them that differs answers with
+     * its snapshot. Called periodically.
+     *
+     * @param replyToPlayer A player on this server; snapshots are routed to their server.
+     */
+    void broadcastDigest(String replyToPlayer) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        try {
+            out.writeByte(MSG_DIGEST);
+            out.writeUTF(instanceId);
+            out.writeUTF(replyToPlayer);
+            out.writeInt(liveSessions.get());
+            out.writeLong(digest);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        outbound.broadcast(bytes.toByteArray());
+    }
+
+    /**
+     * Handles a registry message received from another instance.
+     *
+     * @param message The message, starting with its type byte.
+     * @return The number of entries that changed the local state.
+     */
+    int receive(byte[] message) {
+        return receive(message, 0, message.length);
+    }
+
+    /**
+     * Handles a registry message received from another instance, read in place from a region
+     * of a larger buffer (such as the proxy envelope it arrived in).
+     *
+     * @param buffer The buffer holding the message.
+     * @param offset Where the message, starting with its type byte, begins.
+     * @param length The length of the message.
+     * @return The number of entries that changed the local state.
+     */
+    int receive(byte[] buffer, int offset, int length) {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(buffer, offset, length));
+        try {
+            byte type = in.readByte();
+            String sender = in.readUTF();
+            if (sender.equals(instanceId)) {
+                return 0; // Our own broadcast echoed back.
+            }
+            if (type == MSG_SYNC_REQUEST) {
+                sendSnapshot(in.readUTF());
+                return 0;
+            }
+            if (type == MSG_DIGEST) {
+                String replyTo = in.readUTF();
+                int count = in.readInt();
+                long remoteDigest = in.readLong();
+                // The other direction is repaired by our own digest broadcast.
+                if (count != liveSessions.get() || remoteDigest != digest) {
+                    sendSnapshot(replyTo);
+                }
+                return 0;
+            }
+            int count = in.readUnsignedShort();
+            int changed = 0;
+            for (int i = 0; i < count; i++) {
+                UUID playerId = new UUID(in.readLong(), in.readLong());
+                if (merge(playerId, readEntry(in))) {
+                    changed++;
+                }
+            }
+            return changed;
+        } catch (IOException e) {
+            throw new UncheckedIOException("Malformed registry message", e);
+        }
+    }
+
+    private void sendSnapshot(String replyToPlayer) {
+        for (byte[] snapshot : encodeEntries(MSG_SNAPSHOT, entries)) {
+            outbound.sendToPlayer(replyToPlayer, snapshot);
+        }
+    }
+
+    /**
+     * Forgets tombstones old enough that no delayed delta can still refer to them.
+     *
+     * @return The number of tombstones removed.
+     */
+    int expireTombstones() {
+        long cutoff = clock.getAsLong() - TOMBSTONE_TTL_MILLIS;
+        int removed = 0;
+        for (Iterator<Entry> it = entries.values().iterator(); it.hasNext(); ) {
+            Entry entry = it.next();
+            if (entry.session == null && entry.updatedAt < cutoff) {
+                it.remove();
+                removed++;
+            }
+        }
+        return removed;
+    }
+
+    // --- Persistence ---
+
+    /**
+     * Loads entries recovered from the session journal. Called once on enable.
+     */
+    void restore(Map<UUID, byte[]> persisted) {
+        Persister saved = persister;
+        persister = null; // Already on disk.
+        try {
+            for (Map.Entry<UUID, byte[]> record : persisted.entrySet()) {
+                DataInputStream in = new DataInputStream(new ByteArrayInputStream(record.getValue()));
+                merge(record.getKey(), readEntry(in));
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Malformed journal entry", e);
+        } finally {
+            persister = saved;
+        }
+    }
+
+    // --- Encoding ---
+
+    private List<byte[]> encodeEntries(byte type, Map<UUID, Entry> source) {
+        List<byte[]> messages = new ArrayList<>();
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(body);
+        int count = 0;
+        try {
+            for (Map.Entry<UUID, Entry> entry : source.entrySet()) {
+                int before = body.size();
+                out.writeLong(entry.getKey().getMostSignificantBits());
+                out.writeLong(entry.getKey().getLeastSignificantBits());
+                writeEntry(out, entry.getValue());
+                count++;
+                if (body.size() > MAX_MESSAGE_BYTES || count == 0xFFFF) {
+                    // Too big: ship everything before this entry and start a new message with it.
+                    byte[] all = body.toByteArray();
+                    messages.add(frame(type, all, 0, before, count - 1));
+                    body.reset();
+                    body.write(all, before, all.length - before);
+                    count = 1;
+                }
+            }
+            if (count > 0 || messages.isEmpty()) {
+                byte[] all = body.toByteArray();
+                messages.add(frame(type, all, 0, all.length, count));
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return messages;
+    }
+
+    private byte[] frame(byte type, byte[] body, int offset, int length, int count) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(length + 64);
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeByte(type);
+        out.writeUTF(instanceId);
+        out.writeShort(count);
+        out.write(body, offset, length);
+        return bytes.toByteArray();
+    }
+
+    private static void writeEntry(DataOutputStream out, Entry entry) throws IOException {
+        out.writeLong(entry.version);
+        out.writeUTF(entry.writer);
+        out.writeByte(entry.session == null ? ENTRY_TOMBSTONE : ENTRY_SESSION);
+        if (entry.session != null) {
+            entry.session.writeTo(out);
+        }
+    }
+
+    private Entry readEntry(DataInputStream in) throws IOException {
+        long version = in.readLong();
+        String writer = in.readUTF();
+        byte kind = in.readByte();
+        if (kind != ENTRY_TOMBSTONE && kind != ENTRY_SESSION) {
+            throw new IOException("Unknown registry entry kind " + kind);
+        }
+        ScreenShareSession session = kind == ENTRY_TOMBSTONE ? null : ScreenShareSession.readFrom(in);
+        return new Entry(session, version, writer, clock.getAsLong());
+    }
+
+    /**
+     * @return A well-mixed hash of a live entry; (version, writer) identifies its content.
+     */
+    private static long fingerprint(UUID playerId, Entry entry) {
+        long hash = mix(playerId.getMostSignificantBits());
+        hash = mix(hash ^ playerId.getLeastSignificantBits());
+        hash = mix(hash ^ entry.version);
+        return mix(hash ^ entry.writer.hashCode());
+    }
+
+    private static long mix(long z) { // SplitMix64 finalizer
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+
+    private static byte[] encodeEntry(Entry entry) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(128);
+        try {
+            writeEntry(new DataOutputStream(bytes), entry);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return bytes.toByteArray();
+    }
+}
@@ -0,0 +1,772 @@
+package com.gabry.screenshare;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.net.StandardProtocolFamily;
+import java.net.StandardSocketOptions;
+import java.net.UnixDomainSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Queue;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * {@link Transport} over direct connections between backends (TCP, or Unix-domain sockets
+ * for servers on the same host), so instances keep talking while nobody is online and their
+ * traffic stays off the proxy.
+ *
+ * Every server listens on its own address and opens one connection to each configured peer,
+ * used only for sending; what arrives on accepted connections is only read. A connection
+ * starts with a challenge-response: the listener writes {@value #CHALLENGE_BYTES} random
+ * bytes, and the connecting server answers with a hello carrying its name and an HMAC-SHA256,
+ * keyed by the shared secret, of the challenge and its name. The listener answers with a
+ * single byte if the HMAC matches and closes the connection otherwise, so a peer only counts
+ * as up once it has accepted us, and nothing but the hello is written before that. The secret
+ * itself never travels, but the traffic is not encrypted: the bus belongs on a trusted network
+ * (loopback, Unix-domain sockets, or a private network between the backends). At most
+ * {@value #MAX_UNAUTHENTICATED_CONNECTIONS} accepted connections may be waiting for their
+ * hello, each for at most five seconds, so connections that never
+ * authenticate cannot pile up.
+ * After the hello the connection carries length-prefixed frames:
+ * <pre>
+ * int length | byte kind | [UTF player name, for messages addressed to a player] | message
+ * </pre>
+ * Messages sent during a tick are appended to a per-peer batch, which {@link #tick()} hands
+ * to the I/O thread as a single buffer: one write per peer per tick, however many messages.
+ * A message for a player goes to every peer and is kept only by the server the player is on.
+ *
+ * The sockets are served by one NIO selector on a daemon thread, which never calls back into
+ * the plugin: received frames wait in a queue until {@link #tick()} delivers them on the main
+ * thread. Lost connections are retried with exponential backoff; meanwhile messages are queued,
+ * up to {@link #MAX_QUEUED_BYTES} per peer.
+ */
+final class SocketBusTransport implements Transport {
+
+    static final int MAX_FRAME_BYTES = 1 << 20;
+    private static final long MAX_QUEUED_BYTES = 4L << 20; // Per peer, while it is unreachable
+    private static final long MIN_RECONNECT_MILLIS = 1_000L;
+    private static final long MAX_RECONNECT_MILLIS = 30_000L;
+    private static final int CHALLENGE_BYTES = 16;
+    private static final int MAX_HELLO_BYTES = 512;
+    private static final int MAX_UNAUTHENTICATED_CONNECTIONS = 16;
+    private static final long HELLO_TIMEOUT_MILLIS = 5_000L;
+
+    private static final byte FRAME_HELLO = 0;
+    private static final byte FRAME_SERVER = 1;
+    private static final byte FRAME_PLAYER = 2;
+    private static final byte HELLO_ACCEPTED = 1; // The listener's only reply
+
+    /**
+     * A server this one sends to.
+     */
+    private static final class Peer {
+        final String name;
+        final SocketAddress address;
+        final PluginMessageCodec.Writer batch = new PluginMessageCodec.Writer(1024); // Main thread: this tick's frames
+        final Queue<ByteBuffer> handedOff = new ConcurrentLinkedQueue<>(); // Main thread -> I/O thread
+        volatile boolean up; // Read by describe()
+
+        // I/O thread only.
+        final ArrayDeque<ByteBuffer> queue = new ArrayDeque<>();
+        long queuedBytes;
+        SocketChannel channel;
+        ByteBuffer challenge; // Read from the listener on each new connection, before anything is written
+        ByteBuffer hello; // Answers the challenge, written before the queue
+        long reconnectAt;
+        long backoffMillis = MIN_RECONNECT_MILLIS;
+        boolean reportedDown;
+        boolean overflowing;
+
+        Peer(String name, SocketAddress address) {
+            this.name = name;
+            this.address = address;
+        }
+    }
+
+    /**
+     * A connection accepted from another server, read frame by frame.
+     */
+    private static final class Connection {
+        final SocketChannel channel;
+        final byte[] challenge;
+        final long acceptedAt;
+        ByteBuffer buffer = ByteBuffer.allocate(16 * 1024);
+        String server; // Set by the hello
+
+        Connection(SocketChannel channel, byte[] challenge, long acceptedAt) {
+            this.channel = channel;
+            this.challenge = challenge;
+            this.acceptedAt = acceptedAt;
+        }
+    }
+
+    /**
+     * A link state change, reported on the main thread.
+     */
+    private static final class LinkEvent {
+        final String server;
+        final boolean up;
+        final String detail;
+
+        LinkEvent(String server, boolean up, String detail) {
+            this.server = server;
+            this.up = up;
+            this.detail = detail;
+        }
+    }
+
+    private final String serverName;
+    private final String listenDescription;
+    private final SocketAddress listenAddress;
+    private final SecretKeySpec key;
+    private final Map<String, Peer> peers; // Keyed by lower-case name, in configuration order
+    private final Inbound inbound;
+    private final Selector selector;
+    private final ServerSocketChannel listener;
+    private final Thread thread;
+    private final Queue<byte[]> received = new ConcurrentLinkedQueue<>();
+    private final Queue<LinkEvent> linkEvents = new ConcurrentLinkedQueue<>();
+    private final ArrayDeque<Connection> unauthenticated = new ArrayDeque<>(); // I/O thread only, oldest first
+    private final SecureRandom random = new SecureRandom(); // I/O thread only
+    private volatile boolean closed;
+
+    private SocketBusTransport(String serverName, String listenDescription, SocketAddress listenAddress, SecretKeySpec key,
+                               Map<String, Peer> peers, Inbound inbound, Selector selector, ServerSocketChannel listener) {
+        this.serverName = serverName;
+        this.listenDescription = listenDescription;
+        this.listenAddress = listenAddress;
+        this.key = key;
+        this.peers = peers;
+        this.inbound = inbound;
+        this.selector = selector;
+        this.listener = listener;
+        this.thread = new Thread(this::run, "ScreenShare-SocketBus");
+        this.thread.setDaemon(true);
+    }
+
+    /**
+     * Starts listening and connecting to the peers.
+     *
+     * @param serverName This server's proxy name.
+     * @param listen Where to listen: "host:port" or "unix:/path/to/socket".
+     * @param peers Every server of the bus by proxy name, with its listen address; this server
+     *              may be among them (so every server can share the same list) and is skipped.
+     * @param secret The shared secret every server of the bus is configured with.
+     * @param inbound Receives messages and link changes, on the main thread.
+     * @throws IOException If the listen address cannot be bound.
+     * @throws IllegalArgumentException If an address is malformed.
+     */
+    static SocketBusTransport start(String serverName, String listen, Map<String, String> peers, String secret,
+                                    Inbound inbound) throws IOException {
+        SocketAddress listenAddress = resolve(parseAddress(listen));
+        Map<String, Peer> peerMap = new LinkedHashMap<>();
+        for (Map.Entry<String, String> peer : peers.entrySet()) {
+            if (!peer.getKey().equalsIgnoreCase(serverName)) {
+                peerMap.put(peer.getKey().toLowerCase(Locale.ROOT), new Peer(peer.getKey(), parseAddress(peer.getValue())));
+            }
+        }
+
+        Selector selector = Selector.open();
+        ServerSocketChannel listener = null;
+        try {
+            if (listenAddress instanceof UnixDomainSocketAddress) {
+                // A socket file left behind by a crash would make the bind fail.
+                Files.deleteIfExists(((UnixDomainSocketAddress) listenAddress).getPath());
+                listener = ServerSocketChannel.open(StandardProtocolFamily.UNIX);
+            } else {
+                listener = ServerSocketChannel.open();
+                listener.setOption(StandardSocketOptions.SO_REUSEADDR, true);
+            }
+            listener.bind(listenAddress);
+            listener.configureBlocking(false);
+            listener.register(selector, SelectionKey.OP_ACCEPT);
+        } catch (IOException | RuntimeException e) {
+            if (listener != null) {
+                listener.close();
+            }
+            selector.close();
+            throw e;
+        }
+        SocketBusTransport transport = new SocketBusTransport(serverName, listen, listenAddress,
+                keyOf(secret), peerMap, inbound, selector, listener);
+        transport.thread.start();
+        return transport;
+    }
+
+    /**
+     * Parses a bus address without resolving host names, which happens on each connection attempt.
+     *
+     * @param value "host:port", "[ipv6]:port" or "unix:/path/to/socket".
+     * @throws IllegalArgumentException If the address is malformed.
+     */
+    static SocketAddress parseAddress(String value) {
+        String trimmed = value == null ? "" : value.trim();
+        if (trimmed.startsWith("unix:")) {
+            String path = trimmed.substring("unix:".length());
+            if (path.isEmpty()) {
+                throw new IllegalArgumentException("Missing socket path in '" + value + "'");
+            }
+            return UnixDomainSocketAddress.of(path);
+        }
+        int colon = trimmed.lastIndexOf(':');
+        if (colon <= 0 || colon == trimmed.length() - 1) {
+            throw new IllegalArgumentException("Expected host:port or unix:/path, got '" + value + "'");
+        }
+        String host = trimmed.substring(0, colon);
+        if (host.startsWith("[") && host.endsWith("]")) {
+            host = host.substring(1, host.length() - 1);
+        }
+        int port;
+        try {
+            port = Integer.parseInt(trimmed.substring(colon + 1));
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid port in '" + value + "'");
+        }
+        if (port < 1 || port > 65535) {
+            throw new IllegalArgumentException("Invalid port in '" + value + "'");
+        }
+        return InetSocketAddress.createUnresolved(host, port);
+    }
+
+    /**
+     * The HMAC key, derived from the secret so that any secret (even an empty one) gives a
+     * key of the same length.
+     */
+    private static SecretKeySpec keyOf(String secret) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(secret.getBytes(StandardCharsets.UTF_8));
+            return new SecretKeySpec(digest, "HmacSHA256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
+    }
+
+    private static SocketAddress resolve(SocketAddress address) {
+        if (address instanceof InetSocketAddress && ((InetSocketAddress) address).isUnresolved()) {
+            InetSocketAddress unresolved = (InetSocketAddress) address;
+            return new InetSocketAddress(unresolved.getHostString(), unresolved.getPort());
+        }
+        return address;
+    }
+
+    // --- Main thread ---
+
+    @Override
+    public boolean canSend() {
+        return !closed;
+    }
+
+    @Override
+    public boolean send(String targetServer, byte[] message, UUID preferredVia) {
+        if (targetServer.equals("ALL")) {
+            return broadcast(message);
+        }
+        Peer peer = peers.get(targetServer.toLowerCase(Locale.ROOT));
+        if (peer == null || closed || message.length + 1 > MAX_FRAME_BYTES) {
+            return false;
+        }
+        peer.batch.writeInt(message.length + 1).writeByte(FRAME_SERVER).write(message);
+        return true;
+    }
+
+    @Override
+    public boolean broadcast(byte[] message) {
+        if (closed || message.length + 1 > MAX_FRAME_BYTES) {
+            return false;
+        }
+        for (Peer peer : peers.values()) {
+            peer.batch.writeInt(message.length + 1).writeByte(FRAME_SERVER).write(message);
+        }
+        return true;
+    }
+
+    @Override
+    public boolean sendToPlayer(String playerName, byte[] message) {
+        byte[] frame = new PluginMessageCodec.Writer(message.length + playerName.length() * 3 + 3)
+                .writeByte(FRAME_PLAYER)
+                .writeUTF(playerName)
+                .write(message)
+                .toByteArray();
+        if (closed || frame.length > MAX_FRAME_BYTES) {
+            return false;
+        }
+        for (Peer peer : peers.values()) {
+            peer.batch.writeInt(frame.length).write(frame);
+        }
+        return true;
+    }
+
+    @Override
+    public void tick() {
+        boolean handedOff = false;
+        for (Peer peer : peers.values()) {
+            if (peer.batch.size() > 0) {
+                peer.handedOff.add(ByteBuffer.wrap(peer.batch.toByteArray()));
+                peer.batch.reset();
+                handedOff = true;
+            }
+        }
+        if (handedOff && !closed) {
+            selector.wakeup();
+        }
+
+        for (LinkEvent event; (event = linkEvents.poll()) != null; ) {
+            inbound.linkChanged(event.server, event.up, event.detail);
+        }
+        for (byte[] frame; (frame = received.poll()) != null; ) {
+            PluginMessageCodec.Reader in = PluginMessageCodec.read(frame);
+            try {
+                if (in.readByte() == FRAME_PLAYER && !inbound.isLocalPlayer(in.readUTF())) {
+                    continue; // Addressed to a player on another server.
+                }
+            } catch (IllegalStateException | UncheckedIOException e) {
+                inbound.malformed(frame.length, e); // Skip it, not the rest of the tick's frames.
+                continue;
+            }
+            inbound.receive(in.slice(in.remaining()));
+        }
+    }
+
+    @Override
+    public void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        selector.wakeup();
+        try {
+            thread.join(2_000L);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    @Override
+    public String describe() {
+        StringBuilder out = new StringBuilder("socket bus ").append(serverName).append(" @ ").append(listenDescription);
+        if (peers.isEmpty()) {
+            return out.append(", no peers").toString();
+        }
+        out.append(", peers:");
+        for (Peer peer : peers.values()) {
+            out.append(' ').append(peer.name).append(peer.up ? " (up)" : " (down)");
+        }
+        return out.toString();
+    }
+
+    // --- I/O thread ---
+
+    private void run() {
+        try {
+            while (!closed) {
+                long now = System.currentTimeMillis();
+                long wait = MAX_RECONNECT_MILLIS;
+                for (Peer peer : peers.values()) {
+                    takeHandedOff(peer);
+                    if (peer.channel == null && now >= peer.reconnectAt) {
+                        connect(peer);
+                    }
+                    if (peer.channel == null) {
+                        wait = Math.min(wait, Math.max(1L, peer.reconnectAt - now));
+                    } else if (peer.channel.isConnected()) {
+                        updateInterest(peer);
+                    }
+                }
+                wait = Math.min(wait, expireUnauthenticated(now));
+                selector.select(wait);
+                for (SelectionKey key : selector.selectedKeys()) {
+                    handle(key);
+                }
+                selector.selectedKeys().clear();
+            }
+            // Last chance for what the final tick handed off; whatever does not fit the socket buffers is lost.
+            for (Peer peer : peers.values()) {
+                takeHandedOff(peer);
+                if (peer.channel != null && peer.channel.isConnected()) {
+                    write(peer);
+                }
+            }
+        } catch (IOException | ClosedSelectorException e) {
+            linkEvents.add(new LinkEvent(serverName, false, "socket bus stopped: " + e));
+        } finally {
+            shutdown();
+        }
+    }
+
+    private void takeHandedOff(Peer peer) {
+        for (ByteBuffer batch; (batch = peer.handedOff.poll()) != null; ) {
+            if (peer.queuedBytes + batch.remaining() > MAX_QUEUED_BYTES) {
+                if (!peer.overflowing) {
+                    peer.overflowing = true;
+                    linkEvents.add(new LinkEvent(peer.name, false, "send queue full, dropping messages"));
+                }
+                continue;
+            }
+            peer.overflowing = false;
+            peer.queue.add(batch);
+            peer.queuedBytes += batch.remaining();
+        }
+    }
+
+    private void connect(Peer peer) {
+        SocketChannel channel = null;
+        try {
+            SocketAddress address = resolve(peer.address);
+            if (address instanceof UnixDomainSocketAddress) {
+                channel = SocketChannel.open(StandardProtocolFamily.UNIX);
+            } else {
+                channel = SocketChannel.open();
+                channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+            }
+            channel.configureBlocking(false);
+            peer.channel = channel;
+            peer.challenge = ByteBuffer.allocate(CHALLENGE_BYTES);
+            if (channel.connect(address)) {
+                channel.register(selector, SelectionKey.OP_READ, peer);
+            } else {
+                channel.register(selector, SelectionKey.OP_CONNECT, peer);
+            }
+        } catch (IOException | RuntimeException e) {
+            if (channel != null) {
+                peer.channel = channel;
+            }
+            disconnect(peer, e.toString());
+        }
+    }
+
+    private byte[] helloFrame(byte[] challenge) {
+        byte[] body = new PluginMessageCodec.Writer(64)
+                .writeByte(FRAME_HELLO)
+                .writeUTF(serverName)
+                .write(proof(challenge, serverName))
+                .toByteArray();
+        return new PluginMessageCodec.Writer(body.length + 4).writeInt(body.length).write(body).toByteArray();
+    }
+
+    private void accepted(Peer peer) {
+        peer.backoffMillis = MIN_RECONNECT_MILLIS;
+        peer.up = true;
+        if (peer.reportedDown || peer.reconnectAt == 0) {
+            linkEvents.add(new LinkEvent(peer.name, true, null));
+        }
+        peer.reportedDown = false;
+    }
+
+    /**
+     * Closes a peer's connection and schedules the next attempt. A batch cut off halfway would
+     * corrupt the framing of the next connection, so it is dropped.
+     */
+    private void disconnect(Peer peer, String reason) {
+        if (peer.channel != null) {
+            try {
+                peer.channel.close();
+            } catch (IOException ignored) {
+                // Already broken.
+            }
+        }
+        peer.channel = null;
+        peer.challenge = null;
+        peer.hello = null;
+        ByteBuffer head = peer.queue.peek();
+        if (head != null && head.position() > 0) {
+            peer.queue.poll();
+            peer.queuedBytes -= head.limit();
+        }
+        peer.up = false;
+        peer.reconnectAt = System.currentTimeMillis() + peer.backoffMillis;
+        peer.backoffMillis = Math.min(peer.backoffMillis * 2, MAX_RECONNECT_MILLIS);
+        if (!peer.reportedDown) {
+            peer.reportedDown = true;
+            linkEvents.add(new LinkEvent(peer.name, false, reason));
+        }
+    }
+
+    private void updateInterest(Peer peer) {
+        SelectionKey key = peer.channel.keyFor(selector);
+        if (key != null && key.isValid()) {
+            boolean pending = (peer.hello != null && peer.hello.hasRemaining()) || (peer.up && !peer.queue.isEmpty());
+            key.interestOps(SelectionKey.OP_READ | (pending ? SelectionKey.OP_WRITE : 0));
+        }
+    }
+
+    private void handle(SelectionKey key) {
+        if (!key.isValid()) {
+            return;
+        }
+        if (key.isAcceptable()) {
+            accept();
+            return;
+        }
+        Object attachment = key.attachment();
+        if (attachment instanceof Peer) {
+            Peer peer = (Peer) attachment;
+            try {
+                if (key.isConnectable()) {
+                    peer.channel.finishConnect();
+                    key.interestOps(SelectionKey.OP_READ);
+                }
+                if (key.isValid() && key.isReadable() && drainPeerReply(peer)) {
+                    disconnect(peer, peer.up ? "connection closed by " + peer.name
+                            : "rejected by " + peer.name + " (different secret?)");
+                    return;
+                }
+                if (key.isValid() && key.isWritable()) {
+                    write(peer);
+                    updateInterest(peer);
+                }
+            } catch (IOException e) {
+                disconnect(peer, e.toString());
+            }
+        } else if (attachment instanceof Connection) {
+            Connection connection = (Connection) attachment;
+            try {
+                if (!read(connection)) {
+                    close(connection);
+                }
+            } catch (IOException e) {
+                close(connection);
+            }
+        }
+    }
+
+    /**
+     * Reads what the peer writes on our connection: the challenge, which our hello answers, then
+     * its acceptance of the hello; after that, reading only tells whether it closed the connection.
+     *
+     * @return True if the connection was closed.
+     */
+    private boolean drainPeerReply(Peer peer) throws IOException {
+        ByteBuffer reply = ByteBuffer.allocate(256);
+        int read;
+        while ((read = peer.channel.read(reply)) > 0) {
+            reply.flip();
+            if (peer.challenge.hasRemaining()) {
+                while (peer.challenge.hasRemaining() && reply.hasRemaining()) {
+                    peer.challenge.put(reply.get());
+                }
+                if (!peer.challenge.hasRemaining()) {
+                    peer.hello = ByteBuffer.wrap(helloFrame(peer.challenge.array())); // Written once updateInterest asks for OP_WRITE
+                }
+            }
+            if (!peer.up && reply.hasRemaining() && reply.get() == HELLO_ACCEPTED) {
+                accepted(peer);
+            }
+            reply.clear();
+        }
+        return read < 0;
+    }
+
+    /**
+     * Writes the hello, then (once the peer has accepted it) the queued batches. Until then the
+     * batches stay queued: a listener that rejects the hello would read them and throw them away.
+     */
+    private void write(Peer peer) throws IOException {
+        if (peer.hello != null) {
+            peer.channel.write(peer.hello);
+            if (peer.hello.hasRemaining()) {
+                return;
+            }
+            peer.hello = null;
+        }
+        if (!peer.up) {
+            return; // Resumed by updateInterest once drainPeerReply sees HELLO_ACCEPTED.
+        }
+        while (!peer.queue.isEmpty()) {
+            ByteBuffer head = peer.queue.peek();
+            peer.channel.write(head);
+            if (head.hasRemaining()) {
+                return; // Socket buffer full: continue when it is writable again.
+            }
+            peer.queue.poll();
+            peer.queuedBytes -= head.limit();
+        }
+    }
+
+    /**
+     * Accepts pending connections and sends each its challenge. Beyond
+     * {@link #MAX_UNAUTHENTICATED_CONNECTIONS} waiting for their hello, new connections are
+     * closed at once; a real peer retries, by then the waiting ones have timed out.
+     */
+    private void accept() {
+        try {
+            SocketChannel channel;
+            while ((channel = listener.accept()) != null) {
+                if (unauthenticated.size() >= MAX_UNAUTHENTICATED_CONNECTIONS) {
+                    channel.close();
+                    continue;
+                }
+                try {
+                    channel.configureBlocking(false);
+                    if (!(listenAddress instanceof UnixDomainSocketAddress)) {
+                        channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+                    }
+                    byte[] challenge = new byte[CHALLENGE_BYTES];
+                    random.nextBytes(challenge);
+                    channel.write(ByteBuffer.wrap(challenge)); // An empty send buffer always takes it whole.
+                    Connection connection = new Connection(channel, challenge, System.currentTimeMillis());
+                    channel.register(selector, SelectionKey.OP_READ, connection);
+                    unauthenticated.add(connection);
+                } catch (IOException e) {
+                    channel.close();
+                }
+            }
+        } catch (IOException e) {
+            linkEvents.add(new LinkEvent(serverName, false, "could not accept a connection: " + e));
+        }
+    }
+
+    /**
+     * Closes the accepted connections that have not sent a valid hello in time.
+     *
+     * @return How long until the next one times out.
+     */
+    private long expireUnauthenticated(long now) {
+        for (Connection oldest; (oldest = unauthenticated.peek()) != null; ) {
+            long left = oldest.acceptedAt + HELLO_TIMEOUT_MILLIS - now;
+            if (left > 0) {
+                return left;
+            }
+            close(oldest);
+        }
+        return MAX_RECONNECT_MILLIS;
+    }
+
+    private void close(Connection connection) {
+        unauthenticated.remove(connection);
+        try {
+            connection.channel.close();
+        } catch (IOException ignored) {
+            // Already broken.
+        }
+    }
+
+    /**
+     * Reads what arrived on an accepted connection and queues every complete frame.
+     *
+     * @return False if the connection must be closed: end of stream, a bad hello or a malformed frame.
+     */
+    private boolean read(Connection connection) throws IOException {
+        int read = connection.channel.read(connection.buffer);
+        if (read < 0) {
+            return false;
+        }
+        ByteBuffer buffer = connection.buffer;
+        buffer.flip();
+        int needed = 0;
+        while (buffer.remaining() >= 4) {
+            int length = buffer.getInt(buffer.position());
+            if (length <= 0 || length > (connection.server == null ? MAX_HELLO_BYTES : MAX_FRAME_BYTES)) {
+                return false;
+            }
+            if (buffer.remaining() < 4 + length) {
+                needed = 4 + length;
+                break;
+            }
+            buffer.getInt();
+            byte[] frame = new byte[length];
+            buffer.get(frame);
+            if (connection.server == null) {
+                // The first frame must be a hello answering our challenge.
+                connection.server = checkHello(connection, frame);
+                if (connection.server == null) {
+                    return false;
+                }
+                unauthenticated.remove(connection);
+                connection.channel.write(ByteBuffer.wrap(new byte[] {HELLO_ACCEPTED}));
+            } else if (frame[0] == FRAME_SERVER || frame[0] == FRAME_PLAYER) {
+                received.add(frame);
+            }
+        }
+        buffer.compact();
+        if (needed > buffer.capacity()) {
+            ByteBuffer larger = ByteBuffer.allocate(Math.max(needed, buffer.capacity() * 2));
+            buffer.flip();
+            larger.put(buffer);
+            connection.buffer = larger;
+        }
+        return true;
+    }
+
+    /**
+     * @return The sender's server name, or null if the frame is not a hello proving the secret
+     * for this connection's challenge.
+     */
+    private String checkHello(Connection connection, byte[] frame) {
+        try {
+            PluginMessageCodec.Reader in = PluginMessageCodec.read(frame);
+            if (in.readByte() != FRAME_HELLO) {
+                return null;
+            }
+            String server = in.readUTF();
+            byte[] theirProof = in.readBytes(in.remaining());
+            return MessageDigest.isEqual(proof(connection.challenge, server), theirProof) ? server : null;
+        } catch (RuntimeException e) {
+            return null;
+        }
+    }
+
+    /**
+     * @return HMAC-SHA256 of a challenge and the name of the server answering it, which binds
+     * the answer to both.
+     */
+    private byte[] proof(byte[] challenge, String server) {
+        try {
+            Mac mac = Mac.getInstance("HmacSHA256");
+            mac.init(key);
+            mac.update(challenge);
+            return mac.doFinal(server.getBytes(StandardCharsets.UTF_8));
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("HmacSHA256 is not available", e);
+        }
+    }
+
+    private void shutdown() {
+        List<SelectionKey> keys = new ArrayList<>();
+        try {
+            keys.addAll(selector.keys());
+        } catch (ClosedSelectorException ignored) {
+            // Nothing registered any more.
+        }
+        for (SelectionKey key : keys) {
+            try {
+                key.channel().close();
+            } catch (IOException ignored) {
+                // Closing anyway.
+            }
+        }
+        for (Peer peer : peers.values()) {
+            peer.up = false;
+        }
+        try {
+            listener.close();
+            selector.close();
+            if (listenAddress instanceof UnixDomainSocketAddress) {
+                Files.deleteIfExists(((UnixDomainSocketAddress) listenAddress).getPath());
+            }
+        } catch (IOException ignored) {
+            // Nothing more to release.
+        }
+    }
+}
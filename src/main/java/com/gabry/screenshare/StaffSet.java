@@ -0,0 +1,109 @@
+package com.gabry.screenshare;
+
+import java.util.ArrayDeque;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+import java.util.function.Predicate;
+
+/**
+ * The online players on this server who hold a permission, kept up to date incrementally so
+ * that notifying them never walks every online player.
+ *
+ * Players are checked when they join and dropped when they quit. Permissions can also change
+ * while a player is online (a rank change, a group edit), and Bukkit has no event for that, so
+ * {@link #rescan} re-checks a fixed number of players per call in round-robin order: every
+ * online player is re-checked once per cycle at a constant cost per tick.
+ *
+ * Membership changes happen on the main thread; {@link #members()} is safe from any thread.
+ *
+ * @param <P> The player type (Bukkit's Player in the plugin).
+ */
+final class StaffSet<P> {
+
+    private final Set<UUID> members = ConcurrentHashMap.newKeySet();
+    private final Deque<UUID> rescanQueue = new ArrayDeque<>();
+    private final Predicate<P> isStaff;
+    private final Function<P, UUID> idOf;
+
+    /**
+     * @param isStaff Whether a player belongs in the set (typically a permission check).
+     * @param idOf The UUID of a player.
+     */
+    StaffSet(Predicate<P> isStaff, Function<P, UUID> idOf) {
+        this.isStaff = isStaff;
+        this.idOf = idOf;
+    }
+
+    /**
+     * Re-checks one player, adding or removing them.
+     *
+     * @return True if the player is staff.
+     */
+    boolean update(P player) {
+        UUID id = idOf.apply(player);
+        if (isStaff.test(player)) {
+            members.add(id);
+            return true;
+        }
+        members.remove(id);
+        return false;
+    }
+
+    void remove(UUID playerId) {
+        members.remove(playerId);
+    }
+
+    /**
+     * Re-checks up to {@code budget} online players, continuing where the previous call stopped.
+     * When a cycle is complete the next one starts from a fresh snapshot of the online players.
+     *
+     * @param online The players currently online.
+     * @param lookup Finds an online player by UUID, or returns null if they left.
+     * @param budget The maximum number of players to check.
+     * @return The number of players checked.
+     */
+    int rescan(Collection<? extends P> online, Function<UUID, P> lookup, int budget) {
+        if (rescanQueue.isEmpty()) {
+            for (P player : online) {
+                rescanQueue.addLast(idOf.apply(player));
+            }
+        }
+        int checked = 0;
+        while (checked < budget && !rescanQueue.isEmpty()) {
+            UUID id = rescanQueue.pollFirst();
+            P player = lookup.apply(id);
+            if (player == null) {
+                members.remove(id);
+            } else {
+                update(player);
+            }
+            checked++;
+        }
+        return checked;
+    }
+
+    boolean contains(UUID playerId) {
+        return members.contains(playerId);
+    }
+
+    /**
+     * @return A read-only view of the staff members' UUIDs.
+     */
+    Set<UUID> members() {
+        return Collections.unmodifiableSet(members);
+    }
+
+    int size() {
+        return members.size();
+    }
+
+    void clear() {
+        members.clear();
+        rescanQueue.clear();
+    }
+}
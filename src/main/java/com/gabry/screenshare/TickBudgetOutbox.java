@@ -0,0 +1,67 @@
+package com.gabry.screenshare;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+
+/**
+ * Pipelines outgoing proxy messages under a per-tick send budget.
+ *
+ * A message submitted while the current tick still has budget left is sent immediately, so a
+ * single /ss is never delayed. Anything beyond the budget waits in FIFO order and is sent by
+ * {@link #tick()} on the following ticks, which keeps a bulk command from flooding the proxy
+ * connection in one tick.
+ *
+ * This class is not thread-safe; it is only used from the main thread.
+ */
+final class TickBudgetOutbox {
+
+    private final Deque<Runnable> pending = new ArrayDeque<>();
+    private int budgetPerTick;
+    private int sentThisTick;
+
+    TickBudgetOutbox(int budgetPerTick) {
+        this.budgetPerTick = Math.max(1, budgetPerTick);
+    }
+
+    /**
+     * Sends a message now if the budget allows it, otherwise queues it.
+     *
+     * @param send The action that sends the message.
+     */
+    void submit(Runnable send) {
+        if (pending.isEmpty() && sentThisTick < budgetPerTick) {
+            sentThisTick++;
+            send.run();
+        } else {
+            pending.addLast(send);
+        }
+    }
+
+    /**
+     * Starts a new tick: resets the budget and sends as much of the backlog as it allows.
+     */
+    void tick() {
+        sentThisTick = 0;
+        while (sentThisTick < budgetPerTick && !pending.isEmpty()) {
+            sentThisTick++;
+            pending.pollFirst().run();
+        }
+    }
+
+    /**
+     * Sends everything still queued, ignoring the budget. Used on plugin disable.
+     */
+    void drain() {
+        while (!pending.isEmpty()) {
+            pending.pollFirst().run();
+        }
+    }
+
+    int backlog() {
+        return pending.size();
+    }
+
+    void setBudgetPerTick(int budgetPerTick) {
+        this.budgetPerTick = Math.max(1, budgetPerTick);
+    }
+}
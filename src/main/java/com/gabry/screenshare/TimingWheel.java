@@ -0,0 +1,159 @@
+package com.gabry.screenshare;
+
+/**
+ * Hashed timing wheel: timers that fire after a number of server ticks.
+ *
+ * Timers hash into one of a fixed number of slots by their deadline, and each {@link #advance()}
+ * visits a single slot. A timer whose deadline is more than one revolution away simply stays in
+ * its slot until its remaining rounds reach zero. Scheduling, cancelling and firing are O(1)
+ * each, so thousands of session timers cost the tick only the timers that are actually due
+ * (plus the few that share their slot), instead of a scan of every session.
+ *
+ * Slots are intrusive doubly-linked lists so a cancelled timer is unlinked immediately.
+ * The wheel counts ticks rather than reading a clock, so tests drive it by calling advance().
+ *
+ * This class is not thread-safe; it is only used from the main thread.
+ */
+final class TimingWheel {
+
+    /**
+     * A scheduled timer.
+     */
+    final class Timeout {
+        private final Runnable task;
+        private long rounds;
+        private int slot = DONE; // Slot index while scheduled, FIRING while due in advance(), else DONE
+        private Timeout prev;
+        private Timeout next;
+
+        private Timeout(Runnable task) {
+            this.task = task;
+        }
+
+        /**
+         * Stops the timer. Does nothing if it already fired or was cancelled.
+         *
+         * @return True if the timer was still pending.
+         */
+        boolean cancel() {
+            if (slot == DONE) {
+                return false;
+            }
+            if (slot == FIRING) {
+                slot = DONE; // Due this tick but not run yet: advance() skips it.
+            } else {
+                unlink(this);
+            }
+            return true;
+        }
+
+        boolean isPending() {
+            return slot != DONE;
+        }
+    }
+
+    private static final int DONE = -1;
+    private static final int FIRING = -2;
+
+    private final Timeout[] heads;
+    private final int mask;
+    private long tick;
+    private int size;
+
+    /**
+     * @param slots The number of slots, rounded up to a power of two. A revolution lasts this many ticks.
+     */
+    TimingWheel(int slots) {
+        int capacity = Integer.highestOneBit(Math.max(1, slots - 1)) << 1;
+        this.heads = new Timeout[capacity];
+        this.mask = capacity - 1;
+    }
+
+    /**
+     * Schedules a task.
+     *
+     * @param delayTicks Ticks from now; values below 1 fire on the next advance.
+     * @param task Runs on the thread calling {@link #advance()}.
+     * @return A handle to cancel the timer.
+     */
+    Timeout schedule(long delayTicks, Runnable task) {
+        long delay = Math.max(1, delayTicks);
+        Timeout timeout = new Timeout(task);
+        long deadline = tick + delay;
+        timeout.rounds = (delay - 1) / heads.length;
+        link(timeout, (int) (deadline & mask));
+        return timeout;
+    }
+
+    /**
+     * Moves the wheel one tick forward and runs every timer that is due, in the order they
+     * were scheduled.
+     *
+     * @return The number of timers that fired.
+     */
+    int advance() {
+        tick++;
+        int slot = (int) (tick & mask);
+        // First take the due timers out of the slot, then run them, so tasks are free to
+        // schedule or cancel timers (including other due ones) without disturbing the scan.
+        Timeout due = null;
+        Timeout timeout = heads[slot];
+        while (timeout != null) {
+            Timeout next = timeout.next;
+            if (timeout.rounds == 0) {
+                unlink(timeout);
+                timeout.slot = FIRING;
+                timeout.next = due;
+                due = timeout;
+            } else {
+                timeout.rounds--;
+            }
+            timeout = next;
+        }
+        int fired = 0;
+        while (due != null) {
+            Timeout next = due.next;
+            due.next = null;
+            if (due.slot == FIRING) {
+                due.slot = DONE;
+                fired++;
+                due.task.run();
+            }
+            due = next;
+        }
+        return fired;
+    }
+
+    /**
+     * @return The number of pending timers.
+     */
+    int size() {
+        return size;
+    }
+
+    private void link(Timeout timeout, int slot) {
+        timeout.slot = slot;
+        timeout.prev = null;
+        timeout.next = heads[slot];
+        if (heads[slot] != null) {
+            heads[slot].prev = timeout;
+        }
+        heads[slot] = timeout;
+        size++;
+    }
+
+    private void unlink(Timeout timeout) {
+        if (timeout.prev != null) {
+            timeout.prev.next = timeout.next;
+        } else {
+            heads[timeout.slot] = timeout.next;
+        }
+        if (timeout.next != null) {
+            timeout.next.prev = timeout.prev;
+        }
+        timeout.prev = null;
+        timeout.next = null;
+        timeout.slot = DONE;
+        size--;
+    }
+}
@@ -0,0 +1,100 @@
+package com.gabry.screenshare;
+
+import java.util.UUID;
+
+/**
+ * Carries messages between the ScreenShare instances of the network: handoffs and their
+ * acknowledgements, remote /ssend requests, session registry replication and staff
+ * notifications. Requests to the proxy itself (GetServer, Connect, PlayerCount, ...) do not
+ * go through here; only the proxy can answer them.
+ *
+ * Implementations: {@link PluginMessageTransport} (the proxy's Forward subchannels, which
+ * need an online player to send through), {@link SocketBusTransport} (direct connections
+ * between backends) and {@link LoopbackTransport} (in-process, for simulations).
+ *
+ * Messages are the same bytes whatever the transport, so every instance reads them with the
+ * same code. All methods are called from the main thread, and received messages are handed
+ * to the plugin on the main thread too.
+ */
+interface Transport {
+
+    /**
+     * Where a transport that receives messages itself (rather than through the BungeeCord
+     * channel) hands them over. Called on the main thread, from {@link #tick()}.
+     */
+    interface Inbound {
+        /**
+         * @param message A message from another instance, positioned at its type byte.
+         */
+        void receive(PluginMessageCodec.Reader message);
+
+        /**
+         * @return Whether a player is on this server, for messages addressed to a player.
+         */
+        boolean isLocalPlayer(String playerName);
+
+        /**
+         * A connection to another server went up or down.
+         *
+         * @param detail Why it went down, or null.
+         */
+        default void linkChanged(String server, boolean up, String detail) {
+        }
+
+        /**
+         * A received frame could not be decoded and was dropped; the frames after it are
+         * still delivered.
+         *
+         * @param length The frame's length in bytes.
+         * @param error What was wrong with it.
+         */
+        default void malformed(int length, RuntimeException error) {
+        }
+    }
+
+    /**
+     * @return Whether a message sent now could leave this server at all.
+     */
+    boolean canSend();
+
+    /**
+     * Sends a message to the instance on one server.
+     *
+     * @param targetServer The proxy name of the destination server.
+     * @param message The encoded message.
+     * @param preferredVia A player whose connection should carry the message, for transports
+     *                     that go through the proxy (keeping it in order with that player's
+     *                     other messages); null for any.
+     * @return False if the message was dropped.
+     */
+    boolean send(String targetServer, byte[] message, UUID preferredVia);
+
+    /**
+     * Sends a message to the instance on every other server.
+     *
+     * @return False if the message was dropped.
+     */
+    boolean broadcast(byte[] message);
+
+    /**
+     * Sends a message to the instance on whichever server a player is on.
+     *
+     * @return False if the message was dropped.
+     */
+    boolean sendToPlayer(String playerName, byte[] message);
+
+    /**
+     * Called once per tick: sends what was batched during the tick and delivers what arrived.
+     */
+    void tick();
+
+    /**
+     * Releases the transport's connections. Messages not sent by the last {@link #tick()} are lost.
+     */
+    void close();
+
+    /**
+     * @return A one-line description for /ssinfo and the startup log.
+     */
+    String describe();
+}
@@ -0,0 +1,120 @@
+package com.gabry.screenshare;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * State transitions of {@link CircuitBreaker}, driven by a fake clock.
+ */
+class CircuitBreakerTest {
+
+    private static final int THRESHOLD = 3;
+    private static final long OPEN_MILLIS = 5_000L;
+
+    private long now = 1_000_000L;
+    private final CircuitBreaker breaker = new CircuitBreaker(() -> now, THRESHOLD, OPEN_MILLIS);
+
+    @Test
+    void staysClosedBelowTheThreshold() {
+        for (int i = 0; i < THRESHOLD - 1; i++) {
+            assertTrue(breaker.allowRequest());
+            breaker.recordFailure();
+        }
+        assertSame(CircuitBreaker.State.CLOSED, breaker.getState());
+        assertFalse(breaker.isRejecting());
+        assertEquals(0L, breaker.getTimesOpened());
+    }
+
+    @Test
+    void successResetsTheFailureCount() {
+        for (int round = 0; round < 3; round++) {
+            for (int i = 0; i < THRESHOLD - 1; i++) {
+                breaker.recordFailure();
+            }
+            breaker.recordSuccess();
+        }
+        assertSame(CircuitBreaker.State.CLOSED, breaker.getState());
+    }
+
+    @Test
+    void opensAfterConsecutiveFailuresAndRejectsUntilTheOpenPeriodEnds() {
+        open();
+        assertSame(CircuitBreaker.State.OPEN, breaker.getState());
+        assertEquals(1L, breaker.getTimesOpened());
+        assertTrue(breaker.isRejecting());
+        assertFalse(breaker.allowRequest());
+        assertEquals(OPEN_MILLIS, breaker.retryInMillis());
+        assertEquals(OPEN_MILLIS, breaker.rejection().getRetryInMillis());
+
+        now += OPEN_MILLIS - 1;
+        assertFalse(breaker.allowRequest());
+        assertEquals(1L, breaker.retryInMillis());
+        assertSame(CircuitBreaker.State.OPEN, breaker.getState());
+    }
+
+    @Test
+    void halfOpenTrialSuccessCloses() {
+        open();
+        now += OPEN_MILLIS;
+        assertFalse(breaker.isRejecting());
+        assertTrue(breaker.allowRequest()); // The trial
+        assertSame(CircuitBreaker.State.HALF_OPEN, breaker.getState());
+        assertFalse(breaker.allowRequest()); // Only one trial at a time
+        assertTrue(breaker.isRejecting());
+
+        breaker.recordSuccess();
+        assertSame(CircuitBreaker.State.CLOSED, breaker.getState());
+        assertTrue(breaker.allowRequest());
+        assertEquals(0L, breaker.retryInMillis());
+    }
+
+    @Test
+    void halfOpenTrialFailureReopensForAnotherPeriod() {
+        open();
+        now += OPEN_MILLIS + 250L;
+        assertTrue(breaker.allowRequest());
+        breaker.recordFailure(); // A single failure is enough while half-open
+        assertSame(CircuitBreaker.State.OPEN, breaker.getState());
+        assertEquals(2L, breaker.getTimesOpened());
+        assertEquals(OPEN_MILLIS, breaker.retryInMillis()); // Counted from the failed trial
+        assertFalse(breaker.allowRequest());
+
+        now += OPEN_MILLIS;
+        assertTrue(breaker.allowRequest());
+        breaker.recordSuccess();
+        assertSame(CircuitBreaker.State.CLOSED, breaker.getState());
+    }
+
+    @Test
+    void closedAfterRecoveryNeedsTheFullThresholdAgain() {
+        open();
+        now += OPEN_MILLIS;
+        breaker.allowRequest();
+        breaker.recordSuccess();
+        for (int i = 0; i < THRESHOLD - 1; i++) {
+            breaker.recordFailure();
+        }
+        assertSame(CircuitBreaker.State.CLOSED, breaker.getState());
+        breaker.recordFailure();
+        assertSame(CircuitBreaker.State.OPEN, breaker.getState());
+    }
+
+    @Test
+    void reconfiguredOpenPeriodAppliesToTheCurrentOpening() {
+        open();
+        breaker.configure(THRESHOLD, 1_000L);
+        now += 1_000L;
+        assertTrue(breaker.allowRequest());
+    }
+
+    private void open() {
+        for (int i = 0; i < THRESHOLD; i++) {
+            assertTrue(breaker.allowRequest());
+            breaker.recordFailure();
+        }
+    }
+}
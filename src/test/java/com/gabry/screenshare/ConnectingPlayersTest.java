@@ -0,0 +1,66 @@
+package com.gabry.screenshare;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.UUID;
+import java.util.function.Function;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Which player {@link ConnectingPlayers} picks to carry a message to the proxy.
+ */
+class ConnectingPlayersTest {
+
+    private static final long GRACE = 10_000L;
+
+    private long now;
+    private final ConnectingPlayers connecting = new ConnectingPlayers(() -> now, GRACE);
+    private final UUID steve = UUID.randomUUID();
+    private final UUID alex = UUID.randomUUID();
+    private final List<UUID> online = List.of(steve, alex);
+
+    @Test
+    void picksTheFirstPlayerWhenNobodyIsConnecting() {
+        assertSame(steve, connecting.pick(online, Function.identity()));
+        assertNull(connecting.pick(List.<UUID>of(), Function.identity()));
+    }
+
+    @Test
+    void skipsAPlayerWhoWasJustSentAConnect() {
+        connecting.connecting(steve);
+        assertTrue(connecting.isConnecting(steve));
+        assertSame(alex, connecting.pick(online, Function.identity()));
+    }
+
+    @Test
+    void fallsBackToAConnectingPlayerRatherThanNobody() {
+        connecting.connecting(steve);
+        connecting.connecting(alex);
+        assertSame(steve, connecting.pick(online, Function.identity()));
+    }
+
+    @Test
+    void aPlayerWhoseConnectFailedIsUsableAfterTheGracePeriod() {
+        connecting.connecting(steve);
+        now += GRACE - 1;
+        assertTrue(connecting.isConnecting(steve));
+        now += 1;
+        assertFalse(connecting.isConnecting(steve));
+        assertEquals(0, connecting.size());
+        assertSame(steve, connecting.pick(online, Function.identity()));
+    }
+
+    @Test
+    void leavingForgetsThePlayer() {
+        connecting.connecting(steve);
+        connecting.left(steve);
+        assertFalse(connecting.isConnecting(steve));
+        assertEquals(0, connecting.size());
+    }
+}
@@ -0,0 +1,126 @@
+package com.gabry.screenshare;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Delivery through {@link LoopbackTransport}: addressing, ordering and the one-tick latency
+ * it shares with the socket bus.
+ */
+class LoopbackTransportTest {
+
+    /**
+     * Records what a server receives.
+     */
+    static final class RecordingInbound implements Transport.Inbound {
+        final List<String> received = new ArrayList<>();
+        final Set<String> localPlayers = new HashSet<>();
+
+        @Override
+        public void receive(PluginMessageCodec.Reader message) {
+            received.add(new String(message.readBytes(message.remaining()), StandardCharsets.UTF_8));
+        }
+
+        @Override
+        public boolean isLocalPlayer(String playerName) {
+            return localPlayers.contains(playerName);
+        }
+    }
+
+    private final LoopbackTransport.Hub hub = new LoopbackTransport.Hub();
+    private final RecordingInbound lobby = new RecordingInbound();
+    private final RecordingInbound ss1 = new RecordingInbound();
+    private final RecordingInbound ss2 = new RecordingInbound();
+    private final LoopbackTransport lobbyTransport = hub.join("lobby", lobby);
+    private final LoopbackTransport ss1Transport = hub.join("ss-1", ss1);
+    private final LoopbackTransport ss2Transport = hub.join("ss-2", ss2);
+
+    @Test
+    void messageArrivesOnTheRecipientsTickAfterTheSendersTick() {
+        assertTrue(lobbyTransport.send("ss-1", bytes("handoff"), null));
+        ss1Transport.tick();
+        assertEquals(List.of(), ss1.received); // Still batched on the sender
+
+        lobbyTransport.tick();
+        assertEquals(List.of(), ss1.received);
+        ss1Transport.tick();
+        assertEquals(List.of("handoff"), ss1.received);
+        assertEquals(List.of(), ss2.received);
+        assertEquals(List.of(), lobby.received);
+    }
+
+    @Test
+    void serverNamesMatchIgnoringCase() {
+        lobbyTransport.send("SS-2", bytes("ack"), null);
+        tickAll();
+        tickAll();
+        assertEquals(List.of("ack"), ss2.received);
+    }
+
+    @Test
+    void broadcastReachesEveryOtherServerInOrder() {
+        lobbyTransport.broadcast(bytes("delta-1"));
+        lobbyTransport.send("ALL", bytes("delta-2"), null);
+        lobbyTransport.broadcast(bytes("delta-3"));
+        tickAll();
+        tickAll();
+        assertEquals(List.of("delta-1", "delta-2", "delta-3"), ss1.received);
+        assertEquals(List.of("delta-1", "delta-2", "delta-3"), ss2.received);
+        assertEquals(List.of(), lobby.received);
+    }
+
+    @Test
+    void playerMessageReachesOnlyTheServerThePlayerIsOn() {
+        ss2.localPlayers.add("Steve");
+        lobbyTransport.sendToPlayer("Steve", bytes("snapshot"));
+        lobbyTransport.sendToPlayer("Nobody", bytes("lost"));
+        tickAll();
+        tickAll();
+        assertEquals(List.of("snapshot"), ss2.received);
+        assertEquals(List.of(), ss1.received);
+    }
+
+    @Test
+    void unknownServerIsDroppedQuietly() {
+        assertTrue(lobbyTransport.send("ss-9", bytes("nowhere"), null));
+        tickAll();
+        tickAll();
+        assertEquals(List.of(), ss1.received);
+        assertEquals(List.of(), ss2.received);
+    }
+
+    @Test
+    void closedTransportNeitherSendsNorReceives() {
+        ss1Transport.close();
+        assertFalse(ss1Transport.canSend());
+        assertFalse(ss1Transport.send("lobby", bytes("late"), null));
+        assertFalse(ss1Transport.broadcast(bytes("late")));
+        assertFalse(ss1Transport.sendToPlayer("Steve", bytes("late")));
+
+        lobbyTransport.broadcast(bytes("after close"));
+        tickAll();
+        tickAll();
+        assertEquals(List.of(), ss1.received);
+        assertEquals(List.of("after close"), ss2.received);
+        assertEquals("loopback lobby, 1 peers", lobbyTransport.describe());
+    }
+
+    private void tickAll() {
+        lobbyTransport.tick();
+        ss1Transport.tick();
+        ss2Transport.tick();
+    }
+
+    static byte[] bytes(String text) {
+        return text.getBytes(StandardCharsets.UTF_8);
+    }
+}
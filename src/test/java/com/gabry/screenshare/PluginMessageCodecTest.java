@@ -0,0 +1,350 @@
+package com.gabry.screenshare;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/**
+ * Round trips through {@link PluginMessageCodec}. Every message is checked against what
+ * {@code DataOutputStream}/{@code DataInputStream} (the encoding BungeeCord and Velocity use)
+ * write and read, so the codec stays byte-for-byte compatible with the proxy.
+ */
+class PluginMessageCodecTest {
+
+    private static final String[] STRINGS = {
+            "",
+            "Steve",
+            "lobby-1",
+            "nul\u0000inside",
+            "\u0000",
+            "\u007F\u0080\u07FF\u0800\uFFFF",
+            "Perché è così?",
+            "\uD83D\uDE00 emoji \uD83C\uDFAE", // Supplementary characters: each surrogate on 3 bytes
+            "\uD800", // Unpaired surrogate, still encodable
+    };
+
+    private final PluginMessageCodec codec = new PluginMessageCodec();
+
+    // --- Modified UTF-8 ---
+
+    @Test
+    void writeUtfMatchesDataOutput() {
+        for (String value : STRINGS) {
+            byte[] encoded = new PluginMessageCodec.Writer(4).writeUTF(value).toByteArray();
+            assertArrayEquals(reference(out -> out.writeUTF(value)), encoded, value);
+            assertEquals(value, PluginMessageCodec.read(encoded).readUTF(), value);
+        }
+    }
+
+    @Test
+    void nulIsEncodedOnTwoBytes() {
+        byte[] encoded = new PluginMessageCodec.Writer(4).writeUTF("\u0000").toByteArray();
+        assertArrayEquals(new byte[]{0, 2, (byte) 0xC0, (byte) 0x80}, encoded);
+    }
+
+    @Test
+    void supplementaryCharacterIsEncodedAsTwoSurrogates() {
+        byte[] encoded = new PluginMessageCodec.Writer(4).writeUTF("\uD83D\uDE00").toByteArray();
+        assertEquals(2 + 6, encoded.length);
+        assertEquals("\uD83D\uDE00", PluginMessageCodec.read(encoded).readUTF());
+    }
+
+    @Test
+    void readUtfMatchesDataInput() throws IOException {
+        for (String value : STRINGS) {
+            byte[] encoded = reference(out -> out.writeUTF(value));
+            assertEquals(new DataInputStream(new ByteArrayInputStream(encoded)).readUTF(),
+                    PluginMessageCodec.read(encoded).readUTF(), value);
+        }
+    }
+
+    @Test
+    void longestStringRoundTrips() {
+        String value = "\u0800".repeat(0xFFFF / 3);
+        PluginMessageCodec.Writer writer = new PluginMessageCodec.Writer(16).writeUTF(value);
+        assertEquals(2 + 0xFFFF, writer.size());
+        assertEquals(value, PluginMessageCodec.read(writer.toByteArray()).readUTF());
+    }
+
+    @Test
+    void stringOverTheLimitIsRejectedAndLeavesTheWriterUntouched() {
+        PluginMessageCodec.Writer writer = new PluginMessageCodec.Writer(16).writeInt(42);
+        assertThrows(IllegalArgumentException.class, () -> writer.writeUTF("\u0800".repeat(0xFFFF / 3 + 1)));
+        assertEquals(4, writer.size());
+    }
+
+    @Test
+    void malformedUtfIsRejected() {
+        byte[] truncatedSequence = {0, 1, (byte) 0xE0};
+        assertThrows(IllegalStateException.class, () -> PluginMessageCodec.read(truncatedSequence).readUTF());
+        byte[] badLead = {0, 1, (byte) 0xF8};
+        assertThrows(IllegalStateException.class, () -> PluginMessageCodec.read(badLead).readUTF());
+    }
+
+    @Test
+    void truncatedMessagesAreRejected() {
+        assertThrows(IllegalStateException.class, () -> PluginMessageCodec.read(new byte[]{0, 5, 'a'}).readUTF());
+        assertThrows(IllegalStateException.class, () -> PluginMessageCodec.read(new byte[3]).readInt());
+        assertThrows(IllegalStateException.class, () -> PluginMessageCodec.read(new byte[15]).readUuid());
+    }
+
+    @Test
+    void primitivesRoundTrip() {
+        UUID id = UUID.randomUUID();
+        PluginMessageCodec.Writer writer = new PluginMessageCodec.Writer(1)
+                .writeByte(-7).writeShort(0xBEEF).writeInt(Integer.MIN_VALUE).writeLong(-2L).writeUuid(id)
+                .write(new byte[]{1, 2, 3});
+        byte[] expected = reference(out -> {
+            out.writeByte(-7);
+            out.writeShort(0xBEEF);
+            out.writeInt(Integer.MIN_VALUE);
+            out.writeLong(-2L);
+            out.writeLong(id.getMostSignificantBits());
+            out.writeLong(id.getLeastSignificantBits());
+            out.write(new byte[]{1, 2, 3});
+        });
+        assertArrayEquals(expected, writer.toByteArray());
+
+        PluginMessageCodec.Reader in = PluginMessageCodec.read(expected);
+        assertEquals(-7, in.readByte());
+        assertEquals(0xBEEF, in.readUnsignedShort());
+        assertEquals(Integer.MIN_VALUE, in.readInt());
+        assertEquals(-2L, in.readLong());
+        assertEquals(id, in.readUuid());
+        assertArrayEquals(new byte[]{1, 2, 3}, in.readBytes(3));
+        assertEquals(0, in.remaining());
+    }
+
+    // --- Outgoing subchannels ---
+
+    @Test
+    void outgoingRequestsMatchDataOutput() {
+        for (String name : STRINGS) {
+            assertArrayEquals(reference(out -> {
+                out.writeUTF("Connect");
+                out.writeUTF(name);
+            }), codec.connect(name));
+            assertArrayEquals(reference(out -> {
+                out.writeUTF("ConnectOther");
+                out.writeUTF(name);
+                out.writeUTF("screenshare");
+            }), codec.connectOther(name, "screenshare"));
+            assertArrayEquals(reference(out -> {
+                out.writeUTF("GetPlayerServer");
+                out.writeUTF(name);
+            }), codec.getPlayerServer(name));
+            assertArrayEquals(reference(out -> {
+                out.writeUTF("UUIDOther");
+                out.writeUTF(name);
+            }), codec.uuidOther(name));
+            assertArrayEquals(reference(out -> {
+                out.writeUTF("PlayerCount");
+                out.writeUTF(name);
+            }), codec.playerCount(name));
+            assertArrayEquals(reference(out -> {
+                out.writeUTF("PlayerList");
+                out.writeUTF(name);
+            }), codec.playerList(name));
+        }
+        assertArrayEquals(reference(out -> out.writeUTF("GetServer")), codec.getServer());
+        assertArrayEquals(reference(out -> {
+            out.writeUTF("KickPlayer");
+            out.write(new byte[]{9, 8, 7});
+        }), codec.custom("KickPlayer", new byte[]{9, 8, 7}));
+    }
+
+    @Test
+    void outgoingMessagesAreIndependentCopies() {
+        byte[] first = codec.connect("ss-1");
+        byte[] second = codec.connect("lobby-2");
+        assertEquals("ss-1", readAfterSubchannel(first, PluginMessageCodec.Subchannel.CONNECT).readUTF());
+        assertEquals("lobby-2", readAfterSubchannel(second, PluginMessageCodec.Subchannel.CONNECT).readUTF());
+    }
+
+    // --- Forward envelope ---
+
+    @Test
+    void forwardEnvelopeMatchesTheProxyFormat() {
+        UUID playerId = UUID.randomUUID();
+        byte[] payload = codec.payload().writeByte(1).writeUuid(playerId).writeUTF("Steve \uD83D\uDE00").writeUTF("lobby\u0000").toByteArray();
+
+        PluginMessageCodec.Writer message = codec.payload().writeByte(1).writeUuid(playerId).writeUTF("Steve \uD83D\uDE00").writeUTF("lobby\u0000");
+        byte[] forward = codec.forward("ALL", message);
+        assertArrayEquals(reference(out -> {
+            out.writeUTF("Forward");
+            out.writeUTF("ALL");
+            out.writeUTF("ScreenShare");
+            out.writeShort(payload.length);
+            out.write(payload);
+        }), forward);
+        assertArrayEquals(forward, codec.forward("ALL", payload));
+
+        byte[] toPlayer = codec.forwardToPlayer("Steve", payload);
+        assertArrayEquals(reference(out -> {
+            out.writeUTF("ForwardToPlayer");
+            out.writeUTF("Steve");
+            out.writeUTF("ScreenShare");
+            out.writeShort(payload.length);
+            out.write(payload);
+        }), toPlayer);
+        assertArrayEquals(toPlayer, codec.forwardToPlayer("Steve", codec.payload().write(payload)));
+    }
+
+    @Test
+    void forwardedPayloadRoundTripsAsTheProxyDeliversIt() {
+        UUID playerId = UUID.randomUUID();
+        byte[] sent = codec.forward("ss-1", codec.payload().writeByte(6).writeUuid(playerId).writeUTF("Modèratore").writeLong(123L));
+
+        // The proxy strips the subchannel and the target, and delivers the rest unchanged.
+        PluginMessageCodec.Reader envelope = readAfterSubchannel(sent, PluginMessageCodec.Subchannel.FORWARD);
+        assertEquals("ss-1", envelope.readUTF());
+        byte[] delivered = Arrays.copyOfRange(envelope.array(), envelope.position(), sent.length);
+
+        PluginMessageCodec.Reader in = readAfterSubchannel(delivered, PluginMessageCodec.Subchannel.SCREENSHARE);
+        PluginMessageCodec.Reader payload = in.slice(in.readUnsignedShort());
+        assertEquals(0, in.remaining());
+        assertEquals(6, payload.readByte());
+        assertEquals(playerId, payload.readUuid());
+        assertEquals("Modèratore", payload.readUTF());
+        assertEquals(123L, payload.readLong());
+        assertEquals(0, payload.remaining());
+    }
+
+    @Test
+    void forwardPayloadOverTheLimitIsRejected() {
+        assertThrows(IllegalArgumentException.class, () -> codec.forward("ALL", new byte[0x10000]));
+        assertEquals(2 + 7 + 2 + 3 + 2 + 11 + 2 + 0xFFFF, codec.forward("ALL", new byte[0xFFFF]).length);
+    }
+
+    @Test
+    void forwardSliceDoesNotReadPastItsLength() {
+        byte[] delivered = reference(out -> {
+            out.writeUTF("ScreenShare");
+            out.writeShort(1);
+            out.writeByte(9);
+            out.writeInt(0xCAFEBABE); // Trailing bytes outside the payload
+        });
+        PluginMessageCodec.Reader in = readAfterSubchannel(delivered, PluginMessageCodec.Subchannel.SCREENSHARE);
+        PluginMessageCodec.Reader payload = in.slice(in.readUnsignedShort());
+        assertEquals(9, payload.readByte());
+        assertThrows(IllegalStateException.class, payload::readByte);
+
+        // A length prefix longer than what the proxy delivered.
+        PluginMessageCodec.Reader truncated = readAfterSubchannel(reference(out -> {
+            out.writeUTF("ScreenShare");
+            out.writeShort(10);
+            out.writeByte(1);
+        }), PluginMessageCodec.Subchannel.SCREENSHARE);
+        int length = truncated.readUnsignedShort();
+        assertThrows(IllegalStateException.class, () -> truncated.slice(length));
+    }
+
+    // --- Incoming subchannels ---
+
+    @Test
+    void proxyRepliesAreDecoded() {
+        PluginMessageCodec.Reader getServer = readAfterSubchannel(reference(out -> {
+            out.writeUTF("GetServer");
+            out.writeUTF("lobby-1");
+        }), PluginMessageCodec.Subchannel.GET_SERVER);
+        assertEquals("lobby-1", getServer.readUTF());
+
+        PluginMessageCodec.Reader playerCount = readAfterSubchannel(reference(out -> {
+            out.writeUTF("PlayerCount");
+            out.writeUTF("ss-2");
+            out.writeInt(17);
+        }), PluginMessageCodec.Subchannel.PLAYER_COUNT);
+        assertEquals("ss-2", playerCount.readUTF());
+        assertEquals(17, playerCount.readInt());
+
+        PluginMessageCodec.Reader playerServer = readAfterSubchannel(reference(out -> {
+            out.writeUTF("GetPlayerServer");
+            out.writeUTF("Steve");
+            out.writeUTF("lobby-3");
+        }), PluginMessageCodec.Subchannel.GET_PLAYER_SERVER);
+        assertEquals("Steve", playerServer.readUTF());
+        assertEquals("lobby-3", playerServer.readUTF());
+
+        UUID id = UUID.randomUUID();
+        PluginMessageCodec.Reader uuidOther = readAfterSubchannel(reference(out -> {
+            out.writeUTF("UUIDOther");
+            out.writeUTF("Steve");
+            out.writeUTF(id.toString().replace("-", ""));
+        }), PluginMessageCodec.Subchannel.UUID_OTHER);
+        assertEquals("Steve", uuidOther.readUTF());
+        assertEquals(id, PluginMessageCodec.parseUuid(uuidOther.readUTF()));
+
+        PluginMessageCodec.Reader playerList = readAfterSubchannel(reference(out -> {
+            out.writeUTF("PlayerList");
+            out.writeUTF("ALL");
+            out.writeUTF("Steve, Alex, Zoë");
+        }), PluginMessageCodec.Subchannel.PLAYER_LIST);
+        assertEquals("ALL", playerList.readUTF());
+        assertEquals("Steve, Alex, Zoë", playerList.readUTF());
+    }
+
+    @Test
+    void everySubchannelIsMatched() {
+        for (PluginMessageCodec.Subchannel subchannel : PluginMessageCodec.Subchannel.values()) {
+            byte[] message = reference(out -> {
+                out.writeUTF(subchannel.name);
+                out.writeByte(42);
+            });
+            PluginMessageCodec.Reader in = PluginMessageCodec.read(message);
+            assertSame(subchannel, PluginMessageCodec.Subchannel.match(in), subchannel.name);
+            assertEquals(42, in.readByte());
+        }
+    }
+
+    @Test
+    void unknownSubchannelLeavesTheReaderUntouched() {
+        PluginMessageCodec.Reader in = PluginMessageCodec.read(reference(out -> out.writeUTF("Connec")));
+        assertNull(PluginMessageCodec.Subchannel.match(in));
+        assertEquals(0, in.position());
+        assertNull(PluginMessageCodec.Subchannel.match(PluginMessageCodec.read(new byte[]{0})));
+    }
+
+    @Test
+    void uuidsAreParsedWithAndWithoutDashes() {
+        UUID id = UUID.fromString("f81d4fae-7dec-11d0-a765-00a0c91e6bf6");
+        assertEquals(id, PluginMessageCodec.parseUuid("f81d4fae-7dec-11d0-a765-00a0c91e6bf6"));
+        assertEquals(id, PluginMessageCodec.parseUuid("f81d4fae7dec11d0a76500a0c91e6bf6"));
+        assertEquals(new UUID(-1L, -1L), PluginMessageCodec.parseUuid("ffffffffffffffffffffffffffffffff"));
+        assertThrows(IllegalArgumentException.class, () -> PluginMessageCodec.parseUuid("f81d4fae"));
+    }
+
+    private static PluginMessageCodec.Reader readAfterSubchannel(byte[] message, PluginMessageCodec.Subchannel expected) {
+        PluginMessageCodec.Reader in = PluginMessageCodec.read(message);
+        assertSame(expected, PluginMessageCodec.Subchannel.match(in));
+        return in;
+    }
+
+    private interface Body {
+        void write(DataOutputStream out) throws IOException;
+    }
+
+    /**
+     * @return What {@code DataOutputStream} writes, as the proxy would.
+     */
+    private static byte[] reference(Body body) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            body.write(out);
+        } catch (IOException e) {
+            throw new AssertionError(e);
+        }
+        return bytes.toByteArray();
+    }
+}
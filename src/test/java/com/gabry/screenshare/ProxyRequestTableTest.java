@@ -0,0 +1,221 @@
+package com.gabry.screenshare;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeoutException;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Timing of {@link ProxyRequestTable}: merging, retries with exponential backoff, the final
+ * timeout, and the circuit breaker. A fake clock drives the timeline, the way the plugin's
+ * expiry task would, and a fake proxy records when each request was sent.
+ */
+class ProxyRequestTableTest {
+
+    private static final long TIMEOUT = 1_000L;
+    private static final long BASE_BACKOFF = 200L;
+    private static final long MAX_BACKOFF = 1_000L;
+
+    private long now;
+    private final ProxyRequestTable<String, String> table = new ProxyRequestTable<>(() -> now);
+    private final FakeProxy proxy = new FakeProxy();
+
+    /**
+     * Records the time of every request sent to it; never answers by itself.
+     */
+    private final class FakeProxy {
+        final List<Long> sent = new ArrayList<>();
+        boolean down;
+
+        Runnable sender() {
+            return () -> {
+                if (down) {
+                    throw new IllegalStateException("No player to send through");
+                }
+                sent.add(now);
+            };
+        }
+    }
+
+    @Test
+    void replyCompletesTheRequest() {
+        CompletableFuture<String> future = table.request("Steve", TIMEOUT, proxy.sender());
+        assertEquals(List.of(0L), proxy.sent);
+        now += 10L;
+        assertTrue(table.complete("Steve", "lobby-1"));
+        assertEquals("lobby-1", future.join());
+        assertEquals(0, table.size());
+        assertFalse(table.complete("Steve", "lobby-1")); // Late duplicate
+    }
+
+    @Test
+    void concurrentRequestsForTheSameKeyAreMerged() {
+        CompletableFuture<String> first = table.request("Steve", TIMEOUT, proxy.sender());
+        CompletableFuture<String> second = table.request("Steve", TIMEOUT, proxy.sender());
+        assertSame(first, second);
+        assertEquals(1, proxy.sent.size());
+    }
+
+    @Test
+    void withoutRetriesTheRequestFailsAtItsDeadline() {
+        CompletableFuture<String> future = table.request("Steve", TIMEOUT, proxy.sender());
+        now = TIMEOUT - 1;
+        assertEquals(0, table.expire());
+        assertFalse(future.isDone());
+        now = TIMEOUT;
+        assertEquals(1, table.expire());
+        assertTimedOut(future);
+        assertEquals(1, proxy.sent.size());
+    }
+
+    @Test
+    void retriesBackOffExponentiallyUpToTheCap() {
+        table.setRetryPolicy(5, BASE_BACKOFF, MAX_BACKOFF);
+        CompletableFuture<String> future = table.request("Steve", TIMEOUT, proxy.sender());
+        advanceTo(60_000L);
+
+        // Each attempt times out after TIMEOUT, then waits 200, 400, 800, 1000 (capped), 1000.
+        long[] backoffs = {200L, 400L, 800L, 1_000L, 1_000L};
+        List<Long> expected = new ArrayList<>();
+        long at = 0L;
+        expected.add(at);
+        for (long backoff : backoffs) {
+            at += TIMEOUT + backoff;
+            expected.add(at);
+        }
+        assertEquals(expected, proxy.sent);
+        assertTimedOut(future);
+    }
+
+    @Test
+    void finalTimeoutComesAfterMaxRetries() {
+        table.setRetryPolicy(2, BASE_BACKOFF, MAX_BACKOFF);
+        CompletableFuture<String> future = table.request("Steve", TIMEOUT, proxy.sender());
+        // Attempts at 0, 1200 and 2600; the last one times out at 3600.
+        long lastDeadline = TIMEOUT + BASE_BACKOFF + TIMEOUT + BASE_BACKOFF * 2 + TIMEOUT;
+        advanceTo(lastDeadline - 1);
+        assertFalse(future.isDone());
+        assertEquals(3, proxy.sent.size());
+
+        now = lastDeadline;
+        assertEquals(1, table.expire());
+        ExecutionException failure = assertTimedOut(future);
+        assertTrue(failure.getCause().getMessage().contains("after 3 attempt(s)"), failure.getCause().getMessage());
+        assertEquals(0, table.size());
+    }
+
+    @Test
+    void replyDuringBackoffOrRetryCompletesTheRequest() {
+        table.setRetryPolicy(3, BASE_BACKOFF, MAX_BACKOFF);
+        CompletableFuture<String> future = table.request("Steve", TIMEOUT, proxy.sender());
+        advanceTo(TIMEOUT + BASE_BACKOFF + 10L); // Second attempt in flight
+        assertEquals(2, proxy.sent.size());
+        assertTrue(table.complete("Steve", "ss-1"));
+        assertEquals("ss-1", future.join());
+        advanceTo(60_000L);
+        assertEquals(2, proxy.sent.size());
+    }
+
+    @Test
+    void failedSendIsRetriedLikeALostMessage() {
+        table.setRetryPolicy(1, BASE_BACKOFF, MAX_BACKOFF);
+        CompletableFuture<String> future = table.request("Steve", TIMEOUT, proxy.sender());
+        proxy.down = true;
+        advanceTo(TIMEOUT + BASE_BACKOFF);
+        proxy.down = false;
+        assertEquals(1, proxy.sent.size());
+        advanceTo(TIMEOUT + BASE_BACKOFF + TIMEOUT);
+        assertTimedOut(future);
+    }
+
+    @Test
+    void finalTimeoutsOpenTheBreakerAndNewRequestsAreRejected() {
+        CircuitBreaker breaker = new CircuitBreaker(() -> now, 2, 5_000L);
+        table.setCircuitBreaker(breaker);
+        table.setRetryPolicy(1, BASE_BACKOFF, MAX_BACKOFF);
+
+        CompletableFuture<String> first = table.request("Steve", TIMEOUT, proxy.sender());
+        CompletableFuture<String> second = table.request("Alex", TIMEOUT, proxy.sender());
+        advanceTo(TIMEOUT + BASE_BACKOFF + TIMEOUT);
+        assertTimedOut(first);
+        assertTimedOut(second);
+        assertSame(CircuitBreaker.State.OPEN, breaker.getState());
+        int sent = proxy.sent.size();
+
+        CompletableFuture<String> rejected = table.request("Herobrine", TIMEOUT, proxy.sender());
+        ExecutionException failure = assertThrows(ExecutionException.class, rejected::get);
+        CircuitBreaker.OpenException open = assertInstanceOf(CircuitBreaker.OpenException.class, failure.getCause());
+        assertEquals(5_000L, open.getRetryInMillis());
+        assertEquals(sent, proxy.sent.size()); // Nothing was sent
+        assertEquals(0, table.size());
+    }
+
+    @Test
+    void trialRequestAfterTheOpenPeriodClosesTheBreaker() {
+        CircuitBreaker breaker = new CircuitBreaker(() -> now, 1, 5_000L);
+        table.setCircuitBreaker(breaker);
+        table.request("Steve", TIMEOUT, proxy.sender());
+        advanceTo(TIMEOUT);
+        assertSame(CircuitBreaker.State.OPEN, breaker.getState());
+
+        now += 5_000L;
+        CompletableFuture<String> trial = table.request("Steve", TIMEOUT, proxy.sender());
+        assertSame(CircuitBreaker.State.HALF_OPEN, breaker.getState());
+        assertTrue(table.request("Alex", TIMEOUT, proxy.sender()).isCompletedExceptionally()); // One trial at a time
+        assertSame(trial, table.request("Steve", TIMEOUT, proxy.sender())); // Merged with the trial
+
+        assertTrue(table.complete("Steve", "lobby-2"));
+        assertSame(CircuitBreaker.State.CLOSED, breaker.getState());
+        assertFalse(table.request("Alex", TIMEOUT, proxy.sender()).isDone());
+    }
+
+    @Test
+    void trialRequestTimingOutReopensTheBreaker() {
+        CircuitBreaker breaker = new CircuitBreaker(() -> now, 1, 5_000L);
+        table.setCircuitBreaker(breaker);
+        table.request("Steve", TIMEOUT, proxy.sender());
+        advanceTo(TIMEOUT);
+        now += 5_000L;
+        CompletableFuture<String> trial = table.request("Steve", TIMEOUT, proxy.sender());
+        now += TIMEOUT;
+        table.expire();
+        assertTimedOut(trial);
+        assertSame(CircuitBreaker.State.OPEN, breaker.getState());
+        assertEquals(2L, breaker.getTimesOpened());
+    }
+
+    @Test
+    void cancelAllFailsEveryPendingRequest() {
+        CompletableFuture<String> future = table.request("Steve", TIMEOUT, proxy.sender());
+        table.cancelAll();
+        assertTrue(future.isCancelled());
+        assertEquals(0, table.size());
+    }
+
+    /**
+     * Moves the clock forward one millisecond at a time, running the expiry task at each step
+     * like the plugin's repeating task would (at a much finer grain).
+     */
+    private void advanceTo(long time) {
+        while (now < time) {
+            now++;
+            table.expire();
+        }
+    }
+
+    private static ExecutionException assertTimedOut(CompletableFuture<String> future) {
+        ExecutionException failure = assertThrows(ExecutionException.class, future::get);
+        assertInstanceOf(TimeoutException.class, failure.getCause());
+        return failure;
+    }
+}
@@ -0,0 +1,170 @@
+package com.gabry.screenshare;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Admission order of {@link ScreenShareQueue}: priorities, round-robin fairness between staff
+ * members, deduplication of a player queued twice, positions, and the fairness history being
+ * forgotten once nobody is waiting.
+ */
+class ScreenShareQueueTest {
+
+    private static final UUID ALICE = new UUID(1L, 1L);
+    private static final UUID BOB = new UUID(1L, 2L);
+    private static final UUID CAROL = new UUID(1L, 3L);
+
+    private final ScreenShareQueue queue = new ScreenShareQueue();
+
+    private static UUID player(String name) {
+        return UUID.nameUUIDFromBytes(name.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private boolean enqueue(String playerName, UUID staffId, int priority) {
+        return queue.enqueue(player(playerName), playerName, staffId, staffId == null ? "CONSOLE" : staffId.toString(), priority);
+    }
+
+    private List<String> drain() {
+        List<String> admitted = new ArrayList<>();
+        for (ScreenShareQueue.Entry entry = queue.poll(); entry != null; entry = queue.poll()) {
+            admitted.add(entry.playerName);
+        }
+        return admitted;
+    }
+
+    @Test
+    void staffMembersTakeTurnsAtEqualPriority() {
+        enqueue("a1", ALICE, 0);
+        enqueue("a2", ALICE, 0);
+        enqueue("a3", ALICE, 0);
+        enqueue("b1", BOB, 0);
+        enqueue("b2", BOB, 0);
+        enqueue("c1", null, 0); // The console queues as a staff member of its own.
+
+        assertEquals(List.of("a1", "b1", "c1", "a2", "b2", "a3"), drain());
+    }
+
+    @Test
+    void lateStaffStartFromTheRoundBeingServed() {
+        enqueue("a1", ALICE, 0);
+        enqueue("a2", ALICE, 0);
+        enqueue("a3", ALICE, 0);
+        enqueue("a4", ALICE, 0);
+        assertEquals("a1", queue.poll().playerName);
+        assertEquals("a2", queue.poll().playerName);
+
+        // Bob's first request joins the round being served: he is not owed the rounds he did not wait through.
+        enqueue("b1", BOB, 0);
+        enqueue("b2", BOB, 0);
+        assertEquals(List.of("b1", "a3", "b2", "a4"), drain());
+    }
+
+    @Test
+    void higherPriorityGoesFirstRegardlessOfRound() {
+        enqueue("a1", ALICE, 0);
+        enqueue("a2", ALICE, 0);
+        enqueue("b1", BOB, 5);
+        enqueue("c1", CAROL, 1);
+
+        assertEquals(List.of("b1", "c1", "a1", "a2"), drain());
+    }
+
+    @Test
+    void queueingAPlayerAgainKeepsOneEntryAndOnlyRaisesThePriority() {
+        enqueue("a1", ALICE, 0);
+        enqueue("b1", BOB, 0);
+        enqueue("c1", CAROL, 2);
+
+        assertFalse(enqueue("b1", CAROL, 0)); // Same player, another staff member: still one entry.
+        assertEquals(3, queue.size());
+        assertEquals(3, queue.positionOf(player("b1")));
+
+        assertFalse(enqueue("b1", BOB, 3));
+        assertEquals(3, queue.size());
+        assertEquals(1, queue.positionOf(player("b1")));
+        assertEquals(3, queue.peek(10).get(0).getPriority());
+
+        assertFalse(enqueue("b1", BOB, 1)); // A less urgent request does not lower it.
+        assertEquals(3, queue.peek(10).get(0).getPriority());
+        assertEquals(BOB, queue.peek(10).get(0).staffId);
+
+        assertEquals(List.of("b1", "c1", "a1"), drain());
+    }
+
+    @Test
+    void positionFollowsAdmissionOrder() {
+        enqueue("a1", ALICE, 0);
+        enqueue("a2", ALICE, 0);
+        enqueue("b1", BOB, 0);
+
+        assertEquals(1, queue.positionOf(player("a1")));
+        assertEquals(2, queue.positionOf(player("b1")));
+        assertEquals(3, queue.positionOf(player("a2")));
+        assertEquals(-1, queue.positionOf(player("nobody")));
+
+        queue.poll();
+        assertEquals(1, queue.positionOf(player("b1")));
+        assertEquals(-1, queue.positionOf(player("a1")));
+    }
+
+    @Test
+    void removeTakesThePlayerOutOfLine() {
+        enqueue("a1", ALICE, 0);
+        enqueue("b1", BOB, 0);
+
+        assertEquals("a1", queue.remove(player("a1")).playerName);
+        assertNull(queue.remove(player("a1")));
+        assertFalse(queue.contains(player("a1")));
+        assertTrue(queue.contains(player("b1")));
+        assertEquals(1, queue.positionOf(player("b1")));
+        assertTrue(enqueue("a1", ALICE, 0)); // Can be queued again, as a new entry.
+    }
+
+    @Test
+    void fairnessHistoryIsForgottenWhenTheQueueEmptiesThroughPoll() {
+        enqueue("a1", ALICE, 0);
+        enqueue("a2", ALICE, 0);
+        enqueue("a3", ALICE, 0);
+        drain();
+
+        // Alice's earlier burst does not put her behind Bob once nobody is waiting.
+        enqueue("a4", ALICE, 0);
+        enqueue("b1", BOB, 0);
+        assertEquals(List.of("a4", "b1"), drain());
+    }
+
+    @Test
+    void fairnessHistoryIsForgottenWhenTheQueueEmptiesThroughRemove() {
+        enqueue("a1", ALICE, 0);
+        enqueue("a2", ALICE, 0);
+        enqueue("a3", ALICE, 0);
+        queue.remove(player("a1"));
+        queue.remove(player("a2"));
+        queue.remove(player("a3"));
+        assertTrue(queue.isEmpty());
+
+        enqueue("a4", ALICE, 0);
+        enqueue("b1", BOB, 0);
+        assertEquals(List.of("a4", "b1"), drain());
+    }
+
+    @Test
+    void admissionsAreCounted() {
+        enqueue("a1", ALICE, 0);
+        enqueue("b1", BOB, 0);
+        queue.remove(player("b1"));
+        drain();
+
+        assertEquals(1, queue.getAdmittedCount());
+        assertTrue(queue.getMaxWaitMillis() >= queue.getAverageWaitMillis());
+    }
+}
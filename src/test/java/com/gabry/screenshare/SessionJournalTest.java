@@ -0,0 +1,210 @@
+package com.gabry.screenshare;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.logging.Logger;
+import java.util.zip.CRC32;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Recovery of {@link SessionJournal}: a journal whose last record was torn or corrupted by a
+ * crash, a journal replayed on top of a compacted snapshot, and a large journal recovered
+ * within a server's startup budget.
+ *
+ * Crashes are staged by writing the journal file in its on-disk layout, since the journal
+ * itself always compacts on a clean close.
+ */
+class SessionJournalTest {
+
+    private static final int MAGIC_JOURNAL = 0x53534A32;
+    private static final byte OP_PUT = 1;
+    private static final byte OP_REMOVE = 2;
+    private static final Logger LOGGER = Logger.getLogger("SessionJournalTest");
+
+    @TempDir
+    Path folder;
+
+    private final List<SessionJournal> opened = new ArrayList<>();
+
+    @AfterEach
+    void closeAll() {
+        for (SessionJournal journal : opened) {
+            journal.close();
+        }
+    }
+
+    private Map<UUID, byte[]> recover() throws IOException {
+        SessionJournal journal = new SessionJournal(folder.toFile(), LOGGER);
+        opened.add(journal);
+        return journal.recover();
+    }
+
+    private static UUID player(int i) {
+        return new UUID(0x5353L, i);
+    }
+
+    private static byte[] entry(int i, int version) {
+        return ("session-" + i + "-v" + version).getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * A journal record as the writer thread appends it: length, crc32, op, msb, lsb[, entry].
+     */
+    private static byte[] record(byte op, UUID playerId, byte[] entry) {
+        ByteBuffer payload = ByteBuffer.allocate(17 + (entry == null ? 0 : entry.length));
+        payload.put(op).putLong(playerId.getMostSignificantBits()).putLong(playerId.getLeastSignificantBits());
+        if (entry != null) {
+            payload.put(entry);
+        }
+        CRC32 crc = new CRC32();
+        crc.update(payload.array());
+        return ByteBuffer.allocate(8 + payload.capacity())
+                .putInt(payload.capacity()).putInt((int) crc.getValue()).put(payload.array()).array();
+    }
+
+    private static ByteArrayOutputStream journal(byte[]... records) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        out.write(ByteBuffer.allocate(4).putInt(MAGIC_JOURNAL).array());
+        for (byte[] record : records) {
+            out.write(record);
+        }
+        return out;
+    }
+
+    private Path journalFile() {
+        return folder.resolve("sessions.journal");
+    }
+
+    @Test
+    void tornTailIsCutOffAndAppendingResumesAfterTheLastCompleteRecord() throws IOException {
+        byte[] torn = record(OP_PUT, player(3), entry(3, 1));
+        ByteArrayOutputStream out = journal(
+                record(OP_PUT, player(1), entry(1, 1)),
+                record(OP_PUT, player(2), entry(2, 1)),
+                record(OP_PUT, player(1), entry(1, 2)));
+        out.write(torn, 0, torn.length - 5); // The crash hit in the middle of the last write.
+        Files.write(journalFile(), out.toByteArray());
+
+        Map<UUID, byte[]> recovered = recover();
+        assertEquals(2, recovered.size());
+        assertArrayEquals(entry(1, 2), recovered.get(player(1)));
+        assertArrayEquals(entry(2, 1), recovered.get(player(2)));
+
+        // New records land after the cut, not after the garbage.
+        SessionJournal journal = opened.remove(0);
+        journal.recordStart(player(4), entry(4, 1));
+        journal.recordEnd(player(2));
+        journal.close();
+
+        recovered = recover();
+        assertEquals(2, recovered.size());
+        assertArrayEquals(entry(1, 2), recovered.get(player(1)));
+        assertArrayEquals(entry(4, 1), recovered.get(player(4)));
+    }
+
+    @Test
+    void replayStopsAtACorruptedRecord() throws IOException {
+        byte[] corrupted = record(OP_PUT, player(2), entry(2, 1));
+        corrupted[corrupted.length - 1] ^= 0x40; // A bit flipped in the entry: the checksum no longer matches.
+        Files.write(journalFile(), journal(
+                record(OP_PUT, player(1), entry(1, 1)),
+                corrupted,
+                record(OP_PUT, player(3), entry(3, 1))).toByteArray());
+
+        Map<UUID, byte[]> recovered = recover();
+        assertEquals(1, recovered.size());
+        assertArrayEquals(entry(1, 1), recovered.get(player(1)));
+    }
+
+    @Test
+    void garbageLengthAfterTheLastRecordIsIgnored() throws IOException {
+        ByteArrayOutputStream out = journal(record(OP_PUT, player(1), entry(1, 1)));
+        out.write(new byte[]{(byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, 0, 0, 0, 0});
+        Files.write(journalFile(), out.toByteArray());
+
+        Map<UUID, byte[]> recovered = recover();
+        assertEquals(1, recovered.size());
+        assertEquals(4 + record(OP_PUT, player(1), entry(1, 1)).length, Files.size(journalFile()));
+    }
+
+    @Test
+    void journalIsReplayedOnTopOfTheCompactedSnapshot() throws IOException {
+        SessionJournal first = new SessionJournal(folder.toFile(), LOGGER);
+        assertTrue(first.recover().isEmpty());
+        for (int i = 0; i < 10; i++) {
+            first.recordStart(player(i), entry(i, 1));
+        }
+        first.recordEnd(player(9));
+        first.close(); // Compacts: the snapshot holds everything, the journal starts over.
+        assertTrue(Files.exists(folder.resolve("sessions.snapshot")));
+        assertEquals(4, Files.size(journalFile()));
+
+        // Records written after the compaction, then a crash.
+        byte[] appended = journal(record(OP_REMOVE, player(0), null), record(OP_PUT, player(1), entry(1, 2)),
+                record(OP_PUT, player(20), entry(20, 1))).toByteArray();
+        Files.write(journalFile(), Arrays.copyOfRange(appended, 4, appended.length), StandardOpenOption.APPEND);
+
+        Map<UUID, byte[]> recovered = recover();
+        assertEquals(9, recovered.size());
+        assertNull(recovered.get(player(0)));
+        assertArrayEquals(entry(1, 2), recovered.get(player(1)));
+        assertArrayEquals(entry(8, 1), recovered.get(player(8)));
+        assertNull(recovered.get(player(9)));
+        assertArrayEquals(entry(20, 1), recovered.get(player(20)));
+    }
+
+    @Test
+    void corruptedSnapshotIsIgnored() throws IOException {
+        SessionJournal first = new SessionJournal(folder.toFile(), LOGGER);
+        first.recover();
+        first.recordStart(player(1), entry(1, 1));
+        first.close();
+        Path snapshot = folder.resolve("sessions.snapshot");
+        byte[] data = Files.readAllBytes(snapshot);
+        data[10] ^= 0x01;
+        Files.write(snapshot, data);
+
+        assertTrue(recover().isEmpty());
+    }
+
+    @Test
+    void recoversHundredThousandRecordsWellUnderASecond() throws IOException {
+        int records = 100_000;
+        ByteArrayOutputStream out = journal();
+        for (int i = 0; i < records; i++) {
+            // Mostly starts, with every fourth record ending an earlier session.
+            out.write(i % 4 == 3 ? record(OP_REMOVE, player(i - 3), null) : record(OP_PUT, player(i), entry(i, 1)));
+        }
+        Files.write(journalFile(), out.toByteArray());
+
+        recover(); // Warm-up, so the measurement is of the replay rather than of class loading and JIT.
+        opened.remove(0).close();
+        Files.write(journalFile(), out.toByteArray());
+        Files.deleteIfExists(folder.resolve("sessions.snapshot"));
+
+        long startedAt = System.nanoTime();
+        Map<UUID, byte[]> recovered = recover();
+        long tookMillis = (System.nanoTime() - startedAt) / 1_000_000L;
+
+        assertEquals(records / 2, recovered.size());
+        assertTrue(tookMillis < 500, "Recovering " + records + " records took " + tookMillis + "ms");
+    }
+}
@@ -0,0 +1,157 @@
+package com.gabry.screenshare;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * The handoff messages of {@link SessionLifecycle} between an origin instance and an SS
+ * instance: the acknowledgement goes back to the server the handoff names, and a handoff
+ * that does not name one is rejected as malformed.
+ */
+class SessionLifecycleTest {
+
+    private static final UUID PLAYER = new UUID(7L, 7L);
+
+    private static final long NOW = 1_000_000L;
+
+    /**
+     * Records what the lifecycle asks of its server.
+     */
+    private static final class RecordingHost implements SessionLifecycle.Host {
+        final List<String> sentTo = new ArrayList<>();
+        final List<byte[]> sent = new ArrayList<>();
+        final List<Runnable> nextTick = new ArrayList<>();
+        final Set<UUID> online = new HashSet<>();
+        final List<String> arrivals = new ArrayList<>();
+
+        @Override
+        public boolean sendToInstance(String targetServer, byte[] payload, UUID preferredVia) {
+            sentTo.add(targetServer);
+            sent.add(payload);
+            return true;
+        }
+
+        @Override
+        public void runNextTick(Runnable task) {
+            nextTick.add(task);
+        }
+
+        @Override
+        public boolean isOnline(UUID playerId) {
+            return online.contains(playerId);
+        }
+
+        @Override
+        public void arrived(PendingHandoffs.Handoff handoff, ScreenShareSession session) {
+            arrivals.add(handoff.playerName + " from " + handoff.originServer);
+        }
+
+        @Override
+        public void expired(ScreenShareSession session) {
+        }
+
+        void runTasks() {
+            List<Runnable> due = new ArrayList<>(nextTick);
+            nextTick.clear();
+            due.forEach(Runnable::run);
+        }
+    }
+
+    private SessionLifecycle lifecycle(RecordingHost host) {
+        SessionRegistry registry = new SessionRegistry(UUID.randomUUID().toString(), () -> NOW, new SessionRegistry.Outbound() {
+            @Override
+            public void broadcast(byte[] message) {
+            }
+
+            @Override
+            public void sendToPlayer(String playerName, byte[] message) {
+            }
+        });
+        SessionLifecycle lifecycle = new SessionLifecycle(registry, new PluginMessageCodec(), () -> NOW, host);
+        lifecycle.configure(30_000L, 5_000L, 0L);
+        return lifecycle;
+    }
+
+    /**
+     * @return The message read past its type byte.
+     */
+    private static PluginMessageCodec.Reader body(byte[] message, byte expectedType) {
+        PluginMessageCodec.Reader in = PluginMessageCodec.read(message);
+        assertEquals(expectedType, in.readByte());
+        return in;
+    }
+
+    @Test
+    void arrivalIsAcknowledgedToTheServerTheHandoffNames() {
+        RecordingHost origin = new RecordingHost();
+        SessionLifecycle staffSide = lifecycle(origin);
+        boolean[] acknowledged = {false};
+        staffSide.handoff(PLAYER, "Target", "lobby-1", "ss-1", "Staff", "staff-server")
+                .thenAccept(arrivedOn -> acknowledged[0] = arrivedOn.equals("ss-1"));
+        assertEquals(List.of("ss-1"), origin.sentTo);
+
+        RecordingHost ss = new RecordingHost();
+        SessionLifecycle ssSide = lifecycle(ss);
+        PendingHandoffs.Handoff handoff = ssSide.onHandoff(body(origin.sent.get(0), SessionLifecycle.MSG_HANDOFF));
+        assertEquals("staff-server", handoff.ackServer);
+        assertFalse(ssSide.hasArrived(PLAYER)); // Not online yet.
+
+        ss.online.add(PLAYER);
+        assertTrue(ssSide.arrive(PLAYER));
+        assertEquals(List.of("Target from lobby-1"), ss.arrivals);
+        assertTrue(ss.sentTo.isEmpty()); // The acknowledgement waits for the next tick.
+        ss.runTasks();
+        assertEquals(List.of("staff-server"), ss.sentTo);
+
+        assertTrue(staffSide.onHandoffAck(body(ss.sent.get(0), SessionLifecycle.MSG_HANDOFF_ACK)));
+        assertTrue(acknowledged[0]);
+        assertEquals(0, staffSide.pendingAcks());
+    }
+
+    @Test
+    void handoffAnnouncedAfterThePlayerJoinedCompletesAtOnce() {
+        RecordingHost ss = new RecordingHost();
+        SessionLifecycle ssSide = lifecycle(ss);
+        ss.online.add(PLAYER);
+        byte[] handoff = new PluginMessageCodec().payload()
+                .writeByte(SessionLifecycle.MSG_HANDOFF)
+                .writeUuid(PLAYER)
+                .writeUTF("Target")
+                .writeUTF("lobby-1")
+                .writeUTF("ss-1")
+                .writeUTF("Staff")
+                .writeUTF("staff-server")
+                .toByteArray();
+
+        ssSide.onHandoff(body(handoff, SessionLifecycle.MSG_HANDOFF));
+        assertTrue(ssSide.hasArrived(PLAYER));
+        assertEquals(0, ssSide.pendingHandoffs());
+    }
+
+    @Test
+    void handoffWithoutAnAcknowledgementServerIsMalformed() {
+        RecordingHost ss = new RecordingHost();
+        SessionLifecycle ssSide = lifecycle(ss);
+        byte[] truncated = new PluginMessageCodec().payload()
+                .writeByte(SessionLifecycle.MSG_HANDOFF)
+                .writeUuid(PLAYER)
+                .writeUTF("Target")
+                .writeUTF("lobby-1")
+                .writeUTF("ss-1")
+                .writeUTF("Staff")
+                .toByteArray();
+
+        assertThrows(IllegalStateException.class, () -> ssSide.onHandoff(body(truncated, SessionLifecycle.MSG_HANDOFF)));
+        assertEquals(0, ssSide.pendingHandoffs());
+    }
+}
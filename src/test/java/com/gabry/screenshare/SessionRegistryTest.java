@@ -0,0 +1,401 @@
+package com.gabry.screenshare;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/**
+ * Convergence of {@link SessionRegistry} replicas connected through an in-process fake proxy
+ * that delivers Forward messages late, out of order and more than once.
+ */
+class SessionRegistryTest {
+
+    private long now = 1_000_000L;
+    private final FakeProxy proxy = new FakeProxy(new Random(42L));
+
+    /**
+     * Stands in for the proxy's Forward ALL and ForwardToPlayer subchannels. Messages wait in
+     * flight until {@link #deliverShuffled} or {@link #deliverInOrder} hands them over.
+     */
+    private static final class FakeProxy {
+        final Random random;
+        final Map<String, SessionRegistry> instances = new LinkedHashMap<>(); // By the player routing to each
+        final List<Object[]> inFlight = new ArrayList<>(); // {target instance, message}
+
+        FakeProxy(Random random) {
+            this.random = random;
+        }
+
+        SessionRegistry.Outbound outboundOf(String instanceId) {
+            return new SessionRegistry.Outbound() {
+                @Override
+                public void broadcast(byte[] message) {
+                    // Forward ALL skips the sender's own server; the echo check is covered separately.
+                    for (SessionRegistry target : instances.values()) {
+                        if (!target.getInstanceId().equals(instanceId)) {
+                            inFlight.add(new Object[]{target, message});
+                        }
+                    }
+                }
+
+                @Override
+                public void sendToPlayer(String playerName, byte[] message) {
+                    inFlight.add(new Object[]{instances.get(playerName), message});
+                }
+            };
+        }
+
+        void deliverInOrder() {
+            while (!inFlight.isEmpty()) {
+                Object[] delivery = inFlight.remove(0);
+                ((SessionRegistry) delivery[0]).receive((byte[]) delivery[1]);
+            }
+        }
+
+        /**
+         * Delivers everything in flight in random order, some messages twice.
+         */
+        void deliverShuffled(double duplicateRate) {
+            while (!inFlight.isEmpty()) {
+                Object[] delivery = inFlight.remove(random.nextInt(inFlight.size()));
+                ((SessionRegistry) delivery[0]).receive((byte[]) delivery[1]);
+                if (random.nextDouble() < duplicateRate) {
+                    inFlight.add(delivery);
+                }
+            }
+        }
+    }
+
+    private SessionRegistry join(String instanceId) {
+        SessionRegistry registry = new SessionRegistry(instanceId, () -> now, proxy.outboundOf(instanceId));
+        proxy.instances.put("player-on-" + instanceId, registry);
+        return registry;
+    }
+
+    private ScreenShareSession session(UUID playerId, String ssServer, ScreenShareSession.State state) {
+        return new ScreenShareSession(Long.toHexString(proxy.random.nextLong()), playerId, "Player" + playerId.toString().substring(0, 4),
+                "lobby-1", ssServer, null, "Moderator", now, state, now);
+    }
+
+    @Test
+    void replicasConvergeUnderReorderedAndDuplicatedDeltas() {
+        List<SessionRegistry> registries = List.of(join("a"), join("b"), join("c"), join("d"));
+        List<UUID> players = new ArrayList<>();
+        for (int i = 0; i < 40; i++) {
+            players.add(UUID.randomUUID());
+        }
+
+        for (int round = 0; round < 50; round++) {
+            // Each instance changes a few random players, as if several staff acted in the same tick.
+            for (SessionRegistry registry : registries) {
+                for (int i = 0; i < 3; i++) {
+                    UUID playerId = players.get(proxy.random.nextInt(players.size()));
+                    switch (proxy.random.nextInt(3)) {
+                        case 0 -> registry.put(session(playerId, "ss-" + registry.getInstanceId(), ScreenShareSession.State.PENDING));
+                        case 1 -> {
+                            ScreenShareSession current = registry.get(playerId);
+                            if (current != null) {
+                                registry.put(current.withState(ScreenShareSession.State.ACTIVE, now));
+                            }
+                        }
+                        default -> registry.remove(playerId);
+                    }
+                }
+                registry.flush();
+            }
+            now += 50L;
+            // Leave some messages in flight across rounds, so old deltas arrive after newer ones.
+            if (round % 5 == 4) {
+                proxy.deliverShuffled(0.2);
+            }
+        }
+        proxy.deliverShuffled(0.2);
+
+        assertConverged(registries);
+    }
+
+    @Test
+    void concurrentWritesToTheSameSessionPickTheSameWinnerEverywhere() {
+        SessionRegistry a = join("a");
+        SessionRegistry b = join("b");
+        UUID playerId = UUID.randomUUID();
+
+        a.put(session(playerId, "ss-a", ScreenShareSession.State.PENDING));
+        b.put(session(playerId, "ss-b", ScreenShareSession.State.PENDING));
+        a.flush();
+        b.flush();
+        proxy.deliverShuffled(0.5);
+
+        // Same Lamport version: the higher instance id wins.
+        assertEquals("ss-b", a.get(playerId).getSsServer());
+        assertEquals("ss-b", b.get(playerId).getSsServer());
+    }
+
+    @Test
+    void laterVersionWinsRegardlessOfDeliveryOrder() {
+        SessionRegistry a = join("a");
+        SessionRegistry b = join("b");
+        SessionRegistry c = join("c");
+        UUID playerId = UUID.randomUUID();
+
+        a.put(session(playerId, "ss-1", ScreenShareSession.State.PENDING));
+        a.flush();
+        // The delta reaches b, while the copy for c is delayed.
+        List<Object[]> delayedForC = new ArrayList<>();
+        for (Object[] delivery : proxy.inFlight) {
+            if (delivery[0] == c) {
+                delayedForC.add(delivery);
+            }
+        }
+        proxy.inFlight.removeAll(delayedForC);
+        proxy.deliverInOrder();
+
+        b.put(b.get(playerId).withState(ScreenShareSession.State.ACTIVE, now)); // b has seen a's version, so its own is higher
+        b.flush();
+        proxy.deliverInOrder();
+        assertEquals(ScreenShareSession.State.ACTIVE, c.get(playerId).getState());
+
+        proxy.inFlight.addAll(delayedForC);
+        proxy.deliverInOrder();
+        assertEquals(ScreenShareSession.State.ACTIVE, c.get(playerId).getState());
+        assertConverged(List.of(a, b, c));
+    }
+
+    @Test
+    void tombstonePreventsADelayedPutFromResurrectingASession() {
+        SessionRegistry a = join("a");
+        SessionRegistry b = join("b");
+        UUID playerId = UUID.randomUUID();
+
+        a.put(session(playerId, "ss-1", ScreenShareSession.State.PENDING));
+        a.flush();
+        List<Object[]> delayedPut = new ArrayList<>(proxy.inFlight);
+        proxy.inFlight.clear();
+
+        a.remove(playerId);
+        a.flush();
+        proxy.deliverInOrder();
+        assertNull(b.get(playerId));
+
+        // The put arrives after the removal, possibly twice: the tombstone outranks it.
+        proxy.inFlight.addAll(delayedPut);
+        proxy.inFlight.addAll(delayedPut);
+        proxy.deliverInOrder();
+        assertNull(b.get(playerId));
+        assertEquals(0, b.size());
+    }
+
+    @Test
+    void tombstonesExpireOnlyAfterTheirTtl() {
+        SessionRegistry a = join("a");
+        UUID playerId = UUID.randomUUID();
+        a.put(session(playerId, "ss-1", ScreenShareSession.State.PENDING));
+        a.remove(playerId);
+
+        now += 60_000L;
+        assertEquals(0, a.expireTombstones());
+        now += 10L * 60_000L;
+        assertEquals(1, a.expireTombstones());
+    }
+
+    @Test
+    void duplicatedDeltaChangesNothingTheSecondTime() {
+        SessionRegistry a = join("a");
+        SessionRegistry b = join("b");
+        a.put(session(UUID.randomUUID(), "ss-1", ScreenShareSession.State.PENDING));
+        a.flush();
+        byte[] delta = (byte[]) proxy.inFlight.get(0)[1];
+
+        assertEquals(1, b.receive(delta));
+        assertEquals(0, b.receive(delta));
+        long changes = b.getChangeCount();
+        assertEquals(0, b.receive(delta));
+        assertEquals(changes, b.getChangeCount());
+    }
+
+    @Test
+    void ownBroadcastEchoedBackIsIgnored() {
+        SessionRegistry a = join("a");
+        join("b");
+        UUID playerId = UUID.randomUUID();
+        a.put(session(playerId, "ss-1", ScreenShareSession.State.PENDING));
+        a.flush();
+        byte[] delta = (byte[]) proxy.inFlight.get(0)[1];
+        a.remove(playerId);
+
+        assertEquals(0, a.receive(delta));
+        assertNull(a.get(playerId));
+    }
+
+    @Test
+    void truncatedMessageIsRejectedWithUncheckedIOException() {
+        SessionRegistry a = join("a");
+        SessionRegistry b = join("b");
+        a.put(session(UUID.randomUUID(), "ss-1", ScreenShareSession.State.PENDING));
+        a.flush();
+        byte[] delta = (byte[]) proxy.inFlight.get(0)[1];
+
+        // What the plugin's Forward dispatch catches and counts as dropped.
+        for (int length : new int[]{0, 1, 5, delta.length - 1}) {
+            assertThrows(UncheckedIOException.class, () -> b.receive(delta, 0, length));
+        }
+        assertEquals(0, b.size());
+    }
+
+    @Test
+    void repeatedChangesBeforeAFlushAreCoalesced() {
+        SessionRegistry a = join("a");
+        join("b");
+        UUID playerId = UUID.randomUUID();
+        ScreenShareSession pending = session(playerId, "ss-1", ScreenShareSession.State.PENDING);
+        a.put(pending);
+        a.put(pending.withState(ScreenShareSession.State.ACTIVE, now));
+        a.flush();
+        a.flush();
+        assertEquals(1, proxy.inFlight.size());
+    }
+
+    @Test
+    void lateJoinerCatchesUpThroughSnapshotSync() {
+        List<SessionRegistry> registries = new ArrayList<>(List.of(join("a"), join("b"), join("c")));
+        List<UUID> removed = new ArrayList<>();
+        for (int i = 0; i < 1_000; i++) { // Enough to split each snapshot into several messages
+            SessionRegistry writer = registries.get(i % registries.size());
+            UUID playerId = UUID.randomUUID();
+            writer.put(session(playerId, "ss-" + writer.getInstanceId(), ScreenShareSession.State.ACTIVE));
+            if (i % 10 == 0) {
+                writer.remove(playerId);
+                removed.add(playerId);
+            }
+        }
+        for (SessionRegistry registry : registries) {
+            registry.flush();
+        }
+        proxy.deliverShuffled(0.1);
+
+        SessionRegistry late = join("late");
+        late.requestSync("player-on-late");
+        int snapshots = 0;
+        for (Object[] delivery : proxy.inFlight) {
+            snapshots += delivery[0] == late ? 0 : 1;
+        }
+        assertEquals(3, snapshots); // The request reaches every other instance
+        proxy.deliverShuffled(0.3);
+        registries.add(late);
+
+        assertEquals(900, late.size());
+        assertConverged(registries);
+
+        // The snapshot carried the tombstones too: a delayed put for a removed player is ignored.
+        UUID resurrected = removed.get(0);
+        ScreenShareSession stale = session(resurrected, "ss-a", ScreenShareSession.State.PENDING);
+        SessionRegistry other = new SessionRegistry("a", () -> now, proxy.outboundOf("a"));
+        other.put(stale);
+        other.flush();
+        proxy.inFlight.removeIf(delivery -> delivery[0] != late);
+        proxy.deliverInOrder();
+        assertNull(late.get(resurrected));
+    }
+
+    @Test
+    void localChangesAfterASnapshotKeepWinning() {
+        SessionRegistry a = join("a");
+        SessionRegistry b = join("b");
+        UUID playerId = UUID.randomUUID();
+        a.put(session(playerId, "ss-1", ScreenShareSession.State.PENDING));
+        a.flush();
+        proxy.deliverInOrder();
+
+        // b ends the session after the sync; a's stale snapshot must not undo it.
+        b.requestSync("player-on-b");
+        b.remove(playerId);
+        b.flush();
+        proxy.deliverShuffled(0.0);
+        assertConverged(List.of(a, b));
+        assertNull(a.get(playerId));
+    }
+
+    @Test
+    void droppedDeltasAreRepairedByTheDigestExchange() {
+        SessionRegistry a = join("a");
+        SessionRegistry b = join("b");
+        SessionRegistry c = join("c");
+        UUID ended = UUID.randomUUID();
+        a.put(session(ended, "ss-1", ScreenShareSession.State.ACTIVE));
+        a.flush();
+        proxy.deliverInOrder();
+
+        // The proxy loses both deltas on their way to b (the carrying player was mid-Connect).
+        UUID started = UUID.randomUUID();
+        a.remove(ended);
+        a.put(session(started, "ss-1", ScreenShareSession.State.PENDING));
+        a.flush();
+        proxy.inFlight.removeIf(delivery -> delivery[0] == b);
+        proxy.deliverInOrder();
+        assertNotNull(b.get(ended)); // A phantom session, which would block new ones for the player
+        assertNull(b.get(started));
+
+        for (SessionRegistry registry : List.of(a, b, c)) {
+            registry.broadcastDigest("player-on-" + registry.getInstanceId());
+        }
+        proxy.deliverShuffled(0.2);
+
+        assertNull(b.get(ended));
+        assertNotNull(b.get(started));
+        assertConverged(List.of(a, b, c));
+    }
+
+    @Test
+    void matchingDigestsAreNotAnswered() {
+        SessionRegistry a = join("a");
+        SessionRegistry b = join("b");
+        UUID playerId = UUID.randomUUID();
+        a.put(session(playerId, "ss-1", ScreenShareSession.State.ACTIVE));
+        a.put(session(UUID.randomUUID(), "ss-2", ScreenShareSession.State.PENDING));
+        a.remove(playerId); // Tombstones are not part of the digest
+        a.flush();
+        proxy.deliverInOrder();
+
+        a.broadcastDigest("player-on-a");
+        b.broadcastDigest("player-on-b");
+        List<Object[]> digests = new ArrayList<>(proxy.inFlight);
+        proxy.inFlight.clear();
+        for (Object[] delivery : digests) {
+            ((SessionRegistry) delivery[0]).receive((byte[]) delivery[1]);
+        }
+        assertEquals(List.of(), proxy.inFlight);
+    }
+
+    /**
+     * Asserts every registry holds the same sessions, in the same state.
+     */
+    private static void assertConverged(List<SessionRegistry> registries) {
+        Map<UUID, String> expected = describe(registries.get(0));
+        for (SessionRegistry registry : registries) {
+            assertEquals(expected, describe(registry), "Registry " + registry.getInstanceId() + " diverged");
+            assertEquals(expected.size(), registry.size());
+        }
+    }
+
+    private static Map<UUID, String> describe(SessionRegistry registry) {
+        Map<UUID, String> sessions = new TreeMap<>();
+        for (ScreenShareSession session : registry.sessions()) {
+            assertNotNull(registry.get(session.getPlayerId()));
+            sessions.put(session.getPlayerId(), session.getSessionId() + " " + session.getSsServer() + " " +
+                    session.getState() + " " + session.getStateSince());
+        }
+        return sessions;
+    }
+}
@@ -0,0 +1,397 @@
+package com.gabry.screenshare;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.BooleanSupplier;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Frames over a pair of {@link SocketBusTransport}s on Unix-domain sockets (and once over
+ * TCP), including the challenge-response hello: a peer with the wrong secret, or replaying
+ * the answer to another challenge, is rejected and nothing it sends is delivered; the secret
+ * never goes over the wire; connections that never say hello are capped; and a peer that is
+ * not listening yet gets its messages once it is.
+ */
+class SocketBusTransportTest {
+
+    private static final long WAIT_MILLIS = 10_000L;
+    private static final String SECRET = "s3cret";
+    private static final int CHALLENGE_BYTES = 16;
+
+    /**
+     * Records what a server receives and its link changes.
+     */
+    private static final class BusInbound implements Transport.Inbound {
+        final LoopbackTransportTest.RecordingInbound messages = new LoopbackTransportTest.RecordingInbound();
+        final List<String> links = new CopyOnWriteArrayList<>();
+        final List<Integer> malformed = new CopyOnWriteArrayList<>();
+
+        @Override
+        public void receive(PluginMessageCodec.Reader message) {
+            messages.receive(message);
+        }
+
+        @Override
+        public boolean isLocalPlayer(String playerName) {
+            return messages.isLocalPlayer(playerName);
+        }
+
+        @Override
+        public void linkChanged(String server, boolean up, String detail) {
+            links.add(server + (up ? " up" : " down: " + detail));
+        }
+
+        @Override
+        public void malformed(int length, RuntimeException error) {
+            malformed.add(length);
+        }
+    }
+
+    @TempDir
+    Path folder;
+
+    private final List<SocketBusTransport> started = new ArrayList<>();
+
+    @AfterEach
+    void closeAll() {
+        for (SocketBusTransport transport : started) {
+            transport.close();
+        }
+    }
+
+    @Test
+    void framesFlowBetweenAPairOverUnixSockets() throws IOException {
+        Map<String, String> bus = Map.of("lobby", unix("lobby"), "ss-1", unix("ss-1"));
+        BusInbound lobby = new BusInbound();
+        BusInbound ss = new BusInbound();
+        SocketBusTransport lobbyBus = start("lobby", bus, SECRET, lobby);
+        SocketBusTransport ssBus = start("ss-1", bus, SECRET, ss);
+        ss.messages.localPlayers.add("Steve");
+
+        lobbyBus.send("ss-1", LoopbackTransportTest.bytes("handoff"), null);
+        lobbyBus.broadcast(LoopbackTransportTest.bytes("delta"));
+        lobbyBus.sendToPlayer("Steve", LoopbackTransportTest.bytes("snapshot"));
+        lobbyBus.sendToPlayer("Alex", LoopbackTransportTest.bytes("not here"));
+        ssBus.send("LOBBY", LoopbackTransportTest.bytes("ack"), null);
+
+        awaitTicking(() -> ss.messages.received.size() == 3 && lobby.messages.received.size() == 1, lobbyBus, ssBus);
+        assertEquals(List.of("handoff", "delta", "snapshot"), ss.messages.received);
+        assertEquals(List.of("ack"), lobby.messages.received);
+        assertTrue(lobby.links.contains("ss-1 up"), lobby.links.toString());
+        assertTrue(lobbyBus.describe().contains("ss-1 (up)"), lobbyBus.describe());
+    }
+
+    @Test
+    void framesFlowOverTcp() throws IOException {
+        Map<String, String> bus = Map.of("lobby", "127.0.0.1:" + freePort(), "ss-1", "127.0.0.1:" + freePort());
+        BusInbound lobby = new BusInbound();
+        BusInbound ss = new BusInbound();
+        SocketBusTransport lobbyBus = start("lobby", bus, SECRET, lobby);
+        SocketBusTransport ssBus = start("ss-1", bus, SECRET, ss);
+
+        for (int i = 0; i < 1_000; i++) {
+            lobbyBus.broadcast(LoopbackTransportTest.bytes("delta-" + i));
+        }
+        awaitTicking(() -> ss.messages.received.size() == 1_000, lobbyBus, ssBus);
+        for (int i = 0; i < 1_000; i++) {
+            assertEquals("delta-" + i, ss.messages.received.get(i));
+        }
+    }
+
+    @Test
+    void peerWithTheWrongSecretIsRejectedAndItsFramesAreNotDelivered() throws IOException {
+        Map<String, String> bus = Map.of("lobby", unix("lobby"), "ss-1", unix("ss-1"));
+        BusInbound lobby = new BusInbound();
+        BusInbound ss = new BusInbound();
+        // ss-1 listens first, so the lobby's first connection reaches it (a down link is only reported once).
+        SocketBusTransport ssBus = start("ss-1", bus, SECRET, ss);
+        SocketBusTransport lobbyBus = start("lobby", bus, "wrong", lobby);
+
+        lobbyBus.send("ss-1", LoopbackTransportTest.bytes("handoff"), null);
+        awaitTicking(() -> lobby.links.stream().anyMatch(link -> link.startsWith("ss-1 down: rejected by ss-1")), lobbyBus, ssBus);
+        lobbyBus.broadcast(LoopbackTransportTest.bytes("delta"));
+        tickFor(500L, lobbyBus, ssBus);
+
+        assertEquals(List.of(), ss.messages.received);
+        assertTrue(lobbyBus.describe().contains("ss-1 (down)"), lobbyBus.describe());
+        assertTrue(lobby.links.stream().noneMatch(link -> link.equals("ss-1 up")), lobby.links.toString());
+    }
+
+    @Test
+    void nothingButTheHelloIsWrittenUntilThePeerAcceptsIt() throws IOException {
+        // A bare listener standing in for ss-1, so we see exactly what the lobby writes.
+        Map<String, String> bus = Map.of("lobby", unix("lobby"), "ss-1", unix("ss-1"));
+        try (ServerSocketChannel listener = ServerSocketChannel.open(StandardProtocolFamily.UNIX)) {
+            listener.bind(UnixDomainSocketAddress.of(folder.resolve("ss-1.sock")));
+            BusInbound lobby = new BusInbound();
+            SocketBusTransport lobbyBus = start("lobby", bus, SECRET, lobby);
+            lobbyBus.send("ss-1", LoopbackTransportTest.bytes("handoff"), null);
+            lobbyBus.tick();
+
+            try (SocketChannel connection = listener.accept()) {
+                ByteBuffer received = ByteBuffer.allocate(1024);
+                tickFor(200L, lobbyBus);
+                connection.configureBlocking(false);
+                assertEquals(0, connection.read(received)); // Nothing before the challenge
+
+                byte[] challenge = new byte[CHALLENGE_BYTES];
+                challenge[0] = 42;
+                connection.write(ByteBuffer.wrap(challenge));
+                int helloLength = 4 + 1 + (2 + "lobby".length()) + 32;
+                long until = System.currentTimeMillis() + 500L;
+                while (System.currentTimeMillis() < until) {
+                    connection.read(received);
+                    lobbyBus.tick();
+                }
+                assertEquals(helloLength, received.position()); // The batch is still queued
+                assertArrayEquals(hello("lobby", proof(challenge, "lobby", SECRET)),
+                        Arrays.copyOfRange(received.array(), 0, helloLength));
+                assertFalse(new String(received.array(), 0, helloLength, StandardCharsets.ISO_8859_1).contains(SECRET));
+
+                connection.write(ByteBuffer.wrap(new byte[]{1})); // HELLO_ACCEPTED
+                int frameLength = 4 + 1 + "handoff".length();
+                awaitTicking(() -> {
+                    try {
+                        connection.read(received);
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                    return received.position() >= helloLength + frameLength;
+                }, lobbyBus);
+                assertEquals(helloLength + frameLength, received.position());
+                assertEquals("handoff", new String(received.array(), helloLength + 5, "handoff".length(), StandardCharsets.UTF_8));
+            }
+            awaitTicking(() -> lobby.links.contains("ss-1 up"), lobbyBus);
+        }
+    }
+
+    @Test
+    void listenerClosesAConnectionReplayingTheAnswerToAnotherChallenge() throws IOException {
+        Map<String, String> bus = Map.of("ss-1", unix("ss-1"));
+        BusInbound ss = new BusInbound();
+        SocketBusTransport ssBus = start("ss-1", bus, SECRET, ss);
+
+        byte[] recorded;
+        try (SocketChannel first = open("ss-1")) {
+            // A valid answer, eavesdropped on an earlier connection.
+            recorded = hello("lobby", proof(readChallenge(first), "lobby", SECRET));
+        }
+
+        try (SocketChannel channel = open("ss-1")) {
+            readChallenge(channel);
+            byte[] frame = new PluginMessageCodec.Writer(64).writeByte(1).write(LoopbackTransportTest.bytes("forged")).toByteArray();
+            channel.write(ByteBuffer.wrap(new PluginMessageCodec.Writer(128)
+                    .write(recorded)
+                    .writeInt(frame.length).write(frame)
+                    .toByteArray()));
+
+            // No acceptance byte: the listener just closes the connection.
+            ByteBuffer reply = ByteBuffer.allocate(1);
+            assertEquals(-1, channel.read(reply));
+        }
+        tickFor(200L, ssBus);
+        assertEquals(List.of(), ss.messages.received);
+    }
+
+    @Test
+    void malformedFrameIsReportedAndTheFramesAfterItAreStillDelivered() throws IOException {
+        Map<String, String> bus = Map.of("ss-1", unix("ss-1"));
+        BusInbound ss = new BusInbound();
+        SocketBusTransport ssBus = start("ss-1", bus, SECRET, ss);
+        ss.messages.localPlayers.add("Steve");
+
+        try (SocketChannel channel = connectAs("lobby", "ss-1", SECRET)) {
+            byte[] before = new PluginMessageCodec.Writer(64).writeByte(1).write(LoopbackTransportTest.bytes("before")).toByteArray();
+            // A player frame whose name claims 100 bytes: decoding it runs past the end.
+            byte[] truncated = new PluginMessageCodec.Writer(64).writeByte(2).writeShort(100).write(new byte[]{'S', 't'}).toByteArray();
+            byte[] after = new PluginMessageCodec.Writer(64).writeByte(2).writeUTF("Steve").write(LoopbackTransportTest.bytes("after")).toByteArray();
+            channel.write(ByteBuffer.wrap(new PluginMessageCodec.Writer(128)
+                    .writeInt(before.length).write(before)
+                    .writeInt(truncated.length).write(truncated)
+                    .writeInt(after.length).write(after)
+                    .toByteArray()));
+
+            awaitTicking(() -> ss.messages.received.size() == 2, ssBus);
+        }
+        assertEquals(List.of("before", "after"), ss.messages.received);
+        assertEquals(List.of(5), ss.malformed);
+    }
+
+    @Test
+    void messagesWaitForAPeerThatIsNotListeningYet() throws IOException {
+        Map<String, String> bus = Map.of("lobby", unix("lobby"), "ss-1", unix("ss-1"));
+        BusInbound lobby = new BusInbound();
+        SocketBusTransport lobbyBus = start("lobby", bus, SECRET, lobby);
+        for (int i = 0; i < 10; i++) {
+            lobbyBus.send("ss-1", LoopbackTransportTest.bytes("queued-" + i), null);
+            lobbyBus.tick();
+        }
+        awaitTicking(() -> lobby.links.stream().anyMatch(link -> link.startsWith("ss-1 down")), lobbyBus);
+
+        BusInbound ss = new BusInbound();
+        SocketBusTransport ssBus = start("ss-1", bus, SECRET, ss);
+        awaitTicking(() -> ss.messages.received.size() == 10, lobbyBus, ssBus);
+        for (int i = 0; i < 10; i++) {
+            assertEquals("queued-" + i, ss.messages.received.get(i));
+        }
+        assertTrue(lobby.links.contains("ss-1 up"), lobby.links.toString());
+    }
+
+    @Test
+    void malformedAddressesAreRejected() {
+        assertThrows(IllegalArgumentException.class, () -> SocketBusTransport.parseAddress("localhost"));
+        assertThrows(IllegalArgumentException.class, () -> SocketBusTransport.parseAddress("localhost:"));
+        assertThrows(IllegalArgumentException.class, () -> SocketBusTransport.parseAddress("localhost:70000"));
+        assertThrows(IllegalArgumentException.class, () -> SocketBusTransport.parseAddress("unix:"));
+        assertEquals(InetSocketAddress.createUnresolved("::1", 25590), SocketBusTransport.parseAddress("[::1]:25590"));
+    }
+
+    private SocketBusTransport start(String server, Map<String, String> bus, String secret, BusInbound inbound) throws IOException {
+        SocketBusTransport transport = SocketBusTransport.start(server, bus.get(server), bus, secret, inbound);
+        started.add(transport);
+        return transport;
+    }
+
+    @Test
+    void connectionsThatNeverSayHelloAreCapped() throws IOException {
+        Map<String, String> bus = Map.of("ss-1", unix("ss-1"));
+        SocketBusTransport ssBus = start("ss-1", bus, SECRET, new BusInbound());
+        List<SocketChannel> idle = new ArrayList<>();
+        try {
+            for (int i = 0; i < 16; i++) {
+                SocketChannel channel = open("ss-1");
+                idle.add(channel);
+                readChallenge(channel);
+            }
+            try (SocketChannel oneTooMany = open("ss-1")) {
+                assertEquals(-1, oneTooMany.read(ByteBuffer.allocate(CHALLENGE_BYTES))); // Closed without a challenge
+            }
+
+            idle.remove(0).close(); // Frees a slot once the listener sees it closed.
+            awaitTicking(() -> {
+                try (SocketChannel channel = connectAs("lobby", "ss-1", SECRET)) {
+                    return true;
+                } catch (IOException | AssertionError e) {
+                    return false;
+                }
+            }, ssBus);
+        } finally {
+            for (SocketChannel channel : idle) {
+                channel.close();
+            }
+        }
+    }
+
+    private SocketChannel open(String listener) throws IOException {
+        return SocketChannel.open(UnixDomainSocketAddress.of(folder.resolve(listener + ".sock")));
+    }
+
+    private static byte[] readChallenge(SocketChannel channel) throws IOException {
+        ByteBuffer challenge = ByteBuffer.allocate(CHALLENGE_BYTES);
+        while (challenge.hasRemaining()) {
+            if (channel.read(challenge) < 0) {
+                throw new IOException("Closed before the challenge");
+            }
+        }
+        return challenge.array();
+    }
+
+    /**
+     * The answer to a challenge, as {@link SocketBusTransport} computes it.
+     */
+    private static byte[] proof(byte[] challenge, String server, String secret) {
+        try {
+            byte[] key = MessageDigest.getInstance("SHA-256").digest(secret.getBytes(StandardCharsets.UTF_8));
+            Mac mac = Mac.getInstance("HmacSHA256");
+            mac.init(new SecretKeySpec(key, "HmacSHA256"));
+            mac.update(challenge);
+            return mac.doFinal(server.getBytes(StandardCharsets.UTF_8));
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * @return A hello frame, length prefix included.
+     */
+    private static byte[] hello(String server, byte[] proof) {
+        byte[] body = new PluginMessageCodec.Writer(64).writeByte(0).writeUTF(server).write(proof).toByteArray();
+        return new PluginMessageCodec.Writer(64).writeInt(body.length).write(body).toByteArray();
+    }
+
+    /**
+     * Opens a raw connection to a server's listener and completes the hello, as a peer would.
+     */
+    private SocketChannel connectAs(String server, String listener, String secret) throws IOException {
+        SocketChannel channel = open(listener);
+        channel.write(ByteBuffer.wrap(hello(server, proof(readChallenge(channel), server, secret))));
+        ByteBuffer accepted = ByteBuffer.allocate(1);
+        assertEquals(1, channel.read(accepted));
+        assertEquals(1, accepted.get(0));
+        return channel;
+    }
+
+    private String unix(String server) {
+        return "unix:" + folder.resolve(server + ".sock");
+    }
+
+    private static int freePort() throws IOException {
+        try (ServerSocket socket = new ServerSocket(0)) {
+            return socket.getLocalPort();
+        }
+    }
+
+    /**
+     * Ticks the transports, as the main thread would, until the condition holds.
+     */
+    private static void awaitTicking(BooleanSupplier condition, SocketBusTransport... transports) {
+        long deadline = System.currentTimeMillis() + WAIT_MILLIS;
+        while (!condition.getAsBoolean()) {
+            assertTrue(System.currentTimeMillis() < deadline, "Timed out waiting on the socket bus");
+            tickFor(10L, transports);
+        }
+    }
+
+    private static void tickFor(long millis, SocketBusTransport... transports) {
+        long until = System.currentTimeMillis() + millis;
+        do {
+            for (SocketBusTransport transport : transports) {
+                transport.tick();
+            }
+            try {
+                Thread.sleep(5L);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        } while (System.currentTimeMillis() < until);
+    }
+}
@@ -0,0 +1,192 @@
+package com.gabry.screenshare;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * {@link TimingWheel} driven tick by tick: deadlines on and around revolution boundaries,
+ * cancellation (including of a timer already taken out of its slot to fire), the pending
+ * count, and tasks that schedule or cancel timers while the wheel is advancing.
+ */
+class TimingWheelTest {
+
+    private static final int SLOTS = 8;
+
+    private final TimingWheel wheel = new TimingWheel(SLOTS);
+    private final List<String> fired = new ArrayList<>();
+
+    /**
+     * Advances the wheel until {@code label} fires.
+     *
+     * @return The number of advances it took.
+     */
+    private int ticksUntil(String label, int limit) {
+        for (int ticks = 1; ticks <= limit; ticks++) {
+            wheel.advance();
+            if (fired.contains(label)) {
+                return ticks;
+            }
+        }
+        return -1;
+    }
+
+    private TimingWheel.Timeout schedule(long delayTicks, String label) {
+        return wheel.schedule(delayTicks, () -> fired.add(label));
+    }
+
+    @Test
+    void timerFiresAfterExactlyItsDelay() {
+        schedule(1, "one");
+        assertEquals(1, ticksUntil("one", 100));
+        schedule(3, "three");
+        assertEquals(3, ticksUntil("three", 100));
+    }
+
+    @Test
+    void delaysBelowOneFireOnTheNextAdvance() {
+        schedule(0, "zero");
+        schedule(-5, "negative");
+        assertEquals(2, wheel.advance());
+        assertEquals(List.of("zero", "negative"), fired);
+    }
+
+    @Test
+    void delayOfOneRevolutionFiresOnThatTick() {
+        schedule(SLOTS, "revolution");
+        assertEquals(SLOTS, ticksUntil("revolution", 100));
+    }
+
+    @Test
+    void delayOfOneRevolutionPlusOneWaitsForTheSecondVisitOfItsSlot() {
+        schedule(SLOTS + 1, "revolution+1");
+        assertEquals(SLOTS + 1, ticksUntil("revolution+1", 100));
+    }
+
+    @Test
+    void delaysOfSeveralRevolutionsFireOnTime() {
+        for (int revolutions = 2; revolutions <= 5; revolutions++) {
+            for (int offset = -1; offset <= 1; offset++) {
+                TimingWheel fresh = new TimingWheel(SLOTS);
+                boolean[] done = {false};
+                int delay = revolutions * SLOTS + offset;
+                for (int tick = 0; tick < 3; tick++) {
+                    fresh.advance(); // Start away from tick 0, so deadlines wrap around the wheel.
+                }
+                fresh.schedule(delay, () -> done[0] = true);
+                int ticks = 0;
+                while (!done[0] && ticks < 100) {
+                    fresh.advance();
+                    ticks++;
+                }
+                assertEquals(delay, ticks, "delay " + delay);
+            }
+        }
+    }
+
+    @Test
+    void timersSharingASlotFireInTheOrderTheyWereScheduled() {
+        schedule(2 + SLOTS, "later round");
+        schedule(2, "a");
+        schedule(2, "b");
+        schedule(2, "c");
+        wheel.advance();
+        assertEquals(3, wheel.advance());
+        assertEquals(List.of("a", "b", "c"), fired);
+        assertEquals(1, wheel.size());
+    }
+
+    @Test
+    void cancelledTimerNeverFires() {
+        TimingWheel.Timeout timeout = schedule(2, "cancelled");
+        assertTrue(timeout.isPending());
+        assertTrue(timeout.cancel());
+        assertFalse(timeout.isPending());
+        assertFalse(timeout.cancel());
+        assertEquals(-1, ticksUntil("cancelled", 3 * SLOTS));
+    }
+
+    @Test
+    void cancellingAnotherDueTimerWhileFiringSkipsIt() {
+        TimingWheel.Timeout[] second = new TimingWheel.Timeout[1];
+        wheel.schedule(1, () -> {
+            fired.add("first");
+            assertTrue(second[0].isPending()); // Taken out of its slot to fire, not run yet.
+            assertTrue(second[0].cancel());
+        });
+        second[0] = schedule(1, "second");
+        assertEquals(1, wheel.advance());
+        assertEquals(List.of("first"), fired);
+        assertFalse(second[0].isPending());
+        assertEquals(0, wheel.size());
+    }
+
+    @Test
+    void timerCancellingItselfWhileRunningIsAlreadyDone() {
+        TimingWheel.Timeout[] self = new TimingWheel.Timeout[1];
+        boolean[] cancelled = {true};
+        self[0] = wheel.schedule(1, () -> cancelled[0] = self[0].cancel());
+        wheel.advance();
+        assertFalse(cancelled[0]);
+    }
+
+    @Test
+    void sizeCountsPendingTimersOnly() {
+        assertEquals(0, wheel.size());
+        TimingWheel.Timeout a = schedule(1, "a");
+        schedule(SLOTS * 3, "b");
+        TimingWheel.Timeout c = schedule(5, "c");
+        assertEquals(3, wheel.size());
+
+        c.cancel();
+        assertEquals(2, wheel.size());
+        c.cancel();
+        assertEquals(2, wheel.size());
+
+        wheel.advance();
+        assertEquals(1, wheel.size());
+        assertFalse(a.cancel());
+        assertEquals(1, wheel.size());
+
+        ticksUntil("b", SLOTS * 3);
+        assertEquals(0, wheel.size());
+    }
+
+    @Test
+    void tasksCanScheduleTimersWhileTheWheelAdvances() {
+        wheel.schedule(1, () -> {
+            fired.add("first");
+            schedule(0, "next tick");
+            schedule(SLOTS, "one revolution later"); // Lands in the slot being fired.
+        });
+        assertEquals(1, wheel.advance());
+        assertEquals(List.of("first"), fired);
+        assertEquals(2, wheel.size());
+
+        assertEquals(1, wheel.advance());
+        assertEquals(List.of("first", "next tick"), fired);
+        assertEquals(SLOTS - 1, ticksUntil("one revolution later", 100));
+        assertEquals(0, wheel.size());
+    }
+
+    @Test
+    void rescheduleFromItsOwnTaskRepeats() {
+        int[] runs = {0};
+        Runnable[] task = new Runnable[1];
+        task[0] = () -> {
+            runs[0]++;
+            wheel.schedule(3, task[0]);
+        };
+        wheel.schedule(3, task[0]);
+        for (int tick = 0; tick < 30; tick++) {
+            wheel.advance();
+        }
+        assertEquals(10, runs[0]);
+        assertEquals(1, wheel.size());
+    }
+}